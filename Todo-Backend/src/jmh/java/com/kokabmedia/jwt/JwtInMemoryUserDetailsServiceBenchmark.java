@@ -0,0 +1,83 @@
+package com.kokabmedia.jwt;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.springframework.core.io.DefaultResourceLoader;
+import org.springframework.security.core.userdetails.UsernameNotFoundException;
+import org.springframework.test.util.ReflectionTestUtils;
+
+/*
+ * JMH benchmark of JwtInMemoryUserDetailsService.loadUserByUsername(), which the
+ * authorization filter calls for every request with a token, for a known and an
+ * unknown username and different numbers of users in the users file.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class JwtInMemoryUserDetailsServiceBenchmark {
+
+	@Param({ "2", "1000", "100000" })
+	private int users;
+
+	private JwtInMemoryUserDetailsService userDetailsService;
+	private Path usersFile;
+	private String knownUsername;
+
+	@Setup
+	public void setUp() throws IOException {
+		List<String> lines = new ArrayList<>(users);
+		for (int i = 0; i < users; i++) {
+			lines.add(i + ",user" + i + ",$2a$10$3zHzb.Npv1hfZbLEU5qsdOju/tk2je6W6PnNnY.c1ujWPcZh4PL6e,ROLE_USER_2");
+		}
+		usersFile = Files.createTempFile("jwt-users", ".csv");
+		Files.write(usersFile, lines);
+
+		userDetailsService = new JwtInMemoryUserDetailsService();
+		ReflectionTestUtils.setField(userDetailsService, "resourceLoader", new DefaultResourceLoader());
+		ReflectionTestUtils.setField(userDetailsService, "usersFile", usersFile.toUri().toString());
+		userDetailsService.loadUsers();
+
+		knownUsername = "user" + (users / 2);
+	}
+
+	@TearDown
+	public void tearDown() throws IOException {
+		Files.deleteIfExists(usersFile);
+	}
+
+	@Benchmark
+	public Object loadKnownUser() {
+		return userDetailsService.loadUserByUsername(knownUsername);
+	}
+
+	@Benchmark
+	public void loadUnknownUser(Blackhole blackhole) {
+		try {
+			blackhole.consume(userDetailsService.loadUserByUsername("unknown"));
+		} catch (UsernameNotFoundException e) {
+			blackhole.consume(e);
+		}
+	}
+
+}
@@ -0,0 +1,86 @@
+package com.kokabmedia.jwt;
+
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+/*
+ * JMH benchmark of the JWT work done for every request, generateToken() for the
+ * /authenticate endpoint and the checks of JwtTokenAuthorizationOncePerRequestFilter.
+ *
+ * validateTokenThreeParses rebuilds what the filter used to do with the getters that
+ * parse and verify the token on every call: getUsernameFromToken() in the filter, then
+ * the old validateToken(String, UserDetails) with getUsernameFromToken() again and
+ * getExpirationDateFromToken() for the expiry check. validateTokenParseOnce verifies the token a single time and runs all checks on the
+ * JwtTokenClaims, validateTokenCached takes the claims from the JwtVerifiedTokenCache.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class JwtTokenUtilBenchmark {
+
+	private JwtTokenUtil jwtTokenUtil;
+	private JwtTokenUtil cachingJwtTokenUtil;
+	private JwtUserDetails user;
+	private String token;
+
+	@Setup
+	public void setUp() {
+		jwtTokenUtil = newJwtTokenUtil();
+		cachingJwtTokenUtil = newJwtTokenUtil();
+		ReflectionTestUtils.setField(cachingJwtTokenUtil, "verifiedTokenCache",
+				new JwtVerifiedTokenCache(new SimpleMeterRegistry(), 10_000));
+
+		user = new JwtUserDetails(1L, "kokabmedia", "password", "ROLE_USER_2");
+		token = jwtTokenUtil.generateToken(user);
+	}
+
+	private static JwtTokenUtil newJwtTokenUtil() {
+		JwtTokenUtil jwtTokenUtil = new JwtTokenUtil();
+		ReflectionTestUtils.setField(jwtTokenUtil, "secret", "mySecret");
+		ReflectionTestUtils.setField(jwtTokenUtil, "expiration", 604800L);
+		return jwtTokenUtil;
+	}
+
+	@Benchmark
+	public String generateToken() {
+		return jwtTokenUtil.generateToken(user);
+	}
+
+	@Benchmark
+	public boolean validateTokenThreeParses() {
+		String username = jwtTokenUtil.getUsernameFromToken(token);
+		if (username == null) {
+			return false;
+		}
+		return jwtTokenUtil.getUsernameFromToken(token).equals(user.getUsername())
+				&& !jwtTokenUtil.getExpirationDateFromToken(token).before(new Date());
+	}
+
+	@Benchmark
+	public boolean validateTokenParseOnce() {
+		return jwtTokenUtil.validateToken(jwtTokenUtil.getVerifiedClaimsFromToken(token), user);
+	}
+
+	@Benchmark
+	public boolean validateTokenCached() {
+		return cachingJwtTokenUtil.validateToken(cachingJwtTokenUtil.getVerifiedClaimsFromToken(token), user);
+	}
+
+}
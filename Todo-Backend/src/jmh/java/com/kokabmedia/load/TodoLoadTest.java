@@ -0,0 +1,307 @@
+package com.kokabmedia.load;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.HdrHistogram.ConcurrentHistogram;
+import org.HdrHistogram.Histogram;
+import org.springframework.security.crypto.bcrypt.BCryptPasswordEncoder;
+
+import com.kokabmedia.threads.VirtualThreadConfiguration;
+
+/*
+ * Load test that compares the request throughput and latency of the application with
+ * the Tomcat thread pool (platform), with virtual threads (virtual, see
+ * VirtualThreadConfiguration) and of the reactive application on Netty with R2DBC
+ * (reactive, see ReactiveTodoApplication) for a number of concurrent clients.
+ *
+ * For every mode the application is started in its own JVM (TodoLoadTestServer), the
+ * clients of this JVM then each send one request after the other for the warmup and the
+ * measurement time. Most requests load the todo list of a user with the read cache
+ * turned off, every authenticate-every-th request authenticates with BCrypt. Every
+ * database statement waits db-latency-ms like a database on another machine would.
+ *
+ * The memory of a connection is the growth of the resident memory (VmRSS) and of the
+ * threads of the application JVM from before the first request to the highest value
+ * during the measurement, divided by the number of clients. It includes the thread
+ * stacks that a thread per request needs and is only measured on Linux.
+ *
+ * Run it with the benchmark profile, for example:
+ *
+ *   mvn -P benchmark verify -Dbenchmark.main=com.kokabmedia.load.TodoLoadTest \
+ *       -Djmh.args="--modes=platform,virtual,reactive --clients=1000,10000 --duration=30"
+ *
+ * The virtual mode needs Java 21, on an older Java it is reported as not measured. For
+ * 10000 clients the open files limit (ulimit -n) of both JVMs must be above 10000, the
+ * results are more meaningful when the clients run on another machine than the
+ * application.
+ *
+ * The application is started with server.tomcat.max-connections=20000 and
+ * server.tomcat.accept-count=10000, the Tomcat default of 8192 connections would keep
+ * the clients above it waiting for a connection. Only the requests that start and end
+ * within the measurement are counted, so the duration has to be longer than the latency
+ * under load. On a small machine the latency at 10000 clients is tens of seconds, run
+ * it with for example --clients=10000 --warmup=60 --duration=120.
+ *
+ * Results on a single core machine with Java 17, the clients and the application share
+ * the CPU, 20 ms database latency:
+ *
+ *   platform   1000 clients   218 req/s  p99  5.3 s
+ *   platform  10000 clients   295 req/s  p99 38.9 s  (--warmup=60 --duration=120)
+ *   reactive  10000 clients   660 req/s  p99 24.2 s  (--warmup=60 --duration=120)
+ *   virtual   not measured, there was no Java 21 on that machine
+ *
+ * The memory of a connection on the same machine with 1000 clients:
+ *
+ *   platform  104 req/s  rss 275->362 MB  89 KB/conn  threads 31->222
+ *   reactive  131 req/s  rss 225->300 MB  77 KB/conn  threads 22->29
+ */
+public final class TodoLoadTest {
+
+	private static final String USERNAME = "load";
+	private static final String PASSWORD = "load-password";
+	private static final long REQUEST_TIMEOUT_SECONDS = 60;
+	private static final Pattern TOKEN = Pattern.compile("\"token\"\\s*:\\s*\"([^\"]+)\"");
+
+	private final Map<String, String> options;
+
+	private TodoLoadTest(Map<String, String> options) {
+		this.options = options;
+	}
+
+	public static void main(String[] args) throws Exception {
+		Map<String, String> options = new HashMap<>(Map.of("modes", "platform,virtual,reactive", "clients", "1000,10000",
+				"warmup", "10", "duration", "30", "db-latency-ms", "20", "pool-size", "100", "authenticate-every",
+				"1000"));
+		for (String arg : args) {
+			if (!arg.startsWith("--") || !arg.contains("=")) {
+				throw new IllegalArgumentException("Expected --option=value but got " + arg);
+			}
+			options.put(arg.substring(2, arg.indexOf('=')), arg.substring(arg.indexOf('=') + 1));
+		}
+		new TodoLoadTest(options).run();
+	}
+
+	private void run() throws Exception {
+		Path usersFile = Files.createTempFile("load-test-users", ".csv");
+		Files.writeString(usersFile,
+				"1," + USERNAME + "," + new BCryptPasswordEncoder().encode(PASSWORD) + ",ROLE_USER_2\n");
+
+		List<String> results = new ArrayList<>();
+		for (String mode : options.get("modes").split(",")) {
+			if (mode.equals("virtual") && !VirtualThreadConfiguration.isSupported()) {
+				results.add(String.format("mode=%-8s not measured, virtual threads need Java 21 but this is %s", mode,
+						Runtime.version()));
+				System.out.println(results.get(results.size() - 1));
+				continue;
+			}
+			Process server = startServer(mode, usersFile);
+			try {
+				int port = awaitPort(server);
+				for (String clients : options.get("clients").split(",")) {
+					results.add(String.format("mode=%-8s clients=%-6s %s", mode, clients,
+							new Run(port, Integer.parseInt(clients), server.pid()).execute()));
+					System.out.println(results.get(results.size() - 1));
+				}
+			} finally {
+				server.destroy();
+				server.waitFor(30, TimeUnit.SECONDS);
+			}
+		}
+		Files.deleteIfExists(usersFile);
+
+		System.out.println();
+		System.out.println("Load test " + options);
+		results.forEach(System.out::println);
+	}
+
+	private Process startServer(String mode, Path usersFile) throws IOException {
+		if (!mode.equals("platform") && !mode.equals("virtual") && !mode.equals("reactive")) {
+			throw new IllegalArgumentException("Unknown mode " + mode);
+		}
+		List<String> command = new ArrayList<>(Arrays.asList(
+				ProcessHandle.current().info().command().orElse("java"), "-Dspring.devtools.restart.enabled=false",
+				"-cp", System.getProperty("java.class.path"), TodoLoadTestServer.class.getName(),
+				"--server.port=0", "--spring.main.banner-mode=off", "--logging.level.root=warn",
+				"--spring.threads.virtual.enabled=" + mode.equals("virtual"),
+				"--load.reactive=" + mode.equals("reactive"),
+				"--spring.datasource.hikari.maximum-pool-size=" + options.get("pool-size"),
+				"--spring.r2dbc.pool.max-size=" + options.get("pool-size"),
+				"--server.tomcat.max-connections=20000", "--server.tomcat.accept-count=10000",
+				"--todo.cache.enabled=false", "--todo.sql.log.time-threshold-ms=100000",
+				"--todo.sql.log.statement-threshold=100000",
+				"--load.db-latency-ms=" + options.get("db-latency-ms"),
+				"--jwt.users.file=" + usersFile.toUri()));
+		return new ProcessBuilder(command).redirectError(ProcessBuilder.Redirect.INHERIT).start();
+	}
+
+	private static int awaitPort(Process server) throws IOException {
+		BufferedReader output = new BufferedReader(
+				new InputStreamReader(server.getInputStream(), StandardCharsets.UTF_8));
+		String line;
+		while ((line = output.readLine()) != null) {
+			if (line.startsWith(TodoLoadTestServer.PORT_LINE)) {
+				return Integer.parseInt(line.substring(TodoLoadTestServer.PORT_LINE.length()).trim());
+			}
+			System.out.println(line);
+		}
+		server.destroy();
+		throw new IllegalStateException("The load test server did not start");
+	}
+
+	/*
+	 * One warmup and measurement with a fixed number of clients.
+	 */
+	private class Run {
+
+		private final int port;
+		private final int clients;
+		private final long serverPid;
+		private final AtomicLong peakRssKb = new AtomicLong();
+		private final AtomicLong peakThreads = new AtomicLong();
+		private final int authenticateEvery = Integer.parseInt(options.get("authenticate-every"));
+		private final HttpClient http;
+		private final ExecutorService httpExecutor = Executors.newFixedThreadPool(4);
+		private final Histogram latencies = new ConcurrentHistogram(TimeUnit.MINUTES.toMicros(2), 3);
+		private final AtomicLong requests = new AtomicLong();
+		private final AtomicLong errors = new AtomicLong();
+		private final CountDownLatch finished;
+		private String token;
+		private long measureStartNanos;
+		private long endNanos;
+
+		private Run(int port, int clients, long serverPid) {
+			this.port = port;
+			this.clients = clients;
+			this.serverPid = serverPid;
+			this.finished = new CountDownLatch(clients);
+			this.http = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1)
+					.connectTimeout(Duration.ofSeconds(30)).executor(httpExecutor).build();
+		}
+
+		private String execute() throws Exception {
+			HttpResponse<String> authentication = http.send(authenticateRequest(), HttpResponse.BodyHandlers.ofString());
+			Matcher matcher = TOKEN.matcher(authentication.body());
+			if (!matcher.find()) {
+				throw new IllegalStateException("Authentication failed: " + authentication.body());
+			}
+			token = matcher.group(1);
+
+			Map<String, Long> idle = serverStatus();
+			long start = System.nanoTime();
+			measureStartNanos = start + TimeUnit.SECONDS.toNanos(Long.parseLong(options.get("warmup")));
+			endNanos = measureStartNanos + TimeUnit.SECONDS.toNanos(Long.parseLong(options.get("duration")));
+
+			ScheduledExecutorService sampler = Executors.newSingleThreadScheduledExecutor();
+			sampler.scheduleAtFixedRate(() -> {
+				if (System.nanoTime() >= measureStartNanos && System.nanoTime() <= endNanos) {
+					Map<String, Long> status = serverStatus();
+					peakRssKb.accumulateAndGet(status.get("VmRSS"), Math::max);
+					peakThreads.accumulateAndGet(status.get("Threads"), Math::max);
+				}
+			}, 0, 1, TimeUnit.SECONDS);
+
+			// The clients are started over about a second so the connections are not all opened at once
+			for (int client = 0; client < clients; client++) {
+				send(client, 0);
+				if (client % 100 == 99) {
+					Thread.sleep(10);
+				}
+			}
+			// The requests still running at the end may take up to their timeout
+			finished.await(TimeUnit.NANOSECONDS.toSeconds(endNanos - System.nanoTime()) + REQUEST_TIMEOUT_SECONDS + 10,
+					TimeUnit.SECONDS);
+			httpExecutor.shutdownNow();
+			sampler.shutdownNow();
+
+			double seconds = (endNanos - measureStartNanos) / 1e9;
+			return String.format("requests/s=%-8.0f p50=%-8.1f p99=%-8.1f p99.9=%-8.1f max=%-8.1f errors=%-6d"
+					+ " rss-mb=%d->%-5d kb/connection=%-7.1f threads=%d->%d", requests.get() / seconds,
+					millis(latencies.getValueAtPercentile(50)), millis(latencies.getValueAtPercentile(99)),
+					millis(latencies.getValueAtPercentile(99.9)), millis(latencies.getMaxValue()), errors.get(),
+					idle.get("VmRSS") / 1024, peakRssKb.get() / 1024,
+					(peakRssKb.get() - idle.get("VmRSS")) / (double) clients, idle.get("Threads"), peakThreads.get());
+		}
+
+		/*
+		 * The resident memory in kB (VmRSS) and the number of threads (Threads) of the
+		 * application JVM from /proc, 0 where /proc is not available.
+		 */
+		private Map<String, Long> serverStatus() {
+			Map<String, Long> status = new HashMap<>(Map.of("VmRSS", 0L, "Threads", 0L));
+			try {
+				for (String line : Files.readAllLines(Path.of("/proc", Long.toString(serverPid), "status"))) {
+					String name = line.substring(0, Math.max(line.indexOf(':'), 0));
+					if (status.containsKey(name)) {
+						status.put(name, Long.parseLong(line.substring(line.indexOf(':') + 1).replace("kB", "").trim()));
+					}
+				}
+			} catch (IOException e) {
+				// Not on Linux
+			}
+			return status;
+		}
+
+		private void send(int client, long count) {
+			long start = System.nanoTime();
+			if (start >= endNanos) {
+				finished.countDown();
+				return;
+			}
+			HttpRequest request = authenticateEvery > 0 && (client + count) % authenticateEvery == 0
+					? authenticateRequest()
+					: HttpRequest.newBuilder(uri("/jpa/users/load-user" + (client % TodoLoadTestServer.USERS) + "/todos"))
+							.header("Authorization", "Bearer " + token).timeout(Duration.ofSeconds(REQUEST_TIMEOUT_SECONDS)).build();
+
+			http.sendAsync(request, HttpResponse.BodyHandlers.discarding()).whenComplete((response, error) -> {
+				if (start >= measureStartNanos && System.nanoTime() <= endNanos) {
+					if (error != null || response.statusCode() != 200) {
+						errors.incrementAndGet();
+					} else {
+						requests.incrementAndGet();
+						latencies.recordValue(TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - start));
+					}
+				}
+				send(client, count + 1);
+			});
+		}
+
+		private HttpRequest authenticateRequest() {
+			return HttpRequest.newBuilder(uri("/authenticate")).header("Content-Type", "application/json")
+					.timeout(Duration.ofSeconds(REQUEST_TIMEOUT_SECONDS)).POST(HttpRequest.BodyPublishers.ofString(
+							"{\"username\":\"" + USERNAME + "\",\"password\":\"" + PASSWORD + "\"}"))
+					.build();
+		}
+
+		private URI uri(String path) {
+			return URI.create("http://localhost:" + port + path);
+		}
+
+		private double millis(long micros) {
+			return micros / 1000.0;
+		}
+	}
+
+}
@@ -0,0 +1,176 @@
+package com.kokabmedia.load;
+
+import java.io.ByteArrayInputStream;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.Statement;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Date;
+
+import javax.sql.DataSource;
+
+import org.reactivestreams.Publisher;
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.boot.r2dbc.OptionsCapableConnectionFactory;
+import org.springframework.boot.web.context.WebServerApplicationContext;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import com.kokabmedia.RestfulWebServiceAngularApplication;
+import com.kokabmedia.reactive.ReactiveTodoApplication;
+import com.kokabmedia.reactive.ReactiveTodoService;
+import com.kokabmedia.todo.Todo;
+import com.kokabmedia.todo.TodoImportService;
+
+import io.r2dbc.spi.ConnectionFactory;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+/*
+ * Starts the application for TodoLoadTest in its own JVM, seeds the todos of the load
+ * test users and prints the port of the web server on a line of its own. With the
+ * --load.reactive=true argument the reactive application (ReactiveTodoApplication) is
+ * started instead of the servlet application.
+ *
+ * With load.db-latency-ms every executed JDBC statement waits that long before it runs,
+ * like a database on another machine would. The application with H2 in memory otherwise
+ * never waits for the database and threads would not be blocked by it. An R2DBC
+ * statement of the reactive application waits just as long, but on a timer instead of
+ * a sleeping thread. The seeding itself runs without the latency.
+ */
+public final class TodoLoadTestServer {
+
+	static final String PORT_LINE = "LOAD_TEST_SERVER_PORT=";
+	static final int USERS = 100;
+	static final int TODOS_PER_USER = 20;
+
+	private TodoLoadTestServer() {
+	}
+
+	public static void main(String[] args) {
+		boolean reactive = Arrays.asList(args).contains("--load.reactive=true");
+		DatabaseLatency databaseLatency = new DatabaseLatency();
+		ConfigurableApplicationContext context = (reactive
+				? new SpringApplicationBuilder(ReactiveTodoApplication.class).profiles(ReactiveTodoApplication.PROFILE)
+				: new SpringApplicationBuilder(RestfulWebServiceAngularApplication.class))
+				.initializers(initialized -> initialized.getBeanFactory().addBeanPostProcessor(databaseLatency))
+				.run(args);
+
+		if (reactive) {
+			seedReactive(context.getBean(ReactiveTodoService.class));
+		} else {
+			seed(context.getBean(TodoImportService.class));
+		}
+		databaseLatency.latencyMillis = context.getEnvironment().getProperty("load.db-latency-ms", Long.class, 0L);
+
+		System.out.println(PORT_LINE + ((WebServerApplicationContext) context).getWebServer().getPort());
+		System.out.flush();
+	}
+
+	private static void seed(TodoImportService todoImportService) {
+		for (int user = 0; user < USERS; user++) {
+			StringBuilder todos = new StringBuilder();
+			for (int i = 0; i < TODOS_PER_USER; i++) {
+				todos.append("{\"description\":\"Load test todo ").append(i)
+						.append("\",\"targetDate\":\"2021-11-01T00:00:00.000+00:00\"}\n");
+			}
+			todoImportService.importTodos("load-user" + user, TodoImportService.Format.NDJSON,
+					new ByteArrayInputStream(todos.toString().getBytes(StandardCharsets.UTF_8)), report -> {
+					});
+		}
+	}
+
+	private static void seedReactive(ReactiveTodoService reactiveTodoService) {
+		Flux.range(0, USERS * TODOS_PER_USER)
+				.concatMap(i -> reactiveTodoService.create("load-user" + i / TODOS_PER_USER,
+						new Todo(-1, null, "Load test todo " + i % TODOS_PER_USER, new Date(), false)))
+				.blockLast();
+	}
+
+	/*
+	 * Wraps the DataSource or the R2DBC ConnectionFactory so the statements of their
+	 * connections wait before they are executed, once latencyMillis has been set.
+	 */
+	private static class DatabaseLatency implements BeanPostProcessor {
+
+		private volatile long latencyMillis;
+
+		@Override
+		public Object postProcessAfterInitialization(Object bean, String beanName) {
+			if (bean instanceof DataSource) {
+				return proxy(DataSource.class, bean);
+			}
+			// Spring Boot needs the options of the ConnectionFactory it has created, like the database type
+			if (bean instanceof OptionsCapableConnectionFactory) {
+				OptionsCapableConnectionFactory connectionFactory = (OptionsCapableConnectionFactory) bean;
+				return new OptionsCapableConnectionFactory(connectionFactory.getOptions(),
+						proxyR2dbc(ConnectionFactory.class, connectionFactory.unwrap()));
+			}
+			return bean;
+		}
+
+		@SuppressWarnings("unchecked")
+		private <T> T proxy(Class<T> type, Object target) {
+			return (T) Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[] { type },
+					(proxy, method, args) -> {
+						if (Statement.class.isAssignableFrom(type) && method.getName().startsWith("execute")
+								&& latencyMillis > 0) {
+							Thread.sleep(latencyMillis);
+						}
+						Object result = invoke(method, target, args);
+						if (result instanceof Connection && method.getName().equals("getConnection")) {
+							return proxy(Connection.class, result);
+						}
+						if (result instanceof Statement && method.getReturnType().isInterface()) {
+							return proxy(method.getReturnType(), result);
+						}
+						return result;
+					});
+		}
+
+		@SuppressWarnings("unchecked")
+		private <T> T proxyR2dbc(Class<T> type, Object target) {
+			return (T) Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[] { type },
+					(proxy, method, args) -> {
+						// Executed once the latency is over, not when the publisher is created
+						if (type == io.r2dbc.spi.Statement.class && method.getName().equals("execute")
+								&& latencyMillis > 0) {
+							return Mono.delay(Duration.ofMillis(latencyMillis))
+									.thenMany(Flux.defer(() -> (Publisher<?>) invokeUnchecked(method, target, args)));
+						}
+						Object result = invoke(method, target, args);
+						if (type == ConnectionFactory.class && method.getName().equals("create")) {
+							return Mono.from((Publisher<?>) result)
+									.map(connection -> proxyR2dbc(io.r2dbc.spi.Connection.class, connection));
+						}
+						if (method.getReturnType() == io.r2dbc.spi.Statement.class) {
+							return result == target ? proxy : proxyR2dbc(io.r2dbc.spi.Statement.class, result);
+						}
+						return result;
+					});
+		}
+
+		private static Object invokeUnchecked(Method method, Object target, Object[] args) {
+			try {
+				return invoke(method, target, args);
+			} catch (RuntimeException | Error e) {
+				throw e;
+			} catch (Throwable e) {
+				throw new IllegalStateException(e);
+			}
+		}
+
+		private static Object invoke(Method method, Object target, Object[] args) throws Throwable {
+			try {
+				return method.invoke(target, args);
+			} catch (InvocationTargetException e) {
+				throw e.getCause();
+			}
+		}
+	}
+
+}
@@ -0,0 +1,75 @@
+package com.kokabmedia.todo;
+
+import java.util.Date;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/*
+ * JMH benchmark of the in memory TodoHardcodedService for different numbers of stored
+ * todos, 100 todos per user. The benchmarks run with 4 threads because the service is
+ * shared by all requests.
+ *
+ * save() replaces a stored todo of the same user so the number of todos stays the same
+ * during the measurement.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(4)
+public class TodoHardcodedServiceBenchmark {
+
+	private static final int TODOS_PER_USER = 100;
+
+	@Param({ "100", "10000", "100000" })
+	private int todos;
+
+	private TodoHardcodedService todoService;
+	private long firstId;
+
+	@Setup
+	public void setUp() {
+		todoService = new TodoHardcodedService();
+		firstId = todoService.save(new Todo(0, "user0", "Todo 0", new Date(), false)).getId();
+		for (int i = 1; i < todos; i++) {
+			todoService.save(new Todo(0, "user" + (i / TODOS_PER_USER), "Todo " + i, new Date(), false));
+		}
+	}
+
+	private long randomIndex() {
+		return ThreadLocalRandom.current().nextInt(todos);
+	}
+
+	@Benchmark
+	public Todo findById() {
+		return todoService.findById(firstId + randomIndex());
+	}
+
+	@Benchmark
+	public Todo save() {
+		long index = randomIndex();
+		return todoService.save(new Todo(firstId + index, "user" + (index / TODOS_PER_USER), "Updated todo " + index,
+				new Date(), true));
+	}
+
+	@Benchmark
+	public Object findByUsername() {
+		return todoService.findByUsername("user" + (randomIndex() / TODOS_PER_USER));
+	}
+
+}
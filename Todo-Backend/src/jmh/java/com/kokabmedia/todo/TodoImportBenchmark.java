@@ -0,0 +1,79 @@
+package com.kokabmedia.todo;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.context.ConfigurableApplicationContext;
+
+/*
+ * JMH benchmark of how many todo lines per second TodoImportService imports into H2 for
+ * different chunk sizes, the score is in lines per second.
+ *
+ * Every invocation imports the same 100000 NDJSON or CSV lines for the user.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 3, time = 5)
+@Fork(1)
+public class TodoImportBenchmark {
+
+	private static final int LINES = 100_000;
+
+	@Param({ "NDJSON", "CSV" })
+	private TodoImportService.Format format;
+
+	@Param({ "1000", "5000", "10000" })
+	private int chunkSize;
+
+	private ConfigurableApplicationContext context;
+	private TodoImportService todoImportService;
+	private byte[] body;
+
+	@Setup
+	public void setUp() {
+		context = TodoJpaBenchmarkContext.start("import-" + format + "-" + chunkSize,
+				"todo.import.chunk-size=" + chunkSize, "logging.level.com.kokabmedia=warn");
+		todoImportService = context.getBean(TodoImportService.class);
+
+		StringBuilder lines = new StringBuilder(format == TodoImportService.Format.CSV ? "description,targetDate,done\n" : "");
+		for (int i = 0; i < LINES; i++) {
+			if (format == TodoImportService.Format.CSV) {
+				lines.append("Imported todo ").append(i).append(",2021-11-01,").append(i % 2 == 0).append('\n');
+			} else {
+				lines.append("{\"description\":\"Imported todo ").append(i)
+						.append("\",\"targetDate\":\"2021-11-01T00:00:00.000+00:00\",\"done\":").append(i % 2 == 0)
+						.append("}\n");
+			}
+		}
+		body = lines.toString().getBytes(StandardCharsets.UTF_8);
+	}
+
+	@TearDown
+	public void tearDown() {
+		context.close();
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(LINES)
+	public TodoImportReport importTodos() {
+		return todoImportService.importTodos("benchmark", format, new ByteArrayInputStream(body), report -> {
+		});
+	}
+
+}
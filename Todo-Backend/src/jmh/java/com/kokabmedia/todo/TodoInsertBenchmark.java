@@ -0,0 +1,73 @@
+package com.kokabmedia.todo;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.transaction.support.TransactionTemplate;
+
+/*
+ * JMH benchmark of how many todos per second can be inserted with JPA for different
+ * allocation sizes of the todo_seq sequence (see TodoIdGenerator).
+ *
+ * Every invocation inserts 1000 todos with saveAll() in one transaction, which Hibernate
+ * sends to the database as JDBC batches, the score is in todos per second.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TodoInsertBenchmark {
+
+	private static final int TODOS_PER_TRANSACTION = 1_000;
+
+	@Param({ "1", "10", "50", "500" })
+	private int allocationSize;
+
+	private ConfigurableApplicationContext context;
+	private TodoJpaRepository todoJpaRepository;
+	private TransactionTemplate transactionTemplate;
+
+	@Setup
+	public void setUp() {
+		context = TodoJpaBenchmarkContext.start("insert-" + allocationSize,
+				"spring.jpa.properties.todo.id.allocation_size=" + allocationSize);
+		todoJpaRepository = context.getBean(TodoJpaRepository.class);
+		transactionTemplate = context.getBean(TransactionTemplate.class);
+	}
+
+	@TearDown
+	public void tearDown() {
+		context.close();
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(TODOS_PER_TRANSACTION)
+	public void insertTodos() {
+		List<Todo> todos = new ArrayList<>(TODOS_PER_TRANSACTION);
+		for (int i = 0; i < TODOS_PER_TRANSACTION; i++) {
+			Todo todo = new Todo(0, "benchmark", "Benchmark todo " + i, new Date(), false);
+			todo.setId(null);
+			todos.add(todo);
+		}
+		transactionTemplate.executeWithoutResult(status -> todoJpaRepository.saveAll(todos));
+	}
+
+}
@@ -0,0 +1,41 @@
+package com.kokabmedia.todo;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.springframework.boot.WebApplicationType;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import com.kokabmedia.RestfulWebServiceAngularApplication;
+
+/*
+ * Starts the application without the web server against its own in memory H2 database
+ * for the JPA benchmarks.
+ */
+final class TodoJpaBenchmarkContext {
+
+	private TodoJpaBenchmarkContext() {
+	}
+
+	/*
+	 * The properties are passed as command line arguments so they take precedence over
+	 * application.properties.
+	 */
+	static ConfigurableApplicationContext start(String databaseName, String... properties) {
+		// Devtools would otherwise restart the application context in a new class loader
+		System.setProperty("spring.devtools.restart.enabled", "false");
+
+		List<String> args = new ArrayList<>(List.of(
+				"--spring.datasource.url=jdbc:h2:mem:" + databaseName + ";DB_CLOSE_DELAY=-1;DB_CLOSE_ON_EXIT=FALSE",
+				"--spring.main.banner-mode=off", "--logging.level.root=warn",
+				"--logging.level.org.springframework=warn"));
+		for (String property : properties) {
+			args.add("--" + property);
+		}
+
+		return new SpringApplicationBuilder(RestfulWebServiceAngularApplication.class).web(WebApplicationType.NONE)
+				.run(args.toArray(new String[0]));
+	}
+
+}
@@ -0,0 +1,71 @@
+package com.kokabmedia.todo;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.transaction.support.TransactionTemplate;
+
+/*
+ * JMH benchmark of TodoJpaRepository.findByUsername() against the in memory H2 database
+ * for users with different numbers of todos, 20 users are stored so the query has to
+ * use the (username, target_date, id) index.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TodoJpaRepositoryBenchmark {
+
+	private static final int USERS = 20;
+
+	@Param({ "10", "100", "1000" })
+	private int todosPerUser;
+
+	private ConfigurableApplicationContext context;
+	private TodoJpaRepository todoJpaRepository;
+
+	@Setup
+	public void setUp() {
+		context = TodoJpaBenchmarkContext.start("find-by-username-" + todosPerUser);
+		todoJpaRepository = context.getBean(TodoJpaRepository.class);
+		TransactionTemplate transactionTemplate = context.getBean(TransactionTemplate.class);
+
+		for (int user = 0; user < USERS; user++) {
+			List<Todo> todos = new ArrayList<>(todosPerUser);
+			for (int i = 0; i < todosPerUser; i++) {
+				Todo todo = new Todo(0, "user" + user, "Benchmark todo " + i, new Date(), false);
+				todo.setId(null);
+				todos.add(todo);
+			}
+			transactionTemplate.executeWithoutResult(status -> todoJpaRepository.saveAll(todos));
+		}
+	}
+
+	@TearDown
+	public void tearDown() {
+		context.close();
+	}
+
+	@Benchmark
+	public List<Todo> findByUsername() {
+		return todoJpaRepository.findByUsername("user" + (USERS / 2));
+	}
+
+}
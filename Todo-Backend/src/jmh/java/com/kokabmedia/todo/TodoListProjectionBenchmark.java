@@ -0,0 +1,113 @@
+package com.kokabmedia.todo;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.ser.impl.SimpleBeanPropertyFilter;
+import com.fasterxml.jackson.databind.ser.impl.SimpleFilterProvider;
+
+/*
+ * JMH benchmark of the todo list response of getAllTodos() on a cache miss, reading and
+ * serializing the todos of a user as entities against reading them as TodoSummary
+ * objects with all four fields and with the three fields of fields=id,description,done.
+ *
+ * Every read runs in a transaction like the open session of a request, so the entities
+ * are kept in the persistence context with their dirty check snapshots. Run it with
+ * -prof gc to see the bytes allocated per response (gc.alloc.rate.norm).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TodoListProjectionBenchmark {
+
+	private static final String USERNAME = "projection-user";
+
+	@Param({ "1000", "10000" })
+	private int todos;
+
+	private ConfigurableApplicationContext context;
+	private TodoJpaRepository todoJpaRepository;
+	private TransactionTemplate transactionTemplate;
+	private ObjectMapper objectMapper;
+	private ObjectWriter allFields;
+	private ObjectWriter threeFields;
+
+	@Setup
+	public void setUp() {
+		context = TodoJpaBenchmarkContext.start("list-projection-" + todos, "todo.cache.enabled=false");
+		todoJpaRepository = context.getBean(TodoJpaRepository.class);
+		transactionTemplate = context.getBean(TransactionTemplate.class);
+		objectMapper = context.getBean(ObjectMapper.class);
+		allFields = objectMapper.writer(new SimpleFilterProvider().addFilter(TodoSummary.FIELDS_FILTER,
+				SimpleBeanPropertyFilter.filterOutAllExcept(TodoSummary.FIELDS)));
+		threeFields = objectMapper.writer(new SimpleFilterProvider().addFilter(TodoSummary.FIELDS_FILTER,
+				SimpleBeanPropertyFilter.filterOutAllExcept(Set.of("id", "description", "done"))));
+
+		List<Todo> stored = new ArrayList<>(todos);
+		for (int i = 0; i < todos; i++) {
+			Todo todo = new Todo(0, USERNAME, "Benchmark todo " + i, new Date(), i % 2 == 0);
+			todo.setId(null);
+			stored.add(todo);
+		}
+		transactionTemplate.executeWithoutResult(status -> todoJpaRepository.saveAll(stored));
+	}
+
+	@TearDown
+	public void tearDown() {
+		context.close();
+	}
+
+	@Benchmark
+	public byte[] entities() {
+		return transactionTemplate
+				.execute(status -> write(objectMapper, todoJpaRepository.findByUsername(USERNAME)));
+	}
+
+	@Benchmark
+	public byte[] summaries() {
+		return transactionTemplate
+				.execute(status -> write(allFields, todoJpaRepository.findSummariesByUsername(USERNAME)));
+	}
+
+	@Benchmark
+	public byte[] summariesWithThreeFields() {
+		return transactionTemplate
+				.execute(status -> write(threeFields, todoJpaRepository.findSummariesByUsername(USERNAME)));
+	}
+
+	private static byte[] write(ObjectMapper objectMapper, Object value) {
+		return write(objectMapper.writer(), value);
+	}
+
+	private static byte[] write(ObjectWriter writer, Object value) {
+		try {
+			return writer.writeValueAsBytes(value);
+		} catch (Exception e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+}
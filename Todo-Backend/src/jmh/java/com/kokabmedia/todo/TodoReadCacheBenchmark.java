@@ -0,0 +1,95 @@
+package com.kokabmedia.todo;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.context.ConfigurableApplicationContext;
+
+/*
+ * JMH benchmark of the latency distribution (p50, p99, ...) of the todo lookups of
+ * TodoJpaResource with and without the TodoReadCache, for a read heavy workload of 50
+ * reads per write. The reads are split between findById() and findByUsername(), every
+ * write updates a todo through TodoJpaService and invalidates its cache entries.
+ *
+ * Mode.SampleTime reports the percentiles of the individual operations, the p0.99 line
+ * of the result is the number to compare.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@Threads(4)
+public class TodoReadCacheBenchmark {
+
+	private static final int USERS = 50;
+	private static final int TODOS_PER_USER = 20;
+	private static final int READS_PER_WRITE = 50;
+
+	@Param({ "true", "false" })
+	private boolean cacheEnabled;
+
+	private ConfigurableApplicationContext context;
+	private TodoReadCache todoReadCache;
+	private TodoJpaService todoJpaService;
+	private List<Long> ids;
+
+	@Setup
+	public void setUp() {
+		context = TodoJpaBenchmarkContext.start("read-cache-" + cacheEnabled, "todo.cache.enabled=" + cacheEnabled,
+				"todo.sql.log.time-threshold-ms=10000");
+		todoReadCache = context.getBean(TodoReadCache.class);
+		todoJpaService = context.getBean(TodoJpaService.class);
+
+		ids = new ArrayList<>(USERS * TODOS_PER_USER);
+		for (int user = 0; user < USERS; user++) {
+			for (int i = 0; i < TODOS_PER_USER; i++) {
+				ids.add(todoJpaService.create("user" + user, new Todo(0, null, "Todo " + i, new Date(), false)).getId());
+			}
+		}
+	}
+
+	@TearDown
+	public void tearDown() {
+		context.close();
+	}
+
+	@Benchmark
+	public Object readHeavyMix() {
+		ThreadLocalRandom random = ThreadLocalRandom.current();
+		int index = random.nextInt(ids.size());
+		int operation = random.nextInt(READS_PER_WRITE + 1);
+
+		if (operation == 0) {
+			// Concurrent updates of the same todo are simply retried by the next write
+			try {
+				return todoJpaService.update("user" + (index / TODOS_PER_USER), ids.get(index), new Todo(0, null,
+						"Updated " + random.nextInt(), new Date(), random.nextBoolean()), null);
+			} catch (RuntimeException e) {
+				return e;
+			}
+		}
+		if (operation % 2 == 0) {
+			return todoReadCache.findById(ids.get(index));
+		}
+		return todoReadCache.findByUsername("user" + (index / TODOS_PER_USER));
+	}
+
+}
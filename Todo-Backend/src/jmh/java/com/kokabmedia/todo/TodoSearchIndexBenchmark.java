@@ -0,0 +1,85 @@
+package com.kokabmedia.todo;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/*
+ * JMH benchmark of the todo search for one user with 100 000 todos, the inverted index
+ * of TodoSearchIndex against filtering the whole todo list, which is what the Angular
+ * client did after downloading it.
+ *
+ * The descriptions are 3 to 8 words out of a vocabulary of 5000 words where a few words
+ * are much more common than the rest, like in real text. The query is a rare word, a
+ * common word, two words, or a two letter prefix that expands to many words.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TodoSearchIndexBenchmark {
+
+	private static final int TODOS = 100_000;
+	private static final int VOCABULARY = 5_000;
+	private static final int LIMIT = 20;
+
+	@Param({ "word4000", "word3", "word3 word10", "word1*" })
+	private String query;
+
+	private TodoSearchIndex.UserIndex index;
+	private List<TodoSearchIndex.QueryTerm> terms;
+	private List<Todo> todos;
+
+	@Setup
+	public void setUp() {
+		Random random = new Random(42);
+		index = new TodoSearchIndex.UserIndex();
+		todos = new ArrayList<>(TODOS);
+		for (int id = 1; id <= TODOS; id++) {
+			StringBuilder description = new StringBuilder();
+			for (int word = 3 + random.nextInt(6); word > 0; word--) {
+				// The square skews the choice towards the low numbered words
+				double skewed = random.nextDouble() * random.nextDouble();
+				description.append("Word").append((int) (skewed * VOCABULARY)).append(' ');
+			}
+			Todo todo = new Todo(id, "benchmark-user", description.toString().trim(), new Date(), false);
+			todo.setChangeSeq(id);
+			todos.add(todo);
+			index.upsert(todo);
+		}
+		terms = TodoSearchIndex.parse(query);
+	}
+
+	@Benchmark
+	public List<Todo> invertedIndex() {
+		return index.search(terms, LIMIT);
+	}
+
+	@Benchmark
+	public List<Todo> scanAllTodos() {
+		List<String> words = TodoSearchIndex.tokenize(query);
+		return todos.stream().filter(todo -> {
+			String description = todo.getDescription().toLowerCase(Locale.ROOT);
+			return words.stream().allMatch(description::contains);
+		}).limit(LIMIT).collect(Collectors.toList());
+	}
+
+}
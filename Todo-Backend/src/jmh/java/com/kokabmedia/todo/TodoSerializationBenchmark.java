@@ -0,0 +1,58 @@
+package com.kokabmedia.todo;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/*
+ * JMH benchmark of the Jackson serialization of the todo list returned by getAllTodos(),
+ * with an ObjectMapper configured like the one of Spring Boot.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TodoSerializationBenchmark {
+
+	@Param({ "10", "100", "1000" })
+	private int todos;
+
+	private ObjectMapper objectMapper;
+	private List<Todo> todoList;
+
+	@Setup
+	public void setUp() {
+		objectMapper = Jackson2ObjectMapperBuilder.json().build();
+		todoList = new ArrayList<>(todos);
+		for (int i = 0; i < todos; i++) {
+			Todo todo = new Todo(10_000 + i, "kokabmedia", "Learn about JSON serialization " + i, new Date(), i % 2 == 0);
+			todo.setVersion(0L);
+			todoList.add(todo);
+		}
+	}
+
+	@Benchmark
+	public byte[] serializeTodoList() throws JsonProcessingException {
+		return objectMapper.writeValueAsBytes(todoList);
+	}
+
+}
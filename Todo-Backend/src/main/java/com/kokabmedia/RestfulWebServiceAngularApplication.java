@@ -1,7 +1,17 @@
 package com.kokabmedia;
 
 import org.springframework.boot.SpringApplication;
-import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.boot.SpringBootConfiguration;
+import org.springframework.boot.autoconfigure.AutoConfigurationExcludeFilter;
+import org.springframework.boot.autoconfigure.EnableAutoConfiguration;
+import org.springframework.boot.autoconfigure.data.r2dbc.R2dbcDataAutoConfiguration;
+import org.springframework.boot.autoconfigure.data.r2dbc.R2dbcRepositoriesAutoConfiguration;
+import org.springframework.boot.autoconfigure.r2dbc.R2dbcAutoConfiguration;
+import org.springframework.boot.autoconfigure.r2dbc.R2dbcTransactionManagerAutoConfiguration;
+import org.springframework.boot.context.TypeExcludeFilter;
+import org.springframework.context.annotation.ComponentScan;
+import org.springframework.context.annotation.FilterType;
+import org.springframework.scheduling.annotation.EnableScheduling;
 
 
 /*
@@ -13,8 +23,22 @@ import org.springframework.boot.autoconfigure.SpringBootApplication;
 * IOC Container that manages all of the beans. It also initialises Spring Boot framework and auto 
 * configuration and enables component scanning of this package and sub-packages to locate beans,
 * this is all done automatically. 
+* 
+* The annotations below are the ones @SpringBootApplication stands for, spelled out so 
+* the component scanning can skip the com.kokabmedia.reactive package and the auto 
+* configuration can skip R2DBC. That package holds the reactive variant of the todo API, 
+* a separate application with its own main class (see ReactiveTodoApplication).
+* 
+* The @EnableScheduling annotation makes the Spring framework run the methods with the 
+* @Scheduled annotation, for example the compaction of deleted todos.
 */
-@SpringBootApplication
+@SpringBootConfiguration
+@EnableAutoConfiguration(exclude = { R2dbcAutoConfiguration.class, R2dbcDataAutoConfiguration.class,
+		R2dbcRepositoriesAutoConfiguration.class, R2dbcTransactionManagerAutoConfiguration.class })
+@ComponentScan(excludeFilters = { @ComponentScan.Filter(type = FilterType.CUSTOM, classes = TypeExcludeFilter.class),
+		@ComponentScan.Filter(type = FilterType.CUSTOM, classes = AutoConfigurationExcludeFilter.class),
+		@ComponentScan.Filter(type = FilterType.REGEX, pattern = "com\\.kokabmedia\\.reactive\\..*") })
+@EnableScheduling
 public class RestfulWebServiceAngularApplication {
 
 	public static void main(String[] args) {
@@ -11,9 +11,13 @@ import org.springframework.security.config.annotation.web.configuration.WebSecur
  * Spring Web Security.
  * 
  * The @Configuration annotation declare that this class provides one or more @Bean method.
+ * 
+ * Basic Authentication has been replaced by JWT authentication (see JWTWebSecurityConfig), 
+ * two WebSecurityConfigurerAdapter beans with the same order cannot be active at the same 
+ * time, so this configuration is switched off.
  */
-@Configuration
-@EnableWebSecurity
+//@Configuration
+//@EnableWebSecurity
 public class SpringSecurityConfigurationBasicAuth extends WebSecurityConfigurerAdapter{
 	
 	// Sets the configuration for Spring Security Basic Authentication 
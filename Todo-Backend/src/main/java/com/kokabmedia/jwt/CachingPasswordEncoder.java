@@ -0,0 +1,93 @@
+package com.kokabmedia.jwt;
+
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.util.Base64;
+import java.util.concurrent.TimeUnit;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+import org.springframework.security.crypto.password.PasswordEncoder;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+
+/*
+ * This class remembers the passwords that a PasswordEncoder has recently verified, so a
+ * client that authenticates again and again with the same password, like a script that
+ * requests a new token for every call, costs one BCrypt check per time to live instead
+ * of one per request.
+ *
+ * The key of an entry is an HMAC-SHA256 of the stored BCrypt hash and the password with
+ * a random key that only exists in the memory of this JVM, neither the password nor a
+ * digest that could be attacked offline without that key is kept. Only successful checks
+ * are cached, a wrong password always goes to the delegate. An entry is tied to the
+ * stored hash, so it no longer matches once the password of the user has changed.
+ */
+public class CachingPasswordEncoder implements PasswordEncoder {
+
+	private static final String HMAC_ALGORITHM = "HmacSHA256";
+
+	private final PasswordEncoder delegate;
+	private final Cache<String, Boolean> verified;
+	private final SecretKeySpec digestKey;
+
+	public CachingPasswordEncoder(PasswordEncoder delegate, long ttlSeconds, long maximumSize) {
+		this.delegate = delegate;
+		this.verified = Caffeine.newBuilder().maximumSize(maximumSize).expireAfterWrite(ttlSeconds, TimeUnit.SECONDS)
+				.recordStats().build();
+
+		byte[] key = new byte[32];
+		new SecureRandom().nextBytes(key);
+		this.digestKey = new SecretKeySpec(key, HMAC_ALGORITHM);
+	}
+
+	@Override
+	public String encode(CharSequence rawPassword) {
+		return delegate.encode(rawPassword);
+	}
+
+	@Override
+	public boolean matches(CharSequence rawPassword, String encodedPassword) {
+		if (rawPassword == null || encodedPassword == null) {
+			return delegate.matches(rawPassword, encodedPassword);
+		}
+
+		String digest = digest(rawPassword, encodedPassword);
+		if (verified.getIfPresent(digest) != null) {
+			return true;
+		}
+
+		boolean matches = delegate.matches(rawPassword, encodedPassword);
+		if (matches) {
+			verified.put(digest, Boolean.TRUE);
+		}
+		return matches;
+	}
+
+	@Override
+	public boolean upgradeEncoding(String encodedPassword) {
+		return delegate.upgradeEncoding(encodedPassword);
+	}
+
+	public Cache<String, Boolean> getCache() {
+		return verified;
+	}
+
+	private String digest(CharSequence rawPassword, String encodedPassword) {
+		try {
+			// A new Mac per call, Mac instances cannot be shared between threads
+			Mac mac = Mac.getInstance(HMAC_ALGORITHM);
+			mac.init(digestKey);
+			mac.update(encodedPassword.getBytes(StandardCharsets.UTF_8));
+			mac.update((byte) 0);
+			return Base64.getEncoder()
+					.encodeToString(mac.doFinal(rawPassword.toString().getBytes(StandardCharsets.UTF_8)));
+		} catch (GeneralSecurityException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+}
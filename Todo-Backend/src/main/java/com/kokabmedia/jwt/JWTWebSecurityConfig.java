@@ -14,7 +14,6 @@ import org.springframework.security.config.annotation.web.configuration.EnableWe
 import org.springframework.security.config.annotation.web.configuration.WebSecurityConfigurerAdapter;
 import org.springframework.security.config.http.SessionCreationPolicy;
 import org.springframework.security.core.userdetails.UserDetailsService;
-import org.springframework.security.crypto.bcrypt.BCryptPasswordEncoder;
 import org.springframework.security.crypto.password.PasswordEncoder;
 import org.springframework.security.web.authentication.UsernamePasswordAuthenticationFilter;
 
@@ -55,14 +54,14 @@ public class JWTWebSecurityConfig extends WebSecurityConfigurerAdapter {
 	@Value("${jwt.get.token.uri}")
 	private String authenticationPath;
 
+	/*
+	 * The PasswordEncoder comes from PasswordConfiguration. JwtInMemoryUserDetailsService
+	 * is also a UserDetailsPasswordService, with it the authentication provider stores a
+	 * new hash for users whose hash has a lower BCrypt work factor than configured.
+	 */
 	@Autowired
-	public void configureGlobal(AuthenticationManagerBuilder auth) throws Exception {
-		auth.userDetailsService(jwtInMemoryUserDetailsService).passwordEncoder(passwordEncoderBean());
-	}
-
-	@Bean
-	public PasswordEncoder passwordEncoderBean() {
-		return new BCryptPasswordEncoder();
+	public void configureGlobal(AuthenticationManagerBuilder auth, PasswordEncoder passwordEncoder) throws Exception {
+		auth.userDetailsService(jwtInMemoryUserDetailsService).passwordEncoder(passwordEncoder);
 	}
 
 	@Bean
@@ -75,8 +74,10 @@ public class JWTWebSecurityConfig extends WebSecurityConfigurerAdapter {
 	protected void configure(HttpSecurity httpSecurity) throws Exception {
 		httpSecurity.csrf().disable().exceptionHandling()
 				.authenticationEntryPoint(jwtUnAuthorizedResponseAuthenticationEntryPoint).and().sessionManagement()
-				.sessionCreationPolicy(SessionCreationPolicy.STATELESS).and().authorizeRequests().anyRequest()
-				.authenticated();
+				.sessionCreationPolicy(SessionCreationPolicy.STATELESS).and().authorizeRequests()
+				// The metrics are internal, Prometheus scrapes them with the token of an ADMIN user
+				.antMatchers(HttpMethod.GET, "/actuator/prometheus").hasRole("ADMIN")
+				.anyRequest().authenticated();
 
 		httpSecurity.addFilterBefore(jwtAuthenticationTokenFilter, UsernamePasswordAuthenticationFilter.class);
 
@@ -91,6 +92,9 @@ public class JWTWebSecurityConfig extends WebSecurityConfigurerAdapter {
 				.and().ignoring()
 				.antMatchers(HttpMethod.GET, "/" // Other Stuff You want to Ignore
 				).and().ignoring()
-				.antMatchers("/h2-console/**/**");// Should not be done in Production!
+				.antMatchers("/h2-console/**/**")// Should not be done in Production!
+				.and().ignoring()
+				// Health checks of the load balancer
+				.antMatchers(HttpMethod.GET, "/actuator/health");
 	}
 }
@@ -1,10 +1,25 @@
 package com.kokabmedia.jwt;
 
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
-import java.util.Optional;
+import java.util.Map;
 
+import javax.annotation.PostConstruct;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.Resource;
+import org.springframework.core.io.ResourceLoader;
+import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.security.core.userdetails.UserDetails;
+import org.springframework.security.core.userdetails.UserDetailsPasswordService;
 import org.springframework.security.core.userdetails.UserDetailsService;
 import org.springframework.security.core.userdetails.UsernameNotFoundException;
 import org.springframework.stereotype.Service;
@@ -27,30 +42,166 @@ import org.springframework.stereotype.Service;
 * 
 * The @Service annotation is a specialisation of @Component annotation for more specific 
 * use cases.
+* 
+* The users are held in an immutable hash index keyed by username, so a lookup costs the 
+* same for two users and for thousands of service accounts. The index is built at 
+* startup, either from the users file configured with jwt.users.file or from the default 
+* users below, and reload() replaces it with a single volatile write so threads that are 
+* looking up users are never blocked. The users file is checked for changes every 
+* jwt.users.reload-interval-ms and reloaded when its modification time has changed.
+* 
+* As a UserDetailsPasswordService it takes the new hash of a user whose stored hash has 
+* a lower BCrypt work factor than jwt.password.bcrypt-strength, Spring Security creates 
+* it after a successful login. The new hash only lives in memory, the users file keeps 
+* the old hash until it is replaced and the file is reloaded.
 */
 @Service
-public class JwtInMemoryUserDetailsService implements UserDetailsService {
+public class JwtInMemoryUserDetailsService implements UserDetailsService, UserDetailsPasswordService {
+
+	private static final String USER_NOT_FOUND = "USER_NOT_FOUND";
+
+	static final List<JwtUserDetails> DEFAULT_USERS = List.of(
+			new JwtUserDetails(1L, "kokabmedia",
+					"$2a$10$3zHzb.Npv1hfZbLEU5qsdOju/tk2je6W6PnNnY.c1ujWPcZh4PL6e", "ROLE_USER_2"),
+			new JwtUserDetails(2L, "ranga",
+					"$2a$10$IetbreuU5KihCkDB6/r1DOJO0VyU9lSiBcrMDT.biU7FOt2oqZDPm", "ROLE_USER_2"));
+
+	private final Logger logger = LoggerFactory.getLogger(this.getClass());
+
+	private final Object reloadLock = new Object();
 
-	static List<JwtUserDetails> inMemoryUserList = new ArrayList<>();
+	private volatile Map<String, JwtUserDetails> usersByUsername = Map.of();
+
+	// Modification time of the users file when it was last read, guarded by reloadLock
+	private long usersFileLastModified;
+
+	@Autowired
+	private ResourceLoader resourceLoader;
+
+	/*
+	 * Location of the users file, for example "file:/etc/todo/users.csv" or
+	 * "classpath:users.csv". Every line holds one user as "id,username,password,role"
+	 * with a BCrypt encoded password, empty lines and lines starting with # are skipped.
+	 */
+	@Value("${jwt.users.file:}")
+	private String usersFile;
+
+	@PostConstruct
+	public void loadUsers() throws IOException {
+		reload();
+	}
+
+	/*
+	 * Builds a new index from the users file (or the default users) and swaps it in
+	 * atomically, lookups keep using the previous index until the new one is complete.
+	 * When the file cannot be read or is invalid the previous index stays in place.
+	 */
+	public int reload() throws IOException {
+		synchronized (reloadLock) {
+			List<JwtUserDetails> users = DEFAULT_USERS;
+			if (!usersFile.isEmpty()) {
+				Resource resource = resourceLoader.getResource(usersFile);
+				// Taken before the file is read, a broken file is not read again until it changes
+				usersFileLastModified = resource.isFile() ? resource.lastModified() : 0;
+				users = readUsers(resource);
+			}
+			usersByUsername = index(users);
+			logger.info("Loaded {} users", users.size());
+			return users.size();
+		}
+	}
 
-	static {
-		inMemoryUserList.add(new JwtUserDetails(1L, "kokabmedia",
-				"$2a$10$3zHzb.Npv1hfZbLEU5qsdOju/tk2je6W6PnNnY.c1ujWPcZh4PL6e", "ROLE_USER_2"));
-		inMemoryUserList.add(new JwtUserDetails(2L, "ranga",
-				"$2a$10$IetbreuU5KihCkDB6/r1DOJO0VyU9lSiBcrMDT.biU7FOt2oqZDPm", "ROLE_USER_2"));
-		
+	/*
+	 * Reloads the users file when it has been changed since it was last read. Only a file
+	 * on the file system is watched, the users of a file inside the application jar do not
+	 * change while it runs. A file that cannot be loaded is logged and the users that were
+	 * loaded before are kept.
+	 */
+	@Scheduled(fixedDelayString = "${jwt.users.reload-interval-ms:30000}")
+	public void reloadIfChanged() {
+		if (usersFile.isEmpty()) {
+			return;
+		}
+		try {
+			Resource resource = resourceLoader.getResource(usersFile);
+			if (!resource.isFile()) {
+				return;
+			}
+			synchronized (reloadLock) {
+				if (resource.lastModified() != usersFileLastModified) {
+					reload();
+				}
+			}
+		} catch (IOException | IllegalArgumentException e) {
+			logger.warn("USERS_RELOAD_FAILED {}: {}", usersFile, e.toString());
+		}
 	}
 
 	@Override
 	public UserDetails loadUserByUsername(String username) throws UsernameNotFoundException {
-		Optional<JwtUserDetails> findFirst = inMemoryUserList.stream()
-				.filter(user -> user.getUsername().equals(username)).findFirst();
+		JwtUserDetails user = usersByUsername.get(username);
+
+		if (user == null) {
+			throw new UsernameNotFoundException(USER_NOT_FOUND);
+		}
+
+		return user;
+	}
 
-		if (!findFirst.isPresent()) {
-			throw new UsernameNotFoundException(String.format("USER_NOT_FOUND '%s'.", username));
+	@Override
+	public UserDetails updatePassword(UserDetails user, String newPassword) {
+		synchronized (reloadLock) {
+			JwtUserDetails stored = usersByUsername.get(user.getUsername());
+			if (stored == null) {
+				return user;
+			}
+
+			JwtUserDetails updated = stored.withPassword(newPassword);
+			Map<String, JwtUserDetails> users = new HashMap<>(usersByUsername);
+			users.put(updated.getUsername(), updated);
+			usersByUsername = Map.copyOf(users);
+			logger.info("PASSWORD_REHASHED '{}'", updated.getUsername());
+			return updated;
 		}
+	}
 
-		return findFirst.get();
+	private static Map<String, JwtUserDetails> index(List<JwtUserDetails> users) {
+		Map<String, JwtUserDetails> index = new HashMap<>(users.size() * 2);
+		for (JwtUserDetails user : users) {
+			if (index.put(user.getUsername(), user) != null) {
+				throw new IllegalArgumentException(String.format("DUPLICATE_USER '%s'", user.getUsername()));
+			}
+		}
+		return Map.copyOf(index);
+	}
+
+	private static List<JwtUserDetails> readUsers(Resource resource) throws IOException {
+		List<JwtUserDetails> users = new ArrayList<>();
+		try (BufferedReader reader = new BufferedReader(
+				new InputStreamReader(resource.getInputStream(), StandardCharsets.UTF_8))) {
+			String line;
+			int lineNumber = 0;
+			while ((line = reader.readLine()) != null) {
+				lineNumber++;
+				line = line.trim();
+				if (line.isEmpty() || line.startsWith("#")) {
+					continue;
+				}
+				String[] fields = line.split(",", -1);
+				if (fields.length != 4) {
+					throw new IllegalArgumentException(
+							String.format("INVALID_USER_LINE %d in %s", lineNumber, resource.getDescription()));
+				}
+				try {
+					users.add(new JwtUserDetails(Long.valueOf(fields[0].trim()), fields[1].trim(), fields[2].trim(),
+							fields[3].trim()));
+				} catch (NumberFormatException e) {
+					throw new IllegalArgumentException(
+							String.format("INVALID_USER_ID line %d in %s", lineNumber, resource.getDescription()), e);
+				}
+			}
+		}
+		return users;
 	}
 
 }
@@ -16,10 +16,14 @@ import org.springframework.security.core.context.SecurityContextHolder;
 import org.springframework.security.core.userdetails.UserDetails;
 import org.springframework.security.core.userdetails.UserDetailsService;
 import org.springframework.security.web.authentication.WebAuthenticationDetailsSource;
+import org.springframework.security.web.util.matcher.AntPathRequestMatcher;
 import org.springframework.stereotype.Component;
 import org.springframework.web.filter.OncePerRequestFilter;
 
 import io.jsonwebtoken.ExpiredJwtException;
+import io.jsonwebtoken.JwtException;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
 /* 
 * The @Component annotation allows the Spring framework to creates an instance (bean) 
 * of this class and manage it with the Spring Application Context (the IOC container)
@@ -32,12 +36,45 @@ import io.jsonwebtoken.ExpiredJwtException;
 * 
 * @Component annotation allows the JwtTokenAuthorizationOncePerRequestFilter class and to 
 * be wired in as dependency to a another object or a bean with the @Autowired annotation.
+* 
+* The outcome of the token check of every request is counted in the jwt.authentication 
+* metric with the tag outcome: valid, invalid (does not belong to the user), expired, 
+* malformed (bad signature or format) or missing_bearer (no "Bearer " header).
+* 
+* The browser EventSource cannot set the Authorization header, so the todo change stream
+* (GET /jpa/users/{username}/todos/stream) is also accepted with a stream token from
+* JwtTokenUtil.generateStreamToken() in the streamToken query parameter. The stream token
+* only opens the stream of its own user, it is not accepted anywhere else.
 */
 @Component
 public class JwtTokenAuthorizationOncePerRequestFilter extends OncePerRequestFilter {
 
+	static final String STREAM_TOKEN_PARAMETER = "streamToken";
+
+	private static final AntPathRequestMatcher STREAM_REQUEST = new AntPathRequestMatcher(
+			"/jpa/users/{username}/todos/stream", "GET");
+
 	private final Logger logger = LoggerFactory.getLogger(this.getClass());
 
+	private final Counter validTokens;
+	private final Counter invalidTokens;
+	private final Counter expiredTokens;
+	private final Counter malformedTokens;
+	private final Counter missingBearerTokens;
+
+	public JwtTokenAuthorizationOncePerRequestFilter(MeterRegistry meterRegistry) {
+		this.validTokens = outcomeCounter(meterRegistry, "valid");
+		this.invalidTokens = outcomeCounter(meterRegistry, "invalid");
+		this.expiredTokens = outcomeCounter(meterRegistry, "expired");
+		this.malformedTokens = outcomeCounter(meterRegistry, "malformed");
+		this.missingBearerTokens = outcomeCounter(meterRegistry, "missing_bearer");
+	}
+
+	private static Counter outcomeCounter(MeterRegistry meterRegistry, String outcome) {
+		return Counter.builder("jwt.authentication").description("Outcomes of the JWT checks of the requests")
+				.tag("outcome", outcome).register(meterRegistry);
+	}
+
 	/*
 	 * The @Autowired annotation tells the Spring framework that the UserDetailsService bean 
 	 * and its implementation is an dependency of JwtTokenAuthorizationOncePerRequestFilter class. 
@@ -70,35 +107,59 @@ public class JwtTokenAuthorizationOncePerRequestFilter extends OncePerRequestFil
 
 		final String requestTokenHeader = request.getHeader(this.tokenHeader);
 
-		String username = null;
-		String jwtToken = null;
+		/*
+		 * The token is parsed and its signature verified once, the verified claims are
+		 * reused below for the username, expiration and user checks.
+		 */
+		JwtTokenClaims claims = null;
+		String streamUsername = null;
 		if (requestTokenHeader != null && requestTokenHeader.startsWith("Bearer ")) {
-			jwtToken = requestTokenHeader.substring(7);
-			try {
-				username = jwtTokenUtil.getUsernameFromToken(jwtToken);
-			} catch (IllegalArgumentException e) {
-				logger.error("JWT_TOKEN_UNABLE_TO_GET_USERNAME", e);
-			} catch (ExpiredJwtException e) {
-				logger.warn("JWT_TOKEN_EXPIRED", e);
-			}
+			claims = verifiedClaims(requestTokenHeader.substring(7));
+		} else if (request.getParameter(STREAM_TOKEN_PARAMETER) != null && STREAM_REQUEST.matches(request)) {
+			streamUsername = STREAM_REQUEST.matcher(request).getVariables().get("username");
+			claims = verifiedClaims(request.getParameter(STREAM_TOKEN_PARAMETER));
 		} else {
+			missingBearerTokens.increment();
 			logger.warn("JWT_TOKEN_DOES_NOT_START_WITH_BEARER_STRING");
 		}
 
+		String username = claims == null ? null : claims.getUsername();
 		logger.debug("JWT_TOKEN_USERNAME_VALUE '{}'", username);
 		if (username != null && SecurityContextHolder.getContext().getAuthentication() == null) {
 
 			UserDetails userDetails = this.jwtInMemoryUserDetailsService.loadUserByUsername(username);
 
-			if (jwtTokenUtil.validateToken(jwtToken, userDetails)) {
+			boolean valid = streamUsername == null ? jwtTokenUtil.validateToken(claims, userDetails)
+					: username.equals(streamUsername) && jwtTokenUtil.validateStreamToken(claims, userDetails);
+			if (valid) {
 				UsernamePasswordAuthenticationToken usernamePasswordAuthenticationToken = new UsernamePasswordAuthenticationToken(
 						userDetails, null, userDetails.getAuthorities());
 				usernamePasswordAuthenticationToken
 						.setDetails(new WebAuthenticationDetailsSource().buildDetails(request));
 				SecurityContextHolder.getContext().setAuthentication(usernamePasswordAuthenticationToken);
+				validTokens.increment();
+			} else {
+				invalidTokens.increment();
 			}
 		}
 
 		chain.doFilter(request, response);
 	}
+
+	private JwtTokenClaims verifiedClaims(String jwtToken) {
+		try {
+			return jwtTokenUtil.getVerifiedClaimsFromToken(jwtToken);
+		} catch (IllegalArgumentException e) {
+			malformedTokens.increment();
+			logger.error("JWT_TOKEN_UNABLE_TO_GET_USERNAME", e);
+		} catch (ExpiredJwtException e) {
+			expiredTokens.increment();
+			logger.warn("JWT_TOKEN_EXPIRED", e);
+		} catch (JwtException e) {
+			// Bad signature, unsupported or malformed token
+			malformedTokens.increment();
+			logger.warn("JWT_TOKEN_INVALID", e);
+		}
+		return null;
+	}
 }
@@ -0,0 +1,62 @@
+package com.kokabmedia.jwt;
+
+import java.util.Date;
+
+/*
+ * This class holds the claims of a JWT token whose signature has already been verified.
+ *
+ * A token is parsed and verified once by JwtTokenUtil.getVerifiedClaimsFromToken(), the
+ * resulting JwtTokenClaims object is then used for the username, expiration and user
+ * checks of the request instead of parsing the same token again for every claim.
+ *
+ * The scope is only set on the short-lived stream tokens (see JwtTokenUtil.generateStreamToken),
+ * it is null for the tokens of the /authenticate endpoint.
+ *
+ * The class is immutable, the Date values are copied in and out so the object can be
+ * shared between threads.
+ */
+public final class JwtTokenClaims {
+
+	private final String username;
+	private final long issuedAt;
+	private final long expiration;
+	private final String scope;
+
+	public JwtTokenClaims(String username, Date issuedAt, Date expiration) {
+		this(username, issuedAt, expiration, null);
+	}
+
+	public JwtTokenClaims(String username, Date issuedAt, Date expiration, String scope) {
+		this.username = username;
+		this.issuedAt = issuedAt.getTime();
+		this.expiration = expiration.getTime();
+		this.scope = scope;
+	}
+
+	public String getUsername() {
+		return username;
+	}
+
+	public Date getIssuedAt() {
+		return new Date(issuedAt);
+	}
+
+	public Date getExpiration() {
+		return new Date(expiration);
+	}
+
+	public String getScope() {
+		return scope;
+	}
+
+	public boolean isExpired(Date now) {
+		return expiration < now.getTime();
+	}
+
+	@Override
+	public String toString() {
+		return String.format("JwtTokenClaims [username=%s, issuedAt=%s, expiration=%s, scope=%s]", username,
+				getIssuedAt(), getExpiration(), scope);
+	}
+
+}
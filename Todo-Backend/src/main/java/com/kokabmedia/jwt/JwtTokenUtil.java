@@ -6,6 +6,7 @@ import java.util.HashMap;
 import java.util.Map;
 import java.util.function.Function;
 
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.security.core.userdetails.UserDetails;
 import org.springframework.stereotype.Component;
@@ -39,6 +40,8 @@ public class JwtTokenUtil implements Serializable {
 
 	static final String CLAIM_KEY_USERNAME = "sub";
 	static final String CLAIM_KEY_CREATED = "iat";
+	static final String CLAIM_KEY_SCOPE = "scope";
+	static final String STREAM_SCOPE = "todo-stream";
 	private static final long serialVersionUID = -3301605591108950415L;
 	private Clock clock = DefaultClock.INSTANCE;
 
@@ -48,6 +51,16 @@ public class JwtTokenUtil implements Serializable {
 	@Value("${jwt.token.expiration.in.seconds}")
 	private Long expiration;
 
+	@Value("${jwt.stream.token.expiration.in.seconds:60}")
+	private Long streamExpiration;
+
+	/*
+	 * Optional cache of verified tokens, the bean only exists when
+	 * jwt.token.cache.enabled=true is set in application.properties.
+	 */
+	@Autowired(required = false)
+	private transient JwtVerifiedTokenCache verifiedTokenCache;
+
 	public String getUsernameFromToken(String token) {
 		return getClaimFromToken(token, Claims::getSubject);
 	}
@@ -65,6 +78,27 @@ public class JwtTokenUtil implements Serializable {
 		return claimsResolver.apply(claims);
 	}
 
+	/*
+	 * Parses the token and verifies its signature a single time, the returned claims
+	 * are used for all further checks of the request so the HS512 verification and the
+	 * JSON parsing of the token are not repeated for every claim.
+	 * 
+	 * When the verified token cache is enabled a token that has been verified before is
+	 * not verified again until it expires.
+	 */
+	public JwtTokenClaims getVerifiedClaimsFromToken(String token) {
+		if (verifiedTokenCache != null) {
+			return verifiedTokenCache.get(token, this::verifyClaimsOfToken);
+		}
+		return verifyClaimsOfToken(token);
+	}
+
+	private JwtTokenClaims verifyClaimsOfToken(String token) {
+		final Claims claims = getAllClaimsFromToken(token);
+		return new JwtTokenClaims(claims.getSubject(), claims.getIssuedAt(), claims.getExpiration(),
+				claims.get(CLAIM_KEY_SCOPE, String.class));
+	}
+
 	private Claims getAllClaimsFromToken(String token) {
 		return Jwts.parser().setSigningKey(secret).parseClaimsJws(token).getBody();
 	}
@@ -84,9 +118,27 @@ public class JwtTokenUtil implements Serializable {
 		return doGenerateToken(claims, userDetails.getUsername());
 	}
 
+	/*
+	 * Generates a short-lived token that only opens the todo change stream of the user
+	 * (GET /jpa/users/{username}/todos/stream). The browser EventSource cannot send an
+	 * Authorization header, so the client passes this token in the streamToken query
+	 * parameter of the stream URL instead. A stream token is not accepted as a bearer
+	 * token, so a token that leaks from a URL into a log does not give access to the
+	 * rest of the API, and it expires after jwt.stream.token.expiration.in.seconds.
+	 */
+	public String generateStreamToken(UserDetails userDetails) {
+		Map<String, Object> claims = new HashMap<>();
+		claims.put(CLAIM_KEY_SCOPE, STREAM_SCOPE);
+		return doGenerateToken(claims, userDetails.getUsername(), streamExpiration);
+	}
+
 	private String doGenerateToken(Map<String, Object> claims, String subject) {
+		return doGenerateToken(claims, subject, expiration);
+	}
+
+	private String doGenerateToken(Map<String, Object> claims, String subject, long expirationInSeconds) {
 		final Date createdDate = clock.now();
-		final Date expirationDate = calculateExpirationDate(createdDate);
+		final Date expirationDate = new Date(createdDate.getTime() + expirationInSeconds * 1000);
 
 		return Jwts.builder().setClaims(claims).setSubject(subject).setIssuedAt(createdDate)
 				.setExpiration(expirationDate).signWith(SignatureAlgorithm.HS512, secret).compact();
@@ -108,9 +160,20 @@ public class JwtTokenUtil implements Serializable {
 	}
 
 	public Boolean validateToken(String token, UserDetails userDetails) {
+		return validateToken(getVerifiedClaimsFromToken(token), userDetails);
+	}
+
+	public Boolean validateToken(JwtTokenClaims claims, UserDetails userDetails) {
+		return claims.getScope() == null && isValidFor(claims, userDetails);
+	}
+
+	public Boolean validateStreamToken(JwtTokenClaims claims, UserDetails userDetails) {
+		return STREAM_SCOPE.equals(claims.getScope()) && isValidFor(claims, userDetails);
+	}
+
+	private boolean isValidFor(JwtTokenClaims claims, UserDetails userDetails) {
 		JwtUserDetails user = (JwtUserDetails) userDetails;
-		final String username = getUsernameFromToken(token);
-		return (username.equals(user.getUsername()) && !isTokenExpired(token));
+		return (claims.getUsername().equals(user.getUsername()) && !claims.isExpired(clock.now()));
 	}
 
 	private Date calculateExpirationDate(Date createdDate) {
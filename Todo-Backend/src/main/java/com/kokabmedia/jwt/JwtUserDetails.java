@@ -36,6 +36,20 @@ public class JwtUserDetails implements UserDetails {
 		this.authorities = authorities;
 	}
 
+	private JwtUserDetails(JwtUserDetails user, String password) {
+		this.id = user.id;
+		this.username = user.username;
+		this.password = password;
+		this.authorities = user.authorities;
+	}
+
+	/*
+	 * A copy of this user with another encoded password.
+	 */
+	public JwtUserDetails withPassword(String password) {
+		return new JwtUserDetails(this, password);
+	}
+
 	/*
 	 * The @JsonIgnore annotation makes the framework ignore user details
 	 * when retrieving a post bean with HTTP request. This field will be ignored.
@@ -0,0 +1,97 @@
+package com.kokabmedia.jwt;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Base64;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Expiry;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+
+/*
+* This class is a bounded cache of verified JWT tokens that sits in front of the
+* signature verification of JwtTokenUtil.
+*
+* The Angular client sends the same bearer token with every request during the whole
+* lifetime of the token, so instead of verifying the HMAC of the token again on every
+* request the verified JwtTokenClaims are kept in the cache. The key is the SHA-256
+* digest of the token, the tokens themselves are not kept in memory.
+*
+* An entry is evicted when the token expires or, once the maximum size is reached, when
+* it has not been used recently. Tokens that fail verification are never cached. The
+* Caffeine cache is safe to use from all the threads of the servlet container.
+*
+* The cache publishes its hit and miss counts as the cache.* metrics with the cache tag
+* verifiedTokens.
+*
+* The @ConditionalOnProperty annotation makes Spring only create this bean when
+* jwt.token.cache.enabled=true is set in application.properties.
+*/
+@Component
+@ConditionalOnProperty(name = "jwt.token.cache.enabled", havingValue = "true")
+public class JwtVerifiedTokenCache {
+
+	private final Cache<String, JwtTokenClaims> cache;
+
+	public JwtVerifiedTokenCache(MeterRegistry meterRegistry,
+			@Value("${jwt.token.cache.maximum-size:10000}") long maximumSize) {
+		this.cache = Caffeine.newBuilder()
+				.maximumSize(maximumSize)
+				.expireAfter(new ExpireAtTokenExpiration())
+				.recordStats()
+				.build();
+
+		CaffeineCacheMetrics.monitor(meterRegistry, cache, "verifiedTokens");
+	}
+
+	/*
+	 * Returns the cached claims of the token, on a miss the verifier is called and
+	 * its result is cached. Exceptions of the verifier are passed on to the caller.
+	 */
+	public JwtTokenClaims get(String token, Function<String, JwtTokenClaims> verifier) {
+		return cache.get(digest(token), key -> verifier.apply(token));
+	}
+
+	private static String digest(String token) {
+		try {
+			MessageDigest sha256 = MessageDigest.getInstance("SHA-256");
+			return Base64.getEncoder().encodeToString(sha256.digest(token.getBytes(StandardCharsets.US_ASCII)));
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException("SHA-256 is not available", e);
+		}
+	}
+
+	/*
+	 * Every entry lives until the expiration (exp claim) of its token, reading an
+	 * entry does not extend its lifetime.
+	 */
+	private static class ExpireAtTokenExpiration implements Expiry<String, JwtTokenClaims> {
+
+		@Override
+		public long expireAfterCreate(String key, JwtTokenClaims claims, long currentTime) {
+			long millisLeft = claims.getExpiration().getTime() - System.currentTimeMillis();
+			return TimeUnit.MILLISECONDS.toNanos(Math.max(0, millisLeft));
+		}
+
+		@Override
+		public long expireAfterUpdate(String key, JwtTokenClaims claims, long currentTime, long currentDuration) {
+			return currentDuration;
+		}
+
+		@Override
+		public long expireAfterRead(String key, JwtTokenClaims claims, long currentTime, long currentDuration) {
+			return currentDuration;
+		}
+	}
+
+}
@@ -0,0 +1,86 @@
+package com.kokabmedia.jwt;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Component;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.binder.jvm.ExecutorServiceMetrics;
+
+/*
+* This class runs the password checks of the token requests on a small pool of threads
+* of their own, with a bounded queue in front of it.
+*
+* A BCrypt check takes tens of milliseconds of CPU. On the request threads a burst of
+* logins would take every core and every request thread and the todo API would stall
+* with it. Here at most jwt.password.threads checks run at the same time (by default
+* half of the cores) and at most jwt.password.queue-capacity wait. A token request that
+* finds the queue full is turned away at once with HTTP status 503 and a Retry-After
+* header instead of waiting, and the request thread is not held while a check waits or
+* runs.
+*
+* The pool publishes the executor.* metrics with the name passwordCheck, the turned away
+* checks are counted in jwt.password.check.rejected.
+*/
+@Component
+public class PasswordCheckExecutor implements DisposableBean {
+
+	private final ThreadPoolExecutor executor;
+	private final long retryAfterSeconds;
+	private final Counter rejected;
+
+	public PasswordCheckExecutor(MeterRegistry meterRegistry, @Value("${jwt.password.threads:0}") int threads,
+			@Value("${jwt.password.queue-capacity:100}") int queueCapacity,
+			@Value("${jwt.password.retry-after-seconds:1}") long retryAfterSeconds) {
+		int poolSize = threads > 0 ? threads : Math.max(1, Runtime.getRuntime().availableProcessors() / 2);
+		BlockingQueue<Runnable> queue = queueCapacity > 0 ? new ArrayBlockingQueue<>(queueCapacity)
+				: new SynchronousQueue<>();
+
+		CustomizableThreadFactory threadFactory = new CustomizableThreadFactory("password-check-");
+		threadFactory.setDaemon(true);
+
+		this.executor = new ThreadPoolExecutor(poolSize, poolSize, 0, TimeUnit.MILLISECONDS, queue, threadFactory,
+				new ThreadPoolExecutor.AbortPolicy());
+		this.retryAfterSeconds = retryAfterSeconds;
+		this.rejected = Counter.builder("jwt.password.check.rejected")
+				.description("Password checks turned away because the password check queue was full")
+				.register(meterRegistry);
+
+		new ExecutorServiceMetrics(executor, "passwordCheck", Tags.empty()).bindTo(meterRegistry);
+	}
+
+	/*
+	 * Runs the check on the pool, the returned future completes with its result. Throws
+	 * RejectedExecutionException right away when the queue is full.
+	 */
+	public <T> CompletableFuture<T> submit(Supplier<T> check) {
+		try {
+			return CompletableFuture.supplyAsync(check, executor);
+		} catch (RejectedExecutionException e) {
+			rejected.increment();
+			throw e;
+		}
+	}
+
+	public long getRetryAfterSeconds() {
+		return retryAfterSeconds;
+	}
+
+	@Override
+	public void destroy() {
+		executor.shutdownNow();
+	}
+
+}
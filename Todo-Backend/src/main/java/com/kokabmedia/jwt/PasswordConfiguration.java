@@ -0,0 +1,48 @@
+package com.kokabmedia.jwt;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.security.crypto.bcrypt.BCryptPasswordEncoder;
+import org.springframework.security.crypto.password.PasswordEncoder;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+
+/*
+ * This class creates the PasswordEncoder that checks the passwords of the token
+ * requests, for the servlet and the reactive application.
+ *
+ * The BCrypt work factor is jwt.password.bcrypt-strength, every step doubles the time
+ * of a check. Users whose stored hash has a lower work factor get a new hash with the
+ * configured one when they log in successfully (see JwtInMemoryUserDetailsService).
+ *
+ * The TimedPasswordEncoder records the time of every BCrypt check, the
+ * CachingPasswordEncoder in front of it skips BCrypt for the passwords that have been
+ * verified in the last jwt.password.cache.ttl-seconds, its hits and misses are the
+ * cache.* metrics with the cache tag verifiedPasswords.
+ *
+ * The method is static so the encoder can be created before the security
+ * configuration, which itself needs the encoder.
+ */
+@Configuration
+public class PasswordConfiguration {
+
+	@Bean
+	public static PasswordEncoder passwordEncoderBean(MeterRegistry meterRegistry,
+			@Value("${jwt.password.bcrypt-strength:10}") int strength,
+			@Value("${jwt.password.cache.enabled:true}") boolean cacheEnabled,
+			@Value("${jwt.password.cache.ttl-seconds:60}") long cacheTtlSeconds,
+			@Value("${jwt.password.cache.maximum-size:10000}") long cacheMaximumSize) {
+		PasswordEncoder bcrypt = new TimedPasswordEncoder(new BCryptPasswordEncoder(strength), meterRegistry);
+		if (!cacheEnabled) {
+			return bcrypt;
+		}
+
+		CachingPasswordEncoder cachingPasswordEncoder = new CachingPasswordEncoder(bcrypt, cacheTtlSeconds,
+				cacheMaximumSize);
+		CaffeineCacheMetrics.monitor(meterRegistry, cachingPasswordEncoder.getCache(), "verifiedPasswords");
+		return cachingPasswordEncoder;
+	}
+
+}
@@ -0,0 +1,55 @@
+package com.kokabmedia.jwt;
+
+import java.util.concurrent.TimeUnit;
+
+import org.springframework.security.crypto.password.PasswordEncoder;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+
+/*
+ * This class measures the time of a PasswordEncoder, BCrypt is deliberately slow and
+ * every /authenticate request checks a password with it.
+ *
+ * The time is recorded in the security.password.encoder timer with the tag operation
+ * (encode or matches), and for matches the tag result (match or mismatch).
+ */
+public class TimedPasswordEncoder implements PasswordEncoder {
+
+	private final PasswordEncoder delegate;
+	private final Timer encodeTimer;
+	private final Timer matchTimer;
+	private final Timer mismatchTimer;
+
+	public TimedPasswordEncoder(PasswordEncoder delegate, MeterRegistry meterRegistry) {
+		this.delegate = delegate;
+		this.encodeTimer = timer(meterRegistry, "encode", "none");
+		this.matchTimer = timer(meterRegistry, "matches", "match");
+		this.mismatchTimer = timer(meterRegistry, "matches", "mismatch");
+	}
+
+	private static Timer timer(MeterRegistry meterRegistry, String operation, String result) {
+		return Timer.builder("security.password.encoder").description("Time spent hashing and checking passwords")
+				.tag("operation", operation).tag("result", result).publishPercentiles(0.5, 0.95, 0.99)
+				.register(meterRegistry);
+	}
+
+	@Override
+	public String encode(CharSequence rawPassword) {
+		return encodeTimer.record(() -> delegate.encode(rawPassword));
+	}
+
+	@Override
+	public boolean matches(CharSequence rawPassword, String encodedPassword) {
+		long start = System.nanoTime();
+		boolean matches = delegate.matches(rawPassword, encodedPassword);
+		(matches ? matchTimer : mismatchTimer).record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+		return matches;
+	}
+
+	@Override
+	public boolean upgradeEncoding(String encodedPassword) {
+		return delegate.upgradeEncoding(encodedPassword);
+	}
+
+}
@@ -1,11 +1,15 @@
 package com.kokabmedia.jwt.resource;
 
+import java.security.Principal;
 import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
 
 import javax.servlet.http.HttpServletRequest;
 
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.security.authentication.AuthenticationManager;
@@ -21,8 +25,11 @@ import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestMethod;
 import org.springframework.web.bind.annotation.RestController;
 
+import io.micrometer.core.annotation.Timed;
+
 import com.kokabmedia.jwt.JwtTokenUtil;
 import com.kokabmedia.jwt.JwtUserDetails;
+import com.kokabmedia.jwt.PasswordCheckExecutor;
 
 /*
 * The purpose of this class is to act as an controller class for JWT  
@@ -48,6 +55,10 @@ import com.kokabmedia.jwt.JwtUserDetails;
 * mapped by a http message converter(Jackson) into another format, for example
 * a java object to JSON, XML or HTML. Response body converts the java object
 * and sends the response back.
+* 
+* The @Timed annotation times the token and refresh requests with percentiles, most of
+* the time of a token request is the BCrypt check of the password
+* (see TimedPasswordEncoder).
 */
 @RestController
 /*
@@ -57,6 +68,7 @@ import com.kokabmedia.jwt.JwtUserDetails;
  * front-end service.
  */
 @CrossOrigin(origins = "http://localhost:4200")
+@Timed(percentiles = { 0.5, 0.95, 0.99 }, histogram = true)
 public class JwtAuthenticationRestController {
 
 	@Value("${jwt.http.request.header}")
@@ -87,18 +99,35 @@ public class JwtAuthenticationRestController {
 	@Autowired
 	private UserDetailsService jwtInMemoryUserDetailsService;
 
+	@Autowired
+	private PasswordCheckExecutor passwordCheckExecutor;
+
+	/*
+	 * The password is checked on the PasswordCheckExecutor, the returned future frees the 
+	 * request thread until the check is done. When the queue of the executor is full the 
+	 * request is answered right away with HTTP status 503 Service Unavailable and a 
+	 * Retry-After header.
+	 */
 	@RequestMapping(value = "${jwt.get.token.uri}", method = RequestMethod.POST)
-	public ResponseEntity<?> createAuthenticationToken(@RequestBody JwtTokenRequest authenticationRequest)
-			throws AuthenticationException {
+	public CompletableFuture<ResponseEntity<?>> createAuthenticationToken(
+			@RequestBody JwtTokenRequest authenticationRequest) throws AuthenticationException {
 
-		authenticate(authenticationRequest.getUsername(), authenticationRequest.getPassword());
+		try {
+			return passwordCheckExecutor.<ResponseEntity<?>>submit(() -> {
+				authenticate(authenticationRequest.getUsername(), authenticationRequest.getPassword());
 
-		final UserDetails userDetails = jwtInMemoryUserDetailsService
-				.loadUserByUsername(authenticationRequest.getUsername());
+				final UserDetails userDetails = jwtInMemoryUserDetailsService
+						.loadUserByUsername(authenticationRequest.getUsername());
 
-		final String token = jwtTokenUtil.generateToken(userDetails);
+				final String token = jwtTokenUtil.generateToken(userDetails);
 
-		return ResponseEntity.ok(new JwtTokenResponse(token));
+				return ResponseEntity.ok(new JwtTokenResponse(token));
+			});
+		} catch (RejectedExecutionException e) {
+			return CompletableFuture.completedFuture(ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+					.header(HttpHeaders.RETRY_AFTER, Long.toString(passwordCheckExecutor.getRetryAfterSeconds()))
+					.build());
+		}
 	}
 
 	@RequestMapping(value = "${jwt.refresh.token.uri}", method = RequestMethod.GET)
@@ -116,6 +145,19 @@ public class JwtAuthenticationRestController {
 		}
 	}
 
+	/*
+	 * This method returns a short-lived token for the todo change stream of the signed in
+	 * user, the request itself is authenticated with the bearer token. The browser
+	 * EventSource cannot send the Authorization header, the client opens the stream with
+	 * the returned token in the streamToken query parameter instead (see
+	 * JwtTokenUtil.generateStreamToken).
+	 */
+	@RequestMapping(value = "${jwt.stream.token.uri}", method = RequestMethod.POST)
+	public ResponseEntity<JwtTokenResponse> createStreamToken(Principal principal) {
+		UserDetails userDetails = jwtInMemoryUserDetailsService.loadUserByUsername(principal.getName());
+		return ResponseEntity.ok(new JwtTokenResponse(jwtTokenUtil.generateStreamToken(userDetails)));
+	}
+
 	@ExceptionHandler({ AuthenticationException.class })
 	public ResponseEntity<String> handleAuthenticationException(AuthenticationException e) {
 		return ResponseEntity.status(HttpStatus.UNAUTHORIZED).body(e.getMessage());
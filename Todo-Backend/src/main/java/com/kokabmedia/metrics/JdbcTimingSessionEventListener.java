@@ -0,0 +1,47 @@
+package com.kokabmedia.metrics;
+
+import org.hibernate.BaseSessionEventListener;
+
+/*
+ * This class adds the time Hibernate spends executing JDBC statements and batches to the
+ * SqlRequestContext of the current thread.
+ * 
+ * Hibernate creates one listener for every session, the class is registered with the
+ * hibernate.session.events.auto setting in MetricsConfiguration.
+ */
+public class JdbcTimingSessionEventListener extends BaseSessionEventListener {
+
+	private static final long serialVersionUID = 1L;
+
+	private long statementStart = -1;
+	private long batchStart = -1;
+
+	@Override
+	public void jdbcExecuteStatementStart() {
+		statementStart = System.nanoTime();
+	}
+
+	@Override
+	public void jdbcExecuteStatementEnd() {
+		statementStart = record(statementStart);
+	}
+
+	@Override
+	public void jdbcExecuteBatchStart() {
+		batchStart = System.nanoTime();
+	}
+
+	@Override
+	public void jdbcExecuteBatchEnd() {
+		batchStart = record(batchStart);
+	}
+
+	private static long record(long start) {
+		SqlRequestContext context = SqlRequestContext.current();
+		if (start >= 0 && context != null) {
+			context.jdbcTime(System.nanoTime() - start);
+		}
+		return -1;
+	}
+
+}
@@ -0,0 +1,29 @@
+package com.kokabmedia.metrics;
+
+import org.hibernate.cfg.AvailableSettings;
+import org.springframework.boot.autoconfigure.orm.jpa.HibernatePropertiesCustomizer;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+/*
+ * This class registers the SqlStatementCounter and the JdbcTimingSessionEventListener
+ * with Hibernate, they collect the statements and JDBC time of every request for the
+ * SqlRequestMetricsFilter.
+ * 
+ * The Hibernate statistics (query executions, entity loads and so on) are enabled with
+ * spring.jpa.properties.hibernate.generate_statistics and published by the Spring Boot
+ * actuator as the hibernate.* metrics.
+ */
+@Configuration
+public class MetricsConfiguration {
+
+	@Bean
+	public HibernatePropertiesCustomizer sqlRequestMetricsCustomizer() {
+		return hibernateProperties -> {
+			hibernateProperties.put(AvailableSettings.STATEMENT_INSPECTOR, new SqlStatementCounter());
+			hibernateProperties.put(AvailableSettings.AUTO_SESSION_EVENTS_LISTENER,
+					JdbcTimingSessionEventListener.class.getName());
+		};
+	}
+
+}
@@ -0,0 +1,78 @@
+package com.kokabmedia.metrics;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/*
+ * This class collects the SQL statements and the JDBC time of the request that is
+ * handled by the current thread, it is filled by the SqlStatementCounter and the
+ * JdbcTimingSessionEventListener while SqlRequestMetricsFilter has started it.
+ * 
+ * Besides the total number of statements the number of executions of every distinct
+ * statement is kept (up to MAX_DISTINCT_STATEMENTS) so the statement that is repeated
+ * most often, typically an N+1 query, can be logged.
+ */
+public class SqlRequestContext {
+
+	private static final int MAX_DISTINCT_STATEMENTS = 100;
+
+	private static final ThreadLocal<SqlRequestContext> CURRENT = new ThreadLocal<>();
+
+	private final Map<String, Integer> executionsBySql = new HashMap<>();
+	private int statements;
+	private long jdbcNanos;
+
+	/*
+	 * Starts collecting on the current thread, a context that is already active is replaced.
+	 */
+	public static SqlRequestContext start() {
+		SqlRequestContext context = new SqlRequestContext();
+		CURRENT.set(context);
+		return context;
+	}
+
+	/*
+	 * Stops collecting on the current thread and returns what has been collected, an
+	 * empty context when collecting was not started.
+	 */
+	public static SqlRequestContext stop() {
+		SqlRequestContext context = CURRENT.get();
+		CURRENT.remove();
+		return context == null ? new SqlRequestContext() : context;
+	}
+
+	static SqlRequestContext current() {
+		return CURRENT.get();
+	}
+
+	void statementPrepared(String sql) {
+		statements++;
+		if (executionsBySql.size() < MAX_DISTINCT_STATEMENTS || executionsBySql.containsKey(sql)) {
+			executionsBySql.merge(sql, 1, Integer::sum);
+		}
+	}
+
+	void jdbcTime(long nanos) {
+		jdbcNanos += nanos;
+	}
+
+	public int getStatements() {
+		return statements;
+	}
+
+	public long getJdbcNanos() {
+		return jdbcNanos;
+	}
+
+	public double getJdbcMillis() {
+		return jdbcNanos / 1_000_000.0;
+	}
+
+	/*
+	 * The statement that was prepared most often, null when there was none.
+	 */
+	public Map.Entry<String, Integer> getMostRepeatedStatement() {
+		return executionsBySql.entrySet().stream().max(Map.Entry.comparingByValue()).orElse(null);
+	}
+
+}
@@ -0,0 +1,154 @@
+package com.kokabmedia.metrics;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpServletResponseWrapper;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.stereotype.Component;
+import org.springframework.web.filter.OncePerRequestFilter;
+import org.springframework.web.servlet.HandlerMapping;
+
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+
+/*
+ * This filter collects the SQL statements and the JDBC time of every HTTP request (see
+ * SqlRequestContext) and records them in the http.server.requests.sql.statements and
+ * http.server.requests.sql.time metrics, with the same method and uri tags as the
+ * http.server.requests timer, so chatty endpoints (N+1 queries) stand out.
+ *
+ * A request with more statements than todo.sql.log.statement-threshold or more JDBC time
+ * than todo.sql.log.time-threshold-ms is logged with the statement that was repeated
+ * most often. With todo.sql.debug-header=true the response carries the X-SQL-Statements
+ * and X-SQL-Time-Ms headers, they are added when the body is about to be written, which
+ * is after the handler has run its queries.
+ *
+ * The @Order annotation runs the filter before the Spring Security filters so the
+ * statements of the authentication are counted as well.
+ */
+@Component
+@Order(Ordered.HIGHEST_PRECEDENCE + 10)
+public class SqlRequestMetricsFilter extends OncePerRequestFilter {
+
+	public static final String STATEMENTS_HEADER = "X-SQL-Statements";
+	public static final String TIME_HEADER = "X-SQL-Time-Ms";
+
+	private final Logger logger = LoggerFactory.getLogger(this.getClass());
+
+	private final MeterRegistry meterRegistry;
+
+	@Value("${todo.sql.log.statement-threshold:20}")
+	private int statementThreshold;
+
+	@Value("${todo.sql.log.time-threshold-ms:100}")
+	private long timeThresholdMillis;
+
+	@Value("${todo.sql.debug-header:false}")
+	private boolean debugHeader;
+
+	public SqlRequestMetricsFilter(MeterRegistry meterRegistry) {
+		this.meterRegistry = meterRegistry;
+	}
+
+	@Override
+	protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain chain)
+			throws ServletException, IOException {
+		SqlRequestContext sql = SqlRequestContext.start();
+		SqlHeaderResponse headerResponse = debugHeader ? new SqlHeaderResponse(response, sql) : null;
+		try {
+			chain.doFilter(request, headerResponse != null ? headerResponse : response);
+			if (headerResponse != null) {
+				// Responses without a body, for example 204 No Content or 304 Not Modified
+				headerResponse.addSqlHeaders();
+			}
+		} finally {
+			SqlRequestContext.stop();
+			record(request, sql);
+		}
+	}
+
+	private void record(HttpServletRequest request, SqlRequestContext sql) {
+		String uri = uriTemplate(request);
+
+		DistributionSummary.builder("http.server.requests.sql.statements")
+				.description("SQL statements executed per HTTP request").baseUnit("statements")
+				.tag("method", request.getMethod()).tag("uri", uri).publishPercentiles(0.5, 0.95, 0.99)
+				.register(meterRegistry).record(sql.getStatements());
+		Timer.builder("http.server.requests.sql.time").description("JDBC execution time per HTTP request")
+				.tag("method", request.getMethod()).tag("uri", uri).publishPercentiles(0.5, 0.95, 0.99)
+				.register(meterRegistry).record(sql.getJdbcNanos(), TimeUnit.NANOSECONDS);
+
+		if (sql.getStatements() > statementThreshold || sql.getJdbcMillis() > timeThresholdMillis) {
+			Map.Entry<String, Integer> mostRepeated = sql.getMostRepeatedStatement();
+			logger.warn("SQL_HEAVY_REQUEST {} {} statements={} jdbcTimeMs={} mostRepeated={}x '{}'",
+					request.getMethod(), request.getRequestURI(), sql.getStatements(),
+					String.format("%.1f", sql.getJdbcMillis()), mostRepeated.getValue(), mostRepeated.getKey());
+		}
+	}
+
+	/*
+	 * The URI template of the handler, for example /jpa/users/{username}/todos, so the
+	 * number of tag values stays small.
+	 */
+	private static String uriTemplate(HttpServletRequest request) {
+		Object pattern = request.getAttribute(HandlerMapping.BEST_MATCHING_PATTERN_ATTRIBUTE);
+		return pattern == null ? "UNKNOWN" : pattern.toString();
+	}
+
+	/*
+	 * Adds the debug headers once, right before the body is written or the response is
+	 * committed.
+	 */
+	private static class SqlHeaderResponse extends HttpServletResponseWrapper {
+
+		private final SqlRequestContext sql;
+		private boolean headersAdded;
+
+		SqlHeaderResponse(HttpServletResponse response, SqlRequestContext sql) {
+			super(response);
+			this.sql = sql;
+		}
+
+		void addSqlHeaders() {
+			if (!headersAdded && !isCommitted()) {
+				setHeader(STATEMENTS_HEADER, Integer.toString(sql.getStatements()));
+				setHeader(TIME_HEADER, String.format("%.3f", sql.getJdbcMillis()));
+			}
+			headersAdded = true;
+		}
+
+		@Override
+		public ServletOutputStream getOutputStream() throws IOException {
+			addSqlHeaders();
+			return super.getOutputStream();
+		}
+
+		@Override
+		public PrintWriter getWriter() throws IOException {
+			addSqlHeaders();
+			return super.getWriter();
+		}
+
+		@Override
+		public void flushBuffer() throws IOException {
+			addSqlHeaders();
+			super.flushBuffer();
+		}
+
+	}
+
+}
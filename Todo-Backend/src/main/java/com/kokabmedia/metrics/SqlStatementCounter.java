@@ -0,0 +1,26 @@
+package com.kokabmedia.metrics;
+
+import org.hibernate.resource.jdbc.spi.StatementInspector;
+
+/*
+ * This class counts the SQL statements that Hibernate prepares on the current thread
+ * while a request is handled (see SqlRequestContext).
+ * 
+ * Hibernate passes every SQL statement to the StatementInspector before it is prepared,
+ * the statement is returned unchanged. The inspector is registered with the
+ * hibernate.session_factory.statement_inspector setting in MetricsConfiguration.
+ */
+public class SqlStatementCounter implements StatementInspector {
+
+	private static final long serialVersionUID = 1L;
+
+	@Override
+	public String inspect(String sql) {
+		SqlRequestContext context = SqlRequestContext.current();
+		if (context != null) {
+			context.statementPrepared(sql);
+		}
+		return sql;
+	}
+
+}
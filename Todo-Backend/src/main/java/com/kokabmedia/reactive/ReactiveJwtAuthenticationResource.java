@@ -0,0 +1,90 @@
+package com.kokabmedia.reactive;
+
+import java.util.concurrent.RejectedExecutionException;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.security.core.userdetails.UserDetails;
+import org.springframework.security.core.userdetails.UsernameNotFoundException;
+import org.springframework.security.crypto.password.PasswordEncoder;
+import org.springframework.web.bind.annotation.CrossOrigin;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RestController;
+
+import com.kokabmedia.jwt.JwtInMemoryUserDetailsService;
+import com.kokabmedia.jwt.JwtTokenUtil;
+import com.kokabmedia.jwt.PasswordCheckExecutor;
+import com.kokabmedia.jwt.resource.JwtTokenRequest;
+import com.kokabmedia.jwt.resource.JwtTokenResponse;
+
+import io.micrometer.core.annotation.Timed;
+import reactor.core.publisher.Mono;
+
+/*
+ * This class hands out the JWT tokens of the reactive todo API, like the token request
+ * of JwtAuthenticationRestController, so the reactive application can be used without
+ * the servlet application.
+ *
+ * Checking the password with BCrypt takes tens of milliseconds of CPU, on the event loop
+ * it would hold up every other connection of that event loop. The check runs on the
+ * PasswordCheckExecutor instead, when its queue is full the request gets HTTP status 503
+ * and a Retry-After header. A stored hash with a lower BCrypt work factor than the
+ * configured one is replaced after a successful check, as UserDetailsPasswordService
+ * does for the servlet application.
+ */
+@RestController
+@CrossOrigin(origins = "http://localhost:4200")
+@Timed(percentiles = { 0.5, 0.95, 0.99 }, histogram = true)
+public class ReactiveJwtAuthenticationResource {
+
+	@Autowired
+	private JwtInMemoryUserDetailsService jwtInMemoryUserDetailsService;
+
+	@Autowired
+	private PasswordEncoder passwordEncoder;
+
+	@Autowired
+	private JwtTokenUtil jwtTokenUtil;
+
+	@Autowired
+	private PasswordCheckExecutor passwordCheckExecutor;
+
+	@PostMapping("${jwt.get.token.uri}")
+	public Mono<ResponseEntity<?>> createAuthenticationToken(@RequestBody JwtTokenRequest authenticationRequest) {
+		if (authenticationRequest.getUsername() == null || authenticationRequest.getPassword() == null) {
+			return Mono.just(ResponseEntity.badRequest().build());
+		}
+
+		try {
+			return Mono.fromFuture(passwordCheckExecutor.submit(() -> check(authenticationRequest)));
+		} catch (RejectedExecutionException e) {
+			return Mono.just(ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+					.header(HttpHeaders.RETRY_AFTER, Long.toString(passwordCheckExecutor.getRetryAfterSeconds()))
+					.build());
+		}
+	}
+
+	private ResponseEntity<?> check(JwtTokenRequest authenticationRequest) {
+		UserDetails userDetails;
+		try {
+			userDetails = jwtInMemoryUserDetailsService.loadUserByUsername(authenticationRequest.getUsername());
+		} catch (UsernameNotFoundException e) {
+			return ResponseEntity.status(HttpStatus.UNAUTHORIZED).body("INVALID_CREDENTIALS");
+		}
+
+		if (!passwordEncoder.matches(authenticationRequest.getPassword(), userDetails.getPassword())) {
+			return ResponseEntity.status(HttpStatus.UNAUTHORIZED).body("INVALID_CREDENTIALS");
+		}
+
+		if (passwordEncoder.upgradeEncoding(userDetails.getPassword())) {
+			userDetails = jwtInMemoryUserDetailsService.updatePassword(userDetails,
+					passwordEncoder.encode(authenticationRequest.getPassword()));
+		}
+
+		return ResponseEntity.ok(new JwtTokenResponse(jwtTokenUtil.generateToken(userDetails)));
+	}
+
+}
@@ -0,0 +1,121 @@
+package com.kokabmedia.reactive;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.core.context.ReactiveSecurityContextHolder;
+import org.springframework.security.core.userdetails.UserDetails;
+import org.springframework.security.core.userdetails.UserDetailsService;
+import org.springframework.security.core.userdetails.UsernameNotFoundException;
+import org.springframework.web.server.ServerWebExchange;
+import org.springframework.web.server.WebFilter;
+import org.springframework.web.server.WebFilterChain;
+
+import com.kokabmedia.jwt.JwtTokenClaims;
+import com.kokabmedia.jwt.JwtTokenUtil;
+
+import io.jsonwebtoken.ExpiredJwtException;
+import io.jsonwebtoken.JwtException;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import reactor.core.publisher.Mono;
+
+/*
+ * This class is the reactive counterpart of JwtTokenAuthorizationOncePerRequestFilter,
+ * it checks the bearer token of every request of the reactive todo API and counts the
+ * outcomes in the same jwt.authentication metric.
+ *
+ * There is no thread bound SecurityContextHolder in WebFlux, the authentication of a
+ * valid token is written into the Reactor context of the rest of the filter chain, where
+ * ReactiveSecurityContextHolder and the authorization rules of Spring Security find it.
+ * The token check itself is pure CPU work (an HMAC and a map lookup) and runs on the
+ * event loop.
+ *
+ * The filter is not a bean, Spring WebFlux would otherwise run it a second time for
+ * every request outside of the Spring Security filter chain. It is created by
+ * ReactiveSecurityConfiguration.
+ */
+public class ReactiveJwtAuthenticationWebFilter implements WebFilter {
+
+	private final Logger logger = LoggerFactory.getLogger(this.getClass());
+
+	private final UserDetailsService jwtInMemoryUserDetailsService;
+	private final JwtTokenUtil jwtTokenUtil;
+	private final String tokenHeader;
+
+	private final Counter validTokens;
+	private final Counter invalidTokens;
+	private final Counter expiredTokens;
+	private final Counter malformedTokens;
+	private final Counter missingBearerTokens;
+
+	public ReactiveJwtAuthenticationWebFilter(UserDetailsService jwtInMemoryUserDetailsService,
+			JwtTokenUtil jwtTokenUtil, String tokenHeader, MeterRegistry meterRegistry) {
+		this.jwtInMemoryUserDetailsService = jwtInMemoryUserDetailsService;
+		this.jwtTokenUtil = jwtTokenUtil;
+		this.tokenHeader = tokenHeader;
+		this.validTokens = outcomeCounter(meterRegistry, "valid");
+		this.invalidTokens = outcomeCounter(meterRegistry, "invalid");
+		this.expiredTokens = outcomeCounter(meterRegistry, "expired");
+		this.malformedTokens = outcomeCounter(meterRegistry, "malformed");
+		this.missingBearerTokens = outcomeCounter(meterRegistry, "missing_bearer");
+	}
+
+	private static Counter outcomeCounter(MeterRegistry meterRegistry, String outcome) {
+		return Counter.builder("jwt.authentication").description("Outcomes of the JWT checks of the requests")
+				.tag("outcome", outcome).register(meterRegistry);
+	}
+
+	@Override
+	public Mono<Void> filter(ServerWebExchange exchange, WebFilterChain chain) {
+		logger.debug("Authentication Request For '{}'", exchange.getRequest().getURI());
+
+		final String requestTokenHeader = exchange.getRequest().getHeaders().getFirst(tokenHeader);
+
+		JwtTokenClaims claims = null;
+		if (requestTokenHeader != null && requestTokenHeader.startsWith("Bearer ")) {
+			String jwtToken = requestTokenHeader.substring(7);
+			try {
+				claims = jwtTokenUtil.getVerifiedClaimsFromToken(jwtToken);
+			} catch (IllegalArgumentException e) {
+				malformedTokens.increment();
+				logger.error("JWT_TOKEN_UNABLE_TO_GET_USERNAME", e);
+			} catch (ExpiredJwtException e) {
+				expiredTokens.increment();
+				logger.warn("JWT_TOKEN_EXPIRED", e);
+			} catch (JwtException e) {
+				malformedTokens.increment();
+				logger.warn("JWT_TOKEN_INVALID", e);
+			}
+		} else {
+			missingBearerTokens.increment();
+			logger.warn("JWT_TOKEN_DOES_NOT_START_WITH_BEARER_STRING");
+		}
+
+		String username = claims == null ? null : claims.getUsername();
+		logger.debug("JWT_TOKEN_USERNAME_VALUE '{}'", username);
+		if (username == null) {
+			return chain.filter(exchange);
+		}
+
+		UserDetails userDetails;
+		try {
+			userDetails = jwtInMemoryUserDetailsService.loadUserByUsername(username);
+		} catch (UsernameNotFoundException e) {
+			// A token of a user that has been removed from the users file
+			invalidTokens.increment();
+			return chain.filter(exchange);
+		}
+
+		if (!jwtTokenUtil.validateToken(claims, userDetails)) {
+			invalidTokens.increment();
+			return chain.filter(exchange);
+		}
+
+		validTokens.increment();
+		UsernamePasswordAuthenticationToken authentication = new UsernamePasswordAuthenticationToken(userDetails,
+				null, userDetails.getAuthorities());
+		return chain.filter(exchange).contextWrite(ReactiveSecurityContextHolder.withAuthentication(authentication));
+	}
+
+}
@@ -0,0 +1,57 @@
+package com.kokabmedia.reactive;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.security.config.annotation.web.reactive.EnableWebFluxSecurity;
+import org.springframework.security.config.web.server.SecurityWebFiltersOrder;
+import org.springframework.security.config.web.server.ServerHttpSecurity;
+import org.springframework.security.core.userdetails.UserDetailsService;
+import org.springframework.security.web.server.SecurityWebFilterChain;
+import org.springframework.security.web.server.authentication.HttpStatusServerEntryPoint;
+import org.springframework.security.web.server.context.NoOpServerSecurityContextRepository;
+
+import com.kokabmedia.jwt.JwtTokenUtil;
+
+import io.micrometer.core.instrument.MeterRegistry;
+
+/*
+ * This class is the Spring Security configuration of the reactive todo API, with the
+ * same rules as JWTWebSecurityConfig: the token request, CORS preflight requests and the
+ * health and Prometheus endpoints are open, every other request needs a valid bearer
+ * token (see ReactiveJwtAuthenticationWebFilter) and gets HTTP status 401 without one.
+ *
+ * Nothing is kept between requests, the NoOpServerSecurityContextRepository stops Spring
+ * Security from storing the authentication in a WebSession.
+ *
+ * The @EnableWebFluxSecurity annotation sets up Spring Security for Spring WebFlux.
+ */
+@Configuration
+@EnableWebFluxSecurity
+public class ReactiveSecurityConfiguration {
+
+	@Bean
+	public SecurityWebFilterChain securityWebFilterChain(ServerHttpSecurity http,
+			UserDetailsService jwtInMemoryUserDetailsService, JwtTokenUtil jwtTokenUtil, MeterRegistry meterRegistry,
+			@Value("${jwt.http.request.header}") String tokenHeader,
+			@Value("${jwt.get.token.uri}") String authenticationPath) {
+
+		ReactiveJwtAuthenticationWebFilter jwtAuthenticationWebFilter = new ReactiveJwtAuthenticationWebFilter(
+				jwtInMemoryUserDetailsService, jwtTokenUtil, tokenHeader, meterRegistry);
+
+		return http.csrf().disable().httpBasic().disable().formLogin().disable().logout().disable()
+				.securityContextRepository(NoOpServerSecurityContextRepository.getInstance())
+				.exceptionHandling().authenticationEntryPoint(new HttpStatusServerEntryPoint(HttpStatus.UNAUTHORIZED))
+				.and().authorizeExchange()
+				.pathMatchers(HttpMethod.POST, authenticationPath).permitAll()
+				.pathMatchers(HttpMethod.OPTIONS, "/**").permitAll()
+				.pathMatchers(HttpMethod.GET, "/actuator/health").permitAll()
+				.pathMatchers(HttpMethod.GET, "/actuator/prometheus").hasRole("ADMIN")
+				.anyExchange().authenticated()
+				.and().addFilterAt(jwtAuthenticationWebFilter, SecurityWebFiltersOrder.AUTHENTICATION)
+				.build();
+	}
+
+}
@@ -0,0 +1,63 @@
+package com.kokabmedia.reactive;
+
+import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.boot.autoconfigure.jdbc.DataSourceAutoConfiguration;
+import org.springframework.boot.autoconfigure.jdbc.DataSourceTransactionManagerAutoConfiguration;
+import org.springframework.boot.autoconfigure.orm.jpa.HibernateJpaAutoConfiguration;
+import org.springframework.boot.autoconfigure.security.reactive.ReactiveUserDetailsServiceAutoConfiguration;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.boot.web.embedded.netty.NettyReactiveWebServerFactory;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Import;
+
+import com.kokabmedia.jwt.JwtInMemoryUserDetailsService;
+import com.kokabmedia.jwt.JwtTokenUtil;
+import com.kokabmedia.jwt.JwtVerifiedTokenCache;
+import com.kokabmedia.jwt.PasswordCheckExecutor;
+import com.kokabmedia.jwt.PasswordConfiguration;
+import com.kokabmedia.todo.TodoCollectionVersions;
+
+/*
+* This class is the main class of the reactive variant of the todo API, the same todo
+* URIs as TodoJpaResource served by Spring WebFlux on Netty with the todos in H2 through
+* R2DBC. No request holds a thread while it waits for the database, a few event loop
+* threads serve all connections.
+*
+* It is a separate application next to RestfulWebServiceAngularApplication, which skips
+* this package, and is started with its own main class, for example
+*
+*     mvn spring-boot:run -Dspring-boot.run.main-class=com.kokabmedia.reactive.ReactiveTodoApplication
+*
+* The main method activates the reactive profile, application-reactive.properties then
+* switches the application type to reactive and creates the todo tables (Hibernate does
+* not run here). The settings of application.properties, like the JWT secret, are
+* shared, so a token of one application is valid in the other.
+*
+* The @SpringBootApplication annotation scans this package only, the JWT and password
+* classes and the collection versions of the servlet application are imported with
+* @Import. JPA and the DataSource are excluded, and so are the generated default users
+* of Spring Security, the users come from JwtInMemoryUserDetailsService.
+*/
+@SpringBootApplication(exclude = { DataSourceAutoConfiguration.class,
+		DataSourceTransactionManagerAutoConfiguration.class, HibernateJpaAutoConfiguration.class,
+		ReactiveUserDetailsServiceAutoConfiguration.class })
+@Import({ JwtTokenUtil.class, JwtVerifiedTokenCache.class, JwtInMemoryUserDetailsService.class,
+		PasswordConfiguration.class, PasswordCheckExecutor.class, TodoCollectionVersions.class })
+public class ReactiveTodoApplication {
+
+	public static final String PROFILE = "reactive";
+
+	public static void main(String[] args) {
+		new SpringApplicationBuilder(ReactiveTodoApplication.class).profiles(PROFILE).run(args);
+	}
+
+	/*
+	 * Spring Boot would run a reactive application on Tomcat because Tomcat is on the
+	 * class path for the servlet application, this bean makes it use Netty.
+	 */
+	@Bean
+	public NettyReactiveWebServerFactory nettyReactiveWebServerFactory() {
+		return new NettyReactiveWebServerFactory();
+	}
+
+}
@@ -0,0 +1,65 @@
+package com.kokabmedia.reactive;
+
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.r2dbc.core.DatabaseClient;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+
+import reactor.core.publisher.Mono;
+import reactor.util.function.Tuple2;
+import reactor.util.function.Tuples;
+
+/*
+ * This class hands out the change sequence numbers of the todos of a user for the
+ * reactive todo API, with the same todo_change_sequence rows and the same guarantee as
+ * TodoChangeSequencer: concurrent changes of one user wait for each other, a change
+ * with a higher number is never committed before a change with a lower number.
+ *
+ * Instead of reading the row with a lock and writing it back, the row is incremented
+ * first. The UPDATE locks the row until the commit and the number is read afterwards.
+ * The waiting happens in the database, no thread is blocked while a change waits.
+ */
+@Component
+public class ReactiveTodoChangeSequencer {
+
+	private final DatabaseClient databaseClient;
+
+	public ReactiveTodoChangeSequencer(DatabaseClient databaseClient) {
+		this.databaseClient = databaseClient;
+	}
+
+	/*
+	 * Reserves count consecutive numbers and emits the first one. The row of a new user
+	 * is inserted, when a concurrent change has inserted it first the row is incremented
+	 * after all.
+	 */
+	@Transactional(propagation = Propagation.MANDATORY)
+	public Mono<Long> reserve(String username, int count) {
+		return increment(username, count).flatMap(updated -> updated > 0 ? Mono.<Void>empty()
+				: databaseClient
+						.sql("insert into todo_change_sequence(username, last_seq, compacted_through_seq)"
+								+ " values (:username, :count, 0)")
+						.bind("username", username).bind("count", count).then()
+						.onErrorResume(DataIntegrityViolationException.class, e -> increment(username, count).then()))
+				.then(findSequence(username)).map(sequence -> sequence.getT1() - count + 1);
+	}
+
+	/*
+	 * The last change sequence handed out and the highest compacted one of the user,
+	 * both 0 for a user without changes.
+	 */
+	public Mono<Tuple2<Long, Long>> findSequence(String username) {
+		return databaseClient
+				.sql("select last_seq, compacted_through_seq from todo_change_sequence where username = :username")
+				.bind("username", username)
+				.map(row -> Tuples.of(row.get("last_seq", Long.class), row.get("compacted_through_seq", Long.class)))
+				.one().defaultIfEmpty(Tuples.of(0L, 0L));
+	}
+
+	private Mono<Integer> increment(String username, int count) {
+		return databaseClient.sql("update todo_change_sequence set last_seq = last_seq + :count where username = :username")
+				.bind("username", username).bind("count", count).fetch().rowsUpdated();
+	}
+
+}
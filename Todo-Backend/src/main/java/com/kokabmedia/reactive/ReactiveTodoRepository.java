@@ -0,0 +1,173 @@
+package com.kokabmedia.reactive;
+
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.Date;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.r2dbc.core.DatabaseClient;
+import org.springframework.r2dbc.core.DatabaseClient.GenericExecuteSpec;
+import org.springframework.stereotype.Repository;
+
+import com.kokabmedia.todo.Todo;
+import com.kokabmedia.todo.TodoIdGenerator;
+
+import io.r2dbc.spi.Row;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+/*
+ * This class reads and writes the todos of the reactive todo API with R2DBC, the
+ * counterpart of TodoJpaRepository. The rows are mapped onto the Todo entity class of
+ * the servlet application, so both applications work on the same table layout.
+ *
+ * The statements are written out because Spring Data R2DBC knows neither the JPA
+ * mapping annotations of Todo nor the todo_seq sequence. The version is checked and
+ * incremented in the UPDATE statements like Hibernate does for @Version.
+ *
+ * Every method returns right away, the rows are emitted once the database has answered.
+ */
+@Repository
+public class ReactiveTodoRepository {
+
+	private static final String SELECT_TODO = "select id, username, description, target_date, is_done, version,"
+			+ " change_seq, deleted, deleted_at from todo";
+
+	private static final String NEXT_ID_BLOCK_SQL = "select next value for " + TodoIdGenerator.SEQUENCE_NAME;
+
+	private final DatabaseClient databaseClient;
+	private final int idAllocationSize;
+
+	private final Object idLock = new Object();
+	private long nextId;
+	private long idLimit;
+
+	public ReactiveTodoRepository(DatabaseClient databaseClient,
+			@Value("${spring.jpa.properties." + TodoIdGenerator.ALLOCATION_SIZE_SETTING + ":"
+					+ TodoIdGenerator.DEFAULT_ALLOCATION_SIZE + "}") int idAllocationSize) {
+		this.databaseClient = databaseClient;
+		this.idAllocationSize = idAllocationSize;
+	}
+
+	/*
+	 * The todos of the user that are not deleted.
+	 */
+	public Flux<Todo> findByUsername(String username) {
+		return databaseClient.sql(SELECT_TODO + " where username = :username and deleted = false")
+				.bind("username", username).map(ReactiveTodoRepository::toTodo).all();
+	}
+
+	/*
+	 * The todo of the user with the id, empty for a todo that does not exist, has been
+	 * deleted or belongs to another user.
+	 */
+	public Mono<Todo> findById(String username, long id) {
+		return databaseClient.sql(SELECT_TODO + " where id = :id and username = :username and deleted = false")
+				.bind("id", id).bind("username", username).map(ReactiveTodoRepository::toTodo).one();
+	}
+
+	/*
+	 * The todos and tombstones of the user with a change sequence above since, in the
+	 * order of the change sequence.
+	 */
+	public Flux<Todo> findChangedSince(String username, long since, int limit) {
+		return databaseClient
+				.sql(SELECT_TODO + " where username = :username and change_seq > :since order by change_seq asc"
+						+ " limit :limit")
+				.bind("username", username).bind("since", since).bind("limit", limit)
+				.map(ReactiveTodoRepository::toTodo).all();
+	}
+
+	public Mono<Void> insert(Todo todo) {
+		GenericExecuteSpec insert = databaseClient.sql("insert into todo(id, username, description, target_date,"
+				+ " is_done, version, change_seq, deleted) values (:id, :username, :description, :targetDate,"
+				+ " :done, :version, :changeSeq, false)").bind("id", todo.getId())
+				.bind("username", todo.getUsername()).bind("done", todo.isDone())
+				.bind("version", todo.getVersion()).bind("changeSeq", todo.getChangeSeq());
+		insert = bindNullable(insert, "description", todo.getDescription(), String.class);
+		insert = bindNullable(insert, "targetDate", toLocalDateTime(todo.getTargetDate()), LocalDateTime.class);
+		return insert.then();
+	}
+
+	/*
+	 * Stores the description, targetDate, isDone and change sequence of the todo and
+	 * increments its version, only when the stored todo still belongs to the username of
+	 * the todo and the stored version is still the given one.
+	 * Emits the number of updated rows, 0 when the todo has been changed or deleted in
+	 * the meantime.
+	 */
+	public Mono<Integer> update(Todo todo, long expectedVersion) {
+		GenericExecuteSpec update = databaseClient.sql("update todo set description = :description,"
+				+ " target_date = :targetDate, is_done = :done, change_seq = :changeSeq, version = version + 1"
+				+ " where id = :id and username = :username and version = :version and deleted = false")
+				.bind("id", todo.getId()).bind("username", todo.getUsername()).bind("version", expectedVersion).bind("done", todo.isDone())
+				.bind("changeSeq", todo.getChangeSeq());
+		update = bindNullable(update, "description", todo.getDescription(), String.class);
+		update = bindNullable(update, "targetDate", toLocalDateTime(todo.getTargetDate()), LocalDateTime.class);
+		return update.fetch().rowsUpdated();
+	}
+
+	/*
+	 * Turns the todo of the user into a tombstone, emits 0 when it has already been
+	 * deleted.
+	 */
+	public Mono<Integer> markDeleted(String username, long id, Date deletedAt, long changeSeq) {
+		return databaseClient.sql("update todo set deleted = true, deleted_at = :deletedAt, change_seq = :changeSeq,"
+				+ " version = version + 1 where id = :id and username = :username and deleted = false")
+				.bind("id", id).bind("username", username).bind("deletedAt", toLocalDateTime(deletedAt)).bind("changeSeq", changeSeq).fetch().rowsUpdated();
+	}
+
+	/*
+	 * The next id for a new todo. Like TodoIdGenerator does for Hibernate, every value of
+	 * the todo_seq sequence is the first id of a block of ids (pooled-lo), so only one
+	 * create out of a block goes to the sequence. When two creates fetch a block at the
+	 * same time the rest of one block is dropped, which only leaves a gap in the ids.
+	 */
+	public Mono<Long> nextId() {
+		return Mono.defer(() -> {
+			synchronized (idLock) {
+				if (nextId < idLimit) {
+					return Mono.just(nextId++);
+				}
+			}
+			return databaseClient.sql(NEXT_ID_BLOCK_SQL).map(row -> row.get(0, Long.class)).one().map(first -> {
+				synchronized (idLock) {
+					if (nextId >= idLimit) {
+						nextId = first + 1;
+						idLimit = first + idAllocationSize;
+					}
+				}
+				return first;
+			});
+		});
+	}
+
+	private static GenericExecuteSpec bindNullable(GenericExecuteSpec spec, String name, Object value,
+			Class<?> type) {
+		return value == null ? spec.bindNull(name, type) : spec.bind(name, value);
+	}
+
+	/*
+	 * The timestamps are stored in the time zone of the JVM, like Hibernate stores a Date.
+	 */
+	private static LocalDateTime toLocalDateTime(Date date) {
+		return date == null ? null : LocalDateTime.ofInstant(date.toInstant(), ZoneId.systemDefault());
+	}
+
+	private static Date toDate(LocalDateTime dateTime) {
+		return dateTime == null ? null : Date.from(dateTime.atZone(ZoneId.systemDefault()).toInstant());
+	}
+
+	private static Todo toTodo(Row row) {
+		Todo todo = new Todo(row.get("id", Long.class), row.get("username", String.class),
+				row.get("description", String.class), toDate(row.get("target_date", LocalDateTime.class)),
+				row.get("is_done", Boolean.class));
+		todo.setVersion(row.get("version", Long.class));
+		todo.setChangeSeq(row.get("change_seq", Long.class));
+		if (row.get("deleted", Boolean.class)) {
+			todo.markDeleted(toDate(row.get("deleted_at", LocalDateTime.class)));
+		}
+		return todo;
+	}
+
+}
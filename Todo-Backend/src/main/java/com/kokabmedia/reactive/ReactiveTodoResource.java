@@ -0,0 +1,164 @@
+package com.kokabmedia.reactive;
+
+import java.net.URI;
+import java.time.Instant;
+import java.util.List;
+import java.util.Optional;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.dao.OptimisticLockingFailureException;
+import org.springframework.http.CacheControl;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.DeleteMapping;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.PutMapping;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestHeader;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.server.ServerWebExchange;
+import org.springframework.web.util.UriComponentsBuilder;
+
+import com.kokabmedia.todo.Todo;
+import com.kokabmedia.todo.TodoChanges;
+import com.kokabmedia.todo.TodoCollectionVersions;
+
+import io.micrometer.core.annotation.Timed;
+import reactor.core.publisher.Mono;
+
+/*
+ * This class is the reactive counterpart of TodoJpaResource with the same URIs, status
+ * codes and headers for reading, creating, updating and deleting todos and for the
+ * delta sync. The handler methods return a Mono, Spring WebFlux writes the response once
+ * the Mono emits, no thread waits for the database in the meantime.
+ *
+ * The ETag and Last-Modified time of the todo lists come from TodoCollectionVersions,
+ * which sees the TodoChangedEvent of every change made through ReactiveTodoService. The
+ * read cache, the page, stream, batch, export and import endpoints of TodoJpaResource
+ * are only served by the servlet application.
+ */
+@RestController
+@Timed(percentiles = { 0.5, 0.95, 0.99 }, histogram = true)
+public class ReactiveTodoResource {
+
+	private static final int DEFAULT_CHANGES_LIMIT = 500;
+	private static final int MAX_CHANGES_LIMIT = 5000;
+
+	private static final CacheControl REVALIDATE = CacheControl.noCache().cachePrivate();
+
+	@Autowired
+	private ReactiveTodoRepository reactiveTodoRepository;
+
+	@Autowired
+	private ReactiveTodoService reactiveTodoService;
+
+	@Autowired
+	private TodoCollectionVersions todoCollectionVersions;
+
+	/*
+	 * The watermark is read before the todos are loaded, see TodoJpaResource.getAllTodos().
+	 * An empty Mono after checkNotModified() completes the response with HTTP status 304.
+	 */
+	@GetMapping("/jpa/users/{username}/todos")
+	public Mono<ResponseEntity<List<Todo>>> getAllTodos(@PathVariable String username, ServerWebExchange exchange) {
+		TodoCollectionVersions.Watermark watermark = todoCollectionVersions.current(username);
+		long lastModified = watermark.getStableLastModified();
+
+		boolean notModified = lastModified < 0 ? exchange.checkNotModified(watermark.getETag())
+				: exchange.checkNotModified(watermark.getETag(), Instant.ofEpochMilli(lastModified));
+		if (notModified) {
+			return Mono.empty();
+		}
+
+		ResponseEntity.BodyBuilder response = ResponseEntity.ok().cacheControl(REVALIDATE).eTag(watermark.getETag());
+		if (lastModified >= 0) {
+			response.lastModified(lastModified);
+		}
+		return reactiveTodoRepository.findByUsername(username).collectList().map(response::body);
+	}
+
+	@GetMapping("/jpa/users/{username}/todos/changes")
+	public Mono<ResponseEntity<TodoChanges>> getTodoChanges(@PathVariable String username,
+			@RequestParam(defaultValue = "0") long since,
+			@RequestParam(defaultValue = "" + DEFAULT_CHANGES_LIMIT) int limit) {
+
+		if (since < 0 || limit < 1 || limit > MAX_CHANGES_LIMIT) {
+			return Mono.just(ResponseEntity.badRequest().build());
+		}
+
+		return reactiveTodoService.changesSince(username, since, limit)
+				.map(changes -> ResponseEntity.ok().cacheControl(CacheControl.noStore()).body(changes));
+	}
+
+	@GetMapping("/jpa/users/{username}/todos/{id}")
+	public Mono<ResponseEntity<Todo>> getTodo(@PathVariable String username, @PathVariable long id,
+			ServerWebExchange exchange) {
+		return reactiveTodoRepository.findById(username, id).map(Optional::of).defaultIfEmpty(Optional.empty())
+				.flatMap(todo -> {
+					if (!todo.isPresent()) {
+						return Mono.just(ResponseEntity.notFound().build());
+					}
+
+					String eTag = eTagOf(todo.get());
+					if (exchange.checkNotModified(eTag)) {
+						return Mono.empty();
+					}
+
+					return Mono.just(ResponseEntity.ok().cacheControl(REVALIDATE).eTag(eTag).body(todo.get()));
+				});
+	}
+
+	@DeleteMapping("/jpa/users/{username}/todos/{id}")
+	public Mono<ResponseEntity<Void>> deleteTodo(@PathVariable String username, @PathVariable long id) {
+		return reactiveTodoService.delete(username, id).map(
+				deleted -> deleted ? ResponseEntity.noContent().build() : ResponseEntity.notFound().build());
+	}
+
+	/*
+	 * A client that sends the ETag of the todo with If-Match only updates the todo when
+	 * nobody else has changed it in the meantime, otherwise HTTP status 412 Precondition
+	 * Failed is returned.
+	 */
+	@PutMapping("/jpa/users/{username}/todos/{id}")
+	public Mono<ResponseEntity<Todo>> updateTodo(@PathVariable String username, @PathVariable long id,
+			@RequestBody Todo todo, @RequestHeader(value = "If-Match", required = false) String ifMatch) {
+
+		return reactiveTodoRepository.findById(username, id).flatMap(existing -> {
+			if (ifMatch != null && !matchesIfMatch(ifMatch, eTagOf(existing))) {
+				return Mono.just(ResponseEntity.status(HttpStatus.PRECONDITION_FAILED).<Todo>build());
+			}
+			return reactiveTodoService.update(username, id, todo, existing.getVersion())
+					.map(updated -> ResponseEntity.ok().eTag(eTagOf(updated)).body(updated))
+					.onErrorResume(OptimisticLockingFailureException.class,
+							e -> Mono.just(ResponseEntity.status(HttpStatus.PRECONDITION_FAILED).build()));
+		}).defaultIfEmpty(ResponseEntity.notFound().build());
+	}
+
+	@PostMapping("/jpa/users/{username}/todos")
+	public Mono<ResponseEntity<Void>> createTodo(@PathVariable String username, @RequestBody Todo todo,
+			ServerWebExchange exchange) {
+		return reactiveTodoService.create(username, todo).map(created -> {
+			URI uri = UriComponentsBuilder.fromUri(exchange.getRequest().getURI()).path("/{id}")
+					.buildAndExpand(created.getId()).toUri();
+			return ResponseEntity.created(uri).build();
+		});
+	}
+
+	private static String eTagOf(Todo todo) {
+		return "\"" + todo.getVersion() + "\"";
+	}
+
+	private static boolean matchesIfMatch(String ifMatch, String eTag) {
+		for (String candidate : ifMatch.split(",")) {
+			String trimmed = candidate.trim();
+			if (trimmed.equals("*") || trimmed.equals(eTag)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+}
@@ -0,0 +1,182 @@
+package com.kokabmedia.reactive;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.function.Function;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.dao.OptimisticLockingFailureException;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.reactive.TransactionSynchronization;
+import org.springframework.transaction.reactive.TransactionSynchronizationManager;
+
+import com.kokabmedia.todo.Todo;
+import com.kokabmedia.todo.TodoChangedEvent;
+import com.kokabmedia.todo.TodoChanges;
+
+import reactor.core.publisher.Mono;
+
+/*
+* This class creates, updates and deletes the todos of ReactiveTodoResource together
+* with the change sequence of the user in one R2DBC transaction, and answers the delta
+* sync requests, just like TodoJpaService does for the servlet application.
+*
+* The @Transactional annotation works on methods that return a Mono as well, the
+* transaction is started when the Mono is subscribed to and committed when it completes.
+*
+* A TodoChangedEvent is published for every change. The @TransactionalEventListener
+* methods only wait for the commit of a transaction bound to the thread, a reactive
+* transaction is not, so the event is only published from the afterCommit() callback of
+* the reactive transaction.
+*/
+@Service
+@Transactional
+public class ReactiveTodoService {
+
+	@Autowired
+	private ReactiveTodoRepository reactiveTodoRepository;
+
+	@Autowired
+	private ReactiveTodoChangeSequencer reactiveTodoChangeSequencer;
+
+	@Autowired
+	private ApplicationEventPublisher eventPublisher;
+
+	public Mono<Todo> create(String username, Todo todo) {
+		todo.setUsername(username);
+		todo.setVersion(0L);
+		return reactiveTodoChangeSequencer.reserve(username, 1).flatMap(changeSeq -> {
+			todo.setChangeSeq(changeSeq);
+			return reactiveTodoRepository.nextId();
+		}).flatMap(id -> {
+			todo.setId(id);
+			return reactiveTodoRepository.insert(todo);
+		}).then(publishAfterCommit(TodoChangedEvent::created, todo)).thenReturn(todo);
+	}
+
+	/*
+	 * Copies the description, targetDate and isDone values onto the stored todo of the
+	 * user, empty when the user has no such todo. When the stored todo no longer has the expected version
+	 * (null to skip the check) the Mono fails with an OptimisticLockingFailureException,
+	 * just like when it is changed concurrently.
+	 */
+	public Mono<Todo> update(String username, long id, Todo todo, Long expectedVersion) {
+		return reactiveTodoRepository.findById(username, id).flatMap(stored -> {
+			if (expectedVersion != null && !expectedVersion.equals(stored.getVersion())) {
+				return Mono.error(new OptimisticLockingFailureException("TODO_VERSION_CHANGED " + id));
+			}
+
+			stored.setDescription(todo.getDescription());
+			stored.setTargetDate(todo.getTargetDate());
+			stored.setDone(todo.isDone());
+			return reactiveTodoChangeSequencer.reserve(stored.getUsername(), 1).flatMap(changeSeq -> {
+				stored.setChangeSeq(changeSeq);
+				return reactiveTodoRepository.update(stored, stored.getVersion());
+			}).flatMap(updated -> {
+				if (updated == 0) {
+					return Mono.error(new OptimisticLockingFailureException("TODO_VERSION_CHANGED " + id));
+				}
+				stored.setVersion(stored.getVersion() + 1);
+				return publishAfterCommit(TodoChangedEvent::updated, stored).thenReturn(stored);
+			});
+		});
+	}
+
+	/*
+	 * Turns the todo of the user into a tombstone, emits false when the user has no such
+	 * todo.
+	 */
+	public Mono<Boolean> delete(String username, long id) {
+		return reactiveTodoRepository.findById(username, id)
+				.flatMap(stored -> reactiveTodoChangeSequencer.reserve(stored.getUsername(), 1)
+						.flatMap(changeSeq -> reactiveTodoRepository.markDeleted(username, id, new Date(), changeSeq))
+						.flatMap(deleted -> deleted == 0 ? Mono.just(false)
+								: publishAfterCommit(todo -> TodoChangedEvent.deleted(todo.getUsername(), id), stored)
+										.thenReturn(true)))
+				.defaultIfEmpty(false);
+	}
+
+	/*
+	 * Returns at most limit todos and tombstones of the user that changed after the change
+	 * sequence since, see TodoJpaService.changesSince() for the rules of a full resync.
+	 */
+	@Transactional(readOnly = true)
+	public Mono<TodoChanges> changesSince(String username, long since, int limit) {
+		return reactiveTodoChangeSequencer.findSequence(username).flatMap(sequence -> {
+			long lastSeq = sequence.getT1();
+			long compactedThroughSeq = sequence.getT2();
+
+			if (since < compactedThroughSeq || since > lastSeq) {
+				return fullResync(username, since, lastSeq);
+			}
+
+			return reactiveTodoRepository.findChangedSince(username, since, limit + 1).collectList()
+					.flatMap(changed -> reactiveTodoChangeSequencer.findSequence(username).flatMap(current -> {
+						// The tombstones may have been compacted while the changes were read
+						if (since < current.getT2()) {
+							return fullResync(username, since, lastSeq);
+						}
+						return Mono.just(toChanges(since, lastSeq, limit, changed));
+					}));
+		});
+	}
+
+	private static TodoChanges toChanges(long since, long lastSeq, int limit, List<Todo> changed) {
+		boolean hasMore = changed.size() > limit;
+		if (hasMore) {
+			changed = changed.subList(0, limit);
+		}
+
+		List<Todo> upserts = new ArrayList<>();
+		List<Long> deletes = new ArrayList<>();
+		long seq = since;
+		for (Todo todo : changed) {
+			if (todo.isDeleted()) {
+				deletes.add(todo.getId());
+			} else {
+				upserts.add(todo);
+			}
+			seq = Math.max(seq, todo.getChangeSeq());
+		}
+		if (!hasMore) {
+			seq = Math.max(seq, lastSeq);
+		}
+
+		return new TodoChanges(since, seq, hasMore, false, upserts, deletes);
+	}
+
+	private Mono<TodoChanges> fullResync(String username, long since, long lastSeq) {
+		return reactiveTodoRepository.findByUsername(username).collectList().map(todos -> {
+			long seq = lastSeq;
+			for (Todo todo : todos) {
+				seq = Math.max(seq, todo.getChangeSeq());
+			}
+			return new TodoChanges(since, seq, false, true, todos, new ArrayList<>());
+		});
+	}
+
+	/*
+	 * The event is created when the returned Mono is subscribed to, so it holds the todo
+	 * as it is at that point and not as it was when this method was called.
+	 */
+	private Mono<Void> publishAfterCommit(Function<Todo, TodoChangedEvent> eventOf, Todo todo) {
+		return Mono.defer(() -> {
+			TodoChangedEvent event = eventOf.apply(todo);
+			return TransactionSynchronizationManager.forCurrentTransaction()
+					.doOnNext(synchronizationManager -> synchronizationManager
+							.registerSynchronization(new TransactionSynchronization() {
+
+								@Override
+								public Mono<Void> afterCommit() {
+									return Mono.fromRunnable(() -> eventPublisher.publishEvent(event));
+								}
+
+							}))
+					.then();
+		});
+	}
+
+}
@@ -0,0 +1,79 @@
+package com.kokabmedia.shard;
+
+import java.util.function.Supplier;
+
+/*
+ * This class holds the shard the current thread works on, the ShardRoutingDataSource
+ * hands out the connections of this shard. A thread without a shard gets the connections
+ * of shard 0. The work of a user also holds the username, the ShardTransactionManager
+ * takes the lock of the user for every transaction of this work.
+ *
+ * The shard is set by the ShardRequestInterceptor for a request of a user and by
+ * ShardRouter for work that runs outside of a request, like the write-behind writer, and
+ * has to be set before a transaction begins, a transaction keeps the connection it
+ * started with.
+ */
+public final class ShardContext {
+
+	private static final ThreadLocal<Integer> CURRENT = new ThreadLocal<>();
+	private static final ThreadLocal<String> USER = new ThreadLocal<>();
+
+	private ShardContext() {
+	}
+
+	/*
+	 * The shard of the current thread, null when none is set.
+	 */
+	public static Integer current() {
+		return CURRENT.get();
+	}
+
+	/*
+	 * The user of the current thread, null when the thread works on a shard and not for
+	 * one user.
+	 */
+	static String currentUser() {
+		return USER.get();
+	}
+
+	/*
+	 * Runs the task on the shard and restores the shard the thread had before.
+	 */
+	public static <T> T call(int shard, Supplier<T> task) {
+		return call(shard, null, task);
+	}
+
+	/*
+	 * Runs the task on the shard for the user and restores the shard and user the thread
+	 * had before.
+	 */
+	public static <T> T call(int shard, String username, Supplier<T> task) {
+		Integer previous = CURRENT.get();
+		String previousUser = USER.get();
+		set(shard, username);
+		try {
+			return task.get();
+		} finally {
+			if (previous == null) {
+				clear();
+			} else {
+				set(previous, previousUser);
+			}
+		}
+	}
+
+	static void set(int shard, String username) {
+		CURRENT.set(shard);
+		if (username == null) {
+			USER.remove();
+		} else {
+			USER.set(username);
+		}
+	}
+
+	static void clear() {
+		CURRENT.remove();
+		USER.remove();
+	}
+
+}
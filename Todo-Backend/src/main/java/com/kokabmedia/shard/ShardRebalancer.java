@@ -0,0 +1,145 @@
+package com.kokabmedia.shard;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.locks.Lock;
+import java.util.stream.Collectors;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+/*
+ * This class moves users between shards, all rows of a user in the user tables (the
+ * todos with their tombstones and the change sequence) are copied to the other shard and
+ * then deleted from the shard they were on, the ids and change sequences of the todos
+ * stay as they are.
+ *
+ * rebalance() moves every user that is not on the shard the ShardRing assigns to it,
+ * for example after a shard has been added to todo.sharding.shards, or after the seed
+ * todos of data.sql have been inserted into shard 0. It runs at startup with
+ * todo.sharding.rebalance-on-startup before any request is served, and while the
+ * application runs with POST /jpa/shards/rebalance (see ShardResource).
+ *
+ * The transactions of a user wait while the user is moved and a move waits for the
+ * transactions of the user that are running (see ShardRouter). A move is not
+ * one transaction across both shards, when it is interrupted after the copy the rows
+ * are on both shards and the next rebalance() finishes the move, rows that the target
+ * shard already has are not copied again.
+ */
+public class ShardRebalancer {
+
+	private static final String CHANGE_SEQUENCE_TABLE = "todo_change_sequence";
+
+	// Every table with rows of a user and the primary key of the table
+	private static final String[][] USER_TABLES = { { "todo", "id" }, { CHANGE_SEQUENCE_TABLE, "username" } };
+
+	private final Logger logger = LoggerFactory.getLogger(this.getClass());
+
+	private final ShardRoutingDataSource dataSource;
+	private final ShardRouter shardRouter;
+
+	public ShardRebalancer(ShardRoutingDataSource dataSource, ShardRouter shardRouter) {
+		this.dataSource = dataSource;
+		this.shardRouter = shardRouter;
+	}
+
+	/*
+	 * Moves every user to the shard of the ring and returns the number of users moved.
+	 * Two rebalances do not run at the same time.
+	 */
+	public synchronized int rebalance() {
+		int moved = 0;
+		for (int shard = 0; shard < dataSource.getShardCount(); shard++) {
+			for (String username : usersOn(shard)) {
+				int target = shardRouter.shardOf(username);
+				if (target != shard) {
+					moveUser(username, shard, target);
+					moved++;
+				}
+			}
+		}
+		if (moved > 0) {
+			logger.info("SHARD_USERS_REBALANCED {}", moved);
+		}
+		return moved;
+	}
+
+	public List<String> usersOn(int shard) {
+		return new JdbcTemplate(dataSource.getShard(shard)).queryForList(
+				"select username from todo union select username from " + CHANGE_SEQUENCE_TABLE, String.class);
+	}
+
+	/*
+	 * Copies the rows of the user from one shard to the other and deletes them from the
+	 * first one, returns the number of rows copied.
+	 */
+	public int moveUser(String username, int from, int to) {
+		if (from == to) {
+			return 0;
+		}
+		Lock lock = shardRouter.userLock(username).writeLock();
+		lock.lock();
+		try {
+			JdbcTemplate source = new JdbcTemplate(dataSource.getShard(from));
+			JdbcTemplate target = new JdbcTemplate(dataSource.getShard(to));
+
+			int copied = transaction(to).execute(status -> {
+				int rows = 0;
+				for (String[] table : USER_TABLES) {
+					rows += copy(username, table[0], table[1], source, target);
+				}
+				return rows;
+			});
+			transaction(from).executeWithoutResult(status -> {
+				for (String[] table : USER_TABLES) {
+					source.update("delete from " + table[0] + " where username = ?", username);
+				}
+			});
+
+			logger.info("SHARD_USER_MOVED {} from {} to {}, {} rows", username, from, to, copied);
+			return copied;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	private static int copy(String username, String table, String key, JdbcTemplate source, JdbcTemplate target) {
+		List<Map<String, Object>> rows = source.queryForList("select * from " + table + " where username = ?",
+				username);
+		if (rows.isEmpty()) {
+			return 0;
+		}
+		Set<Object> existing = new HashSet<>(
+				target.queryForList("select " + key + " from " + table + " where username = ?", Object.class, username));
+
+		List<String> columns = new ArrayList<>(rows.get(0).keySet());
+		String insert = "insert into " + table + " (" + String.join(", ", columns) + ") values ("
+				+ columns.stream().map(column -> "?").collect(Collectors.joining(", ")) + ")";
+		List<Object[]> values = new ArrayList<>(rows.size());
+		for (Map<String, Object> row : rows) {
+			if (existing.contains(row.get(key))) {
+				if (table.equals(CHANGE_SEQUENCE_TABLE)) {
+					// The change sequence must stay above the changeSeq of every todo of the user
+					target.update("update " + CHANGE_SEQUENCE_TABLE
+							+ " set last_seq = greatest(last_seq, ?), compacted_through_seq = greatest(compacted_through_seq, ?)"
+							+ " where username = ?", row.get("last_seq"), row.get("compacted_through_seq"), username);
+				}
+				continue;
+			}
+			values.add(columns.stream().map(row::get).toArray());
+		}
+		target.batchUpdate(insert, values);
+		return values.size();
+	}
+
+	private TransactionTemplate transaction(int shard) {
+		return new TransactionTemplate(new DataSourceTransactionManager(dataSource.getShard(shard)));
+	}
+
+}
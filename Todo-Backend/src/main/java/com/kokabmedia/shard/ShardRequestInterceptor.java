@@ -0,0 +1,90 @@
+package com.kokabmedia.shard;
+
+import java.util.Map;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.servlet.AsyncHandlerInterceptor;
+import org.springframework.web.servlet.HandlerExceptionResolver;
+import org.springframework.web.servlet.HandlerMapping;
+import org.springframework.web.servlet.ModelAndView;
+
+import com.kokabmedia.shard.ShardRouter.UserBeingMovedException;
+
+/*
+ * This class sets the shard and the user of the {username} path variable for the
+ * request, before the controller method starts a transaction. Requests without a username
+ * use shard 0.
+ *
+ * The request waits for an ongoing move of the user before it starts and every
+ * transaction of the request waits again (see ShardTransactionManager), the lock of the
+ * user is not held between the transactions. When the user is being moved to another
+ * shard for longer than todo.sharding.move-wait-ms the request is answered with HTTP
+ * status 503 Service Unavailable and a Retry-After header, this class also resolves the
+ * UserBeingMovedException of a transaction that waited too long.
+ *
+ * The work of an asynchronous request that runs on another thread, like the
+ * StreamingResponseBody of an export, sets the shard itself with
+ * ShardRouter.callOnShardOf().
+ */
+public class ShardRequestInterceptor implements AsyncHandlerInterceptor, HandlerExceptionResolver {
+
+	private final ShardRouter shardRouter;
+	private final long retryAfterSeconds;
+
+	public ShardRequestInterceptor(ShardRouter shardRouter, long retryAfterSeconds) {
+		this.shardRouter = shardRouter;
+		this.retryAfterSeconds = retryAfterSeconds;
+	}
+
+	@Override
+	public boolean preHandle(HttpServletRequest request, HttpServletResponse response, Object handler) {
+		@SuppressWarnings("unchecked")
+		Map<String, String> pathVariables = (Map<String, String>) request
+				.getAttribute(HandlerMapping.URI_TEMPLATE_VARIABLES_ATTRIBUTE);
+		String username = pathVariables == null ? null : pathVariables.get("username");
+		if (username == null) {
+			return true;
+		}
+
+		try {
+			shardRouter.awaitMove(username);
+		} catch (UserBeingMovedException e) {
+			serviceUnavailable(response);
+			return false;
+		}
+		ShardContext.set(shardRouter.shardOf(username), username);
+		return true;
+	}
+
+	@Override
+	public void afterConcurrentHandlingStarted(HttpServletRequest request, HttpServletResponse response,
+			Object handler) {
+		ShardContext.clear();
+	}
+
+	@Override
+	public void afterCompletion(HttpServletRequest request, HttpServletResponse response, Object handler,
+			Exception ex) {
+		ShardContext.clear();
+	}
+
+	@Override
+	public ModelAndView resolveException(HttpServletRequest request, HttpServletResponse response, Object handler,
+			Exception ex) {
+		if (!(ex instanceof UserBeingMovedException)) {
+			return null;
+		}
+		serviceUnavailable(response);
+		return new ModelAndView();
+	}
+
+	private void serviceUnavailable(HttpServletResponse response) {
+		response.setStatus(HttpStatus.SERVICE_UNAVAILABLE.value());
+		response.setHeader(HttpHeaders.RETRY_AFTER, String.valueOf(retryAfterSeconds));
+	}
+
+}
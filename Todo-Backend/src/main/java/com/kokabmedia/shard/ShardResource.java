@@ -0,0 +1,44 @@
+package com.kokabmedia.shard;
+
+import javax.servlet.http.HttpServletRequest;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.CrossOrigin;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+/*
+ * This class lets an administrator move the users to their shards while the application
+ * runs, for example after a shard has been added to todo.sharding.shards and the
+ * application has been started without todo.sharding.rebalance-on-startup.
+ *
+ * The @ConditionalOnProperty annotation makes Spring only register this controller when
+ * sharding is enabled, without sharding there is nothing to move.
+ */
+@CrossOrigin(origins = "http://localhost:4200")
+@RestController
+@ConditionalOnProperty(name = "todo.sharding.enabled", havingValue = "true")
+public class ShardResource {
+
+	@Autowired
+	private ShardRebalancer shardRebalancer;
+
+	/*
+	 * This method moves every user that is not on its shard and returns the number of
+	 * users moved, only users with the ADMIN role are allowed to call it. The requests of
+	 * the other users go on while the users are moved.
+	 */
+	@PostMapping("/jpa/shards/rebalance")
+	public ResponseEntity<Integer> rebalance(HttpServletRequest request) {
+
+		if (!request.isUserInRole("ADMIN")) {
+			return ResponseEntity.status(HttpStatus.FORBIDDEN).build();
+		}
+
+		return ResponseEntity.ok(shardRebalancer.rebalance());
+	}
+
+}
@@ -0,0 +1,64 @@
+package com.kokabmedia.shard;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+
+/*
+ * This class is a consistent hash ring that assigns every username to one of the
+ * shards.
+ *
+ * Every shard is placed on the ring at virtualNodes positions, the hash of a username
+ * belongs to the shard of the next position on the ring. A shard added at the end of the
+ * list only takes over the usernames of the parts of the ring in front of its own
+ * positions, about 1 / (shards + 1) of the users, all other users stay where they are.
+ * The positions of a shard depend on its index only, so the shards must keep their
+ * order in the list.
+ *
+ * The hash is the first 8 bytes of the MD5 digest, it is the same on every JVM and
+ * spreads similar names like user1 and user2 over the ring.
+ */
+public class ShardRing {
+
+	private final int shardCount;
+	private final NavigableMap<Long, Integer> positions = new TreeMap<>();
+
+	public ShardRing(int shardCount, int virtualNodes) {
+		if (shardCount < 1 || virtualNodes < 1) {
+			throw new IllegalArgumentException("A shard ring needs at least one shard and one virtual node");
+		}
+		this.shardCount = shardCount;
+		for (int shard = 0; shard < shardCount; shard++) {
+			for (int node = 0; node < virtualNodes; node++) {
+				positions.putIfAbsent(hash("shard-" + shard + "#" + node), shard);
+			}
+		}
+	}
+
+	public int getShardCount() {
+		return shardCount;
+	}
+
+	public int shardOf(String username) {
+		Map.Entry<Long, Integer> position = positions.ceilingEntry(hash(username));
+		return position != null ? position.getValue() : positions.firstEntry().getValue();
+	}
+
+	static long hash(String key) {
+		byte[] digest;
+		try {
+			digest = MessageDigest.getInstance("MD5").digest(key.getBytes(StandardCharsets.UTF_8));
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+		long hash = 0;
+		for (int i = 0; i < 8; i++) {
+			hash = (hash << 8) | (digest[i] & 0xff);
+		}
+		return hash;
+	}
+
+}
@@ -0,0 +1,194 @@
+package com.kokabmedia.shard;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.IntConsumer;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+/*
+ * This class decides on which shard the todos of a user are stored when
+ * todo.sharding.enabled is true, the shards are the databases of the JDBC URLs in
+ * todo.sharding.shards and a user belongs to the shard the ShardRing assigns to the
+ * username. All todos and the change sequence of a user are on the same shard, so every
+ * change of a user is one local transaction.
+ *
+ * Without sharding there is one shard, the DataSource of Spring Boot, and every method
+ * runs its task as it is.
+ *
+ * While the ShardRebalancer moves a user to another shard the transactions of the user
+ * wait for the move (todo.sharding.move-wait-ms), every transaction takes the read lock
+ * (see ShardTransactionManager) and the move the write lock of the user. The lock is
+ * held per transaction and not per request, so a move waits for the transactions that
+ * are running and not for a long import or export of the user. The locks are striped,
+ * users that share a stripe wait for each other's moves.
+ */
+@Component
+public class ShardRouter {
+
+	/*
+	 * The ids of shard n start at n << ID_SHIFT (see ShardSchemaInitializer), below 2^53
+	 * for up to MAX_SHARDS shards so a JavaScript client reads every id exactly.
+	 */
+	public static final int ID_SHIFT = 40;
+	public static final int MAX_SHARDS = 8192;
+
+	private static final int LOCK_STRIPES = 64;
+
+	private final boolean enabled;
+	private final List<String> urls;
+	private final ShardRing ring;
+	private final long moveWaitMs;
+	private final ReadWriteLock[] userLocks = new ReadWriteLock[LOCK_STRIPES];
+
+	public ShardRouter(@Value("${todo.sharding.enabled:false}") boolean enabled,
+			@Value("${todo.sharding.shards:}") List<String> urls,
+			@Value("${todo.sharding.virtual-nodes:128}") int virtualNodes,
+			@Value("${todo.sharding.move-wait-ms:5000}") long moveWaitMs) {
+		this.enabled = enabled;
+		this.urls = enabled ? urls.stream().map(String::trim).filter(url -> !url.isEmpty())
+				.collect(Collectors.toUnmodifiableList()) : Collections.emptyList();
+		if (enabled && (this.urls.isEmpty() || this.urls.size() > MAX_SHARDS)) {
+			throw new IllegalStateException("todo.sharding.shards needs 1 to " + MAX_SHARDS + " JDBC URLs");
+		}
+		this.ring = new ShardRing(Math.max(1, this.urls.size()), virtualNodes);
+		this.moveWaitMs = moveWaitMs;
+		for (int i = 0; i < LOCK_STRIPES; i++) {
+			userLocks[i] = new ReentrantReadWriteLock();
+		}
+	}
+
+	public boolean isEnabled() {
+		return enabled;
+	}
+
+	public List<String> getUrls() {
+		return urls;
+	}
+
+	public int getShardCount() {
+		return ring.getShardCount();
+	}
+
+	public int shardOf(String username) {
+		return enabled ? ring.shardOf(username) : 0;
+	}
+
+	/*
+	 * Runs the task on the shard of the user. Every transaction of the task waits for an
+	 * ongoing move of the user, when the move takes longer than
+	 * todo.sharding.move-wait-ms a UserBeingMovedException is thrown.
+	 */
+	public <T> T callOnShardOf(String username, Supplier<T> task) {
+		return enabled ? ShardContext.call(shardOf(username), username, task) : task.get();
+	}
+
+	public void runOnShardOf(String username, Runnable task) {
+		callOnShardOf(username, () -> {
+			task.run();
+			return null;
+		});
+	}
+
+	/*
+	 * Runs the task with the shard set, without waiting for the moves of users.
+	 */
+	public <T> T callOnShard(int shard, Supplier<T> task) {
+		return enabled ? ShardContext.call(shard, task) : task.get();
+	}
+
+	/*
+	 * Runs the task on the shard with the locks of all the users held, for a transaction
+	 * that writes the todos of several users of the shard at once like the write-behind
+	 * flush. The locks are held for the whole task because ShardContext carries only one
+	 * user. Unlike a request the task waits for the moves of the users as long as they
+	 * take, the changes it writes have already been accepted.
+	 */
+	public <T> T callOnShardForUsers(int shard, Collection<String> usernames, Supplier<T> task) {
+		if (!enabled) {
+			return task.get();
+		}
+		// Users that share a stripe take its lock once
+		Set<ReadWriteLock> stripes = Collections.newSetFromMap(new IdentityHashMap<>());
+		usernames.forEach(username -> stripes.add(userLock(username)));
+		List<Lock> locked = new ArrayList<>(stripes.size());
+		try {
+			for (ReadWriteLock stripe : stripes) {
+				Lock lock = stripe.readLock();
+				lock.lock();
+				locked.add(lock);
+			}
+			return ShardContext.call(shard, task);
+		} finally {
+			locked.forEach(Lock::unlock);
+		}
+	}
+
+	/*
+	 * Runs the task once on every shard, one after the other.
+	 */
+	public void forEachShard(IntConsumer task) {
+		for (int shard = 0; shard < getShardCount(); shard++) {
+			int current = shard;
+			callOnShard(shard, () -> {
+				task.accept(current);
+				return null;
+			});
+		}
+	}
+
+	/*
+	 * Takes the read lock of the user, the caller unlocks the returned lock.
+	 */
+	Lock enter(String username) {
+		Lock lock = userLock(username).readLock();
+		try {
+			if (!lock.tryLock(moveWaitMs, TimeUnit.MILLISECONDS)) {
+				throw new UserBeingMovedException(username, null);
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new UserBeingMovedException(username, e);
+		}
+		return lock;
+	}
+
+	/*
+	 * Waits for an ongoing move of the user without keeping the lock.
+	 */
+	void awaitMove(String username) {
+		enter(username).unlock();
+	}
+
+	ReadWriteLock userLock(String username) {
+		return userLocks[Math.floorMod(username.hashCode(), LOCK_STRIPES)];
+	}
+
+	/*
+	 * Thrown when a transaction of a user waits longer than todo.sharding.move-wait-ms
+	 * for the move of the user, the ShardRequestInterceptor answers it with HTTP status
+	 * 503 Service Unavailable.
+	 */
+	public static class UserBeingMovedException extends RejectedExecutionException {
+
+		private static final long serialVersionUID = 1L;
+
+		UserBeingMovedException(String username, Throwable cause) {
+			super("USER_BEING_MOVED " + username, cause);
+		}
+
+	}
+
+}
@@ -0,0 +1,55 @@
+package com.kokabmedia.shard;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.sql.DataSource;
+
+import org.springframework.jdbc.datasource.lookup.AbstractRoutingDataSource;
+
+import com.zaxxer.hikari.HikariDataSource;
+
+/*
+ * This class is the DataSource of the application when sharding is enabled, it hands
+ * out the connections of the shard of ShardContext and of shard 0 when the thread has
+ * no shard, for example to Hibernate when it starts up and creates the tables.
+ */
+public class ShardRoutingDataSource extends AbstractRoutingDataSource implements AutoCloseable {
+
+	private final List<HikariDataSource> shards;
+
+	public ShardRoutingDataSource(List<HikariDataSource> shards) {
+		this.shards = shards;
+		Map<Object, Object> targets = new HashMap<>();
+		for (int shard = 0; shard < shards.size(); shard++) {
+			targets.put(shard, shards.get(shard));
+		}
+		setTargetDataSources(targets);
+		setDefaultTargetDataSource(shards.get(0));
+		afterPropertiesSet();
+	}
+
+	public int getShardCount() {
+		return shards.size();
+	}
+
+	/*
+	 * The DataSource of one shard, for the ShardRebalancer and ShardSchemaInitializer
+	 * that work on two shards at once.
+	 */
+	public DataSource getShard(int shard) {
+		return shards.get(shard);
+	}
+
+	@Override
+	protected Object determineCurrentLookupKey() {
+		return ShardContext.current();
+	}
+
+	@Override
+	public void close() {
+		shards.forEach(HikariDataSource::close);
+	}
+
+}
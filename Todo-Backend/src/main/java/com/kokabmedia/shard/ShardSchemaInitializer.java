@@ -0,0 +1,76 @@
+package com.kokabmedia.shard;
+
+import java.util.List;
+import java.util.stream.Collectors;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.SmartInitializingSingleton;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import com.kokabmedia.todo.TodoIdGenerator;
+
+/*
+ * This class creates the tables on the shards after Hibernate has created them on
+ * shard 0, the shards are H2 databases and the H2 command SCRIPT NODATA writes the
+ * tables, indexes and sequences of shard 0 as SQL statements. A shard that already has
+ * the todo table is left as it is.
+ *
+ * The todo_seq sequence of a new shard n is restarted at n << ShardRouter.ID_SHIFT, so
+ * the ids of every shard come from a range of their own and a todo keeps a unique id
+ * when its user is moved to another shard.
+ *
+ * Then the ShardRebalancer moves the users that are not on their shard, unless
+ * todo.sharding.rebalance-on-startup is false. SmartInitializingSingleton runs after
+ * all beans, including the data.sql initialization, and before the web server starts.
+ */
+public class ShardSchemaInitializer implements SmartInitializingSingleton {
+
+	private final Logger logger = LoggerFactory.getLogger(this.getClass());
+
+	private final ShardRoutingDataSource dataSource;
+	private final ShardRebalancer shardRebalancer;
+	private final boolean rebalanceOnStartup;
+
+	public ShardSchemaInitializer(ShardRoutingDataSource dataSource, ShardRebalancer shardRebalancer,
+			boolean rebalanceOnStartup) {
+		this.dataSource = dataSource;
+		this.shardRebalancer = shardRebalancer;
+		this.rebalanceOnStartup = rebalanceOnStartup;
+	}
+
+	@Override
+	public void afterSingletonsInstantiated() {
+		List<String> schema = null;
+		for (int shard = 1; shard < dataSource.getShardCount(); shard++) {
+			JdbcTemplate jdbcTemplate = new JdbcTemplate(dataSource.getShard(shard));
+			if (hasTodoTable(jdbcTemplate)) {
+				continue;
+			}
+			if (schema == null) {
+				schema = schema(new JdbcTemplate(dataSource.getShard(0)));
+			}
+			schema.forEach(jdbcTemplate::execute);
+			jdbcTemplate.execute("alter sequence " + TodoIdGenerator.SEQUENCE_NAME + " restart with "
+					+ ((long) shard << ShardRouter.ID_SHIFT));
+			logger.info("SHARD_SCHEMA_CREATED {}", shard);
+		}
+
+		if (rebalanceOnStartup) {
+			shardRebalancer.rebalance();
+		}
+	}
+
+	private static boolean hasTodoTable(JdbcTemplate jdbcTemplate) {
+		return jdbcTemplate.queryForObject("select count(*) from information_schema.tables"
+				+ " where table_schema = 'PUBLIC' and table_name = 'TODO'", Integer.class) > 0;
+	}
+
+	// Without the comments and the user of the database, which every new H2 database has
+	private static List<String> schema(JdbcTemplate jdbcTemplate) {
+		return jdbcTemplate.queryForList("script nodata", String.class).stream()
+				.filter(statement -> !statement.startsWith("--") && !statement.startsWith("CREATE USER"))
+				.collect(Collectors.toList());
+	}
+
+}
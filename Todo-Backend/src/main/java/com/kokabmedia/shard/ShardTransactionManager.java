@@ -0,0 +1,60 @@
+package com.kokabmedia.shard;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Optional;
+import java.util.concurrent.locks.Lock;
+
+import javax.persistence.EntityManagerFactory;
+
+import org.springframework.orm.jpa.JpaTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+
+/*
+ * This class is the JPA transaction manager of the application when sharding is enabled.
+ * A transaction that begins for a user (see ShardContext) takes the read lock of the user
+ * from ShardRouter and keeps it until the transaction has ended, so the ShardRebalancer
+ * moves the user between two transactions and never while one of them works on the rows
+ * of the user.
+ *
+ * A new transaction within a transaction (Propagation.REQUIRES_NEW) takes the read lock
+ * again, the locks of a thread are kept on a stack and released in reverse order.
+ */
+public class ShardTransactionManager extends JpaTransactionManager {
+
+	private static final long serialVersionUID = 1L;
+
+	private static final ThreadLocal<Deque<Optional<Lock>>> LOCKS = ThreadLocal.withInitial(ArrayDeque::new);
+
+	private final transient ShardRouter shardRouter;
+
+	public ShardTransactionManager(EntityManagerFactory entityManagerFactory, ShardRouter shardRouter) {
+		super(entityManagerFactory);
+		this.shardRouter = shardRouter;
+	}
+
+	@Override
+	protected void doBegin(Object transaction, TransactionDefinition definition) {
+		String username = ShardContext.currentUser();
+		Lock lock = username == null ? null : shardRouter.enter(username);
+		try {
+			super.doBegin(transaction, definition);
+		} catch (RuntimeException | Error e) {
+			if (lock != null) {
+				lock.unlock();
+			}
+			throw e;
+		}
+		LOCKS.get().push(Optional.ofNullable(lock));
+	}
+
+	@Override
+	protected void doCleanupAfterCompletion(Object transaction) {
+		try {
+			super.doCleanupAfterCompletion(transaction);
+		} finally {
+			LOCKS.get().pop().ifPresent(Lock::unlock);
+		}
+	}
+
+}
@@ -0,0 +1,99 @@
+package com.kokabmedia.shard;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.persistence.EntityManagerFactory;
+
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.autoconfigure.jdbc.DataSourceProperties;
+import org.springframework.boot.autoconfigure.transaction.TransactionManagerCustomizers;
+import org.springframework.boot.jdbc.DataSourceBuilder;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.web.servlet.HandlerExceptionResolver;
+import org.springframework.web.servlet.config.annotation.InterceptorRegistry;
+import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
+
+import com.zaxxer.hikari.HikariDataSource;
+
+/*
+ * This class stores the todos on several databases (shards) when todo.sharding.enabled
+ * is true, the users are spread over the shards by the consistent hash of their
+ * username (see ShardRouter). The shards are the JDBC URLs of todo.sharding.shards, for
+ * example three in memory H2 databases:
+ *
+ *     todo.sharding.shards=jdbc:h2:mem:shard0,jdbc:h2:mem:shard1,jdbc:h2:mem:shard2
+ *
+ * Every shard gets a Hikari connection pool with the username and password of
+ * spring.datasource, the ShardRoutingDataSource replaces the DataSource of Spring Boot
+ * so JPA, the JdbcTemplate and the transactions of the application use the shard of the
+ * current user. The ShardTransactionManager replaces the JPA transaction manager of
+ * Spring Boot, its transactions wait for the moves of their user. New shards go to the
+ * end of the list, the position of a shard decides which users it holds.
+ *
+ * The @ConditionalOnProperty annotation makes Spring only use this configuration when
+ * the property is true.
+ */
+@Configuration
+@ConditionalOnProperty(name = "todo.sharding.enabled", havingValue = "true")
+public class ShardingConfiguration implements WebMvcConfigurer {
+
+	private final ShardRouter shardRouter;
+	private final ShardRequestInterceptor shardRequestInterceptor;
+
+	public ShardingConfiguration(ShardRouter shardRouter,
+			@Value("${todo.sharding.retry-after-seconds:1}") long retryAfterSeconds) {
+		this.shardRouter = shardRouter;
+		this.shardRequestInterceptor = new ShardRequestInterceptor(shardRouter, retryAfterSeconds);
+	}
+
+	@Bean
+	public ShardRoutingDataSource dataSource(DataSourceProperties properties) {
+		List<HikariDataSource> shards = new ArrayList<>();
+		for (String url : shardRouter.getUrls()) {
+			HikariDataSource shard = DataSourceBuilder.create().type(HikariDataSource.class).url(url)
+					.username(properties.determineUsername()).password(properties.determinePassword()).build();
+			shard.setPoolName("shard-" + shards.size());
+			shards.add(shard);
+		}
+		return new ShardRoutingDataSource(shards);
+	}
+
+	/*
+	 * The bean is named transactionManager like the one of Spring Boot, which the Spring
+	 * Data repositories look up by name.
+	 */
+	@Bean
+	public ShardTransactionManager transactionManager(EntityManagerFactory entityManagerFactory,
+			ObjectProvider<TransactionManagerCustomizers> transactionManagerCustomizers) {
+		ShardTransactionManager transactionManager = new ShardTransactionManager(entityManagerFactory, shardRouter);
+		transactionManagerCustomizers.ifAvailable(customizers -> customizers.customize(transactionManager));
+		return transactionManager;
+	}
+
+	@Bean
+	public ShardRebalancer shardRebalancer(ShardRoutingDataSource dataSource) {
+		return new ShardRebalancer(dataSource, shardRouter);
+	}
+
+	@Bean
+	public ShardSchemaInitializer shardSchemaInitializer(ShardRoutingDataSource dataSource,
+			ShardRebalancer shardRebalancer,
+			@Value("${todo.sharding.rebalance-on-startup:true}") boolean rebalanceOnStartup) {
+		return new ShardSchemaInitializer(dataSource, shardRebalancer, rebalanceOnStartup);
+	}
+
+	@Override
+	public void addInterceptors(InterceptorRegistry registry) {
+		registry.addInterceptor(shardRequestInterceptor);
+	}
+
+	@Override
+	public void extendHandlerExceptionResolvers(List<HandlerExceptionResolver> resolvers) {
+		resolvers.add(0, shardRequestInterceptor);
+	}
+
+}
@@ -0,0 +1,83 @@
+package com.kokabmedia.threads;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.apache.coyote.ProtocolHandler;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.autoconfigure.task.TaskExecutionAutoConfiguration;
+import org.springframework.boot.web.embedded.tomcat.TomcatProtocolHandlerCustomizer;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.task.AsyncTaskExecutor;
+import org.springframework.core.task.support.TaskExecutorAdapter;
+
+/*
+ * This class runs the request handling of Tomcat and the asynchronous work of Spring MVC
+ * (the StreamingResponseBody of the todo exports and imports) and of @Async methods on
+ * virtual threads when spring.threads.virtual.enabled is true.
+ *
+ * With the default fixed pool of Tomcat (server.tomcat.threads.max) a request that waits
+ * for the database or runs BCrypt holds one of the pool threads, once all of them are
+ * busy the other requests wait in the queue. A virtual thread is parked while it waits
+ * for I/O without holding an operating system thread, so every request gets its own
+ * thread and the database connection pool (spring.datasource.hikari.maximum-pool-size)
+ * becomes the limit instead. CPU bound work like BCrypt is not made faster.
+ *
+ * A virtual thread that blocks inside a synchronized block stays pinned to its carrier
+ * thread, the synchronized blocks of the application are kept short for this reason.
+ *
+ * Virtual threads need Java 21, the executor is looked up at runtime so the application
+ * still builds and runs on Java 17 with the setting turned off. The property has the
+ * name Spring Boot 3.2 uses for the same purpose.
+ *
+ * The @ConditionalOnProperty annotation makes Spring only use this configuration when
+ * the property is true.
+ */
+@Configuration
+@ConditionalOnProperty(name = "spring.threads.virtual.enabled", havingValue = "true")
+public class VirtualThreadConfiguration {
+
+	/*
+	 * A new virtual thread for every task, shut down with the application context.
+	 */
+	@Bean(destroyMethod = "shutdown")
+	public ExecutorService virtualThreadExecutor() {
+		return newVirtualThreadPerTaskExecutor();
+	}
+
+	@Bean
+	public TomcatProtocolHandlerCustomizer<ProtocolHandler> virtualThreadProtocolHandlerCustomizer(
+			ExecutorService virtualThreadExecutor) {
+		return protocolHandler -> protocolHandler.setExecutor(virtualThreadExecutor);
+	}
+
+	/*
+	 * Replaces the thread pool Spring Boot otherwise creates for Spring MVC asynchronous
+	 * requests and @Async methods.
+	 */
+	@Bean(name = TaskExecutionAutoConfiguration.APPLICATION_TASK_EXECUTOR_BEAN_NAME)
+	public AsyncTaskExecutor applicationTaskExecutor(ExecutorService virtualThreadExecutor) {
+		return new TaskExecutorAdapter(virtualThreadExecutor);
+	}
+
+	public static boolean isSupported() {
+		return Runtime.version().feature() >= 21;
+	}
+
+	public static ExecutorService newVirtualThreadPerTaskExecutor() {
+		if (!isSupported()) {
+			throw new IllegalStateException("spring.threads.virtual.enabled=true needs Java 21 or later, running on "
+					+ Runtime.version());
+		}
+		try {
+			return (ExecutorService) MethodHandles.publicLookup().findStatic(Executors.class,
+					"newVirtualThreadPerTaskExecutor", MethodType.methodType(ExecutorService.class)).invoke();
+		} catch (Throwable e) {
+			throw new IllegalStateException("Virtual threads are not available", e);
+		}
+	}
+
+}
@@ -4,7 +4,17 @@ import java.util.Date;
 
 import javax.persistence.Entity;
 import javax.persistence.GeneratedValue;
+import javax.persistence.GenerationType;
 import javax.persistence.Id;
+import javax.persistence.Index;
+import javax.persistence.Table;
+import javax.persistence.Transient;
+import javax.persistence.Version;
+
+import org.hibernate.annotations.DynamicUpdate;
+import org.hibernate.annotations.GenericGenerator;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
 
 /*
  * This is a model class for the purpose of retrieving, creating, updating, deleting 
@@ -18,8 +28,21 @@ import javax.persistence.Id;
  * 
  * The @Entity annotation will automatically with Hibernate, JPA and Spring auto 
  * configuration create a Todo table in the H2 in memory database.
+ * 
+ * The @Table annotation declares a composite index on (username, target_date, id), 
+ * the paginated todo listing seeks into this index with the last seen targetDate 
+ * and id (keyset pagination) so every page costs the same no matter how many todos 
+ * a user has. The index on (username, change_seq) serves the delta sync of the todos 
+ * that changed after a given change sequence.
+ * 
+ * The @DynamicUpdate annotation makes Hibernate write only the columns that have 
+ * changed, marking a todo as done updates is_done, version and change_seq instead of 
+ * every column of the row.
  */
 @Entity
+@DynamicUpdate
+@Table(indexes = { @Index(name = "idx_todo_username_target_date_id", columnList = "username, targetDate, id"),
+		@Index(name = "idx_todo_username_change_seq", columnList = "username, changeSeq") })
 public class Todo {
 	
 	/*
@@ -28,10 +51,16 @@ public class Todo {
 	 * The @GeneratedValue annotation makes the Hibernate generate the primary 
 	 * key value.
 	 * 
+	 * The @GenericGenerator annotation lets Hibernate take the primary key values from 
+	 * the todo_seq database sequence a block at a time (see TodoIdGenerator), so inserting 
+	 * a todo does not need a round trip to the sequence and Hibernate can send the inserts 
+	 * of a transaction to the database as a JDBC batch.
+	 * 
 	 * Primary key will uniquely identify each row in a database table.
 	 */
 	@Id
-	@GeneratedValue
+	@GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "todo_seq")
+	@GenericGenerator(name = "todo_seq", strategy = "com.kokabmedia.todo.TodoIdGenerator")
 	private Long id;
 	
 	private String username;
@@ -39,6 +68,44 @@ public class Todo {
 	private Date targetDate;
 	private boolean isDone;
 	
+	/*
+	 * The @Version annotation makes Hibernate increment this column on every update and 
+	 * only update the row when the version has not changed since the todo was read 
+	 * (optimistic locking). The version is the ETag of the todo in TodoJpaResource, the 
+	 * @JsonIgnore annotation keeps it out of the JSON body.
+	 */
+	@Version
+	@JsonIgnore
+	private Long version;
+	
+	/*
+	 * The change sequence of the user at the last create, update or delete of this todo 
+	 * (see TodoChangeSequencer), a client that knows the change sequence it has seen 
+	 * last only downloads the todos with a higher one.
+	 * 
+	 * A deleted todo stays in the table as a tombstone so the delete can be handed to 
+	 * the clients that synchronise later, the tombstones are removed after a retention 
+	 * period by TodoTombstoneCompactor.
+	 */
+	@JsonIgnore
+	private long changeSeq;
+	
+	@JsonIgnore
+	private boolean deleted;
+	
+	@JsonIgnore
+	private Date deletedAt;
+	
+	/*
+	 * The @Transient annotation keeps this field out of the database table. It marks a 
+	 * new todo whose id the TodoWriteBehindQueue has already taken from the todo_seq 
+	 * sequence, TodoIdGenerator keeps the id of such a todo and generates a new one for 
+	 * every other new todo.
+	 */
+	@Transient
+	@JsonIgnore
+	private boolean idReserved;
+	
 	protected Todo() {
 		
 	}
@@ -92,6 +159,46 @@ public class Todo {
 		this.isDone = isDone;
 	}
 
+	public Long getVersion() {
+		return version;
+	}
+
+	public void setVersion(Long version) {
+		this.version = version;
+	}
+
+	public long getChangeSeq() {
+		return changeSeq;
+	}
+
+	public void setChangeSeq(long changeSeq) {
+		this.changeSeq = changeSeq;
+	}
+
+	public boolean isDeleted() {
+		return deleted;
+	}
+
+	public Date getDeletedAt() {
+		return deletedAt;
+	}
+
+	/*
+	 * Turns the todo into a tombstone.
+	 */
+	public void markDeleted(Date deletedAt) {
+		this.deleted = true;
+		this.deletedAt = deletedAt;
+	}
+
+	boolean isIdReserved() {
+		return idReserved;
+	}
+
+	void markIdReserved() {
+		this.idReserved = true;
+	}
+
 	/*
 	 * The goal of the equals() method is to verify that two objects are equal in the represented data. 
 	 * The standard equals() method of the object class does not look at the memory location of the 
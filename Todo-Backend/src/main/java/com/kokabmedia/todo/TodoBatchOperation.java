@@ -0,0 +1,59 @@
+package com.kokabmedia.todo;
+
+/*
+ * Model class for one operation of a todo batch request, mapping the HTTP POST request
+ * body of the batch endpoint of TodoJpaResource to java objects.
+ *
+ * A CREATE operation carries the new todo, an UPDATE operation carries the id of the
+ * todo and its new values and a DELETE operation only carries the id.
+ */
+public class TodoBatchOperation {
+
+	public enum Type {
+		CREATE, UPDATE, DELETE
+	}
+
+	private Type op;
+	private Long id;
+	private Todo todo;
+
+	protected TodoBatchOperation() {
+
+	}
+
+	public TodoBatchOperation(Type op, Long id, Todo todo) {
+		this.op = op;
+		this.id = id;
+		this.todo = todo;
+	}
+
+	public Type getOp() {
+		return op;
+	}
+
+	public void setOp(Type op) {
+		this.op = op;
+	}
+
+	public Long getId() {
+		return id;
+	}
+
+	public void setId(Long id) {
+		this.id = id;
+	}
+
+	public Todo getTodo() {
+		return todo;
+	}
+
+	public void setTodo(Todo todo) {
+		this.todo = todo;
+	}
+
+	@Override
+	public String toString() {
+		return String.format("TodoBatchOperation [op=%s, id=%s]", op, id);
+	}
+
+}
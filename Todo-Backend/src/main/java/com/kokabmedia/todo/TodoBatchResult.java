@@ -0,0 +1,54 @@
+package com.kokabmedia.todo;
+
+import org.springframework.http.HttpStatus;
+
+/*
+ * Model class for the result of one operation of a todo batch request.
+ *
+ * The index is the position of the operation in the request, the status is the HTTP
+ * status the operation would have had as a single request, for example 201 for a
+ * created todo or 404 for a todo that does not exist.
+ */
+public class TodoBatchResult {
+
+	private final int index;
+	private final TodoBatchOperation.Type op;
+	private final Long id;
+	private final int status;
+	private final String message;
+
+	public TodoBatchResult(int index, TodoBatchOperation.Type op, Long id, HttpStatus status, String message) {
+		this.index = index;
+		this.op = op;
+		this.id = id;
+		this.status = status.value();
+		this.message = message;
+	}
+
+	public int getIndex() {
+		return index;
+	}
+
+	public TodoBatchOperation.Type getOp() {
+		return op;
+	}
+
+	public Long getId() {
+		return id;
+	}
+
+	public int getStatus() {
+		return status;
+	}
+
+	public String getMessage() {
+		return message;
+	}
+
+	@Override
+	public String toString() {
+		return String.format("TodoBatchResult [index=%s, op=%s, id=%s, status=%s, message=%s]", index, op, id, status,
+				message);
+	}
+
+}
@@ -0,0 +1,191 @@
+package com.kokabmedia.todo;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+/*
+* This class applies a list of create, update and delete operations on the todos of a
+* user in a single transaction.
+*
+* The todos that are updated or deleted are loaded with one query, the changes are kept
+* in the persistence context and written when the transaction commits, Hibernate then
+* sends them to the database as JDBC batches (hibernate.jdbc.batch_size) instead of one
+* statement and one transaction per todo.
+*
+* Every operation gets its own result, an operation that is invalid or refers to a todo
+* that does not exist (or belongs to another user) is reported and skipped while the
+* other operations are applied.
+*
+* A TodoChangedEvent is published for every applied operation after the changes have
+* been flushed, so the events carry the new versions of the updated todos.
+*
+* The @Service annotation lets the Spring framework manage class as a Spring bean and
+* the @Transactional annotation makes the Spring framework run every public method in
+* a database transaction.
+*/
+@Service
+@Transactional
+public class TodoBatchService {
+
+	@Autowired
+	private TodoJpaRepository todoJpaRepository;
+
+	@Autowired
+	private TodoChangeSequencer todoChangeSequencer;
+
+	@Autowired
+	private ApplicationEventPublisher eventPublisher;
+
+	public List<TodoBatchResult> apply(String username, List<TodoBatchOperation> operations) {
+
+		Set<Long> ids = new HashSet<>();
+		for (TodoBatchOperation operation : operations) {
+			if (operation != null && operation.getId() != null) {
+				ids.add(operation.getId());
+			}
+		}
+
+		Map<Long, Todo> existing = new HashMap<>();
+		for (Todo todo : todoJpaRepository.findAllById(ids)) {
+			if (username.equals(todo.getUsername()) && !todo.isDeleted()) {
+				existing.put(todo.getId(), todo);
+			}
+		}
+
+		// The operations are checked first so the change sequence numbers can be reserved
+		// before a todo is saved or changed, the locked read of the reservation would
+		// otherwise flush the changed todos and every update would be written twice
+		List<TodoBatchResult> results = new ArrayList<>(operations.size());
+		List<Integer> accepted = new ArrayList<>(operations.size());
+		List<Todo> targets = new ArrayList<>(operations.size());
+		for (int index = 0; index < operations.size(); index++) {
+			TodoBatchOperation operation = operations.get(index);
+			TodoBatchResult error = check(index, operation, existing);
+			results.add(error);
+			if (error == null) {
+				accepted.add(index);
+				// Todos deleted earlier in the batch are not found by the later operations
+				targets.add(operation.getOp() == TodoBatchOperation.Type.DELETE ? existing.remove(operation.getId())
+						: existing.get(operation.getId()));
+			}
+		}
+		if (accepted.isEmpty()) {
+			return results;
+		}
+
+		// One locked read of the change sequence for the whole batch
+		long changeSeq = todoChangeSequencer.reserve(username, accepted.size());
+		List<TodoChangedEvent.Type> changes = new ArrayList<>(accepted.size());
+		List<Todo> changedTodos = new ArrayList<>(accepted.size());
+		for (int i = 0; i < accepted.size(); i++) {
+			int index = accepted.get(i);
+			TodoBatchOperation operation = operations.get(index);
+			Todo todo = apply(username, operation, targets.get(i), changeSeq++);
+			changes.add(operation.getOp() == TodoBatchOperation.Type.CREATE ? TodoChangedEvent.Type.CREATED
+					: operation.getOp() == TodoBatchOperation.Type.UPDATE ? TodoChangedEvent.Type.UPDATED
+							: TodoChangedEvent.Type.DELETED);
+			changedTodos.add(todo);
+			results.set(index, new TodoBatchResult(index, operation.getOp(), todo.getId(), status(operation.getOp()),
+					null));
+		}
+
+		// Writes the JDBC batches now so the versions of the updated todos are incremented
+		todoJpaRepository.flush();
+		for (int i = 0; i < changes.size(); i++) {
+			Todo todo = changedTodos.get(i);
+			eventPublisher.publishEvent(changes.get(i) == TodoChangedEvent.Type.DELETED
+					? TodoChangedEvent.deleted(username, todo.getId())
+					: new TodoChangedEvent(changes.get(i), username, todo.getId(), todo));
+		}
+		return results;
+	}
+
+	/*
+	 * Returns the result of an operation that can not be applied, or null when the
+	 * operation is valid and its todo exists.
+	 */
+	private static TodoBatchResult check(int index, TodoBatchOperation operation, Map<Long, Todo> existing) {
+		// A null element of the JSON array is an operation without op
+		if (operation == null) {
+			return new TodoBatchResult(index, null, null, HttpStatus.BAD_REQUEST, "OP_REQUIRED");
+		}
+		if (operation.getOp() == null) {
+			return new TodoBatchResult(index, null, operation.getId(), HttpStatus.BAD_REQUEST, "OP_REQUIRED");
+		}
+
+		switch (operation.getOp()) {
+		case CREATE:
+			if (operation.getTodo() == null) {
+				return error(index, operation, HttpStatus.BAD_REQUEST, "TODO_REQUIRED");
+			}
+			return null;
+
+		case UPDATE:
+			if (operation.getId() == null || operation.getTodo() == null) {
+				return error(index, operation, HttpStatus.BAD_REQUEST, "ID_AND_TODO_REQUIRED");
+			}
+			return existing.containsKey(operation.getId()) ? null
+					: error(index, operation, HttpStatus.NOT_FOUND, "TODO_NOT_FOUND");
+
+		case DELETE:
+			if (operation.getId() == null) {
+				return error(index, operation, HttpStatus.BAD_REQUEST, "ID_REQUIRED");
+			}
+			return existing.containsKey(operation.getId()) ? null
+					: error(index, operation, HttpStatus.NOT_FOUND, "TODO_NOT_FOUND");
+
+		default:
+			return error(index, operation, HttpStatus.BAD_REQUEST, "UNKNOWN_OP");
+		}
+	}
+
+	/*
+	 * Applies a checked operation with its change sequence number and returns the created,
+	 * updated or deleted todo.
+	 */
+	private Todo apply(String username, TodoBatchOperation operation, Todo existing, long changeSeq) {
+		switch (operation.getOp()) {
+		case CREATE:
+			Todo created = operation.getTodo();
+			created.setId(null);
+			created.setUsername(username);
+			created.setChangeSeq(changeSeq);
+			return todoJpaRepository.save(created);
+
+		case UPDATE:
+			// The managed todo is changed, Hibernate writes the update when it is flushed
+			existing.setDescription(operation.getTodo().getDescription());
+			existing.setTargetDate(operation.getTodo().getTargetDate());
+			existing.setDone(operation.getTodo().isDone());
+			existing.setChangeSeq(changeSeq);
+			return existing;
+
+		default:
+			// Kept as a tombstone for the delta sync, see TodoTombstoneCompactor
+			existing.markDeleted(new Date());
+			existing.setChangeSeq(changeSeq);
+			return existing;
+		}
+	}
+
+	private static HttpStatus status(TodoBatchOperation.Type op) {
+		return op == TodoBatchOperation.Type.CREATE ? HttpStatus.CREATED
+				: op == TodoBatchOperation.Type.UPDATE ? HttpStatus.OK : HttpStatus.NO_CONTENT;
+	}
+
+	private static TodoBatchResult error(int index, TodoBatchOperation operation, HttpStatus status, String message) {
+		return new TodoBatchResult(index, operation.getOp(), operation.getId(), status, message);
+	}
+
+}
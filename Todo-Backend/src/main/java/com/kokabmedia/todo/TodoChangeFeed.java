@@ -0,0 +1,482 @@
+package com.kokabmedia.todo;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.PreDestroy;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.event.TransactionalEventListener;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/*
+* This class pushes the changes of the todos of a user to the Server-Sent Events
+* subscribers of that user (see TodoJpaResource.streamTodoChanges()).
+*
+* A subscriber is an SseEmitter, the connection is kept open with asynchronous servlet
+* processing so an idle subscriber does not hold a servlet thread. The events are written
+* by a small shared pool of sender threads, every subscriber has a bounded buffer of
+* events waiting to be sent and a subscriber that falls behind so far that its buffer is
+* full is disconnected (slow consumer), the client then reconnects and resumes. A replay
+* that does not fit into the buffer is replaced by a reset event, and a heartbeat is
+* only sent to a subscriber that has nothing else to send.
+*
+* Writing to a client that does not read blocks the sender thread until the socket
+* accepts the data or the write timeout of the servlet container ends the write. A
+* subscriber whose write takes longer than todo.stream.send-timeout-ms is dropped and
+* the pool gets an extra thread while the stalled write is still blocked, so the other
+* subscribers keep getting their events.
+*
+* The last events of a user are kept for replay while the user has subscribers and for
+* todo.stream.replay-retention-minutes after the last one has gone, the changes of users
+* that do not follow their todos are not kept at all. A client that reconnects with the
+* id of the last event it received (the Last-Event-ID header or the lastEventId parameter)
+* gets the events it missed. When they are no longer available, or the id is from before
+* a restart, a "reset" event tells the client to load the todo list again.
+*
+* The @Component annotation lets the Spring framework manage class as a Spring bean.
+*/
+@Component
+public class TodoChangeFeed {
+
+	static final String RESET_EVENT = "reset";
+
+	private final Logger logger = LoggerFactory.getLogger(this.getClass());
+
+	private final String epoch = Long.toString(System.currentTimeMillis(), 36);
+
+	private final ConcurrentMap<String, UserFeed> feeds = new ConcurrentHashMap<>();
+
+	// The subscribers a sender thread is working for, checked for stalled writes
+	private final Set<Subscriber> sendingSubscribers = ConcurrentHashMap.newKeySet();
+
+	private final ObjectMapper objectMapper;
+	private final long timeoutMillis;
+	private final int replaySize;
+	private final int subscriberBufferSize;
+	private final long replayRetentionNanos;
+	private final int senderThreads;
+	private final long sendTimeoutNanos;
+	private final ThreadPoolExecutor senders;
+	private final ScheduledExecutorService timer;
+
+	// Sender threads blocked in the write of a dropped subscriber, guarded by this
+	private int stalledSenders;
+
+	public TodoChangeFeed(ObjectMapper objectMapper,
+			@Value("${todo.stream.timeout-ms:1800000}") long timeoutMillis,
+			@Value("${todo.stream.replay-size:256}") int replaySize,
+			@Value("${todo.stream.subscriber-buffer-size:64}") int subscriberBufferSize,
+			@Value("${todo.stream.sender-threads:2}") int senderThreads,
+			@Value("${todo.stream.heartbeat-seconds:30}") long heartbeatSeconds,
+			@Value("${todo.stream.replay-retention-minutes:10}") long replayRetentionMinutes,
+			@Value("${todo.stream.send-timeout-ms:10000}") long sendTimeoutMs) {
+		this.objectMapper = objectMapper;
+		this.timeoutMillis = timeoutMillis;
+		this.replaySize = replaySize;
+		this.subscriberBufferSize = subscriberBufferSize;
+		this.replayRetentionNanos = TimeUnit.MINUTES.toNanos(replayRetentionMinutes);
+		this.senderThreads = senderThreads;
+		this.sendTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(sendTimeoutMs);
+		this.senders = new ThreadPoolExecutor(senderThreads, senderThreads, 60, TimeUnit.SECONDS,
+				new LinkedBlockingQueue<>(), daemonThreads("todo-change-feed"));
+
+		// A thread of its own, the checks must run while every sender thread is blocked
+		this.timer = Executors.newSingleThreadScheduledExecutor(daemonThreads("todo-change-feed-timer"));
+		this.timer.scheduleWithFixedDelay(this::sendHeartbeats, heartbeatSeconds, heartbeatSeconds, TimeUnit.SECONDS);
+		this.timer.scheduleWithFixedDelay(this::removeIdleFeeds, 1, 1, TimeUnit.MINUTES);
+		long checkIntervalMs = Math.max(10, sendTimeoutMs / 4);
+		this.timer.scheduleWithFixedDelay(this::dropStalledSubscribers, checkIntervalMs, checkIntervalMs,
+				TimeUnit.MILLISECONDS);
+	}
+
+	private static ThreadFactory daemonThreads(String name) {
+		return runnable -> {
+			Thread thread = new Thread(runnable, name);
+			thread.setDaemon(true);
+			return thread;
+		};
+	}
+
+	@PreDestroy
+	public void shutdown() {
+		timer.shutdownNow();
+		senders.shutdownNow();
+		feeds.values().forEach(feed -> feed.subscribers.forEach(Subscriber::close));
+	}
+
+	/*
+	 * Opens a new subscription for the todos of the user, the events after lastEventId
+	 * (may be null) are replayed before the live events.
+	 */
+	public SseEmitter subscribe(String username, String lastEventId) {
+		return subscribe(username, lastEventId, new SseEmitter(timeoutMillis));
+	}
+
+	SseEmitter subscribe(String username, String lastEventId, SseEmitter emitter) {
+		Subscriber subscriber = new Subscriber(username, emitter);
+
+		// Registered inside compute() so removeIdleFeeds() cannot drop the feed meanwhile
+		UserFeed feed = feeds.compute(username, (key, existing) -> {
+			UserFeed userFeed = existing == null ? new UserFeed() : existing;
+			// Replay and registration happen under the lock of the feed so no event is lost or sent twice
+			synchronized (userFeed) {
+				if (lastEventId != null) {
+					List<FeedEvent> missed = userFeed.eventsAfter(lastEventId);
+					if (missed.size() > subscriberBufferSize) {
+						// Loading the todo list again is cheaper than a replay the client cannot keep up with
+						missed = List.of(userFeed.reset());
+					}
+					missed.forEach(subscriber::offer);
+				}
+				userFeed.subscribers.add(subscriber);
+			}
+			return userFeed;
+		});
+
+		emitter.onCompletion(() -> feed.remove(subscriber));
+		emitter.onTimeout(emitter::complete);
+		emitter.onError(error -> feed.remove(subscriber));
+		return emitter;
+	}
+
+	public int getSubscriberCount() {
+		return feeds.values().stream().mapToInt(feed -> feed.subscribers.size()).sum();
+	}
+
+	int getFeedCount() {
+		return feeds.size();
+	}
+
+	/*
+	 * Called by Spring once the change has been committed, or right away when the event
+	 * has been published outside of a transaction.
+	 */
+	@TransactionalEventListener(fallbackExecution = true)
+	public void onTodoChanged(TodoChangedEvent event) {
+		UserFeed feed = feeds.get(event.getUsername());
+		if (feed == null) {
+			// Nobody follows the todos of the user, there is nothing to send or replay
+			return;
+		}
+
+		String data;
+		try {
+			data = objectMapper.writeValueAsString(event);
+		} catch (JsonProcessingException e) {
+			logger.error("TODO_CHANGE_EVENT_NOT_SERIALIZABLE {}", event, e);
+			return;
+		}
+
+		synchronized (feed) {
+			FeedEvent feedEvent = feed.append(event.getType().name().toLowerCase(), data);
+			for (Subscriber subscriber : feed.subscribers) {
+				if (!subscriber.offer(feedEvent)) {
+					logger.warn("TODO_CHANGE_FEED_SLOW_CONSUMER_DROPPED '{}'", event.getUsername());
+					feed.remove(subscriber);
+					subscriber.close();
+				}
+			}
+		}
+	}
+
+	private void sendHeartbeats() {
+		for (UserFeed feed : feeds.values()) {
+			for (Subscriber subscriber : feed.subscribers) {
+				subscriber.offerHeartbeat();
+			}
+		}
+	}
+
+	/*
+	 * Drops the subscribers whose write has been blocked for longer than the send
+	 * timeout and replaces the sender threads they hold.
+	 */
+	private void dropStalledSubscribers() {
+		long now = System.nanoTime();
+		for (Subscriber subscriber : sendingSubscribers) {
+			if (subscriber.markStalled(now)) {
+				logger.warn("TODO_CHANGE_FEED_STALLED_CONSUMER_DROPPED '{}'", subscriber.username);
+				UserFeed feed = feeds.get(subscriber.username);
+				if (feed != null) {
+					feed.remove(subscriber);
+				}
+				resizeSenders(1);
+			}
+		}
+	}
+
+	/*
+	 * The pool keeps senderThreads threads free for the subscribers that read their
+	 * events, on top of the threads that are blocked by stalled subscribers.
+	 */
+	private synchronized void resizeSenders(int stalledChange) {
+		stalledSenders += stalledChange;
+		int size = senderThreads + stalledSenders;
+		if (size > senders.getMaximumPoolSize()) {
+			senders.setMaximumPoolSize(size);
+			senders.setCorePoolSize(size);
+		} else {
+			senders.setCorePoolSize(size);
+			senders.setMaximumPoolSize(size);
+		}
+	}
+
+	/*
+	 * Drops the feeds that have had no subscriber for the replay retention time, a client
+	 * that comes back later gets a reset event instead of a replay.
+	 */
+	private void removeIdleFeeds() {
+		long now = System.nanoTime();
+		for (String username : feeds.keySet()) {
+			feeds.computeIfPresent(username, (key, feed) -> {
+				synchronized (feed) {
+					return feed.subscribers.isEmpty() && now - feed.idleSince > replayRetentionNanos ? null : feed;
+				}
+			});
+		}
+	}
+
+	/*
+	 * The replay buffer and the subscribers of one user, idleSince is the time the last
+	 * subscriber has gone.
+	 */
+	private class UserFeed {
+
+		private final Deque<FeedEvent> recent = new ArrayDeque<>();
+		private final List<Subscriber> subscribers = new CopyOnWriteArrayList<>();
+		private long sequence;
+		private long idleSince;
+
+		private synchronized void remove(Subscriber subscriber) {
+			if (subscribers.remove(subscriber) && subscribers.isEmpty()) {
+				idleSince = System.nanoTime();
+			}
+		}
+
+		private FeedEvent append(String name, String data) {
+			FeedEvent event = new FeedEvent(++sequence, epoch + "-" + sequence, name, data);
+			recent.addLast(event);
+			if (recent.size() > replaySize) {
+				recent.removeFirst();
+			}
+			return event;
+		}
+
+		private List<FeedEvent> eventsAfter(String lastEventId) {
+			long lastSequence = parseSequence(lastEventId);
+			FeedEvent oldest = recent.peekFirst();
+			long oldestAvailable = oldest == null ? sequence + 1 : oldest.sequence;
+
+			List<FeedEvent> missed = new ArrayList<>();
+			if (lastSequence < 0 || lastSequence > sequence || lastSequence + 1 < oldestAvailable) {
+				// Unknown id, an id from before a restart or events that are no longer kept
+				missed.add(reset());
+				return missed;
+			}
+			for (FeedEvent event : recent) {
+				if (event.sequence > lastSequence) {
+					missed.add(event);
+				}
+			}
+			return missed;
+		}
+
+		private FeedEvent reset() {
+			return new FeedEvent(sequence, epoch + "-" + sequence, RESET_EVENT, "{}");
+		}
+
+		private long parseSequence(String lastEventId) {
+			int separator = lastEventId.indexOf('-');
+			if (separator < 0 || !lastEventId.substring(0, separator).equals(epoch)) {
+				return -1;
+			}
+			try {
+				return Long.parseLong(lastEventId.substring(separator + 1));
+			} catch (NumberFormatException e) {
+				return -1;
+			}
+		}
+	}
+
+	private static class FeedEvent {
+
+		static final FeedEvent HEARTBEAT = new FeedEvent(-1, null, null, null);
+
+		private final long sequence;
+		private final String id;
+		private final String name;
+		private final String data;
+
+		private FeedEvent(long sequence, String id, String name, String data) {
+			this.sequence = sequence;
+			this.id = id;
+			this.name = name;
+			this.data = data;
+		}
+	}
+
+	/*
+	 * One open SSE connection with its bounded buffer of events waiting to be sent, at
+	 * most one sender thread writes to the connection at a time. sendingSince is the
+	 * start of the write in progress, 0 between writes.
+	 */
+	private class Subscriber {
+
+		private final String username;
+		private final SseEmitter emitter;
+		private final Deque<FeedEvent> pending = new ArrayDeque<>();
+		private boolean sending;
+		private boolean closed;
+		private boolean stalled;
+		private long sendingSince;
+
+		private Subscriber(String username, SseEmitter emitter) {
+			this.username = username;
+			this.emitter = emitter;
+		}
+
+		/*
+		 * Queues the event, returns false when the buffer is full.
+		 */
+		private boolean offer(FeedEvent event) {
+			synchronized (this) {
+				if (closed) {
+					return true;
+				}
+				if (pending.size() >= subscriberBufferSize) {
+					return false;
+				}
+				pending.addLast(event);
+				startSending();
+			}
+			return true;
+		}
+
+		/*
+		 * A heartbeat is only needed when the connection is idle, it never takes the place
+		 * of an event in the buffer.
+		 */
+		private synchronized void offerHeartbeat() {
+			if (!closed && !sending && pending.isEmpty()) {
+				pending.addLast(FeedEvent.HEARTBEAT);
+				startSending();
+			}
+		}
+
+		// Called with the lock of the subscriber held
+		private void startSending() {
+			if (!sending) {
+				sending = true;
+				sendingSubscribers.add(this);
+				senders.execute(this::send);
+			}
+		}
+
+		/*
+		 * Closes the connection, a write in progress completes the emitter when it returns
+		 * because the emitter cannot be completed while it is sending.
+		 */
+		private void close() {
+			synchronized (this) {
+				boolean alreadyClosed = closed;
+				closed = true;
+				pending.clear();
+				if (alreadyClosed || sending) {
+					return;
+				}
+			}
+			emitter.complete();
+		}
+
+		/*
+		 * Marks the subscriber as stalled when its write has taken longer than the send
+		 * timeout, returns true only once.
+		 */
+		private synchronized boolean markStalled(long now) {
+			if (stalled || sendingSince == 0 || now - sendingSince <= sendTimeoutNanos) {
+				return false;
+			}
+			stalled = true;
+			closed = true;
+			pending.clear();
+			return true;
+		}
+
+		private void send() {
+			while (true) {
+				FeedEvent event;
+				boolean complete = false;
+				synchronized (this) {
+					event = closed ? null : pending.pollFirst();
+					if (event == null) {
+						complete = closed;
+						sending = false;
+						sendingSubscribers.remove(this);
+					} else {
+						sendingSince = System.nanoTime();
+					}
+				}
+				if (event == null) {
+					if (complete) {
+						emitter.complete();
+					}
+					return;
+				}
+
+				Exception failure = null;
+				try {
+					if (event == FeedEvent.HEARTBEAT) {
+						emitter.send(SseEmitter.event().comment("heartbeat"));
+					} else {
+						emitter.send(SseEmitter.event().id(event.id).name(event.name).data(event.data,
+								MediaType.APPLICATION_JSON));
+					}
+				} catch (IOException | IllegalStateException e) {
+					failure = e;
+				}
+
+				boolean wasStalled;
+				synchronized (this) {
+					sendingSince = 0;
+					wasStalled = stalled;
+					if (failure != null) {
+						closed = true;
+						sending = false;
+						sendingSubscribers.remove(this);
+					}
+				}
+				if (wasStalled) {
+					// The thread is free again, the extra thread of the pool is no longer needed
+					resizeSenders(-1);
+				}
+				if (failure != null) {
+					// The client has gone away, the emitter callbacks remove the subscriber
+					emitter.completeWithError(failure);
+					return;
+				}
+			}
+		}
+	}
+
+}
@@ -0,0 +1,52 @@
+package com.kokabmedia.todo;
+
+import javax.persistence.Entity;
+import javax.persistence.Id;
+
+/*
+ * This is the entity class for the change sequence of the todos of one user, it is mapped
+ * to the todo_change_sequence table with one row per user.
+ * 
+ * lastSeq is the change sequence that was handed out last (see TodoChangeSequencer).
+ * compactedThroughSeq is the highest change sequence of the tombstones that have been 
+ * removed (see TodoTombstoneCompactor), a client that synchronised before it may have 
+ * missed deletes and has to load all todos again.
+ */
+@Entity
+public class TodoChangeSequence {
+
+	@Id
+	private String username;
+	private long lastSeq;
+	private long compactedThroughSeq;
+
+	protected TodoChangeSequence() {
+
+	}
+
+	public TodoChangeSequence(String username) {
+		this.username = username;
+	}
+
+	public String getUsername() {
+		return username;
+	}
+
+	public long getLastSeq() {
+		return lastSeq;
+	}
+
+	public long getCompactedThroughSeq() {
+		return compactedThroughSeq;
+	}
+
+	/*
+	 * Hands out the next count numbers and returns the first of them.
+	 */
+	public long reserve(int count) {
+		long first = lastSeq + 1;
+		lastSeq += count;
+		return first;
+	}
+
+}
@@ -0,0 +1,37 @@
+package com.kokabmedia.todo;
+
+import java.util.Optional;
+
+import javax.persistence.LockModeType;
+
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Lock;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+/*
+ * Interface that gives access to the change sequences of the users in the database.
+ */
+@Repository
+public interface TodoChangeSequenceRepository extends JpaRepository<TodoChangeSequence, String> {
+
+	/*
+	 * The @Lock annotation reads the row with SELECT ... FOR UPDATE, the row stays locked
+	 * until the transaction ends so the changes of one user are committed in the order
+	 * of their change sequence.
+	 */
+	@Lock(LockModeType.PESSIMISTIC_WRITE)
+	@Query("select s from TodoChangeSequence s where s.username = :username")
+	Optional<TodoChangeSequence> findForUpdate(@Param("username") String username);
+
+	@Query("select s.compactedThroughSeq from TodoChangeSequence s where s.username = :username")
+	Optional<Long> findCompactedThroughSeq(@Param("username") String username);
+
+	@Modifying
+	@Query("update TodoChangeSequence s set s.compactedThroughSeq = :throughSeq"
+			+ " where s.username = :username and s.compactedThroughSeq < :throughSeq")
+	int markCompacted(@Param("username") String username, @Param("throughSeq") long throughSeq);
+
+}
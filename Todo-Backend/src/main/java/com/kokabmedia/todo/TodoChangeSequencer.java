@@ -0,0 +1,116 @@
+package com.kokabmedia.todo;
+
+import java.sql.SQLException;
+import java.util.Optional;
+
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+import javax.persistence.PersistenceException;
+import javax.sql.DataSource;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.jdbc.support.SQLErrorCodeSQLExceptionTranslator;
+import org.springframework.jdbc.support.SQLExceptionTranslator;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
+
+/*
+ * This class hands out the change sequence numbers of the todos of a user, every create,
+ * update and delete of a todo gets the next number of its user.
+ * 
+ * The number is taken from the locked row of the user in the todo_change_sequence table
+ * within the transaction of the change. Concurrent changes of the same user wait for
+ * each other, so a change with a higher number is never committed before a change with a
+ * lower number and a client that has seen number N never misses a change below N.
+ * 
+ * The @Transactional annotation with Propagation.MANDATORY makes sure that next() is only
+ * called within the transaction that writes the change.
+ */
+@Component
+public class TodoChangeSequencer {
+
+	@Autowired
+	private TodoChangeSequenceRepository todoChangeSequenceRepository;
+
+	@PersistenceContext
+	private EntityManager entityManager;
+
+	private final TransactionTemplate newTransaction;
+	private final SQLExceptionTranslator exceptionTranslator;
+
+	public TodoChangeSequencer(PlatformTransactionManager transactionManager, DataSource dataSource) {
+		this.newTransaction = new TransactionTemplate(transactionManager);
+		this.newTransaction.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+		this.exceptionTranslator = new SQLErrorCodeSQLExceptionTranslator(dataSource);
+	}
+
+	@Transactional(propagation = Propagation.MANDATORY)
+	public long next(String username) {
+		return reserve(username, 1);
+	}
+
+	/*
+	 * Like next() for a user that may not exist, an empty Optional is returned and no row
+	 * is created when the user has never changed a todo.
+	 */
+	@Transactional(propagation = Propagation.MANDATORY)
+	public Optional<Long> nextIfPresent(String username) {
+		return todoChangeSequenceRepository.findForUpdate(username).map(sequence -> sequence.reserve(1));
+	}
+
+	/*
+	 * Reserves count consecutive numbers with one locked read and returns the first one,
+	 * for a batch of changes. Numbers that end up unused leave a gap, which is harmless
+	 * because the clients only compare the numbers.
+	 */
+	@Transactional(propagation = Propagation.MANDATORY)
+	public long reserve(String username, int count) {
+		Optional<TodoChangeSequence> sequence = todoChangeSequenceRepository.findForUpdate(username);
+		if (!sequence.isPresent()) {
+			createSequence(username);
+			sequence = todoChangeSequenceRepository.findForUpdate(username);
+		}
+		return sequence.get().reserve(count);
+	}
+
+	/*
+	 * The row of a new user is inserted in its own transaction, when a concurrent request
+	 * has inserted it first the duplicate key is ignored, any other failure is thrown.
+	 * persist() is used instead of save() because save() merges an entity with an
+	 * assigned id, which would overwrite a row inserted in the meantime.
+	 */
+	private void createSequence(String username) {
+		try {
+			newTransaction.executeWithoutResult(status -> {
+				entityManager.persist(new TodoChangeSequence(username));
+				entityManager.flush();
+			});
+		} catch (DataIntegrityViolationException | PersistenceException e) {
+			if (!isDuplicateKey(e)) {
+				throw e;
+			}
+			// Created by a concurrent request
+		}
+	}
+
+	/*
+	 * The SQL error codes of the database (see sql-error-codes.xml of Spring JDBC) tell a
+	 * duplicate key apart from the other constraint violations.
+	 */
+	private boolean isDuplicateKey(Throwable failure) {
+		for (Throwable cause = failure; cause != null; cause = cause.getCause()) {
+			if (cause instanceof SQLException) {
+				return exceptionTranslator.translate("createSequence", null,
+						(SQLException) cause) instanceof DuplicateKeyException;
+			}
+		}
+		return false;
+	}
+
+}
@@ -0,0 +1,87 @@
+package com.kokabmedia.todo;
+
+import java.util.Date;
+
+/*
+ * This class is the application event that is published for every todo that is
+ * created, updated or deleted through TodoJpaResource.
+ *
+ * The event is published with the Spring ApplicationEventPublisher, listeners that use
+ * the @TransactionalEventListener annotation are called once the change has been
+ * committed, for example to update the collection version of the user or to push the
+ * change to the Server-Sent Events subscribers of the user.
+ *
+ * The todo is a copy taken when the event is published, it is null for a deleted todo.
+ *
+ * A bulk import (see TodoImportService) publishes one IMPORTED event per chunk of todos
+ * instead of one event per todo, it carries neither an id nor a todo, the clients load
+ * the imported todos with the delta sync.
+ */
+public class TodoChangedEvent {
+
+	public enum Type {
+		CREATED, UPDATED, DELETED, IMPORTED
+	}
+
+	private final Type type;
+	private final String username;
+	private final long id;
+	private final Todo todo;
+
+	public TodoChangedEvent(Type type, String username, long id, Todo todo) {
+		this.type = type;
+		this.username = username;
+		this.id = id;
+		this.todo = todo == null ? null : copyOf(todo);
+	}
+
+	public static TodoChangedEvent created(Todo todo) {
+		return new TodoChangedEvent(Type.CREATED, todo.getUsername(), todo.getId(), todo);
+	}
+
+	public static TodoChangedEvent updated(Todo todo) {
+		return new TodoChangedEvent(Type.UPDATED, todo.getUsername(), todo.getId(), todo);
+	}
+
+	public static TodoChangedEvent deleted(String username, long id) {
+		return new TodoChangedEvent(Type.DELETED, username, id, null);
+	}
+
+	public static TodoChangedEvent imported(String username) {
+		return new TodoChangedEvent(Type.IMPORTED, username, 0, null);
+	}
+
+	/*
+	 * A detached copy of the todo, the target date is copied as well because Date can be
+	 * changed.
+	 */
+	static Todo copyOf(Todo todo) {
+		Date targetDate = todo.getTargetDate() == null ? null : new Date(todo.getTargetDate().getTime());
+		Todo copy = new Todo(todo.getId(), todo.getUsername(), todo.getDescription(), targetDate, todo.isDone());
+		copy.setVersion(todo.getVersion());
+		copy.setChangeSeq(todo.getChangeSeq());
+		return copy;
+	}
+
+	public Type getType() {
+		return type;
+	}
+
+	public String getUsername() {
+		return username;
+	}
+
+	public long getId() {
+		return id;
+	}
+
+	public Todo getTodo() {
+		return todo;
+	}
+
+	@Override
+	public String toString() {
+		return String.format("TodoChangedEvent [type=%s, username=%s, id=%s]", type, username, id);
+	}
+
+}
@@ -0,0 +1,58 @@
+package com.kokabmedia.todo;
+
+import java.util.List;
+
+/*
+ * This class is the response body of the delta sync of TodoJpaResource, the todos of a
+ * user that were created or updated (upserts) and the ids of the todos that were deleted
+ * after the change sequence the client has seen last (since).
+ * 
+ * The client stores seq and sends it as the since parameter of its next request, while
+ * hasMore is true it asks again right away. When fullResync is true the changes since
+ * the given sequence are no longer known, upserts then holds all todos of the user and
+ * the client replaces its list.
+ */
+public class TodoChanges {
+
+	private final long since;
+	private final long seq;
+	private final boolean hasMore;
+	private final boolean fullResync;
+	private final List<Todo> upserts;
+	private final List<Long> deletes;
+
+	public TodoChanges(long since, long seq, boolean hasMore, boolean fullResync, List<Todo> upserts,
+			List<Long> deletes) {
+		this.since = since;
+		this.seq = seq;
+		this.hasMore = hasMore;
+		this.fullResync = fullResync;
+		this.upserts = upserts;
+		this.deletes = deletes;
+	}
+
+	public long getSince() {
+		return since;
+	}
+
+	public long getSeq() {
+		return seq;
+	}
+
+	public boolean isHasMore() {
+		return hasMore;
+	}
+
+	public boolean isFullResync() {
+		return fullResync;
+	}
+
+	public List<Todo> getUpserts() {
+		return upserts;
+	}
+
+	public List<Long> getDeletes() {
+		return deletes;
+	}
+
+}
@@ -0,0 +1,81 @@
+package com.kokabmedia.todo;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.event.TransactionalEventListener;
+
+/*
+* This class keeps a version and a last modified time (a watermark) for the todo list of
+* every user, it is used to answer conditional GET requests for the todo list with
+* HTTP 304 Not Modified without loading or serializing the todos.
+*
+* Every TodoChangedEvent touches the watermark of the user once the change has been
+* committed. The watermarks are kept in memory, the startup time of the application is
+* part of every ETag so the ETags handed out before a restart never match again.
+*
+* The @Component annotation lets the Spring framework manage class as a Spring bean.
+*/
+@Component
+public class TodoCollectionVersions {
+
+	private final long startupTime = System.currentTimeMillis();
+	private final String epoch = Long.toString(startupTime, 36);
+
+	private final ConcurrentMap<String, Watermark> watermarks = new ConcurrentHashMap<>();
+
+	public Watermark current(String username) {
+		return watermarks.getOrDefault(username, new Watermark(0, startupTime));
+	}
+
+	/*
+	 * The @TransactionalEventListener annotation makes Spring call this method after the
+	 * transaction that published the event has been committed, or right away when the
+	 * event has been published outside of a transaction (fallbackExecution).
+	 */
+	@TransactionalEventListener(fallbackExecution = true)
+	public void onTodoChanged(TodoChangedEvent event) {
+		touch(event.getUsername());
+	}
+
+	public Watermark touch(String username) {
+		return watermarks.compute(username, (key, previous) -> {
+			Watermark current = previous == null ? new Watermark(0, startupTime) : previous;
+			return new Watermark(current.version + 1, Math.max(System.currentTimeMillis(), current.lastModified));
+		});
+	}
+
+	public class Watermark {
+
+		private final long version;
+		private final long lastModified;
+
+		private Watermark(long version, long lastModified) {
+			this.version = version;
+			this.lastModified = lastModified;
+		}
+
+		public long getVersion() {
+			return version;
+		}
+
+		public String getETag() {
+			return "\"" + epoch + "-" + version + "\"";
+		}
+
+		/*
+		 * HTTP dates only have a precision of seconds, so the last modified time is only
+		 * handed out once the second of the last change is over. A list read during that
+		 * second could still change within the same second and If-Modified-Since would
+		 * then wrongly be answered with 304 Not Modified, in that case -1 is returned and
+		 * the ETag alone is used.
+		 */
+		public long getStableLastModified() {
+			long second = lastModified / 1000 * 1000;
+			return second < System.currentTimeMillis() / 1000 * 1000 ? second : -1;
+		}
+
+	}
+
+}
@@ -0,0 +1,68 @@
+package com.kokabmedia.todo;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.Date;
+
+/*
+ * This class is the position of a keyset paginated todo listing, it holds the
+ * targetDate and id of the last todo of a page.
+ *
+ * The cursor is handed to the client as an opaque URL safe string, the client sends
+ * it back with the "after" request parameter to fetch the following page.
+ */
+public class TodoCursor {
+
+	private static final String NO_DATE = "-";
+
+	private final Date targetDate;
+	private final long id;
+
+	public TodoCursor(Date targetDate, long id) {
+		this.targetDate = targetDate;
+		this.id = id;
+	}
+
+	public static TodoCursor of(Todo todo) {
+		return new TodoCursor(todo.getTargetDate(), todo.getId());
+	}
+
+	/*
+	 * Parses a cursor produced by encode(), an IllegalArgumentException is thrown when
+	 * the value has been tampered with or is not a cursor at all.
+	 */
+	public static TodoCursor decode(String value) {
+		String decoded = new String(Base64.getUrlDecoder().decode(value), StandardCharsets.UTF_8);
+		int separator = decoded.indexOf(':');
+		if (separator < 1) {
+			throw new IllegalArgumentException("INVALID_CURSOR");
+		}
+		try {
+			String date = decoded.substring(0, separator);
+			long id = Long.parseLong(decoded.substring(separator + 1));
+			return new TodoCursor(NO_DATE.equals(date) ? null : new Date(Long.parseLong(date)), id);
+		} catch (NumberFormatException e) {
+			throw new IllegalArgumentException("INVALID_CURSOR", e);
+		}
+	}
+
+	public String encode() {
+		String date = targetDate == null ? NO_DATE : Long.toString(targetDate.getTime());
+		return Base64.getUrlEncoder().withoutPadding()
+				.encodeToString((date + ":" + id).getBytes(StandardCharsets.UTF_8));
+	}
+
+	public Date getTargetDate() {
+		return targetDate;
+	}
+
+	public long getId() {
+		return id;
+	}
+
+	@Override
+	public String toString() {
+		return String.format("TodoCursor [targetDate=%s, id=%s]", targetDate, id);
+	}
+
+}
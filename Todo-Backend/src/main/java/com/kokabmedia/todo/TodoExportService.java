@@ -0,0 +1,144 @@
+package com.kokabmedia.todo;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.util.Iterator;
+import java.util.List;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Pageable;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.springframework.util.StreamUtils;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SequenceWriter;
+import com.kokabmedia.shard.ShardRouter;
+
+/*
+* This class writes the todos of a user, or of all users, to an OutputStream for the
+* export endpoints of TodoJpaResource.
+*
+* The todos of all users are read with a Stream from TodoJpaRepository, the JDBC driver
+* fetches EXPORT_FETCH_SIZE rows at a time and every todo is written as soon as it has
+* been read. The persistence context is cleared after every fetch, so the memory used by
+* an export does not grow with the number of todos. The read-only transaction lets
+* Hibernate skip the dirty checking snapshots of the todos.
+*
+* The todos of one user are read in chunks of EXPORT_FETCH_SIZE todos, each chunk in a
+* read-only transaction of its own that ends before the chunk is written. A transaction
+* of a user holds the lock of the user (see ShardRouter), so the move of the user to
+* another shard waits for one chunk and not for the export to reach a slow client.
+*
+* The @Service annotation lets the Spring framework manage class as a Spring bean.
+*/
+@Service
+public class TodoExportService {
+
+	private final TodoJpaRepository todoJpaRepository;
+	private final ShardRouter shardRouter;
+	private final TransactionTemplate readOnlyTransaction;
+	private final ObjectWriter todoWriter;
+
+	@PersistenceContext
+	private EntityManager entityManager;
+
+	public TodoExportService(TodoJpaRepository todoJpaRepository, ShardRouter shardRouter,
+			PlatformTransactionManager transactionManager, ObjectMapper objectMapper) {
+		this.todoJpaRepository = todoJpaRepository;
+		this.shardRouter = shardRouter;
+		this.readOnlyTransaction = new TransactionTemplate(transactionManager);
+		this.readOnlyTransaction.setReadOnly(true);
+		this.todoWriter = objectMapper.writerFor(Todo.class);
+	}
+
+	public enum Format {
+		/*
+		 * One JSON object per line (application/x-ndjson).
+		 */
+		NDJSON,
+		/*
+		 * One JSON array of all todos (application/json).
+		 */
+		JSON
+	}
+
+	/*
+	 * Writes the todos of the user, or of all users when username is null, ordered by id
+	 * and returns their number. The OutputStream is not closed.
+	 *
+	 * With sharding the todos of all users are read from one shard after the other, each
+	 * shard ordered by id.
+	 */
+	public long export(String username, Format format, OutputStream out) {
+		try (SequenceWriter writer = sequenceWriter(format, StreamUtils.nonClosing(out))) {
+			if (username != null) {
+				return shardRouter.callOnShardOf(username, () -> writeChunks(writer, username));
+			}
+			long[] count = { 0 };
+			shardRouter.forEachShard(shard -> count[0] += write(writer, todoJpaRepository::streamAll));
+			return count[0];
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	private long writeChunks(SequenceWriter writer, String username) {
+		Pageable chunk = PageRequest.of(0, TodoJpaRepository.EXPORT_FETCH_SIZE);
+		long count = 0;
+		long afterId = Long.MIN_VALUE;
+		try {
+			while (true) {
+				long after = afterId;
+				List<Todo> todos = readOnlyTransaction
+						.execute(status -> todoJpaRepository.findExportChunk(username, after, chunk));
+				for (Todo todo : todos) {
+					writer.write(todo);
+				}
+				count += todos.size();
+				if (todos.size() < chunk.getPageSize()) {
+					return count;
+				}
+				writer.flush();
+				afterId = todos.get(todos.size() - 1).getId();
+			}
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	private long write(SequenceWriter writer, Supplier<Stream<Todo>> source) {
+		return readOnlyTransaction.execute(status -> {
+			try (Stream<Todo> todos = source.get()) {
+				long count = 0;
+				Iterator<Todo> iterator = todos.iterator();
+				while (iterator.hasNext()) {
+					writer.write(iterator.next());
+					if (++count % TodoJpaRepository.EXPORT_FETCH_SIZE == 0) {
+						entityManager.clear();
+						writer.flush();
+					}
+				}
+				return count;
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+		});
+	}
+
+	private SequenceWriter sequenceWriter(Format format, OutputStream out) throws IOException {
+		if (format == Format.JSON) {
+			return todoWriter.writeValuesAsArray(out);
+		}
+		return todoWriter.withRootValueSeparator("\n").writeValues(out);
+	}
+
+}
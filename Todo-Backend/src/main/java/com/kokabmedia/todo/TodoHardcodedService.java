@@ -1,16 +1,27 @@
 package com.kokabmedia.todo;
 
-import java.util.ArrayList;
+import java.util.Comparator;
 import java.util.Date;
 import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
 
 import org.springframework.stereotype.Service;
 
 /*
-* This class holds a static list of todo's for development purposes. 
+* This class holds an in memory store of todo's for development purposes. 
 * 
 * This class also defines utility methods for creating, retrieving and and updating 
 * todo's.
+* 
+* The store is safe to use from the concurrent requests that TodoResource serves, the 
+* todo's are held in a ConcurrentHashMap by id with a secondary index of todo ids per 
+* username and new ids are handed out by an AtomicLong. Finding, saving and deleting a 
+* todo does not depend on the number of todo's in the store.
 *
 * The @Service annotation allows the Spring framework to creates an instance (bean) 
 * of this class and manage it with the Spring Application Context (the IOC container)
@@ -30,50 +41,79 @@ import org.springframework.stereotype.Service;
 @Service
 public class TodoHardcodedService {
 	
-	private static List<Todo> todos = new ArrayList<>();
-	private static long idCounter = 0;
+	private static final Comparator<Todo> BY_ID = Comparator.comparing(Todo::getId);
+	
+	private final ConcurrentMap<Long, Todo> todos = new ConcurrentHashMap<>();
+	private final ConcurrentMap<String, Set<Long>> todoIdsByUsername = new ConcurrentHashMap<>();
+	private final AtomicLong idCounter = new AtomicLong();
 	
-	static {
-		todos.add(new Todo(++idCounter, "in28minutes","Learn to Dance 2", new Date(), false ));
-		todos.add(new Todo(++idCounter, "in28minutes","Learn about Microservices 2", new Date(), false ));
-		todos.add(new Todo(++idCounter, "in28minutes","Learn about Angular", new Date(), false ));
+	public TodoHardcodedService() {
+		save(new Todo(0, "in28minutes","Learn to Dance 2", new Date(), false ));
+		save(new Todo(0, "in28minutes","Learn about Microservices 2", new Date(), false ));
+		save(new Todo(0, "in28minutes","Learn about Angular", new Date(), false ));
 	}
 	
 	public List<Todo> findAll() {
-		return todos;
+		return todos.values().stream().sorted(BY_ID).collect(Collectors.toList());
+	}
+	
+	public List<Todo> findByUsername(String username) {
+		Set<Long> ids = todoIdsByUsername.getOrDefault(username, Set.of());
+		return ids.stream().map(todos::get).filter(Objects::nonNull).sorted(BY_ID).collect(Collectors.toList());
 	}
 
+	/*
+	 * A todo without an id (or with the id -1 or 0 sent by the Angular client for new 
+	 * todo's) gets a new id, otherwise the stored todo with the same id is replaced. 
+	 * The replacement and the update of the username index happen atomically for the id.
+	 */
 	public Todo save(Todo todo) {
-		if(todo.getId()==-1 || todo.getId()==0) {
-			todo.setId(++idCounter);
-			todos.add(todo);
-		} else {
-			deleteById(todo.getId());
-			todos.add(todo);
+		if(todo.getId()==null || todo.getId()==-1 || todo.getId()==0) {
+			todo.setId(idCounter.incrementAndGet());
 		}
+		todos.compute(todo.getId(), (id, previous) -> {
+			if(previous!=null && !Objects.equals(previous.getUsername(), todo.getUsername())) {
+				removeFromIndex(previous);
+			}
+			addToIndex(todo);
+			return todo;
+		});
 		return todo;
 	}
 	
 	public Todo deleteById(long id) {
-		Todo todo = findById(id);
+		Todo[] deleted = new Todo[1];
 		
-		if(todo==null) return null;
-		
-		if(todos.remove(todo)) {
-			return todo;
-		}
+		todos.computeIfPresent(id, (key, todo) -> {
+			removeFromIndex(todo);
+			deleted[0] = todo;
+			return null;
+		});
 		
-		return null;
+		return deleted[0];
 	}
 
 	public Todo findById(long id) {
-		for(Todo todo:todos) {
-			if(todo.getId() == id) {
-				return todo;
-			}
-		}
+		return todos.get(id);
+	}
+	
+	private void addToIndex(Todo todo) {
+		if(todo.getUsername()==null) return;
+		
+		todoIdsByUsername.compute(todo.getUsername(), (username, ids) -> {
+			Set<Long> updated = ids==null ? ConcurrentHashMap.newKeySet() : ids;
+			updated.add(todo.getId());
+			return updated;
+		});
+	}
+	
+	private void removeFromIndex(Todo todo) {
+		if(todo.getUsername()==null) return;
 		
-		return null;
+		todoIdsByUsername.computeIfPresent(todo.getUsername(), (username, ids) -> {
+			ids.remove(todo.getId());
+			return ids.isEmpty() ? null : ids;
+		});
 	}
 	
 }
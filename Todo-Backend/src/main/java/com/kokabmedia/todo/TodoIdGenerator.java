@@ -0,0 +1,78 @@
+package com.kokabmedia.todo;
+
+import java.io.Serializable;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.hibernate.HibernateException;
+import org.hibernate.MappingException;
+import org.hibernate.engine.config.spi.ConfigurationService;
+import org.hibernate.engine.spi.SharedSessionContractImplementor;
+import org.hibernate.id.enhanced.Optimizer;
+import org.hibernate.id.enhanced.OptimizerFactory;
+import org.hibernate.id.enhanced.SequenceStyleGenerator;
+import org.hibernate.id.enhanced.StandardOptimizerDescriptor;
+import org.hibernate.internal.util.config.ConfigurationHelper;
+import org.hibernate.service.ServiceRegistry;
+import org.hibernate.type.Type;
+
+import com.kokabmedia.shard.ShardContext;
+
+/*
+ * This class generates the primary keys of the Todo entity from the todo_seq database
+ * sequence.
+ *
+ * Every value taken from the sequence reserves a block of ids, the size of the block
+ * (the allocation size) is set with spring.jpa.properties.todo.id.allocation_size in
+ * application.properties. The sequence is incremented by the allocation size and with
+ * the pooled-lo optimizer the value returned by the sequence is the first id of the
+ * block, so anyone else taking a value from the sequence, for example the seed data in
+ * data.sql, gets a block of its own and never collides with the ids Hibernate hands out.
+ *
+ * The TodoWriteBehindQueue takes the ids of the creates it accepts from the sequence
+ * itself before they are written, the TodoWriteBehindWriter marks those todos
+ * (Todo.markIdReserved) and only they keep their id. Any other new todo gets an id from
+ * the sequence, whatever id it was given by the caller.
+ * 
+ * With sharding every shard has a todo_seq sequence of its own (see ShardRouter), the
+ * blocks of each shard are handed out by an optimizer of their own so the ids of a todo
+ * always come from the sequence of the shard it is inserted into.
+ */
+public class TodoIdGenerator extends SequenceStyleGenerator {
+
+	public static final String SEQUENCE_NAME = "todo_seq";
+	public static final String ALLOCATION_SIZE_SETTING = "todo.id.allocation_size";
+	public static final int DEFAULT_ALLOCATION_SIZE = 50;
+
+	private final ConcurrentMap<Integer, Optimizer> shardOptimizers = new ConcurrentHashMap<>();
+	private int allocationSize;
+
+	@Override
+	public void configure(Type type, Properties params, ServiceRegistry serviceRegistry) throws MappingException {
+		ConfigurationService configuration = serviceRegistry.getService(ConfigurationService.class);
+		allocationSize = ConfigurationHelper.getInt(ALLOCATION_SIZE_SETTING, configuration.getSettings(),
+				DEFAULT_ALLOCATION_SIZE);
+
+		params.setProperty(SEQUENCE_PARAM, SEQUENCE_NAME);
+		params.setProperty(INCREMENT_PARAM, String.valueOf(allocationSize));
+		params.setProperty(OPT_PARAM, StandardOptimizerDescriptor.POOLED_LO.getExternalName());
+
+		super.configure(type, params, serviceRegistry);
+	}
+
+	@Override
+	public Serializable generate(SharedSessionContractImplementor session, Object object) throws HibernateException {
+		if (object instanceof Todo && ((Todo) object).isIdReserved()) {
+			return ((Todo) object).getId();
+		}
+		Integer shard = ShardContext.current();
+		if (shard == null) {
+			return super.generate(session, object);
+		}
+		Optimizer optimizer = shardOptimizers.computeIfAbsent(shard, key -> OptimizerFactory.buildOptimizer(
+				StandardOptimizerDescriptor.POOLED_LO.getExternalName(), Long.class, allocationSize, -1));
+		return optimizer.generate(getDatabaseStructure().buildCallback(session));
+	}
+
+}
@@ -0,0 +1,81 @@
+package com.kokabmedia.todo;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+
+/*
+ * Model class for one line of the response of a todo import, the response is written
+ * while the import runs (see TodoJpaResource.importTodos()).
+ *
+ * An ERROR report names the line of the import that was rejected and why, a PROGRESS
+ * report is written after every imported chunk and a SUMMARY report ends the response.
+ * The line numbers start at 1, the header line of a CSV import is counted.
+ *
+ * The @JsonInclude annotation leaves the fields that do not apply to the type of the
+ * report out of the JSON.
+ */
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class TodoImportReport {
+
+	public enum Type {
+		ERROR, PROGRESS, SUMMARY
+	}
+
+	private final Type type;
+	private final long line;
+	private final String message;
+	private final Long imported;
+	private final Long rejected;
+	private final Long elapsedMs;
+
+	private TodoImportReport(Type type, long line, String message, Long imported, Long rejected, Long elapsedMs) {
+		this.type = type;
+		this.line = line;
+		this.message = message;
+		this.imported = imported;
+		this.rejected = rejected;
+		this.elapsedMs = elapsedMs;
+	}
+
+	public static TodoImportReport error(long line, String message) {
+		return new TodoImportReport(Type.ERROR, line, message, null, null, null);
+	}
+
+	public static TodoImportReport progress(long line, long imported, long rejected, long elapsedMs) {
+		return new TodoImportReport(Type.PROGRESS, line, null, imported, rejected, elapsedMs);
+	}
+
+	public static TodoImportReport summary(long line, long imported, long rejected, long elapsedMs, String message) {
+		return new TodoImportReport(Type.SUMMARY, line, message, imported, rejected, elapsedMs);
+	}
+
+	public Type getType() {
+		return type;
+	}
+
+	public long getLine() {
+		return line;
+	}
+
+	public String getMessage() {
+		return message;
+	}
+
+	public Long getImported() {
+		return imported;
+	}
+
+	public Long getRejected() {
+		return rejected;
+	}
+
+	public Long getElapsedMs() {
+		return elapsedMs;
+	}
+
+	@Override
+	public String toString() {
+		return String.format("TodoImportReport [type=%s, line=%s, message=%s, imported=%s, rejected=%s, elapsedMs=%s]",
+				type, line, message, imported, rejected, elapsedMs);
+	}
+
+}
@@ -0,0 +1,401 @@
+package com.kokabmedia.todo;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.function.Consumer;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.jdbc.core.BatchPreparedStatementSetter;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.kokabmedia.shard.ShardRouter;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+
+/*
+* This class imports large numbers of todos for a user, for example when users are
+* migrated from another system.
+*
+* The import is read line by line, either one JSON todo per line (NDJSON) or CSV with a
+* header line that names the description, targetDate and done columns. Every line is
+* validated on its own, a rejected line is reported with its line number and the import
+* goes on. After max-errors rejected lines the import is given up.
+*
+* The valid todos are inserted in chunks of todo.import.chunk-size todos, one transaction
+* and one JDBC batch insert per chunk, without creating JPA entities for them. The ids of
+* a chunk are taken from the todo_seq sequence with one query, every value of the sequence
+* is the first id of a block of allocation_size ids (see TodoIdGenerator). The change
+* sequence numbers of a chunk are reserved with one call of TodoChangeSequencer.reserve()
+* and one TodoChangedEvent.imported() event per chunk updates the cache, the collection
+* version and the change feed of the user.
+*
+* The chunks that have been committed stay imported when a later chunk fails.
+*
+* The import runs on the thread of the StreamingResponseBody, ShardRouter sets the shard
+* of the user for it.
+*
+* The @Service annotation lets the Spring framework manage class as a Spring bean.
+*/
+@Service
+public class TodoImportService {
+
+	public static final int MAX_DESCRIPTION_LENGTH = 255;
+
+	private static final String INSERT_SQL = "insert into todo(id, username, description, target_date, is_done,"
+			+ " version, change_seq, deleted) values (?, ?, ?, ?, ?, 0, ?, false)";
+
+	private static final String NEXT_ID_BLOCKS_SQL = "select next value for " + TodoIdGenerator.SEQUENCE_NAME
+			+ " from system_range(1, ?)";
+
+	private final Logger logger = LoggerFactory.getLogger(this.getClass());
+
+	private final JdbcTemplate jdbcTemplate;
+	private final ShardRouter shardRouter;
+	private final TransactionTemplate transactionTemplate;
+	private final TodoChangeSequencer todoChangeSequencer;
+	private final ApplicationEventPublisher eventPublisher;
+	private final ObjectMapper objectMapper;
+	private final ObjectReader todoReader;
+	private final Counter importedCounter;
+	private final Counter rejectedCounter;
+	private final int chunkSize;
+	private final int maxErrors;
+	private final int idAllocationSize;
+
+	public TodoImportService(JdbcTemplate jdbcTemplate, ShardRouter shardRouter,
+			PlatformTransactionManager transactionManager,
+			TodoChangeSequencer todoChangeSequencer, ApplicationEventPublisher eventPublisher,
+			ObjectMapper objectMapper, MeterRegistry meterRegistry,
+			@Value("${todo.import.chunk-size:5000}") int chunkSize,
+			@Value("${todo.import.max-errors:1000}") int maxErrors,
+			@Value("${spring.jpa.properties." + TodoIdGenerator.ALLOCATION_SIZE_SETTING + ":"
+					+ TodoIdGenerator.DEFAULT_ALLOCATION_SIZE + "}") int idAllocationSize) {
+		this.jdbcTemplate = jdbcTemplate;
+		this.shardRouter = shardRouter;
+		this.transactionTemplate = new TransactionTemplate(transactionManager);
+		this.todoChangeSequencer = todoChangeSequencer;
+		this.eventPublisher = eventPublisher;
+		this.objectMapper = objectMapper;
+		this.todoReader = objectMapper.readerFor(Todo.class);
+		this.importedCounter = Counter.builder("todo.import.rows").tag("result", "imported")
+				.description("Todo lines imported").register(meterRegistry);
+		this.rejectedCounter = Counter.builder("todo.import.rows").tag("result", "rejected")
+				.description("Todo lines rejected by the import").register(meterRegistry);
+		this.chunkSize = chunkSize;
+		this.maxErrors = maxErrors;
+		this.idAllocationSize = idAllocationSize;
+	}
+
+	public enum Format {
+		NDJSON, CSV
+	}
+
+	/*
+	 * Imports the todos read from the input for the user, the reports of rejected lines,
+	 * the progress after every chunk and the final summary are handed to the listener as
+	 * they happen. Returns the summary.
+	 *
+	 * Every chunk is inserted in a transaction of its own, which holds the lock of the
+	 * user (see ShardRouter) only while the chunk is written and not while the next lines
+	 * are read from the client.
+	 */
+	public TodoImportReport importTodos(String username, Format format, InputStream input,
+			Consumer<TodoImportReport> listener) {
+		return shardRouter.callOnShardOf(username, () -> read(username, format, input, listener));
+	}
+
+	private TodoImportReport read(String username, Format format, InputStream input,
+			Consumer<TodoImportReport> listener) {
+		Import run = new Import(username, listener);
+		try (BufferedReader reader = new BufferedReader(new InputStreamReader(input, StandardCharsets.UTF_8))) {
+			String message = format == Format.CSV ? run.readCsv(reader) : run.readNdjson(reader);
+			if (message == null) {
+				message = run.flush();
+			}
+			return run.finish(message);
+		} catch (IOException e) {
+			return run.finish("The import could not be read: " + e.getMessage());
+		}
+	}
+
+	/*
+	 * The state of one running import.
+	 */
+	private class Import {
+
+		private final String username;
+		private final Consumer<TodoImportReport> listener;
+		private final long startNanos = System.nanoTime();
+		private final List<Todo> chunk = new ArrayList<>(chunkSize);
+		private long line;
+		private long chunkFirstLine;
+		private long imported;
+		private long rejected;
+
+		private Import(String username, Consumer<TodoImportReport> listener) {
+			this.username = username;
+			this.listener = listener;
+		}
+
+		/*
+		 * The read methods return null when the whole input has been read, otherwise the
+		 * reason why the import was given up.
+		 */
+		private String readNdjson(BufferedReader reader) throws IOException {
+			String text;
+			while ((text = reader.readLine()) != null) {
+				line++;
+				if (text.isBlank()) {
+					continue;
+				}
+				Todo todo;
+				try {
+					todo = todoReader.readValue(text);
+				} catch (JsonProcessingException e) {
+					todo = null;
+					reject("Invalid JSON: " + e.getOriginalMessage());
+				}
+				String message = todo == null ? null : add(todo);
+				if (message == null) {
+					message = checkErrors();
+				}
+				if (message != null) {
+					return message;
+				}
+			}
+			return null;
+		}
+
+		private String readCsv(BufferedReader reader) throws IOException {
+			String header = reader.readLine();
+			if (header == null) {
+				return null;
+			}
+			line++;
+			List<String> columns = parseCsvLine(header);
+			int descriptionColumn = columns.indexOf("description");
+			int targetDateColumn = columns.indexOf("targetDate");
+			int doneColumn = columns.indexOf("done");
+			if (descriptionColumn < 0) {
+				return "The CSV header line has no description column";
+			}
+
+			String text;
+			while ((text = reader.readLine()) != null) {
+				line++;
+				if (text.isBlank()) {
+					continue;
+				}
+				String message = null;
+				try {
+					List<String> values = parseCsvLine(text);
+					if (values.size() != columns.size()) {
+						reject("Expected " + columns.size() + " columns but found " + values.size());
+					} else {
+						String targetDate = targetDateColumn < 0 ? "" : values.get(targetDateColumn);
+						String done = doneColumn < 0 ? "" : values.get(doneColumn);
+						message = add(new Todo(0, username, values.get(descriptionColumn), parseDate(targetDate),
+								parseBoolean(done)));
+					}
+				} catch (IllegalArgumentException e) {
+					reject(e.getMessage());
+				}
+				if (message == null) {
+					message = checkErrors();
+				}
+				if (message != null) {
+					return message;
+				}
+			}
+			return null;
+		}
+
+		private String add(Todo todo) {
+			String description = todo.getDescription();
+			if (description == null || description.isBlank()) {
+				reject("The description is missing");
+				return null;
+			}
+			if (description.length() > MAX_DESCRIPTION_LENGTH) {
+				reject("The description is longer than " + MAX_DESCRIPTION_LENGTH + " characters");
+				return null;
+			}
+
+			if (chunk.isEmpty()) {
+				chunkFirstLine = line;
+			}
+			chunk.add(todo);
+			return chunk.size() >= chunkSize ? flush() : null;
+		}
+
+		private void reject(String message) {
+			rejected++;
+			rejectedCounter.increment();
+			listener.accept(TodoImportReport.error(line, message));
+		}
+
+		private String checkErrors() {
+			return rejected >= maxErrors ? "Given up after " + rejected + " rejected lines" : null;
+		}
+
+		/*
+		 * Inserts the todos of the current chunk, returns the reason why the import is
+		 * given up when the insert failed.
+		 */
+		private String flush() {
+			if (chunk.isEmpty()) {
+				return null;
+			}
+			try {
+				insert(username, chunk);
+			} catch (RuntimeException e) {
+				logger.error("TODO_IMPORT_CHUNK_FAILED '{}' lines {}-{}", username, chunkFirstLine, line, e);
+				return "The todos of lines " + chunkFirstLine + " to " + line + " could not be inserted: "
+						+ e.getMessage();
+			}
+			imported += chunk.size();
+			importedCounter.increment(chunk.size());
+			chunk.clear();
+			listener.accept(TodoImportReport.progress(line, imported, rejected, elapsedMillis()));
+			return null;
+		}
+
+		private TodoImportReport finish(String message) {
+			long elapsedMillis = elapsedMillis();
+			logger.info("TODO_IMPORT_FINISHED '{}' lines={} imported={} rejected={} elapsedMs={} rowsPerSecond={}{}",
+					username, line, imported, rejected, elapsedMillis, imported * 1000 / Math.max(1, elapsedMillis),
+					message == null ? "" : " message='" + message + "'");
+			TodoImportReport summary = TodoImportReport.summary(line, imported, rejected, elapsedMillis, message);
+			listener.accept(summary);
+			return summary;
+		}
+
+		private long elapsedMillis() {
+			return (System.nanoTime() - startNanos) / 1_000_000;
+		}
+
+		private Date parseDate(String text) {
+			if (text.isBlank()) {
+				return null;
+			}
+			try {
+				return objectMapper.convertValue(text.trim(), Date.class);
+			} catch (IllegalArgumentException e) {
+				throw new IllegalArgumentException("Invalid targetDate '" + text + "'");
+			}
+		}
+
+		private boolean parseBoolean(String text) {
+			if (text.isBlank() || text.trim().equalsIgnoreCase("false")) {
+				return false;
+			}
+			if (text.trim().equalsIgnoreCase("true")) {
+				return true;
+			}
+			throw new IllegalArgumentException("Invalid done '" + text + "'");
+		}
+	}
+
+	private void insert(String username, List<Todo> todos) {
+		transactionTemplate.executeWithoutResult(status -> {
+			List<Long> ids = nextIds(todos.size());
+			long firstChangeSeq = todoChangeSequencer.reserve(username, todos.size());
+
+			jdbcTemplate.batchUpdate(INSERT_SQL, new BatchPreparedStatementSetter() {
+
+				@Override
+				public void setValues(PreparedStatement statement, int i) throws SQLException {
+					Todo todo = todos.get(i);
+					statement.setLong(1, ids.get(i));
+					statement.setString(2, username);
+					statement.setString(3, todo.getDescription());
+					if (todo.getTargetDate() == null) {
+						statement.setNull(4, Types.TIMESTAMP);
+					} else {
+						statement.setTimestamp(4, new Timestamp(todo.getTargetDate().getTime()));
+					}
+					statement.setBoolean(5, todo.isDone());
+					statement.setLong(6, firstChangeSeq + i);
+				}
+
+				@Override
+				public int getBatchSize() {
+					return todos.size();
+				}
+			});
+
+			eventPublisher.publishEvent(TodoChangedEvent.imported(username));
+		});
+	}
+
+	/*
+	 * Takes as many blocks of ids from the todo_seq sequence as are needed for count ids,
+	 * with a single query.
+	 */
+	private List<Long> nextIds(int count) {
+		int blocks = (count + idAllocationSize - 1) / idAllocationSize;
+		List<Long> ids = new ArrayList<>(count);
+		for (Long first : jdbcTemplate.queryForList(NEXT_ID_BLOCKS_SQL, Long.class, blocks)) {
+			for (int i = 0; i < idAllocationSize && ids.size() < count; i++) {
+				ids.add(first + i);
+			}
+		}
+		return ids;
+	}
+
+	/*
+	 * Splits a CSV line at the commas, a value in double quotes may contain commas and
+	 * doubled double quotes. Values cannot span several lines.
+	 */
+	static List<String> parseCsvLine(String text) {
+		List<String> values = new ArrayList<>();
+		StringBuilder value = new StringBuilder();
+		boolean quoted = false;
+		for (int i = 0; i < text.length(); i++) {
+			char c = text.charAt(i);
+			if (quoted) {
+				if (c == '"' && i + 1 < text.length() && text.charAt(i + 1) == '"') {
+					value.append('"');
+					i++;
+				} else if (c == '"') {
+					quoted = false;
+				} else {
+					value.append(c);
+				}
+			} else if (c == '"') {
+				quoted = true;
+			} else if (c == ',') {
+				values.add(value.toString());
+				value.setLength(0);
+			} else {
+				value.append(c);
+			}
+		}
+		if (quoted) {
+			throw new IllegalArgumentException("Unterminated quoted value");
+		}
+		values.add(value.toString());
+		return values;
+	}
+
+}
@@ -1,8 +1,17 @@
 package com.kokabmedia.todo;
 
+import java.util.Date;
 import java.util.List;
+import java.util.stream.Stream;
 
+import javax.persistence.QueryHint;
+
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
 /*
@@ -15,10 +24,114 @@ import org.springframework.stereotype.Repository;
  */
 @Repository
 public interface TodoJpaRepository extends JpaRepository<Todo, Long>{
+
+	/*
+	 * Number of rows the JDBC driver fetches at a time for the export streams, and the
+	 * number of todos of an export chunk.
+	 */
+	int EXPORT_FETCH_SIZE = 500;
 	
 	/* 
 	 * JPA custom method with special designed names lets Spring understands that we 
 	 * want to retrieve a specific column from the database. 
+	 * 
+	 * Deleted todos (tombstones) are left out of all listings.
+	 */
+	@Query("select t from Todo t where t.username = :username and t.deleted = false")
+	List<Todo> findByUsername(@Param("username") String username);
+
+	/*
+	 * The fields of the todos of a user that the todo list shows, as TodoSummary objects
+	 * instead of managed entities. The read only hint tells Hibernate that nothing read
+	 * here is written back.
+	 */
+	@QueryHints(@QueryHint(name = org.hibernate.jpa.QueryHints.HINT_READONLY, value = "true"))
+	@Query("select new com.kokabmedia.todo.TodoSummary(t.id, t.description, t.targetDate, t.isDone)"
+			+ " from Todo t where t.username = :username and t.deleted = false")
+	List<TodoSummary> findSummariesByUsername(@Param("username") String username);
+
+	/*
+	 * The todos and tombstones of a user that changed after the given change sequence,
+	 * in the order of their change sequence, for the delta sync of TodoJpaResource.
+	 */
+	@Query("select t from Todo t where t.username = :username and t.changeSeq > :since order by t.changeSeq asc")
+	List<Todo> findChangedSince(@Param("username") String username, @Param("since") long since, Pageable pageable);
+
+	/*
+	 * The highest change sequence of the tombstones of every user that were deleted
+	 * before the cutoff, as [username, changeSeq] rows.
+	 */
+	@Query("select t.username, max(t.changeSeq) from Todo t where t.deleted = true and t.deletedAt < :cutoff"
+			+ " group by t.username")
+	List<Object[]> findCompactableTombstones(@Param("cutoff") Date cutoff);
+
+	@Modifying
+	@Query("delete from Todo t where t.username = :username and t.deleted = true and t.changeSeq <= :throughSeq")
+	int deleteTombstones(@Param("username") String username, @Param("throughSeq") long throughSeq);
+
+	/*
+	 * Keyset (seek) pagination queries, the todos of a user are ordered by targetDate
+	 * and id which matches the (username, target_date, id) index of the Todo table.
+	 *
+	 * Instead of an OFFSET every following page starts right after the last row of the
+	 * previous page (the cursor), so the database seeks into the index and reads only
+	 * the rows of the requested page. The Pageable argument only limits the number of
+	 * rows, no count query is executed because the methods return a List.
+	 *
+	 * The done, fromDate and toDate filters are optional, a null value disables the
+	 * filter. Todos without a targetDate are ordered first.
+	 */
+	@Query("select t from Todo t where t.username = :username and t.deleted = false"
+			+ " and (:done is null or t.isDone = :done)"
+			+ " and (:fromDate is null or t.targetDate >= :fromDate)"
+			+ " and (:toDate is null or t.targetDate < :toDate)"
+			+ " order by t.targetDate asc nulls first, t.id asc")
+	List<Todo> findFirstPage(@Param("username") String username, @Param("done") Boolean done,
+			@Param("fromDate") Date fromDate, @Param("toDate") Date toDate, Pageable pageable);
+
+	@Query("select t from Todo t where t.username = :username and t.deleted = false"
+			+ " and (:done is null or t.isDone = :done)"
+			+ " and (:fromDate is null or t.targetDate >= :fromDate)"
+			+ " and (:toDate is null or t.targetDate < :toDate)"
+			+ " and (t.targetDate > :afterDate or (t.targetDate = :afterDate and t.id > :afterId))"
+			+ " order by t.targetDate asc, t.id asc")
+	List<Todo> findPageAfter(@Param("username") String username, @Param("done") Boolean done,
+			@Param("fromDate") Date fromDate, @Param("toDate") Date toDate,
+			@Param("afterDate") Date afterDate, @Param("afterId") Long afterId, Pageable pageable);
+
+	/*
+	 * Continues a listing whose cursor still points at a todo without a targetDate,
+	 * the remaining undated todos come first followed by all dated todos.
+	 */
+	@Query("select t from Todo t where t.username = :username and t.deleted = false"
+			+ " and (:done is null or t.isDone = :done)"
+			+ " and (:fromDate is null or t.targetDate >= :fromDate)"
+			+ " and (:toDate is null or t.targetDate < :toDate)"
+			+ " and ((t.targetDate is null and t.id > :afterId) or t.targetDate is not null)"
+			+ " order by t.targetDate asc nulls first, t.id asc")
+	List<Todo> findPageAfterUndated(@Param("username") String username, @Param("done") Boolean done,
+			@Param("fromDate") Date fromDate, @Param("toDate") Date toDate,
+			@Param("afterId") Long afterId, Pageable pageable);
+
+	/*
+	 * The todos of a user with an id above afterId ordered by id, one chunk of the export
+	 * of TodoExportService. Every chunk is read in a transaction of its own and starts
+	 * right after the last id of the previous chunk.
+	 */
+	@QueryHints(@QueryHint(name = org.hibernate.jpa.QueryHints.HINT_READONLY, value = "true"))
+	@Query("select t from Todo t where t.username = :username and t.deleted = false and t.id > :afterId"
+			+ " order by t.id asc")
+	List<Todo> findExportChunk(@Param("username") String username, @Param("afterId") long afterId,
+			Pageable pageable);
+
+	/*
+	 * The todos of all users as a Stream for the export of TodoExportService. The rows
+	 * are read from the JDBC result set while the Stream is consumed instead of being
+	 * loaded into a List first, the Stream must be consumed within a transaction and
+	 * closed afterwards.
 	 */
-	List<Todo> findByUsername(String username);
+	@QueryHints({ @QueryHint(name = org.hibernate.jpa.QueryHints.HINT_FETCH_SIZE, value = "" + EXPORT_FETCH_SIZE),
+			@QueryHint(name = org.hibernate.jpa.QueryHints.HINT_READONLY, value = "true") })
+	@Query("select t from Todo t where t.deleted = false order by t.id asc")
+	Stream<Todo> streamAll();
 }
@@ -1,22 +1,57 @@
 package com.kokabmedia.todo;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
 import java.net.URI;
+import java.util.zip.GZIPOutputStream;
 
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.stream.Collectors;
+
+import javax.servlet.http.HttpServletRequest;
 
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Pageable;
+import org.springframework.format.annotation.DateTimeFormat;
+import org.springframework.format.annotation.DateTimeFormat.ISO;
+import org.springframework.http.CacheControl;
+import org.springframework.http.ContentDisposition;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
+import org.springframework.http.converter.json.MappingJacksonValue;
+import org.springframework.orm.ObjectOptimisticLockingFailureException;
 import org.springframework.web.bind.annotation.CrossOrigin;
 import org.springframework.web.bind.annotation.DeleteMapping;
+import org.springframework.http.MediaType;
 import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PatchMapping;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.PutMapping;
 import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestHeader;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.context.request.WebRequest;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 import org.springframework.web.servlet.support.ServletUriComponentsBuilder;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ser.impl.SimpleBeanPropertyFilter;
+import com.fasterxml.jackson.databind.ser.impl.SimpleFilterProvider;
+
+import io.micrometer.core.annotation.Timed;
+
 import com.kokabmedia.todo.Todo;
 
 /*
@@ -53,10 +88,35 @@ import com.kokabmedia.todo.Todo;
  * mapped by a http message converter(Jackson) into another format, for example
  * a java object to JSON, XML or HTML. Response body converts the java object
  * and sends the response back.
+ * 
+ * The @Timed annotation records the time of every request handled by this class in the
+ * http.server.requests metric with the uri, method and status tags, including the
+ * 50th, 95th and 99th percentile and a histogram for Prometheus.
  */
 @RestController
+@Timed(percentiles = { 0.5, 0.95, 0.99 }, histogram = true)
 public class TodoJpaResource {
 
+	private static final int DEFAULT_PAGE_SIZE = 50;
+	private static final int MAX_PAGE_SIZE = 500;
+	private static final int MAX_BATCH_SIZE = 1000;
+	private static final int DEFAULT_CHANGES_LIMIT = 500;
+	private static final int MAX_CHANGES_LIMIT = 5000;
+	private static final int DEFAULT_SEARCH_LIMIT = 20;
+	private static final int MAX_SEARCH_LIMIT = 200;
+
+	// The Prefer header of RFC 7240, "respond-async" asks for the write-behind path
+	private static final String PREFER = "Prefer";
+	private static final String PREFERENCE_APPLIED = "Preference-Applied";
+	private static final String RESPOND_ASYNC = "respond-async";
+	private static final String MERGE_PATCH_JSON = "application/merge-patch+json";
+
+	/*
+	 * Responses with an ETag may be kept by the browser but must be revalidated with
+	 * the server (If-None-Match) before they are used again.
+	 */
+	private static final CacheControl REVALIDATE = CacheControl.noCache().cachePrivate();
+
 	/*
 	 * The @Autowired annotation tells the Spring framework that the
 	 * todoJpaRepository bean and its implementation is an dependency of
@@ -92,6 +152,49 @@ public class TodoJpaResource {
 	@Autowired
 	private TodoHardcodedService todoService;
 
+	@Autowired
+	private TodoBatchService todoBatchService;
+
+	@Autowired
+	private TodoCollectionVersions todoCollectionVersions;
+
+	@Autowired
+	private TodoChangeFeed todoChangeFeed;
+
+	/*
+	 * getTodo() and getAllTodos() read through the TodoReadCache, the cache entries are 
+	 * invalidated by the TodoChangedEvent of every change.
+	 */
+	@Autowired
+	private TodoReadCache todoReadCache;
+
+	/*
+	 * The todos are created, updated and deleted by the TodoJpaService, which records 
+	 * the change sequence of the user and publishes a TodoChangedEvent for every change, 
+	 * the collection versions and the change feed are updated by their listeners once 
+	 * the change is committed.
+	 */
+	@Autowired
+	private TodoJpaService todoJpaService;
+
+	@Autowired
+	private TodoSearchIndex todoSearchIndex;
+
+	@Autowired
+	private TodoUpdateCoalescer todoUpdateCoalescer;
+
+	@Autowired
+	private TodoWriteBehindQueue todoWriteBehindQueue;
+
+	@Autowired
+	private TodoExportService todoExportService;
+
+	@Autowired
+	private TodoImportService todoImportService;
+
+	@Autowired
+	private ObjectMapper objectMapper;
+
 	/*
 	 * This method will return a collection of todos for a specific user from the 
 	 * database using JPA.
@@ -108,13 +211,260 @@ public class TodoJpaResource {
 	 * 
 	 * The @GetMapping annotation will bind and make getAllTodos() method respond to 
 	 * a HTTP GET request.
+	 * 
+	 * The response carries the ETag and Last-Modified time of the todo list of the user 
+	 * (see TodoCollectionVersions). When the client sends them back with If-None-Match 
+	 * or If-Modified-Since and the list has not changed, the checkNotModified() method 
+	 * answers with HTTP status 304 Not Modified without loading the todos. The watermark 
+	 * is read before the todos are loaded so a concurrent change can only make the ETag 
+	 * older than the list, never newer.
+	 * 
+	 * With the fields request parameter, for example fields=id,description,done, the 
+	 * list holds only these fields of every todo (sparse fieldset), out of id, 
+	 * description, targetDate and done. The todos are then read as TodoSummary objects 
+	 * instead of entities (see TodoReadCache.findSummariesByUsername()). An unknown field 
+	 * is answered with HTTP status 400 Bad Request.
 	 */
 	@GetMapping("/jpa/users/{username}/todos")
-	public List<Todo> getAllTodos(@PathVariable String username) {
-		return todoJpaRepository.findByUsername(username);
+	public ResponseEntity<?> getAllTodos(@PathVariable String username,
+			@RequestParam(required = false) String fields, WebRequest request) {
+
+		Set<String> fieldSet = null;
+		if (fields != null) {
+			fieldSet = new HashSet<>(Arrays.asList(fields.trim().split("\\s*,\\s*")));
+			if (!TodoSummary.FIELDS.containsAll(fieldSet)) {
+				return ResponseEntity.badRequest().build();
+			}
+		}
+
+		TodoCollectionVersions.Watermark watermark = todoCollectionVersions.current(username);
+
+		long lastModified = watermark.getStableLastModified();
+
+		// A negative last modified time is ignored by checkNotModified(), only the ETag is checked
+		if (request.checkNotModified(watermark.getETag(), lastModified)) {
+			// The 304 Not Modified response has already been prepared
+			return null;
+		}
+
+		ResponseEntity.BodyBuilder response = ResponseEntity.ok().cacheControl(REVALIDATE).eTag(watermark.getETag());
+		if (lastModified >= 0) {
+			response.lastModified(lastModified);
+		}
+		if (fieldSet == null) {
+			// The pending changes of the write-behind path are part of the list the client sees
+			return response.body(todoWriteBehindQueue.overlay(username, todoReadCache.findByUsername(username)));
+		}
+
+		List<TodoSummary> summaries;
+		if (todoWriteBehindQueue.isEnabled()) {
+			summaries = todoWriteBehindQueue.overlay(username, todoReadCache.findByUsername(username)).stream()
+					.map(TodoSummary::of).collect(Collectors.toList());
+		} else {
+			summaries = todoReadCache.findSummariesByUsername(username);
+		}
+		MappingJacksonValue body = new MappingJacksonValue(summaries);
+		body.setFilters(new SimpleFilterProvider().addFilter(TodoSummary.FIELDS_FILTER,
+				SimpleBeanPropertyFilter.filterOutAllExcept(fieldSet)));
+		return response.body(body);
+	}
+
+	/*
+	 * This method opens a Server-Sent Events stream with the changes of the todos of a 
+	 * specific user, so the Angular client can update the todo list when it is changed 
+	 * in another browser tab or on another device instead of polling getAllTodos().
+	 * 
+	 * Every change is sent as an event named "created", "updated" or "deleted" with the 
+	 * TodoChangedEvent as JSON data. The connection is kept open with asynchronous request 
+	 * processing so it does not hold a servlet thread, a comment is sent as heartbeat 
+	 * every 30 seconds (todo.stream.heartbeat-seconds) to keep proxies from closing it.
+	 * 
+	 * The browser EventSource cannot set the Authorization header, so the client first 
+	 * gets a short-lived stream token with POST /stream-token and opens the stream with 
+	 * new EventSource(".../todos/stream?streamToken=" + token). The token is only checked 
+	 * when the stream is opened, an open stream is not closed when the token expires.
+	 * 
+	 * The browser EventSource reconnects on its own with the same URL, once the stream 
+	 * token has expired that reconnect is answered with 401 and EventSource gives up. The 
+	 * client then gets a new stream token and opens a new EventSource with the id of the 
+	 * last event it received in the lastEventId parameter (EventSource itself sends it in 
+	 * the Last-Event-ID header), the events it missed are then replayed (see TodoChangeFeed). The produces attribute of the @GetMapping annotation sets the 
+	 * content type of the response to text/event-stream.
+	 */
+	@GetMapping(path = "/jpa/users/{username}/todos/stream", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+	public SseEmitter streamTodoChanges(@PathVariable String username,
+			@RequestHeader(value = "Last-Event-ID", required = false) String lastEventIdHeader,
+			@RequestParam(required = false) String lastEventId) {
+
+		return todoChangeFeed.subscribe(username, lastEventIdHeader != null ? lastEventIdHeader : lastEventId);
+	}
+
+	/*
+	 * This method will return one page of the todos of a specific user from the
+	 * database using JPA, ordered by targetDate and id.
+	 *
+	 * The listing is keyset paginated, the first page is requested without the "after"
+	 * parameter and every response carries a nextCursor that is passed as the "after"
+	 * parameter for the following page. Each page is read with an index seek on
+	 * (username, target_date, id) so latency and memory use stay the same for the
+	 * first and the last page, however many todos the user has.
+	 *
+	 * The optional "done" parameter filters on the isDone column, "from" (inclusive)
+	 * and "to" (exclusive) filter the targetDate with ISO dates, for example
+	 * "/jpa/users/kokabmedia/todos/page?size=20&done=false&from=2021-01-01".
+	 *
+	 * The @RequestParam annotation binds the query string parameters of the HTTP
+	 * request to the method arguments.
+	 */
+	@GetMapping("/jpa/users/{username}/todos/page")
+	public ResponseEntity<TodoPage> getTodoPage(@PathVariable String username,
+			@RequestParam(defaultValue = "" + DEFAULT_PAGE_SIZE) int size,
+			@RequestParam(required = false) String after,
+			@RequestParam(required = false) Boolean done,
+			@RequestParam(required = false) @DateTimeFormat(iso = ISO.DATE) Date from,
+			@RequestParam(required = false) @DateTimeFormat(iso = ISO.DATE) Date to) {
+
+		if (size < 1 || size > MAX_PAGE_SIZE) {
+			return ResponseEntity.badRequest().build();
+		}
+
+		// One extra row tells whether there is a following page without a count query
+		Pageable limit = PageRequest.of(0, size + 1);
+
+		List<Todo> todos;
+		if (after == null) {
+			todos = todoJpaRepository.findFirstPage(username, done, from, to, limit);
+		} else {
+			TodoCursor cursor;
+			try {
+				cursor = TodoCursor.decode(after);
+			} catch (IllegalArgumentException e) {
+				return ResponseEntity.badRequest().build();
+			}
+			todos = cursor.getTargetDate() == null
+					? todoJpaRepository.findPageAfterUndated(username, done, from, to, cursor.getId(), limit)
+					: todoJpaRepository.findPageAfter(username, done, from, to, cursor.getTargetDate(),
+							cursor.getId(), limit);
+		}
+
+		String nextCursor = null;
+		if (todos.size() > size) {
+			todos = todos.subList(0, size);
+			nextCursor = TodoCursor.of(todos.get(size - 1)).encode();
+		}
+
+		return ResponseEntity.ok(new TodoPage(todos, nextCursor));
 	}
 	
 	
+	/*
+	 * This method returns the todos of a specific user that changed after the change 
+	 * sequence the client has seen last (delta sync), so a client that already holds the 
+	 * todo list only downloads what changed instead of the whole list.
+	 * 
+	 * The first request is sent with since=0 and returns all todos, every response 
+	 * carries the seq to send as the since parameter of the next request. The created 
+	 * and updated todos are returned as upserts and the deleted todos as the ids in 
+	 * deletes. When hasMore is true the next request should follow right away, when 
+	 * fullResync is true the client replaces its whole list (see TodoChanges).
+	 */
+	@GetMapping("/jpa/users/{username}/todos/changes")
+	public ResponseEntity<TodoChanges> getTodoChanges(@PathVariable String username,
+			@RequestParam(defaultValue = "0") long since,
+			@RequestParam(defaultValue = "" + DEFAULT_CHANGES_LIMIT) int limit) {
+
+		if (since < 0 || limit < 1 || limit > MAX_CHANGES_LIMIT) {
+			return ResponseEntity.badRequest().build();
+		}
+
+		return ResponseEntity.ok().cacheControl(CacheControl.noStore())
+				.body(todoJpaService.changesSince(username, since, limit));
+	}
+
+	/*
+	 * This method searches the descriptions of the todos of a specific user, for example 
+	 * "/jpa/users/kokabmedia/todos/search?q=spring boot*". The todos that contain every 
+	 * word of q are returned best match first, a word ending with * is a prefix (see 
+	 * TodoSearchIndex). The search runs on an in-memory index instead of the database, 
+	 * so the client no longer downloads the whole todo list to filter it.
+	 */
+	@GetMapping("/jpa/users/{username}/todos/search")
+	public ResponseEntity<List<Todo>> searchTodos(@PathVariable String username, @RequestParam String q,
+			@RequestParam(defaultValue = "" + DEFAULT_SEARCH_LIMIT) int limit) {
+
+		if (q.isBlank() || limit < 1 || limit > MAX_SEARCH_LIMIT) {
+			return ResponseEntity.badRequest().build();
+		}
+
+		return ResponseEntity.ok().cacheControl(CacheControl.noStore())
+				.body(todoSearchIndex.search(username, q, limit));
+	}
+
+	/*
+	 * This method exports all todos of a specific user for backups and analytics, as one 
+	 * JSON object per line (format=ndjson, the default) or as one JSON array 
+	 * (format=json). With an Accept-Encoding header that contains gzip the export is 
+	 * compressed.
+	 * 
+	 * The StreamingResponseBody is written on a thread of the Spring MVC task executor 
+	 * while the todos are read from the database (see TodoExportService), so neither the 
+	 * todos nor the response are held in memory as a whole.
+	 */
+	@GetMapping("/jpa/users/{username}/todos/export")
+	public ResponseEntity<StreamingResponseBody> exportTodos(@PathVariable String username,
+			@RequestParam(defaultValue = "ndjson") String format,
+			@RequestHeader(name = HttpHeaders.ACCEPT_ENCODING, required = false) String acceptEncoding) {
+		return export(username, format, acceptEncoding);
+	}
+
+	/*
+	 * This method exports the todos of all users, only users with the ADMIN role are 
+	 * allowed to call it.
+	 */
+	@GetMapping("/jpa/todos/export")
+	public ResponseEntity<StreamingResponseBody> exportAllTodos(HttpServletRequest request,
+			@RequestParam(defaultValue = "ndjson") String format,
+			@RequestHeader(name = HttpHeaders.ACCEPT_ENCODING, required = false) String acceptEncoding) {
+
+		if (!request.isUserInRole("ADMIN")) {
+			return ResponseEntity.status(HttpStatus.FORBIDDEN).build();
+		}
+
+		return export(null, format, acceptEncoding);
+	}
+
+	private ResponseEntity<StreamingResponseBody> export(String username, String format, String acceptEncoding) {
+		TodoExportService.Format exportFormat;
+		try {
+			exportFormat = TodoExportService.Format.valueOf(format.toUpperCase());
+		} catch (IllegalArgumentException e) {
+			return ResponseEntity.badRequest().build();
+		}
+
+		boolean gzip = acceptEncoding != null && acceptEncoding.toLowerCase().contains("gzip");
+		String fileName = (username == null ? "todos" : username + "-todos")
+				+ (exportFormat == TodoExportService.Format.JSON ? ".json" : ".ndjson");
+
+		ResponseEntity.BodyBuilder response = ResponseEntity.ok().cacheControl(CacheControl.noStore())
+				.contentType(exportFormat == TodoExportService.Format.JSON ? MediaType.APPLICATION_JSON
+						: MediaType.APPLICATION_NDJSON)
+				.header(HttpHeaders.CONTENT_DISPOSITION,
+						ContentDisposition.attachment().filename(fileName).build().toString());
+		if (gzip) {
+			response.header(HttpHeaders.CONTENT_ENCODING, "gzip").header(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING);
+		}
+
+		return response.body(out -> {
+			if (gzip) {
+				GZIPOutputStream gzipOut = new GZIPOutputStream(out, 8192);
+				todoExportService.export(username, exportFormat, gzipOut);
+				gzipOut.finish();
+			} else {
+				todoExportService.export(username, exportFormat, out);
+			}
+		});
+	}
+
 	/*
 	 * This method returns an user with a specific id from the database using JPA.
 	 * 
@@ -133,11 +483,30 @@ public class TodoJpaResource {
 	 * 
 	 * The name of the "/{username}" parameter must match the @PathVariable
 	 * annotation argument String username.
+	 * 
+	 * The version of the todo is sent as a strong ETag, a client that sends it back 
+	 * with If-None-Match gets HTTP status 304 Not Modified without a body as long as 
+	 * the todo has not changed.
 	 */
 	@GetMapping("/jpa/users/{username}/todos/{id}")
-	public Todo getTodo(@PathVariable String username, @PathVariable long id) {
-		return todoJpaRepository.findById(id).get();
+	public ResponseEntity<Todo> getTodo(@PathVariable String username, @PathVariable long id, WebRequest request) {
+		// A change accepted by the write-behind path is returned before it is written
+		Optional<TodoPendingWrite> pendingWrite = todoWriteBehindQueue.find(id)
+				.filter(write -> write.getTodo().getUsername().equals(username));
+		Optional<Todo> todo = pendingWrite.isPresent() ? Optional.of(pendingWrite.get().getTodo())
+				: todoReadCache.findById(id).filter(found -> found.getUsername().equals(username));
 		// return todoService.findById(id);
+
+		if (!todo.isPresent()) {
+			return ResponseEntity.notFound().build();
+		}
+
+		String eTag = pendingWrite.isPresent() ? pendingWrite.get().getETag() : eTagOf(todo.get());
+		if (request.checkNotModified(eTag)) {
+			return null;
+		}
+
+		return ResponseEntity.ok().cacheControl(REVALIDATE).eTag(eTag).body(todo.get());
 	}
 
 
@@ -159,15 +528,28 @@ public class TodoJpaResource {
 	 * deleteTodo(@PathVariable String username, @PathVariable long id) method is
 	 * called. The name of the "/{username}" parameter must match the @PathVariable
 	 * annotation argument String username.
+	 * 
+	 * The todo is kept as a tombstone for the delta sync of getTodoChanges() and is 
+	 * removed later by the TodoTombstoneCompactor. HTTP status 404 Not Found is returned 
+	 * when there is no such todo. A change of the todo that is still waiting in the 
+	 * write-behind queue is dropped, a change that is being written is waited for and 
+	 * then deleted.
 	 */
 	@DeleteMapping("/jpa/users/{username}/todos/{id}")
 	public ResponseEntity<Void> deleteTodo(@PathVariable String username, @PathVariable long id) {
 
-		todoJpaRepository.deleteById(id);
+		boolean discardedCreate;
+		try {
+			discardedCreate = todoWriteBehindQueue.discard(username, id);
+		} catch (RejectedExecutionException e) {
+			return writeBehindFull();
+		}
+		if (!todoJpaService.delete(username, id) && !discardedCreate) {
+			return ResponseEntity.notFound().build();
+		}
 
 		// Return HTTP status No content
 		return ResponseEntity.noContent().build();
-		// return ResponseEntity.notFound().build();
 	}
 
 	/*
@@ -193,15 +575,156 @@ public class TodoJpaResource {
 	 * updateTodo(@PathVariable String username, @RequestBody Todo todo) method is
 	 * called. The name of the "/{username}" parameter must match the @PathVariable
 	 * annotation argument String username.
+	 * 
+	 * The stored todo with the id of the path is loaded and its description, targetDate 
+	 * and isDone values are replaced by the values of the request body. A client that 
+	 * sends the ETag of the todo with If-Match only updates the todo when nobody else has 
+	 * changed it in the meantime, otherwise HTTP status 412 Precondition Failed is 
+	 * returned (optimistic concurrency). Without If-Match the last update wins, and 
+	 * updates of the same todo that arrive while it is being written are merged into 
+	 * one write by the TodoUpdateCoalescer.
+	 * 
+	 * With the header "Prefer: respond-async" and todo.write-behind.enabled the update 
+	 * is handed to the write-behind queue and answered with HTTP status 202 Accepted 
+	 * (see updateTodoLater()). Otherwise a change of the todo that is still in the 
+	 * write-behind queue is written first, so it cannot overwrite this update later.
 	 */
 	@PutMapping("/jpa/users/{username}/todos/{id}")
-	public ResponseEntity<Todo> updateTodo(@PathVariable String username, @PathVariable long id,
-			@RequestBody Todo todo) {
+	public ResponseEntity<?> updateTodo(@PathVariable String username, @PathVariable long id,
+			@RequestBody Todo todo, @RequestHeader(value = "If-Match", required = false) String ifMatch,
+			@RequestHeader(value = PREFER, required = false) String prefer) {
+
+		if (isWriteBehind(prefer)) {
+			return updateTodoLater(username, id, todo, ifMatch);
+		}
+		try {
+			todoWriteBehindQueue.awaitWritten(username, id);
+		} catch (RejectedExecutionException e) {
+			return writeBehindFull();
+		}
+		if (ifMatch == null) {
+			return updated(todoUpdateCoalescer.update(username, id, TodoPatch.of(todo)));
+		}
+
+		Optional<Todo> existing = findTodo(username, id);
+		if (!existing.isPresent()) {
+			return notFound(ifMatch);
+		}
+
+		Todo todoToUpdate = existing.get();
+		if (!matchesIfMatch(ifMatch, eTagOf(todoToUpdate))) {
+			return ResponseEntity.status(HttpStatus.PRECONDITION_FAILED).build();
+		}
 
 		// Todo todoUpdated = todoService.save(todo);
-		Todo todoUpdated = todoJpaRepository.save(todo);
+		try {
+			return updated(todoJpaService.update(username, id, todo, todoToUpdate.getVersion()));
+		} catch (ObjectOptimisticLockingFailureException e) {
+			// The todo has been changed by another request after it was loaded
+			return ResponseEntity.status(HttpStatus.PRECONDITION_FAILED).build();
+		}
+	}
+
+	/*
+	 * This method changes only the fields of a todo that are present in the JSON body 
+	 * of a HTTP PATCH request (see TodoPatch), {"done":true} marks the todo as done and 
+	 * leaves its description and targetDate as they are. A patch that does not change 
+	 * the todo is not written.
+	 * 
+	 * Like updateTodo() it only changes the todo when If-Match matches its ETag, waits 
+	 * for a change of the todo in the write-behind queue, and without If-Match patches of 
+	 * the same todo that arrive together are merged into one write.
+	 */
+	@PatchMapping(path = "/jpa/users/{username}/todos/{id}", consumes = MediaType.APPLICATION_JSON_VALUE)
+	public ResponseEntity<?> patchTodo(@PathVariable String username, @PathVariable long id,
+			@RequestBody TodoPatch patch, @RequestHeader(value = "If-Match", required = false) String ifMatch) {
+
+		try {
+			todoWriteBehindQueue.awaitWritten(username, id);
+		} catch (RejectedExecutionException e) {
+			return writeBehindFull();
+		}
+		if (ifMatch == null) {
+			return updated(todoUpdateCoalescer.update(username, id, patch));
+		}
 
-		return new ResponseEntity<Todo>(todo, HttpStatus.OK);
+		Optional<Todo> existing = findTodo(username, id);
+		if (!existing.isPresent()) {
+			return notFound(ifMatch);
+		}
+		if (!matchesIfMatch(ifMatch, eTagOf(existing.get()))) {
+			return ResponseEntity.status(HttpStatus.PRECONDITION_FAILED).build();
+		}
+
+		try {
+			return updated(todoJpaService.patch(username, id, patch, existing.get().getVersion()));
+		} catch (ObjectOptimisticLockingFailureException e) {
+			return ResponseEntity.status(HttpStatus.PRECONDITION_FAILED).build();
+		}
+	}
+
+	/*
+	 * This method applies a JSON Merge Patch (RFC 7396, Content-Type 
+	 * application/merge-patch+json) to a todo of the user with a single UPDATE 
+	 * statement (see TodoJpaService.mergePatch()) instead of loading the todo and 
+	 * writing all of its columns back. A field set to null is cleared.
+	 * 
+	 * The version of If-Match is checked by the UPDATE statement itself, HTTP status 
+	 * 412 Precondition Failed is returned when the todo has another version and 404 Not 
+	 * Found when the user has no such todo, or 412 with If-Match: * (see notFound()). 
+	 * Like patchTodo() it waits for a change of the todo in the write-behind queue.
+	 */
+	@PatchMapping(path = "/jpa/users/{username}/todos/{id}", consumes = MERGE_PATCH_JSON)
+	public ResponseEntity<?> mergePatchTodo(@PathVariable String username, @PathVariable long id,
+			@RequestBody TodoPatch patch, @RequestHeader(value = "If-Match", required = false) String ifMatch) {
+
+		try {
+			todoWriteBehindQueue.awaitWritten(username, id);
+		} catch (RejectedExecutionException e) {
+			return writeBehindFull();
+		}
+
+		Long expectedVersion = null;
+		if (ifMatch != null && !ifMatch.trim().equals("*")) {
+			expectedVersion = versionOf(ifMatch);
+			if (expectedVersion == null) {
+				// Not a single ETag of this resource, compared with the stored todo instead
+				Optional<Todo> existing = findTodo(username, id);
+				if (!existing.isPresent()) {
+					return notFound(ifMatch);
+				}
+				if (!matchesIfMatch(ifMatch, eTagOf(existing.get()))) {
+					return ResponseEntity.status(HttpStatus.PRECONDITION_FAILED).build();
+				}
+				expectedVersion = existing.get().getVersion();
+			}
+		}
+
+		try {
+			Optional<Todo> patched = todoJpaService.mergePatch(username, id, patch, expectedVersion);
+			return patched.isPresent() ? updated(patched) : notFound(ifMatch);
+		} catch (ObjectOptimisticLockingFailureException e) {
+			return ResponseEntity.status(HttpStatus.PRECONDITION_FAILED).build();
+		}
+	}
+
+	/*
+	 * The response for a todo that does not exist. If-Match: * only matches a todo that 
+	 * exists (RFC 9110), such a request fails with HTTP status 412 Precondition Failed 
+	 * instead of 404 Not Found.
+	 */
+	private static <T> ResponseEntity<T> notFound(String ifMatch) {
+		if (ifMatch != null && ifMatch.trim().equals("*")) {
+			return ResponseEntity.status(HttpStatus.PRECONDITION_FAILED).build();
+		}
+		return ResponseEntity.notFound().build();
+	}
+
+	private static ResponseEntity<?> updated(Optional<Todo> todo) {
+		if (!todo.isPresent()) {
+			return ResponseEntity.notFound().build();
+		}
+		return ResponseEntity.ok().eTag(eTagOf(todo.get())).body(todo.get());
 	}
 
 	/*
@@ -229,11 +752,15 @@ public class TodoJpaResource {
 	 * annotation argument String username.
 	 */
 	@PostMapping("/jpa/users/{username}/todos")
-	public ResponseEntity<Void> createTodo(@PathVariable String username, @RequestBody Todo todo) {
+	public ResponseEntity<?> createTodo(@PathVariable String username, @RequestBody Todo todo,
+			@RequestHeader(value = PREFER, required = false) String prefer) {
+
+		if (isWriteBehind(prefer)) {
+			return createTodoLater(username, todo);
+		}
 
 		// Todo createdTodo = todoService.save(todo);
-		todo.setUsername(username);
-		Todo createdTodo = todoJpaRepository.save(todo);
+		Todo createdTodo = todoJpaService.create(username, todo);
 
 		/*
 		 * ServletUriComponentsBuilder creates a URI for the location of a new created
@@ -265,4 +792,180 @@ public class TodoJpaResource {
 		return ResponseEntity.created(uri).build();
 	}
 
+	/*
+	 * The write-behind path of createTodo() and updateTodo(). The change is accepted into 
+	 * the TodoWriteBehindQueue and written later by a background thread together with 
+	 * other changes in one transaction, which takes the commit of every single change off 
+	 * the write throughput of the database.
+	 * 
+	 * The response is HTTP status 202 Accepted with a TodoWriteTicket as body, which 
+	 * holds the id of the todo, and its URI in the Location header. The client polls 
+	 * getWriteTicket() until the ticket is WRITTEN or FAILED. Until then getTodo() and 
+	 * getAllTodos() already return the changed todo. When the queue is full the client 
+	 * gets HTTP status 503 Service Unavailable with a Retry-After header.
+	 */
+	private ResponseEntity<?> createTodoLater(String username, Todo todo) {
+		try {
+			return accepted(username, todoWriteBehindQueue.create(username, todo));
+		} catch (RejectedExecutionException e) {
+			return writeBehindFull();
+		}
+	}
+
+	private ResponseEntity<?> updateTodoLater(String username, long id, Todo todo, String ifMatch) {
+		Optional<TodoPendingWrite> pendingWrite = todoWriteBehindQueue.find(id)
+				.filter(write -> write.getTodo().getUsername().equals(username));
+		Optional<Todo> current = pendingWrite.isPresent() ? Optional.of(pendingWrite.get().getTodo())
+				: findTodo(username, id);
+		if (!current.isPresent()) {
+			return notFound(ifMatch);
+		}
+
+		String eTag = pendingWrite.isPresent() ? pendingWrite.get().getETag() : eTagOf(current.get());
+		if (ifMatch != null && !matchesIfMatch(ifMatch, eTag)) {
+			return ResponseEntity.status(HttpStatus.PRECONDITION_FAILED).build();
+		}
+
+		try {
+			return accepted(username, todoWriteBehindQueue.update(current.get(), todo));
+		} catch (RejectedExecutionException e) {
+			return writeBehindFull();
+		}
+	}
+
+	/*
+	 * This method returns the state of a change accepted by the write-behind path, HTTP 
+	 * status 404 Not Found is returned for an unknown ticket or when the ticket has 
+	 * expired (todo.write-behind.ticket-ttl-seconds).
+	 */
+	@GetMapping("/jpa/users/{username}/todos/writes/{ticket}")
+	public ResponseEntity<TodoWriteTicket> getWriteTicket(@PathVariable String username,
+			@PathVariable String ticket) {
+		Optional<TodoWriteTicket> writeTicket = todoWriteBehindQueue.findTicket(ticket)
+				.filter(found -> found.getUsername().equals(username));
+		if (!writeTicket.isPresent()) {
+			return ResponseEntity.notFound().build();
+		}
+		return ResponseEntity.ok().cacheControl(CacheControl.noStore()).body(writeTicket.get());
+	}
+
+	private boolean isWriteBehind(String prefer) {
+		return prefer != null && todoWriteBehindQueue.isEnabled() && prefer.contains(RESPOND_ASYNC);
+	}
+
+	private static ResponseEntity<TodoWriteTicket> accepted(String username, TodoWriteTicket ticket) {
+		URI uri = ServletUriComponentsBuilder.fromCurrentContextPath().path("/jpa/users/{username}/todos/writes/{ticket}")
+				.buildAndExpand(username, ticket.getTicket()).toUri();
+		return ResponseEntity.accepted().location(uri).header(PREFERENCE_APPLIED, RESPOND_ASYNC).body(ticket);
+	}
+
+	private <T> ResponseEntity<T> writeBehindFull() {
+		return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+				.header(HttpHeaders.RETRY_AFTER, Long.toString(todoWriteBehindQueue.getRetryAfterSeconds())).build();
+	}
+
+	/*
+	 * This method imports a large number of todos for a specific user, the request body 
+	 * is either one JSON todo per line (Content-Type application/x-ndjson) or CSV with a 
+	 * header line (Content-Type text/csv), see TodoImportService.
+	 * 
+	 * The body is read and inserted while it arrives and the response is written at the 
+	 * same time as NDJSON, one TodoImportReport per line: an ERROR line for every 
+	 * rejected line of the import, a PROGRESS line after every inserted chunk and a 
+	 * SUMMARY line at the end. The status is 200 OK even when lines were rejected, 
+	 * because it is sent before the import is read.
+	 */
+	@PostMapping(path = "/jpa/users/{username}/todos/import", consumes = { MediaType.APPLICATION_NDJSON_VALUE,
+			"text/csv" }, produces = MediaType.APPLICATION_NDJSON_VALUE)
+	public ResponseEntity<StreamingResponseBody> importTodos(@PathVariable String username,
+			@RequestHeader(HttpHeaders.CONTENT_TYPE) MediaType contentType, InputStream body) {
+
+		TodoImportService.Format format = MediaType.APPLICATION_NDJSON.isCompatibleWith(contentType)
+				? TodoImportService.Format.NDJSON
+				: TodoImportService.Format.CSV;
+
+		return ResponseEntity.ok().cacheControl(CacheControl.noStore()).contentType(MediaType.APPLICATION_NDJSON)
+				.body(out -> todoImportService.importTodos(username, format, body, report -> {
+					try {
+						out.write(objectMapper.writeValueAsBytes(report));
+						out.write('\n');
+						if (report.getType() != TodoImportReport.Type.ERROR) {
+							out.flush();
+						}
+					} catch (IOException e) {
+						throw new UncheckedIOException(e);
+					}
+				}));
+	}
+
+	/*
+	 * This method applies a list of create, update and delete operations to the todos
+	 * of a user in one HTTP request and one database transaction, for example when the
+	 * Angular client synchronises the changes it made while it was offline.
+	 *
+	 * The HTTP POST request body is a JSON array of operations:
+	 *
+	 * [ { "op": "CREATE", "todo": { "description": "Learn JPA", ... } },
+	 *   { "op": "UPDATE", "id": 10001, "todo": { "description": "Learn more JPA", ... } },
+	 *   { "op": "DELETE", "id": 10002 } ]
+	 *
+	 * The response holds one result per operation, in the order of the request, with
+	 * the id of the todo and the HTTP status the operation would have had on its own.
+	 */
+	@PostMapping("/jpa/users/{username}/todos/batch")
+	public ResponseEntity<List<TodoBatchResult>> applyTodoBatch(@PathVariable String username,
+			@RequestBody List<TodoBatchOperation> operations) {
+
+		if (operations.size() > MAX_BATCH_SIZE) {
+			return ResponseEntity.status(HttpStatus.PAYLOAD_TOO_LARGE).build();
+		}
+
+		List<TodoBatchResult> results = todoBatchService.apply(username, operations);
+
+		return ResponseEntity.ok(results);
+	}
+
+	/*
+	 * The stored todo with the id when it belongs to the user and has not been deleted,
+	 * the todos of other users are not found under the username of the path.
+	 */
+	private Optional<Todo> findTodo(String username, long id) {
+		return todoJpaRepository.findById(id)
+				.filter(stored -> stored.getUsername().equals(username) && !stored.isDeleted());
+	}
+
+	private static String eTagOf(Todo todo) {
+		return "\"" + todo.getVersion() + "\"";
+	}
+
+	/*
+	 * The version of an If-Match header that holds a single ETag of eTagOf(), null for
+	 * anything else.
+	 */
+	private static Long versionOf(String ifMatch) {
+		String trimmed = ifMatch.trim();
+		if (trimmed.length() < 3 || !trimmed.startsWith("\"") || !trimmed.endsWith("\"")) {
+			return null;
+		}
+		try {
+			return Long.valueOf(trimmed.substring(1, trimmed.length() - 1));
+		} catch (NumberFormatException e) {
+			return null;
+		}
+	}
+
+	/*
+	 * Strong comparison of the If-Match header with the current ETag of a todo, the
+	 * header holds "*" or a comma separated list of ETags. Weak ETags never match.
+	 */
+	private static boolean matchesIfMatch(String ifMatch, String eTag) {
+		for (String candidate : ifMatch.split(",")) {
+			String trimmed = candidate.trim();
+			if (trimmed.equals("*") || trimmed.equals(eTag)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
 }
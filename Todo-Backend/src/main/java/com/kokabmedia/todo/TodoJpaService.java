@@ -0,0 +1,259 @@
+package com.kokabmedia.todo;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Optional;
+
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+import javax.persistence.criteria.CriteriaBuilder;
+import javax.persistence.criteria.CriteriaUpdate;
+import javax.persistence.criteria.Root;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.orm.ObjectOptimisticLockingFailureException;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.interceptor.TransactionAspectSupport;
+
+import io.micrometer.core.instrument.MeterRegistry;
+
+/*
+* This class creates, updates and deletes the todos of TodoJpaResource in one database
+* transaction together with the change sequence of the user (see TodoChangeSequencer),
+* and answers the delta sync requests of the clients.
+*
+* A deleted todo is kept as a tombstone with the change sequence of the delete, so the
+* delete can be handed to the clients that synchronise later.
+*
+* Every change publishes a TodoChangedEvent, its listeners run after the commit.
+*
+* The @Service annotation lets the Spring framework manage class as a Spring bean and
+* the @Transactional annotation makes the Spring framework run every public method in
+* a database transaction.
+*/
+@Service
+@Transactional
+public class TodoJpaService {
+
+	@Autowired
+	private TodoJpaRepository todoJpaRepository;
+
+	@Autowired
+	private TodoChangeSequenceRepository todoChangeSequenceRepository;
+
+	@Autowired
+	private TodoChangeSequencer todoChangeSequencer;
+
+	@Autowired
+	private ApplicationEventPublisher eventPublisher;
+
+	@Autowired
+	private MeterRegistry meterRegistry;
+
+	@PersistenceContext
+	private EntityManager entityManager;
+
+	public Todo create(String username, Todo todo) {
+		todo.setId(null);
+		todo.setUsername(username);
+		todo.setChangeSeq(todoChangeSequencer.next(username));
+		Todo created = todoJpaRepository.save(todo);
+		eventPublisher.publishEvent(TodoChangedEvent.created(created));
+		return created;
+	}
+
+	/*
+	 * Copies the description, targetDate and isDone values onto the stored todo of the
+	 * user, an empty Optional is returned when the user has no such todo. When the stored todo no longer has
+	 * the expected version (null to skip the check) an ObjectOptimisticLockingFailureException
+	 * is thrown, just like when it is changed concurrently before the commit.
+	 */
+	public Optional<Todo> update(String username, long id, Todo todo, Long expectedVersion) {
+		return patch(username, id, TodoPatch.of(todo), expectedVersion);
+	}
+
+	/*
+	 * Copies the fields present in the patch onto the stored todo, like update(). A patch
+	 * that leaves the todo as it is, like a todo toggled done and back, is not written and
+	 * publishes no event, it is counted in todo.updates.unchanged. Hibernate only writes
+	 * the changed columns (see the @DynamicUpdate annotation of Todo).
+	 */
+	public Optional<Todo> patch(String username, long id, TodoPatch patch, Long expectedVersion) {
+		Optional<Todo> existing = todoJpaRepository.findById(id)
+				.filter(stored -> stored.getUsername().equals(username) && !stored.isDeleted());
+		if (!existing.isPresent()) {
+			return existing;
+		}
+
+		Todo todoToUpdate = existing.get();
+		if (expectedVersion != null && !expectedVersion.equals(todoToUpdate.getVersion())) {
+			throw new ObjectOptimisticLockingFailureException(Todo.class, id);
+		}
+
+		if (!patch.applyTo(todoToUpdate)) {
+			meterRegistry.counter("todo.updates.unchanged").increment();
+			return existing;
+		}
+		todoToUpdate.setChangeSeq(todoChangeSequencer.next(todoToUpdate.getUsername()));
+
+		// Flushed now so the event carries the incremented version
+		Todo updated = todoJpaRepository.saveAndFlush(todoToUpdate);
+		eventPublisher.publishEvent(TodoChangedEvent.updated(updated));
+		return Optional.of(updated);
+	}
+
+	/*
+	 * Applies a JSON Merge Patch (RFC 7396) to the todo of the user with one UPDATE
+	 * statement that sets only the fields present in the patch, the todo is not loaded
+	 * first and the other columns are left as they are. The version is incremented and
+	 * compared in the same statement, so a concurrent change is never overwritten.
+	 *
+	 * An empty Optional is returned when the user has no such todo. When the todo no
+	 * longer has the expected version (null to skip the check) an
+	 * ObjectOptimisticLockingFailureException is thrown. The updated todo is read back
+	 * once for the response and the TodoChangedEvent. An empty patch writes nothing.
+	 *
+	 * The change sequence number is taken before the UPDATE statement. A user without a
+	 * change sequence has no todos and gets an empty Optional right away, when the
+	 * statement updates no row the transaction is rolled back so the number is not used.
+	 */
+	public Optional<Todo> mergePatch(String username, long id, TodoPatch patch, Long expectedVersion) {
+		if (patch.isEmpty()) {
+			// An empty merge patch changes nothing
+			Optional<Todo> existing = todoJpaRepository.findById(id)
+					.filter(stored -> stored.getUsername().equals(username) && !stored.isDeleted());
+			if (existing.isPresent() && expectedVersion != null
+					&& !expectedVersion.equals(existing.get().getVersion())) {
+				throw new ObjectOptimisticLockingFailureException(Todo.class, id);
+			}
+			return existing;
+		}
+
+		Optional<Long> changeSeq = todoChangeSequencer.nextIfPresent(username);
+		if (!changeSeq.isPresent()) {
+			return Optional.empty();
+		}
+
+		CriteriaBuilder builder = entityManager.getCriteriaBuilder();
+		CriteriaUpdate<Todo> update = builder.createCriteriaUpdate(Todo.class);
+		Root<Todo> todo = update.from(Todo.class);
+		if (patch.hasDescription()) {
+			update.set(todo.<String>get("description"), patch.getDescription());
+		}
+		if (patch.hasTargetDate()) {
+			update.set(todo.<Date>get("targetDate"), patch.getTargetDate());
+		}
+		if (patch.getDone() != null) {
+			update.set(todo.<Boolean>get("isDone"), patch.getDone());
+		}
+		update.set(todo.<Long>get("version"), builder.sum(todo.<Long>get("version"), 1L));
+		update.set(todo.<Long>get("changeSeq"), changeSeq.get());
+
+		update.where(builder.equal(todo.get("id"), id), builder.equal(todo.get("username"), username),
+				builder.isFalse(todo.get("deleted")));
+		if (expectedVersion != null) {
+			update.where(update.getRestriction(), builder.equal(todo.get("version"), expectedVersion));
+		}
+
+		// Like @Modifying(flushAutomatically = true, clearAutomatically = true), the locked
+		// change sequence is written first and no stale copy of the todo is read back
+		entityManager.flush();
+		int updated = entityManager.createQuery(update).executeUpdate();
+		entityManager.clear();
+
+		if (updated == 0) {
+			TransactionAspectSupport.currentTransactionStatus().setRollbackOnly();
+			Optional<Todo> existing = todoJpaRepository.findById(id)
+					.filter(stored -> stored.getUsername().equals(username) && !stored.isDeleted());
+			if (existing.isPresent()) {
+				throw new ObjectOptimisticLockingFailureException(Todo.class, id);
+			}
+			return existing;
+		}
+
+		Todo patched = todoJpaRepository.findById(id).get();
+		eventPublisher.publishEvent(TodoChangedEvent.updated(patched));
+		return Optional.of(patched);
+	}
+
+	/*
+	 * Turns the todo of the user into a tombstone, returns false when the user has no
+	 * such todo.
+	 */
+	public boolean delete(String username, long id) {
+		Optional<Todo> existing = todoJpaRepository.findById(id)
+				.filter(stored -> stored.getUsername().equals(username) && !stored.isDeleted());
+		if (!existing.isPresent()) {
+			return false;
+		}
+
+		Todo deleted = existing.get();
+		deleted.markDeleted(new Date());
+		deleted.setChangeSeq(todoChangeSequencer.next(deleted.getUsername()));
+		eventPublisher.publishEvent(TodoChangedEvent.deleted(deleted.getUsername(), deleted.getId()));
+		return true;
+	}
+
+	/*
+	 * Returns at most limit todos and tombstones of the user that changed after the change
+	 * sequence since, in the order of their change sequence.
+	 *
+	 * The sequence of the user is read before the todos, a change committed in between is
+	 * at worst sent twice, which the client can apply again without harm. When tombstones
+	 * after since have been removed, or since is higher than any sequence handed out (for
+	 * example after the database has been reset), all todos are returned for a full resync.
+	 */
+	@Transactional(readOnly = true)
+	public TodoChanges changesSince(String username, long since, int limit) {
+		Optional<TodoChangeSequence> sequence = todoChangeSequenceRepository.findById(username);
+		long lastSeq = sequence.map(TodoChangeSequence::getLastSeq).orElse(0L);
+		long compactedThroughSeq = sequence.map(TodoChangeSequence::getCompactedThroughSeq).orElse(0L);
+
+		if (since < compactedThroughSeq || since > lastSeq) {
+			return fullResync(username, since, lastSeq);
+		}
+
+		List<Todo> changed = todoJpaRepository.findChangedSince(username, since, PageRequest.of(0, limit + 1));
+
+		// The tombstones may have been compacted while the changes were read
+		if (since < todoChangeSequenceRepository.findCompactedThroughSeq(username).orElse(0L)) {
+			return fullResync(username, since, lastSeq);
+		}
+
+		boolean hasMore = changed.size() > limit;
+		if (hasMore) {
+			changed = changed.subList(0, limit);
+		}
+
+		List<Todo> upserts = new ArrayList<>();
+		List<Long> deletes = new ArrayList<>();
+		long seq = since;
+		for (Todo todo : changed) {
+			if (todo.isDeleted()) {
+				deletes.add(todo.getId());
+			} else {
+				upserts.add(todo);
+			}
+			seq = Math.max(seq, todo.getChangeSeq());
+		}
+		if (!hasMore) {
+			seq = Math.max(seq, lastSeq);
+		}
+
+		return new TodoChanges(since, seq, hasMore, false, upserts, deletes);
+	}
+
+	private TodoChanges fullResync(String username, long since, long lastSeq) {
+		List<Todo> todos = todoJpaRepository.findByUsername(username);
+		long seq = lastSeq;
+		for (Todo todo : todos) {
+			seq = Math.max(seq, todo.getChangeSeq());
+		}
+		return new TodoChanges(since, seq, false, true, todos, new ArrayList<>());
+	}
+
+}
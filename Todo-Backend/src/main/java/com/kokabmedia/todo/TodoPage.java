@@ -0,0 +1,33 @@
+package com.kokabmedia.todo;
+
+import java.util.List;
+
+/*
+ * Model class for one page of a keyset paginated todo listing.
+ *
+ * The nextCursor is null when the page is the last one, otherwise it is passed as
+ * the "after" request parameter to retrieve the next page.
+ */
+public class TodoPage {
+
+	private final List<Todo> todos;
+	private final String nextCursor;
+
+	public TodoPage(List<Todo> todos, String nextCursor) {
+		this.todos = todos;
+		this.nextCursor = nextCursor;
+	}
+
+	public List<Todo> getTodos() {
+		return todos;
+	}
+
+	public String getNextCursor() {
+		return nextCursor;
+	}
+
+	public boolean isHasMore() {
+		return nextCursor != null;
+	}
+
+}
@@ -0,0 +1,114 @@
+package com.kokabmedia.todo;
+
+import java.util.Date;
+import java.util.Objects;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+
+/*
+ * Model class for a partial update of a todo, the HTTP PATCH request body of
+ * TodoJpaResource. Only the fields that are present in the JSON are changed, for example
+ * {"done":true} only marks the todo as done.
+ *
+ * As a JSON Merge Patch (application/merge-patch+json) a field set to null is cleared,
+ * except done, which a todo always has, "done":null leaves it as it is.
+ *
+ * A PUT request is a patch with all three fields (see of()). Patches of the same todo
+ * that arrive close together are merged into one with then() by the
+ * TodoUpdateCoalescer, the later value of a field wins.
+ */
+public class TodoPatch {
+
+	private String description;
+	private boolean hasDescription;
+	private Date targetDate;
+	private boolean hasTargetDate;
+	private Boolean done;
+
+	public static TodoPatch of(Todo todo) {
+		TodoPatch patch = new TodoPatch();
+		patch.setDescription(todo.getDescription());
+		patch.setTargetDate(todo.getTargetDate());
+		patch.setDone(todo.isDone());
+		return patch;
+	}
+
+	/*
+	 * This patch followed by the later one.
+	 */
+	public TodoPatch then(TodoPatch later) {
+		TodoPatch merged = new TodoPatch();
+		merged.description = later.hasDescription ? later.description : description;
+		merged.hasDescription = hasDescription || later.hasDescription;
+		merged.targetDate = later.hasTargetDate ? later.targetDate : targetDate;
+		merged.hasTargetDate = hasTargetDate || later.hasTargetDate;
+		merged.done = later.done != null ? later.done : done;
+		return merged;
+	}
+
+	/*
+	 * Copies the present fields onto the todo, returns false when that does not change
+	 * anything.
+	 */
+	public boolean applyTo(Todo todo) {
+		boolean changed = false;
+		if (hasDescription && !Objects.equals(description, todo.getDescription())) {
+			todo.setDescription(description);
+			changed = true;
+		}
+		if (hasTargetDate && !sameTime(targetDate, todo.getTargetDate())) {
+			todo.setTargetDate(targetDate);
+			changed = true;
+		}
+		if (done != null && done != todo.isDone()) {
+			todo.setDone(done);
+			changed = true;
+		}
+		return changed;
+	}
+
+	// A date read from the database is a java.sql.Timestamp, which never equals a java.util.Date
+	private static boolean sameTime(Date first, Date second) {
+		return first == null ? second == null : second != null && first.getTime() == second.getTime();
+	}
+
+	public String getDescription() {
+		return description;
+	}
+
+	public void setDescription(String description) {
+		this.description = description;
+		this.hasDescription = true;
+	}
+
+	public Date getTargetDate() {
+		return targetDate;
+	}
+
+	public void setTargetDate(Date targetDate) {
+		this.targetDate = targetDate;
+		this.hasTargetDate = true;
+	}
+
+	public Boolean getDone() {
+		return done;
+	}
+
+	public void setDone(Boolean done) {
+		this.done = done;
+	}
+
+	public boolean hasDescription() {
+		return hasDescription;
+	}
+
+	public boolean hasTargetDate() {
+		return hasTargetDate;
+	}
+
+	@JsonIgnore
+	public boolean isEmpty() {
+		return !hasDescription && !hasTargetDate && done == null;
+	}
+
+}
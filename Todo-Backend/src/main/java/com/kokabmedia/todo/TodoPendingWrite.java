@@ -0,0 +1,93 @@
+package com.kokabmedia.todo;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/*
+ * This class is a todo create or update waiting in the TodoWriteBehindQueue, the state
+ * the todo will have once it is written and the tickets of the requests that changed it.
+ *
+ * Further changes of the same todo before it is written are coalesced into the pending
+ * write: the todo takes the values of the latest change and the revision counts the
+ * changes, a pending create stays a create.
+ *
+ * The version of the todo is the version the changes were accepted against. The writer
+ * checks it for every update, the write fails with CONFLICT if the stored todo has been
+ * changed by another request since, instead of writing older values over that change.
+ */
+class TodoPendingWrite {
+
+	enum Type {
+		CREATE, UPDATE
+	}
+
+	private final Type type;
+	private final Todo todo;
+	private final List<TodoWriteTicket> tickets = new ArrayList<>(1);
+	private int revision;
+	private Long writtenVersion;
+	private String error;
+
+	TodoPendingWrite(Type type, Todo todo) {
+		this.type = type;
+		this.todo = todo;
+	}
+
+	/*
+	 * A copy without the tickets for the readers, the pending write itself keeps changing
+	 * while it waits.
+	 */
+	TodoPendingWrite snapshot() {
+		TodoPendingWrite snapshot = new TodoPendingWrite(type, TodoChangedEvent.copyOf(todo));
+		snapshot.revision = revision;
+		return snapshot;
+	}
+
+	void apply(Todo changes, TodoWriteTicket ticket) {
+		todo.setDescription(changes.getDescription());
+		todo.setTargetDate(changes.getTargetDate());
+		todo.setDone(changes.isDone());
+		tickets.add(ticket);
+		revision++;
+	}
+
+	/*
+	 * The ETag of the pending todo, it differs from the ETag of the stored todo and
+	 * changes with every coalesced change so If-Match keeps working before the write.
+	 */
+	String getETag() {
+		return "\"" + (todo.getVersion() == null ? "new" : todo.getVersion()) + "." + revision + "\"";
+	}
+
+	Type getType() {
+		return type;
+	}
+
+	Todo getTodo() {
+		return todo;
+	}
+
+	List<TodoWriteTicket> getTickets() {
+		return tickets;
+	}
+
+	/*
+	 * The version of the todo once it has been written, set by the TodoWriteBehindWriter.
+	 */
+	Long getWrittenVersion() {
+		return writtenVersion;
+	}
+
+	void setWrittenVersion(Long writtenVersion) {
+		this.writtenVersion = writtenVersion;
+	}
+
+	String getError() {
+		return error;
+	}
+
+	void setError(String error) {
+		this.error = error;
+	}
+
+}
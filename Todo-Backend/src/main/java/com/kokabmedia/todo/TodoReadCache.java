@@ -0,0 +1,128 @@
+package com.kokabmedia.todo;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.event.TransactionalEventListener;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+
+/*
+ * This class is a read-through cache in front of TodoJpaRepository for the todo lookups
+ * of TodoJpaResource, one Caffeine cache holds todos by id and another one the todo
+ * lists by username, a third one the TodoSummary lists by username. They are bounded in
+ * size and entries expire after todo.cache.ttl-seconds.
+ *
+ * The entries of a todo and of the list of its user are invalidated by the
+ * TodoChangedEvent of every create, update and delete once the change is committed.
+ * A lookup that is loading an entry while it is invalidated does not leave a stale entry
+ * behind, Caffeine makes the invalidation wait for the load and then removes the entry.
+ *
+ * The caches hold detached copies of the todos instead of the entities loaded by the
+ * repository, an entity belongs to the persistence context of the request that loaded it
+ * and must not be shared with other requests. findById() returns a new copy every time
+ * so a caller can change it without changing the cached todo.
+ *
+ * The caches publish their hit and miss counts as the cache.* metrics with the cache
+ * tags todos, todoLists and todoSummaryLists. With todo.cache.enabled=false every lookup goes to the
+ * database.
+ */
+@Component
+public class TodoReadCache {
+
+	private final TodoJpaRepository todoJpaRepository;
+	private final boolean enabled;
+	private final Cache<Long, Todo> todosById;
+	private final Cache<String, List<Todo>> todosByUsername;
+	private final Cache<String, List<TodoSummary>> summariesByUsername;
+
+	public TodoReadCache(TodoJpaRepository todoJpaRepository, MeterRegistry meterRegistry,
+			@Value("${todo.cache.enabled:true}") boolean enabled,
+			@Value("${todo.cache.ttl-seconds:600}") long ttlSeconds,
+			@Value("${todo.cache.todos.maximum-size:10000}") long maximumTodos,
+			@Value("${todo.cache.lists.maximum-size:1000}") long maximumLists) {
+		this.todoJpaRepository = todoJpaRepository;
+		this.enabled = enabled;
+		this.todosById = Caffeine.newBuilder().maximumSize(maximumTodos).expireAfterWrite(ttlSeconds, TimeUnit.SECONDS)
+				.recordStats().build();
+		this.todosByUsername = Caffeine.newBuilder().maximumSize(maximumLists)
+				.expireAfterWrite(ttlSeconds, TimeUnit.SECONDS).recordStats().build();
+		this.summariesByUsername = Caffeine.newBuilder().maximumSize(maximumLists)
+				.expireAfterWrite(ttlSeconds, TimeUnit.SECONDS).recordStats().build();
+
+		CaffeineCacheMetrics.monitor(meterRegistry, todosById, "todos");
+		CaffeineCacheMetrics.monitor(meterRegistry, todosByUsername, "todoLists");
+		CaffeineCacheMetrics.monitor(meterRegistry, summariesByUsername, "todoSummaryLists");
+	}
+
+	/*
+	 * The todo with the id, an empty Optional for a todo that does not exist or has
+	 * been deleted. Only existing todos are cached.
+	 */
+	public Optional<Todo> findById(long id) {
+		if (!enabled) {
+			return loadTodo(id);
+		}
+		return Optional.ofNullable(todosById.get(id, key -> loadTodo(key).map(TodoChangedEvent::copyOf).orElse(null)))
+				.map(TodoChangedEvent::copyOf);
+	}
+
+	/*
+	 * The todos of the user, the returned list cannot be modified and its todos are shared
+	 * with the other readers of the list, they must not be changed.
+	 */
+	public List<Todo> findByUsername(String username) {
+		if (!enabled) {
+			return todoJpaRepository.findByUsername(username);
+		}
+		return todosByUsername.get(username, key -> Collections.unmodifiableList(
+				todoJpaRepository.findByUsername(key).stream().map(TodoChangedEvent::copyOf).collect(Collectors.toList())));
+	}
+
+	/*
+	 * The summaries of the todos of the user, the returned list cannot be modified. When
+	 * the todo list of the user is cached the summaries are taken from it instead of
+	 * the database.
+	 */
+	public List<TodoSummary> findSummariesByUsername(String username) {
+		if (!enabled) {
+			return todoJpaRepository.findSummariesByUsername(username);
+		}
+		return summariesByUsername.get(username, key -> {
+			List<Todo> todos = todosByUsername.getIfPresent(key);
+			if (todos != null) {
+				return Collections.unmodifiableList(todos.stream().map(TodoSummary::of).collect(Collectors.toList()));
+			}
+			return Collections.unmodifiableList(todoJpaRepository.findSummariesByUsername(key));
+		});
+	}
+
+	private Optional<Todo> loadTodo(long id) {
+		return todoJpaRepository.findById(id).filter(todo -> !todo.isDeleted());
+	}
+
+	/*
+	 * The @Order annotation makes Spring call this listener before the one of
+	 * TodoCollectionVersions, so a request that sees the new ETag of a todo list never
+	 * gets the old list from the cache.
+	 */
+	@TransactionalEventListener(fallbackExecution = true)
+	@Order(Ordered.HIGHEST_PRECEDENCE)
+	public void onTodoChanged(TodoChangedEvent event) {
+		todosById.invalidate(event.getId());
+		todosByUsername.invalidate(event.getUsername());
+		summariesByUsername.invalidate(event.getUsername());
+	}
+
+}
@@ -16,6 +16,8 @@ import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RestController;
 import org.springframework.web.servlet.support.ServletUriComponentsBuilder;
 
+import io.micrometer.core.annotation.Timed;
+
 import com.kokabmedia.todo.Todo;
 /*
  * @CrossOrigin annotation makes it possible to Allow request from a specific URL.
@@ -46,8 +48,12 @@ import com.kokabmedia.todo.Todo;
  * When we put @ResponseBody on a controller, the response from that will be mapped by a 
  * http message converter(Jackson) into another format, for example a java object to JSON, 
  * XML or HTML. Response body converts the java object and sends the response back. 
+ * 
+ * The @Timed annotation times the requests to the in memory todos like the ones of 
+ * TodoJpaResource.
  */
 @RestController
+@Timed(percentiles = { 0.5, 0.95, 0.99 }, histogram = true)
 public class TodoResource {
 	
 	/* 
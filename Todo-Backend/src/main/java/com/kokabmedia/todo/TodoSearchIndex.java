@@ -0,0 +1,379 @@
+package com.kokabmedia.todo;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.event.TransactionalEventListener;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+
+/*
+ * This class is an in-memory inverted index of the todo descriptions for the search of
+ * TodoJpaResource, one index per user that maps every word of the descriptions to the
+ * todos that contain it and how often.
+ *
+ * The index of a user is built from the database with the first search of the user and
+ * then kept up to date with the TodoChangedEvent of every create, update and delete once
+ * the change is committed, so a search never scans the todos. A bulk import
+ * (IMPORTED event) drops the index of the user, it is built again with the next search.
+ * At most todo.search.maximum-users indexes are kept, an index that has not been
+ * searched for todo.search.idle-minutes is dropped. Its hits and misses are the cache.*
+ * metrics with the cache tag todoSearchIndexes.
+ *
+ * Descriptions and queries are split into lower case words of letters and digits. A
+ * todo matches when it contains every word of the query, a query word ending with *
+ * matches every word that starts with it ("spr* boot" finds "Learn Spring Boot"). The
+ * todos are ranked by TF-IDF: a word counts more the more often it occurs in the
+ * description and the fewer todos of the user contain it, divided by the square root
+ * of the number of words of the description so short descriptions are not outranked by
+ * long ones.
+ */
+@Component
+public class TodoSearchIndex {
+
+	private final TodoJpaRepository todoJpaRepository;
+	private final Cache<String, UserIndex> indexes;
+
+	public TodoSearchIndex(TodoJpaRepository todoJpaRepository, MeterRegistry meterRegistry,
+			@Value("${todo.search.maximum-users:100}") long maximumUsers,
+			@Value("${todo.search.idle-minutes:30}") long idleMinutes) {
+		this.todoJpaRepository = todoJpaRepository;
+		this.indexes = Caffeine.newBuilder().maximumSize(maximumUsers).expireAfterAccess(idleMinutes, TimeUnit.MINUTES)
+				.recordStats().build();
+
+		CaffeineCacheMetrics.monitor(meterRegistry, indexes, "todoSearchIndexes");
+	}
+
+	/*
+	 * The todos of the user that match the query, best match first, at most limit todos.
+	 * A query without any word matches nothing.
+	 */
+	public List<Todo> search(String username, String query, int limit) {
+		List<QueryTerm> terms = parse(query);
+		if (terms.isEmpty()) {
+			return Collections.emptyList();
+		}
+		return indexes.get(username, this::build).search(terms, limit);
+	}
+
+	private UserIndex build(String username) {
+		UserIndex index = new UserIndex();
+		for (Todo todo : todoJpaRepository.findByUsername(username)) {
+			index.upsert(TodoChangedEvent.copyOf(todo));
+		}
+		return index;
+	}
+
+	/*
+	 * An event of a user without an index is ignored, the index is built from the
+	 * database when it is needed. An event that arrives while the index of the user is
+	 * being built waits for the build (computeIfPresent of the Caffeine map) and is
+	 * applied on top of it, the changeSeq of the todos keeps an older change from
+	 * overwriting a newer one.
+	 */
+	@TransactionalEventListener(fallbackExecution = true)
+	public void onTodoChanged(TodoChangedEvent event) {
+		switch (event.getType()) {
+		case IMPORTED:
+			indexes.invalidate(event.getUsername());
+			break;
+		case DELETED:
+			indexes.asMap().computeIfPresent(event.getUsername(), (username, index) -> {
+				index.remove(event.getId());
+				return index;
+			});
+			break;
+		default:
+			indexes.asMap().computeIfPresent(event.getUsername(), (username, index) -> {
+				index.upsert(event.getTodo());
+				return index;
+			});
+		}
+	}
+
+	/*
+	 * Splits the query into words, a word followed by * is a prefix. "Spring-Boot*" is
+	 * the word "spring" and the prefix "boot".
+	 */
+	static List<QueryTerm> parse(String query) {
+		List<QueryTerm> terms = new ArrayList<>();
+		if (query == null) {
+			return terms;
+		}
+		for (String part : query.trim().split("\\s+")) {
+			boolean prefix = part.endsWith("*");
+			List<String> words = tokenize(part);
+			for (int i = 0; i < words.size(); i++) {
+				terms.add(new QueryTerm(words.get(i), prefix && i == words.size() - 1));
+			}
+		}
+		return terms;
+	}
+
+	static List<String> tokenize(String text) {
+		List<String> words = new ArrayList<>();
+		if (text == null) {
+			return words;
+		}
+		String lowerCase = text.toLowerCase(Locale.ROOT);
+		int start = -1;
+		for (int i = 0; i <= lowerCase.length(); i++) {
+			boolean wordChar = i < lowerCase.length() && Character.isLetterOrDigit(lowerCase.charAt(i));
+			if (wordChar && start < 0) {
+				start = i;
+			} else if (!wordChar && start >= 0) {
+				words.add(lowerCase.substring(start, i));
+				start = -1;
+			}
+		}
+		return words;
+	}
+
+	static class QueryTerm {
+
+		private final String word;
+		private final boolean prefix;
+
+		QueryTerm(String word, boolean prefix) {
+			this.word = word;
+			this.prefix = prefix;
+		}
+
+	}
+
+	// Lowest score first, on equal scores the older todo, so the heap drops the worst hit
+	private static final Comparator<Hit> HIT_RANKING = Comparator.<Hit>comparingDouble(hit -> hit.score)
+			.thenComparingLong(hit -> hit.document.todo.getId());
+
+	/*
+	 * The todos that contain a word and how often it occurs in each of them.
+	 */
+	private static class PostingList {
+
+		private final Map<Long, Integer> counts = new HashMap<>();
+
+	}
+
+	/*
+	 * A todo with its distinct words, the number of times each occurs and the posting list
+	 * of each, so a todo is scored without looking up its words in the index.
+	 */
+	private static class Document {
+
+		private final Todo todo;
+		private final String[] words;
+		private final int[] counts;
+		private final PostingList[] postingLists;
+		private final double norm;
+
+		private Document(Todo todo, String[] words, int[] counts, PostingList[] postingLists, int length) {
+			this.todo = todo;
+			this.words = words;
+			this.counts = counts;
+			this.postingLists = postingLists;
+			this.norm = Math.sqrt(Math.max(1, length));
+		}
+
+	}
+
+	/*
+	 * The index of one user. The postings map every word to its posting list, sorted by
+	 * word so a prefix is a range of the map. Searches share the read lock, changes take
+	 * the write lock.
+	 */
+	static class UserIndex {
+
+		private final ReadWriteLock lock = new ReentrantReadWriteLock();
+		private final Map<Long, Document> documents = new HashMap<>();
+		private final NavigableMap<String, PostingList> postings = new TreeMap<>();
+		private final Set<Long> deletedIds = new HashSet<>();
+
+		void upsert(Todo todo) {
+			lock.writeLock().lock();
+			try {
+				long id = todo.getId();
+				Document previous = documents.get(id);
+				if (deletedIds.contains(id) || (previous != null && previous.todo.getChangeSeq() > todo.getChangeSeq())) {
+					return;
+				}
+				if (previous != null) {
+					unindex(id, previous);
+				}
+
+				List<String> words = tokenize(todo.getDescription());
+				Map<String, Integer> termCounts = new HashMap<>();
+				for (String word : words) {
+					termCounts.merge(word, 1, Integer::sum);
+				}
+
+				String[] distinctWords = new String[termCounts.size()];
+				int[] counts = new int[termCounts.size()];
+				PostingList[] postingLists = new PostingList[termCounts.size()];
+				int i = 0;
+				for (Map.Entry<String, Integer> term : termCounts.entrySet()) {
+					distinctWords[i] = term.getKey();
+					counts[i] = term.getValue();
+					postingLists[i] = postings.computeIfAbsent(term.getKey(), key -> new PostingList());
+					postingLists[i].counts.put(id, term.getValue());
+					i++;
+				}
+				documents.put(id, new Document(todo, distinctWords, counts, postingLists, words.size()));
+			} finally {
+				lock.writeLock().unlock();
+			}
+		}
+
+		void remove(long id) {
+			lock.writeLock().lock();
+			try {
+				// Ids are never reused, a late update of a deleted todo must not bring it back
+				deletedIds.add(id);
+				Document previous = documents.remove(id);
+				if (previous != null) {
+					unindex(id, previous);
+				}
+			} finally {
+				lock.writeLock().unlock();
+			}
+		}
+
+		private void unindex(long id, Document document) {
+			for (int i = 0; i < document.words.length; i++) {
+				PostingList postingList = document.postingLists[i];
+				postingList.counts.remove(id);
+				if (postingList.counts.isEmpty()) {
+					postings.remove(document.words[i]);
+				}
+			}
+		}
+
+		/*
+		 * Only the todos of the rarest term can match every term, they are the candidates
+		 * and each of them is scored from its own words. When the rarest term is a prefix
+		 * that matches a large part of the todos, going through all todos is cheaper than
+		 * collecting the candidates from the posting lists of every matching word.
+		 */
+		List<Todo> search(List<QueryTerm> terms, int limit) {
+			lock.readLock().lock();
+			try {
+				Map<String, PostingList> rarest = null;
+				long rarestPostings = Long.MAX_VALUE;
+				for (QueryTerm term : terms) {
+					Map<String, PostingList> words = matchingWords(term);
+					long termPostings = 0;
+					for (PostingList postingList : words.values()) {
+						termPostings += postingList.counts.size();
+					}
+					if (termPostings == 0) {
+						return Collections.emptyList();
+					}
+					if (termPostings < rarestPostings) {
+						rarest = words;
+						rarestPostings = termPostings;
+					}
+				}
+
+				Collection<Document> candidates;
+				if (rarest.size() > 1 && rarestPostings > documents.size() / 4) {
+					candidates = documents.values();
+				} else {
+					Set<Long> ids = new HashSet<>();
+					for (PostingList postingList : rarest.values()) {
+						ids.addAll(postingList.counts.keySet());
+					}
+					candidates = new ArrayList<>(ids.size());
+					for (Long id : ids) {
+						candidates.add(documents.get(id));
+					}
+				}
+
+				PriorityQueue<Hit> best = new PriorityQueue<>(HIT_RANKING);
+				candidates: for (Document document : candidates) {
+					double score = 0;
+					for (QueryTerm term : terms) {
+						double weight = weight(term, document);
+						if (weight == 0) {
+							continue candidates;
+						}
+						score += weight;
+					}
+
+					Hit hit = new Hit(document, score / document.norm);
+					if (best.size() < limit) {
+						best.add(hit);
+					} else if (HIT_RANKING.compare(hit, best.peek()) > 0) {
+						best.poll();
+						best.add(hit);
+					}
+				}
+
+				List<Todo> todos = new ArrayList<>(best.size());
+				while (!best.isEmpty()) {
+					todos.add(best.poll().document.todo);
+				}
+				Collections.reverse(todos);
+				return todos;
+			} finally {
+				lock.readLock().unlock();
+			}
+		}
+
+		private Map<String, PostingList> matchingWords(QueryTerm term) {
+			if (term.prefix) {
+				return postings.subMap(term.word, true, term.word + Character.MAX_VALUE, false);
+			}
+			PostingList postingList = postings.get(term.word);
+			return postingList == null ? Map.of() : Map.of(term.word, postingList);
+		}
+
+		/*
+		 * The TF-IDF weight of the term in the todo, for a prefix the weight of the best
+		 * matching word, 0 when the todo does not contain the term.
+		 */
+		private double weight(QueryTerm term, Document document) {
+			double weight = 0;
+			for (int i = 0; i < document.words.length; i++) {
+				String word = document.words[i];
+				if (term.prefix ? word.startsWith(term.word) : word.equals(term.word)) {
+					double idf = Math.log(1 + (double) documents.size() / document.postingLists[i].counts.size());
+					weight = Math.max(weight, document.counts[i] * idf);
+				}
+			}
+			return weight;
+		}
+
+	}
+
+	private static class Hit {
+
+		private final Document document;
+		private final double score;
+
+		private Hit(Document document, double score) {
+			this.document = document;
+			this.score = score;
+		}
+
+	}
+
+}
@@ -0,0 +1,57 @@
+package com.kokabmedia.todo;
+
+import java.util.Date;
+import java.util.Set;
+
+import com.fasterxml.jackson.annotation.JsonFilter;
+
+/*
+ * This class holds the fields of a todo that the todo list of the Angular client shows,
+ * read with a constructor expression of TodoJpaRepository.findSummariesByUsername().
+ * Hibernate creates it directly from the result set, unlike a Todo entity it is not
+ * kept in the persistence context with a copy of its state for the dirty check.
+ *
+ * The @JsonFilter annotation lets TodoJpaResource leave out the fields that the client
+ * has not asked for with the fields request parameter (sparse fieldset), the name of a
+ * field is its JSON property.
+ */
+@JsonFilter(TodoSummary.FIELDS_FILTER)
+public class TodoSummary {
+
+	public static final String FIELDS_FILTER = "todoSummaryFields";
+
+	public static final Set<String> FIELDS = Set.of("id", "description", "targetDate", "done");
+
+	private final Long id;
+	private final String description;
+	private final Date targetDate;
+	private final boolean isDone;
+
+	public TodoSummary(Long id, String description, Date targetDate, boolean isDone) {
+		this.id = id;
+		this.description = description;
+		this.targetDate = targetDate;
+		this.isDone = isDone;
+	}
+
+	public static TodoSummary of(Todo todo) {
+		return new TodoSummary(todo.getId(), todo.getDescription(), todo.getTargetDate(), todo.isDone());
+	}
+
+	public Long getId() {
+		return id;
+	}
+
+	public String getDescription() {
+		return description;
+	}
+
+	public Date getTargetDate() {
+		return targetDate;
+	}
+
+	public boolean isDone() {
+		return isDone;
+	}
+
+}
@@ -0,0 +1,79 @@
+package com.kokabmedia.todo;
+
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import com.kokabmedia.shard.ShardRouter;
+
+/*
+ * This class removes the tombstones of deleted todos once they are older than the
+ * retention period (todo.changes.tombstone-retention-days).
+ * 
+ * For every user the highest change sequence of the removed tombstones is recorded as
+ * compactedThroughSeq, a client that synchronises from an older sequence may have missed
+ * one of the removed deletes and gets a full resync instead of the changes.
+ * 
+ * The @Scheduled annotation makes the Spring framework call compact() every
+ * todo.changes.compaction-interval-ms milliseconds, scheduling is enabled with the
+ * @EnableScheduling annotation of the application class.
+ * 
+ * With sharding the tombstones of every shard are compacted in a transaction of its own.
+ */
+@Component
+public class TodoTombstoneCompactor {
+
+	private final Logger logger = LoggerFactory.getLogger(this.getClass());
+
+	@Autowired
+	private TodoJpaRepository todoJpaRepository;
+
+	@Autowired
+	private TodoChangeSequenceRepository todoChangeSequenceRepository;
+
+	@Autowired
+	private ShardRouter shardRouter;
+
+	@Autowired
+	private PlatformTransactionManager transactionManager;
+
+	@Value("${todo.changes.tombstone-retention-days:30}")
+	private long retentionDays;
+
+	@Scheduled(fixedDelayString = "${todo.changes.compaction-interval-ms:3600000}")
+	public void compact() {
+		Date cutoff = new Date(System.currentTimeMillis() - TimeUnit.DAYS.toMillis(retentionDays));
+		compactBefore(cutoff);
+	}
+
+	public int compactBefore(Date cutoff) {
+		TransactionTemplate transactionTemplate = new TransactionTemplate(transactionManager);
+		int[] removed = { 0 };
+		shardRouter.forEachShard(shard -> removed[0] += transactionTemplate.execute(status -> compactShard(cutoff)));
+		if (removed[0] > 0) {
+			logger.info("TODO_TOMBSTONES_COMPACTED {}", removed[0]);
+		}
+		return removed[0];
+	}
+
+	private int compactShard(Date cutoff) {
+		int removed = 0;
+		for (Object[] row : todoJpaRepository.findCompactableTombstones(cutoff)) {
+			String username = (String) row[0];
+			long throughSeq = (Long) row[1];
+
+			todoChangeSequenceRepository.markCompacted(username, throughSeq);
+			removed += todoJpaRepository.deleteTombstones(username, throughSeq);
+		}
+		return removed;
+	}
+
+}
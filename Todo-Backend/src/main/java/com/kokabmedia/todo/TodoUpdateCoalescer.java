@@ -0,0 +1,188 @@
+package com.kokabmedia.todo;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+
+/*
+ * This class merges the updates of the same todo that arrive while an update of it is
+ * being written into a single write, for clients that toggle isDone or edit the
+ * description many times a second.
+ *
+ * An update of a todo that nobody is writing is written right away by the request
+ * thread. The updates of that todo that arrive in the meantime wait, and once the write
+ * is done the oldest of them writes all waiting updates as one patch (see
+ * TodoPatch.then()), the later value of a field wins. Every waiting request then gets
+ * the todo as it was written. So a burst of N updates costs two writes instead of N, and
+ * an update that ends where the todo started, like a double toggle, is not written at
+ * all (see TodoJpaService.patch()). With todo.update.coalesce-window-ms the writing
+ * request first waits that long for more updates to merge.
+ *
+ * Updates are merged per username and todo id. Only the updates without If-Match are
+ * merged, an update with If-Match is checked against the version it names and is
+ * written on its own.
+ *
+ * The todo.update.burst.size summary records the number of requests per write, its
+ * mean is the coalescing ratio: total / count = requests per write.
+ */
+@Component
+public class TodoUpdateCoalescer {
+
+	private final TodoJpaService todoJpaService;
+	private final long windowMs;
+	private final DistributionSummary burstSizes;
+	private final Counter requests;
+
+	private final ConcurrentMap<String, Burst> bursts = new ConcurrentHashMap<>();
+
+	public TodoUpdateCoalescer(TodoJpaService todoJpaService, MeterRegistry meterRegistry,
+			@Value("${todo.update.coalesce-window-ms:0}") long windowMs) {
+		this.todoJpaService = todoJpaService;
+		this.windowMs = windowMs;
+		this.burstSizes = DistributionSummary.builder("todo.update.burst.size")
+				.description("Update requests merged into one write of a todo").register(meterRegistry);
+		this.requests = Counter.builder("todo.update.requests")
+				.description("Update requests handed to the update coalescer").register(meterRegistry);
+	}
+
+	/*
+	 * Applies the patch to the todo together with the other updates of the burst and
+	 * returns the todo as it was written, an empty Optional when there is no such todo.
+	 * An exception of the write is thrown to every request of the burst.
+	 */
+	public Optional<Todo> update(String username, long id, TodoPatch patch) {
+		requests.increment();
+		String key = username + "/" + id;
+		Waiter waiter = new Waiter(patch);
+
+		bursts.compute(key, (k, burst) -> {
+			Burst current = burst == null ? new Burst() : burst;
+			current.waiting.add(waiter);
+			if (!current.writing) {
+				current.writing = true;
+				waiter.turn.complete(Boolean.TRUE);
+			}
+			return current;
+		});
+
+		// TRUE when it is the turn of this request to write, FALSE when another one has
+		if (waiter.turn.join()) {
+			write(key, username, id);
+		}
+		if (waiter.failure instanceof Error) {
+			throw (Error) waiter.failure;
+		}
+		if (waiter.failure != null) {
+			throw (RuntimeException) waiter.failure;
+		}
+		return waiter.result;
+	}
+
+	/*
+	 * Writes the waiting updates as one patch. The waiters of the group and the next
+	 * writer are released in the finally block, whatever the write throws, so no request
+	 * of the burst is left waiting.
+	 */
+	private void write(String key, String username, long id) {
+		if (windowMs > 0) {
+			try {
+				Thread.sleep(windowMs);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+
+		List<Waiter> group = new ArrayList<>();
+		bursts.computeIfPresent(key, (k, burst) -> {
+			group.addAll(burst.waiting);
+			burst.waiting.clear();
+			return burst;
+		});
+
+		TodoPatch merged = group.get(0).patch;
+		for (int i = 1; i < group.size(); i++) {
+			merged = merged.then(group.get(i).patch);
+		}
+		burstSizes.record(group.size());
+
+		Optional<Todo> result = Optional.empty();
+		Throwable failure = null;
+		try {
+			result = todoJpaService.patch(username, id, merged, null);
+		} catch (RuntimeException | Error e) {
+			failure = e;
+		} finally {
+			for (Waiter waiter : group) {
+				waiter.result = result;
+				waiter.failure = failure;
+			}
+
+			// The oldest update that arrived during the write writes the next group
+			List<Waiter> next = new ArrayList<>(1);
+			bursts.computeIfPresent(key, (k, burst) -> {
+				if (burst.waiting.isEmpty()) {
+					return null;
+				}
+				next.add(burst.waiting.get(0));
+				return burst;
+			});
+
+			for (Waiter waiter : group) {
+				waiter.turn.complete(Boolean.FALSE);
+			}
+			if (!next.isEmpty()) {
+				next.get(0).turn.complete(Boolean.TRUE);
+			}
+		}
+	}
+
+	/*
+	 * The number of updates of the todo that wait for the current write to finish.
+	 */
+	int getWaitingCount(String username, long id) {
+		int[] count = new int[1];
+		bursts.computeIfPresent(username + "/" + id, (k, burst) -> {
+			count[0] = burst.waiting.size();
+			return burst;
+		});
+		return count[0];
+	}
+
+	/*
+	 * The updates of one todo that wait for a write, writing is true while one of the
+	 * requests writes. Only changed inside compute() of the bursts map.
+	 */
+	private static class Burst {
+
+		private final List<Waiter> waiting = new ArrayList<>();
+		private boolean writing;
+
+	}
+
+	/*
+	 * One update request, the result and failure fields are set before turn completes.
+	 */
+	private static class Waiter {
+
+		private final TodoPatch patch;
+		private final CompletableFuture<Boolean> turn = new CompletableFuture<>();
+		private Optional<Todo> result;
+		private Throwable failure;
+
+		private Waiter(TodoPatch patch) {
+			this.patch = patch;
+		}
+
+	}
+
+}
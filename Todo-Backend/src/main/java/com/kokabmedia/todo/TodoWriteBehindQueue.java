@@ -0,0 +1,534 @@
+package com.kokabmedia.todo;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.stream.Collectors;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.kokabmedia.shard.ShardRouter;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+
+/*
+ * This class is the write-behind path of the todo creates and updates of TodoJpaResource,
+ * switched on with todo.write-behind.enabled and used for the requests that ask for it
+ * with the header "Prefer: respond-async".
+ *
+ * An accepted change is kept in memory and answered right away with a TodoWriteTicket, a
+ * background thread writes the pending changes of all users with one transaction per
+ * batch and shard (see TodoWriteBehindWriter) instead of one transaction and one commit per
+ * request. The writer waits up to todo.write-behind.flush-interval-ms after the first
+ * pending change so that more changes go into the batch, a batch holds at most
+ * todo.write-behind.batch-size todos.
+ *
+ * The pending changes are kept per todo id, a change of a todo that is still waiting is
+ * merged into the pending write (coalesced) so the todo is written once. At most
+ * todo.write-behind.capacity todos wait or are being written at a time, a change of
+ * another todo is then
+ * rejected with RejectedExecutionException and the client is told to retry later
+ * (backpressure). A create gets its id from the todo_seq sequence when it is accepted,
+ * a block of ids at a time like TodoIdGenerator, so the client knows it at once.
+ *
+ * Until the change is committed the todo and todo list lookups of TodoJpaResource see it
+ * through find() and overlay(). A synchronous change or delete of the todo waits until
+ * the queued change has been written (see awaitWritten() and discard()), so the older
+ * queued values are never written over it. The changes that have not been written are lost if the
+ * application stops without shutting down, on a normal shutdown they are written first.
+ *
+ * The metrics are todo.write.behind.pending (todos waiting or being written),
+ * todo.write.behind.changes with the tag result (queued, coalesced or rejected),
+ * todo.write.behind.batch.size and the todo.write.behind.flush timer.
+ */
+@Component
+public class TodoWriteBehindQueue implements DisposableBean {
+
+	private static final String NEXT_ID_BLOCK_SQL = "select next value for " + TodoIdGenerator.SEQUENCE_NAME;
+	private static final long WRITE_WAIT_SECONDS = 30;
+
+	private final Logger logger = LoggerFactory.getLogger(this.getClass());
+
+	private final TodoWriteBehindWriter writer;
+	private final TodoCollectionVersions todoCollectionVersions;
+	private final JdbcTemplate jdbcTemplate;
+	private final ShardRouter shardRouter;
+	private final boolean enabled;
+	private final int capacity;
+	private final int batchSize;
+	private final long flushIntervalNanos;
+	private final long retryAfterSeconds;
+	private final int idAllocationSize;
+
+	private final ReentrantLock lock = new ReentrantLock();
+	private final Condition changed = lock.newCondition();
+	private final Condition flushed = lock.newCondition();
+	private final LinkedHashMap<Long, TodoPendingWrite> pending = new LinkedHashMap<>();
+	private final Map<Long, TodoPendingWrite> inFlight = new HashMap<>();
+	private final Cache<String, TodoWriteTicket> tickets;
+	private final Thread writerThread;
+	private volatile boolean running = true;
+
+	private final Object idLock = new Object();
+	// The next id and the end of the id block of every shard
+	private final Map<Integer, long[]> idBlocks = new HashMap<>();
+
+	private final Counter queued;
+	private final Counter coalesced;
+	private final Counter rejected;
+	private final DistributionSummary batchSizes;
+	private final Timer flushTimer;
+
+	public TodoWriteBehindQueue(TodoWriteBehindWriter writer, TodoCollectionVersions todoCollectionVersions,
+			JdbcTemplate jdbcTemplate, ShardRouter shardRouter, MeterRegistry meterRegistry,
+			@Value("${todo.write-behind.enabled:false}") boolean enabled,
+			@Value("${todo.write-behind.capacity:10000}") int capacity,
+			@Value("${todo.write-behind.batch-size:500}") int batchSize,
+			@Value("${todo.write-behind.flush-interval-ms:50}") long flushIntervalMs,
+			@Value("${todo.write-behind.retry-after-seconds:1}") long retryAfterSeconds,
+			@Value("${todo.write-behind.ticket-ttl-seconds:600}") long ticketTtlSeconds,
+			@Value("${spring.jpa.properties." + TodoIdGenerator.ALLOCATION_SIZE_SETTING + ":"
+					+ TodoIdGenerator.DEFAULT_ALLOCATION_SIZE + "}") int idAllocationSize) {
+		this.writer = writer;
+		this.todoCollectionVersions = todoCollectionVersions;
+		this.jdbcTemplate = jdbcTemplate;
+		this.shardRouter = shardRouter;
+		this.enabled = enabled;
+		this.capacity = capacity;
+		this.batchSize = batchSize;
+		this.flushIntervalNanos = TimeUnit.MILLISECONDS.toNanos(flushIntervalMs);
+		this.retryAfterSeconds = retryAfterSeconds;
+		this.idAllocationSize = idAllocationSize;
+		this.tickets = Caffeine.newBuilder().expireAfterWrite(ticketTtlSeconds, TimeUnit.SECONDS).build();
+
+		this.queued = changes(meterRegistry, "queued");
+		this.coalesced = changes(meterRegistry, "coalesced");
+		this.rejected = changes(meterRegistry, "rejected");
+		this.batchSizes = DistributionSummary.builder("todo.write.behind.batch.size")
+				.description("Todos written per write-behind transaction").register(meterRegistry);
+		this.flushTimer = Timer.builder("todo.write.behind.flush").description("Time of a write-behind transaction")
+				.register(meterRegistry);
+		Gauge.builder("todo.write.behind.pending", this, TodoWriteBehindQueue::size)
+				.description("Todos waiting to be written or being written").register(meterRegistry);
+
+		this.writerThread = new Thread(this::run, "todo-write-behind");
+		this.writerThread.setDaemon(true);
+		if (enabled) {
+			this.writerThread.start();
+		}
+	}
+
+	private static Counter changes(MeterRegistry meterRegistry, String result) {
+		return Counter.builder("todo.write.behind.changes").tag("result", result)
+				.description("Todo changes offered to the write-behind queue").register(meterRegistry);
+	}
+
+	public boolean isEnabled() {
+		return enabled;
+	}
+
+	public long getRetryAfterSeconds() {
+		return retryAfterSeconds;
+	}
+
+	/*
+	 * Accepts a new todo of the user, throws RejectedExecutionException when the queue
+	 * is full.
+	 */
+	public TodoWriteTicket create(String username, Todo todo) {
+		// Taken before the lock, the sequence query of a new block of ids must not hold up the queue
+		long id = nextId(username);
+		lock.lock();
+		try {
+			checkCapacity();
+			Todo created = new Todo(id, username, todo.getDescription(), todo.getTargetDate(), todo.isDone());
+			TodoWriteTicket ticket = new TodoWriteTicket(username, created.getId());
+			TodoPendingWrite write = new TodoPendingWrite(TodoPendingWrite.Type.CREATE, created);
+			write.apply(todo, ticket);
+			return accept(write, ticket);
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/*
+	 * Accepts new values for a todo, current is the todo as the client sees it, stored or
+	 * pending (see find()). The todo is only written when its stored version is still the
+	 * version of current, otherwise the write fails with CONFLICT. Throws
+	 * RejectedExecutionException when the queue is full.
+	 */
+	public TodoWriteTicket update(Todo current, Todo changes) {
+		lock.lock();
+		try {
+			TodoWriteTicket ticket = new TodoWriteTicket(current.getUsername(), current.getId());
+			TodoPendingWrite write = pending.get(current.getId());
+			if (write != null) {
+				write.apply(changes, ticket);
+				coalesced.increment();
+				tickets.put(ticket.getTicket(), ticket);
+				todoCollectionVersions.touch(current.getUsername());
+				return ticket;
+			}
+
+			checkCapacity();
+			write = new TodoPendingWrite(TodoPendingWrite.Type.UPDATE, TodoChangedEvent.copyOf(current));
+			write.apply(changes, ticket);
+			return accept(write, ticket);
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	private void checkCapacity() {
+		if (pending.size() + inFlight.size() >= capacity) {
+			rejected.increment();
+			throw new RejectedExecutionException("The todo write-behind queue is full");
+		}
+	}
+
+	private TodoWriteTicket accept(TodoPendingWrite write, TodoWriteTicket ticket) {
+		pending.put(write.getTodo().getId(), write);
+		queued.increment();
+		tickets.put(ticket.getTicket(), ticket);
+		// The todo list of the user has changed for the readers, its ETag has to change too
+		todoCollectionVersions.touch(write.getTodo().getUsername());
+		changed.signal();
+		return ticket;
+	}
+
+	/*
+	 * Drops the pending change of a todo of the user that is deleted, its tickets fail
+	 * with the error DELETED. Returns true when the todo only existed as a pending create,
+	 * the caller then has nothing to delete in the database.
+	 *
+	 * A write of the todo that is in flight cannot be dropped any more, this method waits
+	 * until it is committed so the caller deletes the written todo afterwards. Throws
+	 * RejectedExecutionException when the write takes longer than WRITE_WAIT_SECONDS.
+	 */
+	public boolean discard(String username, long id) {
+		lock.lock();
+		try {
+			await(username, id, false);
+
+			TodoPendingWrite write = pending.get(id);
+			if (!belongsTo(write, username)) {
+				return false;
+			}
+			pending.remove(id);
+			for (TodoWriteTicket ticket : write.getTickets()) {
+				ticket.failed("DELETED");
+			}
+			todoCollectionVersions.touch(username);
+			return write.getType() == TodoPendingWrite.Type.CREATE;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RejectedExecutionException("Interrupted while the todo " + id + " is being written", e);
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/*
+	 * Waits until no change of the todo of the user is waiting or being written, before
+	 * a synchronous update of the todo. Otherwise the writer would write the older values
+	 * of the queued change over the update, and a todo that only exists as a pending
+	 * create could not be updated. Throws RejectedExecutionException when the write takes
+	 * longer than WRITE_WAIT_SECONDS.
+	 */
+	public void awaitWritten(String username, long id) {
+		if (!enabled) {
+			return;
+		}
+		lock.lock();
+		try {
+			await(username, id, true);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RejectedExecutionException("Interrupted while the todo " + id + " is being written", e);
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	// Waits while the todo is in flight, with waitForPending also while it is pending
+	private void await(String username, long id, boolean waitForPending) throws InterruptedException {
+		long remaining = TimeUnit.SECONDS.toNanos(WRITE_WAIT_SECONDS);
+		while (belongsTo(inFlight.get(id), username) || (waitForPending && belongsTo(pending.get(id), username))) {
+			if (remaining <= 0) {
+				throw new RejectedExecutionException("The todo " + id + " is still being written");
+			}
+			remaining = flushed.awaitNanos(remaining);
+		}
+	}
+
+	private static boolean belongsTo(TodoPendingWrite write, String username) {
+		return write != null && write.getTodo().getUsername().equals(username);
+	}
+
+	public Optional<TodoWriteTicket> findTicket(String ticket) {
+		return Optional.ofNullable(tickets.getIfPresent(ticket));
+	}
+
+	/*
+	 * A copy of the pending change of the todo, the latest one when the todo is both
+	 * being written and changed again. Always empty when the write-behind is off.
+	 */
+	public Optional<TodoPendingWrite> find(long id) {
+		if (!enabled) {
+			return Optional.empty();
+		}
+		lock.lock();
+		try {
+			TodoPendingWrite write = pending.get(id);
+			if (write == null) {
+				write = inFlight.get(id);
+			}
+			return write == null ? Optional.empty() : Optional.of(write.snapshot());
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/*
+	 * The todo list of the user with the pending changes applied, the pending creates at
+	 * the end of the list. The stored list is returned as it is when nothing is pending.
+	 */
+	public List<Todo> overlay(String username, List<Todo> stored) {
+		if (!enabled) {
+			return stored;
+		}
+		lock.lock();
+		try {
+			if (pending.isEmpty() && inFlight.isEmpty()) {
+				return stored;
+			}
+
+			Map<Long, Todo> changes = new LinkedHashMap<>();
+			for (TodoPendingWrite write : inFlight.values()) {
+				if (write.getTodo().getUsername().equals(username)) {
+					changes.put(write.getTodo().getId(), TodoChangedEvent.copyOf(write.getTodo()));
+				}
+			}
+			for (TodoPendingWrite write : pending.values()) {
+				if (write.getTodo().getUsername().equals(username)) {
+					changes.put(write.getTodo().getId(), TodoChangedEvent.copyOf(write.getTodo()));
+				}
+			}
+			if (changes.isEmpty()) {
+				return stored;
+			}
+
+			List<Todo> todos = new ArrayList<>(stored.size() + changes.size());
+			for (Todo todo : stored) {
+				Todo changed = changes.remove(todo.getId());
+				todos.add(changed == null ? todo : changed);
+			}
+			todos.addAll(changes.values());
+			return Collections.unmodifiableList(todos);
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	private int size() {
+		lock.lock();
+		try {
+			return pending.size() + inFlight.size();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/*
+	 * Ids are handed out like the pooled-lo optimizer of TodoIdGenerator does, the value
+	 * of the sequence is the first id of a block of idAllocationSize ids. With sharding
+	 * the id is taken from the sequence of the shard of the user.
+	 */
+	private long nextId(String username) {
+		int shard = shardRouter.shardOf(username);
+		synchronized (idLock) {
+			long[] block = idBlocks.computeIfAbsent(shard, key -> new long[2]);
+			if (block[0] >= block[1]) {
+				long first = shardRouter.callOnShard(shard,
+						() -> jdbcTemplate.queryForObject(NEXT_ID_BLOCK_SQL, Long.class));
+				block[0] = first;
+				block[1] = first + idAllocationSize;
+			}
+			return block[0]++;
+		}
+	}
+
+	private void run() {
+		while (running) {
+			try {
+				List<TodoPendingWrite> batch = takeBatch();
+				if (!batch.isEmpty()) {
+					flush(batch);
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return;
+			} catch (RuntimeException e) {
+				logger.error("The todo write-behind writer failed", e);
+			}
+		}
+	}
+
+	/*
+	 * Waits for a pending change, then up to the flush interval for more changes unless
+	 * a full batch is waiting, and moves the oldest changes to inFlight.
+	 */
+	private List<TodoPendingWrite> takeBatch() throws InterruptedException {
+		lock.lock();
+		try {
+			while (running && pending.isEmpty()) {
+				changed.await();
+			}
+			long deadline = System.nanoTime() + flushIntervalNanos;
+			long remaining = flushIntervalNanos;
+			while (running && pending.size() < batchSize && remaining > 0) {
+				changed.awaitNanos(remaining);
+				remaining = deadline - System.nanoTime();
+			}
+			return drain(batchSize);
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	private List<TodoPendingWrite> drain(int maximum) {
+		List<TodoPendingWrite> batch = new ArrayList<>(Math.min(maximum, pending.size()));
+		Iterator<TodoPendingWrite> writes = pending.values().iterator();
+		while (writes.hasNext() && batch.size() < maximum) {
+			TodoPendingWrite write = writes.next();
+			writes.remove();
+			inFlight.put(write.getTodo().getId(), write);
+			batch.add(write);
+		}
+		return batch;
+	}
+
+	/*
+	 * Writes the batch in one transaction, with sharding one transaction per shard that
+	 * holds the locks of the users of the batch, so no user of the batch is moved to
+	 * another shard while its todos and change sequence are written. When that fails, for
+	 * example because a todo of the batch was changed by a synchronous request at the same
+	 * time, every change is written in a transaction of its own so only the failing ones
+	 * are lost.
+	 *
+	 * The todos leave inFlight and their tickets complete whatever happens, a change that
+	 * has not been written because the flush failed outside of the writer (for example
+	 * when no transaction could be started) fails with WRITE_FAILED.
+	 */
+	private void flush(List<TodoPendingWrite> batch) {
+		try {
+			Map<Integer, List<TodoPendingWrite>> shards = batch.stream()
+					.collect(Collectors.groupingBy(write -> shardRouter.shardOf(write.getTodo().getUsername())));
+			// The moves of the users wait for the transaction (see ShardRouter)
+			shards.forEach((shard, writes) -> shardRouter.callOnShardForUsers(shard,
+					writes.stream().map(write -> write.getTodo().getUsername()).collect(Collectors.toSet()), () -> {
+						flushShard(writes);
+						return null;
+					}));
+		} finally {
+			completeFlush(batch);
+		}
+	}
+
+	private void completeFlush(List<TodoPendingWrite> batch) {
+		lock.lock();
+		try {
+			for (TodoPendingWrite write : batch) {
+				inFlight.remove(write.getTodo().getId());
+				if (write.getError() == null && write.getWrittenVersion() == null) {
+					write.setError("WRITE_FAILED");
+				}
+				for (TodoWriteTicket ticket : write.getTickets()) {
+					if (write.getError() == null) {
+						ticket.written();
+					} else {
+						ticket.failed(write.getError());
+					}
+				}
+				// A change accepted while the todo was being written was based on this write
+				TodoPendingWrite next = pending.get(write.getTodo().getId());
+				if (next != null && write.getWrittenVersion() != null) {
+					next.getTodo().setVersion(write.getWrittenVersion());
+				}
+			}
+			flushed.signalAll();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	private void flushShard(List<TodoPendingWrite> batch) {
+		batchSizes.record(batch.size());
+		try {
+			flushTimer.record(() -> writer.write(batch));
+		} catch (RuntimeException e) {
+			logger.warn("WRITE_BEHIND_BATCH_FAILED {} todos, writing them one at a time: {}", batch.size(),
+					e.toString());
+			for (TodoPendingWrite write : batch) {
+				// The versions of the rolled back batch were never committed
+				write.setError(null);
+				write.setWrittenVersion(null);
+				try {
+					writer.write(Collections.singletonList(write));
+				} catch (RuntimeException writeFailure) {
+					logger.warn("WRITE_BEHIND_FAILED todo {}: {}", write.getTodo().getId(), writeFailure.toString());
+					write.setError("WRITE_FAILED");
+				}
+			}
+		}
+	}
+
+	/*
+	 * Stops the writer and writes what is still pending.
+	 */
+	@Override
+	public void destroy() throws InterruptedException {
+		lock.lock();
+		try {
+			running = false;
+			changed.signalAll();
+		} finally {
+			lock.unlock();
+		}
+		writerThread.join(TimeUnit.SECONDS.toMillis(30));
+
+		List<TodoPendingWrite> batch;
+		do {
+			lock.lock();
+			try {
+				batch = drain(batchSize);
+			} finally {
+				lock.unlock();
+			}
+			if (!batch.isEmpty()) {
+				flush(batch);
+			}
+		} while (!batch.isEmpty());
+	}
+
+}
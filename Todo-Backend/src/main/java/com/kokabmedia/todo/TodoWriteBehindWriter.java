@@ -0,0 +1,120 @@
+package com.kokabmedia.todo;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+/*
+ * This class writes a batch of pending todo creates and updates of the
+ * TodoWriteBehindQueue in one database transaction, whatever users they belong to.
+ *
+ * The todos to update are loaded with one query and the change sequence is reserved once
+ * per user, Hibernate sends the inserts and updates as JDBC batches and the whole batch
+ * costs a single commit. A pending update of a todo that has been deleted since it was
+ * accepted gets the error TODO_NOT_FOUND and is skipped, a pending update of a todo that
+ * has been changed by another request since it was accepted gets the error CONFLICT, its
+ * older values must not overwrite that change.
+ *
+ * Like TodoBatchService a TodoChangedEvent is published for every written todo once the
+ * changes are flushed, the listeners run after the commit.
+ *
+ * The @Service annotation lets the Spring framework manage class as a Spring bean and
+ * the @Transactional annotation makes the Spring framework run every public method in
+ * a database transaction.
+ */
+@Service
+@Transactional
+public class TodoWriteBehindWriter {
+
+	@Autowired
+	private TodoJpaRepository todoJpaRepository;
+
+	@Autowired
+	private TodoChangeSequencer todoChangeSequencer;
+
+	@Autowired
+	private ApplicationEventPublisher eventPublisher;
+
+	public void write(List<TodoPendingWrite> writes) {
+		Set<Long> ids = new HashSet<>();
+		for (TodoPendingWrite write : writes) {
+			if (write.getType() == TodoPendingWrite.Type.UPDATE) {
+				ids.add(write.getTodo().getId());
+			}
+		}
+
+		Map<Long, Todo> existing = new HashMap<>();
+		for (Todo todo : todoJpaRepository.findAllById(ids)) {
+			if (!todo.isDeleted()) {
+				existing.put(todo.getId(), todo);
+			}
+		}
+
+		List<TodoPendingWrite> valid = new ArrayList<>(writes.size());
+		Map<String, Integer> changesPerUser = new HashMap<>();
+		for (TodoPendingWrite write : writes) {
+			Todo pending = write.getTodo();
+			if (write.getType() == TodoPendingWrite.Type.UPDATE) {
+				Todo stored = existing.get(pending.getId());
+				if (stored == null || !stored.getUsername().equals(pending.getUsername())) {
+					write.setError("TODO_NOT_FOUND");
+					continue;
+				}
+				if (!stored.getVersion().equals(pending.getVersion())) {
+					write.setError("CONFLICT");
+					continue;
+				}
+			}
+			valid.add(write);
+			changesPerUser.merge(pending.getUsername(), 1, Integer::sum);
+		}
+
+		// Reserved before the todos are saved, so the inserts already carry their change sequence
+		Map<String, Long> nextChangeSeq = new HashMap<>();
+		for (Map.Entry<String, Integer> user : changesPerUser.entrySet()) {
+			nextChangeSeq.put(user.getKey(), todoChangeSequencer.reserve(user.getKey(), user.getValue()));
+		}
+
+		List<TodoChangedEvent.Type> changes = new ArrayList<>(valid.size());
+		List<Todo> changedTodos = new ArrayList<>(valid.size());
+		for (TodoPendingWrite write : valid) {
+			Todo pending = write.getTodo();
+			long changeSeq = nextChangeSeq.merge(pending.getUsername(), 1L, Long::sum) - 1;
+			Todo todo;
+			if (write.getType() == TodoPendingWrite.Type.CREATE) {
+				// The id was handed out when the create was accepted (see TodoIdGenerator)
+				todo = new Todo(pending.getId(), pending.getUsername(), pending.getDescription(),
+						pending.getTargetDate(), pending.isDone());
+				todo.markIdReserved();
+				todo.setChangeSeq(changeSeq);
+				todoJpaRepository.save(todo);
+				changes.add(TodoChangedEvent.Type.CREATED);
+			} else {
+				todo = existing.get(pending.getId());
+				todo.setDescription(pending.getDescription());
+				todo.setTargetDate(pending.getTargetDate());
+				todo.setDone(pending.isDone());
+				todo.setChangeSeq(changeSeq);
+				changes.add(TodoChangedEvent.Type.UPDATED);
+			}
+			changedTodos.add(todo);
+		}
+
+		// Writes the JDBC batches now so the events carry the incremented versions
+		todoJpaRepository.flush();
+		for (int i = 0; i < changes.size(); i++) {
+			Todo todo = changedTodos.get(i);
+			valid.get(i).setWrittenVersion(todo.getVersion());
+			eventPublisher.publishEvent(new TodoChangedEvent(changes.get(i), todo.getUsername(), todo.getId(), todo));
+		}
+	}
+
+}
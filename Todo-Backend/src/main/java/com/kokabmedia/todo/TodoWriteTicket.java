@@ -0,0 +1,74 @@
+package com.kokabmedia.todo;
+
+import java.util.UUID;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonInclude;
+
+/*
+ * Model class for the ticket of a todo create or update that has been accepted by the
+ * TodoWriteBehindQueue, the response body of the 202 Accepted response and of the
+ * ticket requests of TodoJpaResource.
+ *
+ * A ticket is PENDING until the background writer has committed the change, then it is
+ * WRITTEN, or FAILED with an error like TODO_NOT_FOUND when the todo was deleted in the
+ * meantime or CONFLICT when it was changed by another request after the update was
+ * accepted. Changes of the same todo that were coalesced into one write complete
+ * together.
+ *
+ * The @JsonInclude annotation leaves the error out of the JSON as long as there is none.
+ */
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class TodoWriteTicket {
+
+	public enum Status {
+		PENDING, WRITTEN, FAILED
+	}
+
+	private final String ticket = UUID.randomUUID().toString();
+	private final String username;
+	private final long todoId;
+	private volatile Status status = Status.PENDING;
+	private volatile String error;
+
+	public TodoWriteTicket(String username, long todoId) {
+		this.username = username;
+		this.todoId = todoId;
+	}
+
+	void written() {
+		status = Status.WRITTEN;
+	}
+
+	void failed(String error) {
+		this.error = error;
+		status = Status.FAILED;
+	}
+
+	public String getTicket() {
+		return ticket;
+	}
+
+	@JsonIgnore
+	public String getUsername() {
+		return username;
+	}
+
+	public long getTodoId() {
+		return todoId;
+	}
+
+	public Status getStatus() {
+		return status;
+	}
+
+	public String getError() {
+		return error;
+	}
+
+	@Override
+	public String toString() {
+		return String.format("TodoWriteTicket [ticket=%s, todoId=%s, status=%s]", ticket, todoId, status);
+	}
+
+}
@@ -1,8 +1,14 @@
-insert into todo(id, username,description,target_date,is_done)
-values(10001, 'kokabmedia', 'Learn JPA', sysdate(), false);
+-- The ids are taken from the todo_seq sequence, every value reserves a whole block of ids
+-- so the seed todos never collide with the ids generated by Hibernate (see TodoIdGenerator)
+insert into todo(id, username,description,target_date,is_done,version,change_seq,deleted)
+values(next value for todo_seq, 'kokabmedia', 'Learn JPA', current_timestamp, false, 0, 1, false);
 
-insert into todo(id, username,description,target_date,is_done)
-values(10002, 'kokabmedia', 'Learn Data JPA', sysdate(), false);
+insert into todo(id, username,description,target_date,is_done,version,change_seq,deleted)
+values(next value for todo_seq, 'kokabmedia', 'Learn Data JPA', current_timestamp, false, 0, 2, false);
 
-insert into todo(id, username,description,target_date,is_done)
-values(10003, 'kokabmedia', 'Learn Microservices', sysdate(), false);
\ No newline at end of file
+insert into todo(id, username,description,target_date,is_done,version,change_seq,deleted)
+values(next value for todo_seq, 'kokabmedia', 'Learn Microservices', current_timestamp, false, 0, 3, false);
+
+-- The change sequence of the seed todos (see TodoChangeSequencer)
+insert into todo_change_sequence(username,last_seq,compacted_through_seq)
+values('kokabmedia', 3, 0);
\ No newline at end of file
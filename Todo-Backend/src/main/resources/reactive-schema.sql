@@ -0,0 +1,28 @@
+-- The todo tables of the reactive application (see ReactiveTodoApplication), the same
+-- tables Hibernate creates from the Todo and TodoChangeSequence entities for the servlet
+-- application. The sequence is incremented by the id allocation size of
+-- spring.jpa.properties.todo.id.allocation_size (see TodoIdGenerator)
+create sequence if not exists todo_seq start with 1 increment by 50;
+
+create table if not exists todo (
+	id bigint not null,
+	change_seq bigint not null,
+	deleted boolean not null,
+	deleted_at timestamp,
+	description varchar(255),
+	is_done boolean not null,
+	target_date timestamp,
+	username varchar(255),
+	version bigint,
+	primary key (id)
+);
+
+create index if not exists idx_todo_username_target_date_id on todo (username, target_date, id);
+create index if not exists idx_todo_username_change_seq on todo (username, change_seq);
+
+create table if not exists todo_change_sequence (
+	username varchar(255) not null,
+	compacted_through_seq bigint not null,
+	last_seq bigint not null,
+	primary key (username)
+);
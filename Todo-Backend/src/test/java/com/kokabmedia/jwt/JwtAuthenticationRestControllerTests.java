@@ -0,0 +1,168 @@
+package com.kokabmedia.jwt;
+
+import static org.hamcrest.Matchers.notNullValue;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.asyncDispatch;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.request;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.security.crypto.bcrypt.BCryptPasswordEncoder;
+import org.springframework.security.crypto.password.PasswordEncoder;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+@SpringBootTest(properties = { "jwt.password.bcrypt-strength=11", "jwt.password.threads=1",
+		"jwt.password.queue-capacity=0" })
+@AutoConfigureMockMvc
+class JwtAuthenticationRestControllerTests {
+
+	private static final String TOKEN_REQUEST = "{\"username\":\"%s\",\"password\":\"%s\"}";
+
+	@Autowired
+	private MockMvc mockMvc;
+
+	@Autowired
+	private PasswordCheckExecutor passwordCheckExecutor;
+
+	@Autowired
+	private JwtInMemoryUserDetailsService jwtInMemoryUserDetailsService;
+
+	@Autowired
+	private JwtTokenUtil jwtTokenUtil;
+
+	@Test
+	void tokenRequestRehashesPasswordWithLowerWorkFactor() throws Exception {
+		assertTrue(jwtInMemoryUserDetailsService.loadUserByUsername("kokabmedia").getPassword().startsWith("$2a$10$"));
+
+		MvcResult result = mockMvc.perform(post("/authenticate").contentType(MediaType.APPLICATION_JSON)
+				.content(String.format(TOKEN_REQUEST, "kokabmedia", "dummy"))).andExpect(request().asyncStarted())
+				.andReturn();
+		mockMvc.perform(asyncDispatch(result)).andExpect(status().isOk()).andExpect(jsonPath("$.token", notNullValue()));
+
+		assertTrue(jwtInMemoryUserDetailsService.loadUserByUsername("kokabmedia").getPassword().startsWith("$2a$11$"));
+
+		// The new hash still accepts the same password
+		result = mockMvc.perform(post("/authenticate").contentType(MediaType.APPLICATION_JSON)
+				.content(String.format(TOKEN_REQUEST, "kokabmedia", "dummy"))).andReturn();
+		mockMvc.perform(asyncDispatch(result)).andExpect(status().isOk());
+	}
+
+	@Test
+	void streamTokenOnlyOpensTheTodoStreamOfItsUser() throws Exception {
+		String bearer = "Bearer " + jwtTokenUtil.generateToken(jwtInMemoryUserDetailsService.loadUserByUsername("ranga"));
+		String body = mockMvc.perform(post("/stream-token").header(HttpHeaders.AUTHORIZATION, bearer))
+				.andExpect(status().isOk()).andReturn().getResponse().getContentAsString();
+		String streamToken = body.replaceAll(".*\"token\":\"([^\"]+)\".*", "$1");
+
+		mockMvc.perform(get("/jpa/users/ranga/todos/stream").param("streamToken", streamToken))
+				.andExpect(request().asyncStarted());
+
+		// Not for the stream of another user, not for other requests and not as a bearer token
+		mockMvc.perform(get("/jpa/users/kokabmedia/todos/stream").param("streamToken", streamToken))
+				.andExpect(status().isUnauthorized());
+		mockMvc.perform(get("/jpa/users/ranga/todos").param("streamToken", streamToken))
+				.andExpect(status().isUnauthorized());
+		mockMvc.perform(get("/jpa/users/ranga/todos").header(HttpHeaders.AUTHORIZATION, "Bearer " + streamToken))
+				.andExpect(status().isUnauthorized());
+		mockMvc.perform(post("/stream-token")).andExpect(status().isUnauthorized());
+	}
+
+	@Test
+	void tokenRequestIsTurnedAwayWhenPasswordChecksAreSaturated() throws Exception {
+		CountDownLatch release = new CountDownLatch(1);
+		CompletableFuture<Boolean> blocking = passwordCheckExecutor.submit(() -> awaitQuietly(release));
+		try {
+			MvcResult result = mockMvc.perform(post("/authenticate").contentType(MediaType.APPLICATION_JSON)
+					.content(String.format(TOKEN_REQUEST, "kokabmedia", "dummy"))).andReturn();
+			mockMvc.perform(asyncDispatch(result)).andExpect(status().isServiceUnavailable())
+					.andExpect(header().string(HttpHeaders.RETRY_AFTER, "1"));
+		} finally {
+			release.countDown();
+			blocking.join();
+		}
+	}
+
+	@Test
+	void executorRejectsChecksBeyondItsQueue() {
+		SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+		PasswordCheckExecutor executor = new PasswordCheckExecutor(meterRegistry, 1, 1, 2);
+		CountDownLatch release = new CountDownLatch(1);
+		try {
+			CompletableFuture<Boolean> running = executor.submit(() -> awaitQuietly(release));
+			CompletableFuture<Boolean> queued = executor.submit(() -> true);
+
+			assertThrows(RejectedExecutionException.class, () -> executor.submit(() -> true));
+			assertEquals(1.0, meterRegistry.get("jwt.password.check.rejected").counter().count());
+
+			release.countDown();
+			assertTrue(running.join());
+			assertTrue(queued.join());
+		} finally {
+			executor.destroy();
+		}
+	}
+
+	@Test
+	void cachingPasswordEncoderSkipsDelegateForVerifiedPasswords() {
+		AtomicInteger checks = new AtomicInteger();
+		BCryptPasswordEncoder bcrypt = new BCryptPasswordEncoder(4);
+		PasswordEncoder counting = new PasswordEncoder() {
+			@Override
+			public String encode(CharSequence rawPassword) {
+				return bcrypt.encode(rawPassword);
+			}
+
+			@Override
+			public boolean matches(CharSequence rawPassword, String encodedPassword) {
+				checks.incrementAndGet();
+				return bcrypt.matches(rawPassword, encodedPassword);
+			}
+		};
+		CachingPasswordEncoder encoder = new CachingPasswordEncoder(counting, 60, 100);
+		String hash = encoder.encode("secret");
+
+		assertTrue(encoder.matches("secret", hash));
+		assertTrue(encoder.matches("secret", hash));
+		assertEquals(1, checks.get());
+
+		// Wrong passwords are never cached
+		assertFalse(encoder.matches("wrong", hash));
+		assertFalse(encoder.matches("wrong", hash));
+		assertEquals(3, checks.get());
+
+		// A new hash of the same password is checked again
+		assertTrue(encoder.matches("secret", encoder.encode("secret")));
+		assertEquals(4, checks.get());
+	}
+
+	private static boolean awaitQuietly(CountDownLatch latch) {
+		try {
+			latch.await();
+			return true;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return false;
+		}
+	}
+
+}
@@ -0,0 +1,94 @@
+package com.kokabmedia.jwt;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.core.io.DefaultResourceLoader;
+import org.springframework.security.core.userdetails.UsernameNotFoundException;
+import org.springframework.test.util.ReflectionTestUtils;
+
+class JwtInMemoryUserDetailsServiceTests {
+
+	private static final String HASH = "$2a$10$3zHzb.Npv1hfZbLEU5qsdOju/tk2je6W6PnNnY.c1ujWPcZh4PL6e";
+
+	@TempDir
+	Path directory;
+
+	@Test
+	void defaultUsersAreLoadedWithoutUsersFile() throws Exception {
+		JwtInMemoryUserDetailsService service = service("");
+
+		assertEquals(2, service.reload());
+		assertEquals("ROLE_USER_2", service.loadUserByUsername("ranga").getAuthorities().iterator().next()
+				.getAuthority());
+		assertThrows(UsernameNotFoundException.class, () -> service.loadUserByUsername("alice"));
+	}
+
+	@Test
+	void usersFileSkipsCommentsAndEmptyLines() throws Exception {
+		Path file = write("# id,username,password,role", "", "1,alice," + HASH + ",ROLE_USER", " 2 , bob ," + HASH
+				+ ", ROLE_ADMIN ");
+		JwtInMemoryUserDetailsService service = service(file.toUri().toString());
+
+		assertEquals(2, service.reload());
+		assertEquals("bob", service.loadUserByUsername("bob").getUsername());
+		assertThrows(UsernameNotFoundException.class, () -> service.loadUserByUsername("kokabmedia"));
+	}
+
+	@Test
+	void malformedUsersFileKeepsTheLoadedUsers() throws Exception {
+		Path file = write("1,alice," + HASH + ",ROLE_USER");
+		JwtInMemoryUserDetailsService service = service(file.toUri().toString());
+		service.reload();
+
+		Files.write(file, List.of("1,carol," + HASH));
+		assertThrows(IllegalArgumentException.class, service::reload);
+		Files.write(file, List.of("x,carol," + HASH + ",ROLE_USER"));
+		assertThrows(IllegalArgumentException.class, service::reload);
+		Files.write(file, List.of("1,carol," + HASH + ",ROLE_USER", "2,carol," + HASH + ",ROLE_USER"));
+		assertThrows(IllegalArgumentException.class, service::reload);
+
+		assertEquals("alice", service.loadUserByUsername("alice").getUsername());
+		assertThrows(UsernameNotFoundException.class, () -> service.loadUserByUsername("carol"));
+	}
+
+	@Test
+	void changedUsersFileIsReloaded() throws Exception {
+		Path file = write("1,alice," + HASH + ",ROLE_USER");
+		JwtInMemoryUserDetailsService service = service(file.toUri().toString());
+		service.reload();
+
+		service.reloadIfChanged();
+		assertEquals("alice", service.loadUserByUsername("alice").getUsername());
+
+		Files.write(file, List.of("1,alice," + HASH + ",ROLE_USER", "2,bob," + HASH + ",ROLE_USER"));
+		Files.setLastModifiedTime(file, FileTime.fromMillis(Files.getLastModifiedTime(file).toMillis() + 2000));
+		service.reloadIfChanged();
+		assertEquals("bob", service.loadUserByUsername("bob").getUsername());
+
+		// A broken file is logged and the users loaded before stay in place
+		Files.write(file, List.of("not a user line"));
+		Files.setLastModifiedTime(file, FileTime.fromMillis(Files.getLastModifiedTime(file).toMillis() + 4000));
+		service.reloadIfChanged();
+		assertEquals("bob", service.loadUserByUsername("bob").getUsername());
+	}
+
+	private Path write(String... lines) throws Exception {
+		return Files.write(directory.resolve("users.csv"), List.of(lines));
+	}
+
+	private static JwtInMemoryUserDetailsService service(String usersFile) {
+		JwtInMemoryUserDetailsService service = new JwtInMemoryUserDetailsService();
+		ReflectionTestUtils.setField(service, "resourceLoader", new DefaultResourceLoader());
+		ReflectionTestUtils.setField(service, "usersFile", usersFile);
+		return service;
+	}
+
+}
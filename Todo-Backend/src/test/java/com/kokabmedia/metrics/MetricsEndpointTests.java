@@ -0,0 +1,53 @@
+package com.kokabmedia.metrics;
+
+import static org.hamcrest.Matchers.containsString;
+import static org.springframework.security.test.web.servlet.request.SecurityMockMvcRequestPostProcessors.user;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.content;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.actuate.metrics.AutoConfigureMetrics;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.HttpHeaders;
+import org.springframework.security.test.context.support.WithMockUser;
+import org.springframework.test.web.servlet.MockMvc;
+
+@SpringBootTest(properties = "jwt.token.cache.enabled=true")
+@AutoConfigureMockMvc
+@AutoConfigureMetrics
+class MetricsEndpointTests {
+
+	@Autowired
+	private MockMvc mockMvc;
+
+	@Test
+	@WithMockUser
+	void publishesRequestJwtAndHibernateMetrics() throws Exception {
+		mockMvc.perform(get("/jpa/users/kokabmedia/todos")).andExpect(status().isOk());
+		mockMvc.perform(get("/jpa/users/kokabmedia/todos").header(HttpHeaders.AUTHORIZATION, "Bearer not-a-jwt"))
+				.andExpect(status().isOk());
+
+		mockMvc.perform(get("/actuator/prometheus").with(user("prometheus").roles("ADMIN"))).andExpect(status().isOk())
+				.andExpect(content().string(containsString(
+						"http_server_requests_seconds{application=\"todo-backend\",exception=\"None\",method=\"GET\",outcome=\"SUCCESS\",status=\"200\",uri=\"/jpa/users/{username}/todos\",quantile=\"0.99\",}")))
+				.andExpect(content().string(containsString("jwt_authentication_total{application=\"todo-backend\",outcome=\"missing_bearer\",}")))
+				.andExpect(content().string(containsString("jwt_authentication_total{application=\"todo-backend\",outcome=\"malformed\",} 1.0")))
+				.andExpect(content().string(containsString(
+						"http_server_requests_sql_statements_count{application=\"todo-backend\",method=\"GET\",uri=\"/jpa/users/{username}/todos\",}")))
+				.andExpect(content().string(containsString("hibernate_entities_loads_total")))
+				.andExpect(content().string(containsString("cache_gets_total{application=\"todo-backend\",cache=\"todoLists\",result=\"hit\",}")))
+				.andExpect(content().string(containsString("cache_gets_total{application=\"todo-backend\",cache=\"verifiedTokens\",result=\"miss\",} 1.0")))
+				.andExpect(content().string(containsString("security_password_encoder_seconds_count")));
+	}
+
+	@Test
+	void prometheusEndpointNeedsTheAdminRole() throws Exception {
+		mockMvc.perform(get("/actuator/prometheus")).andExpect(status().isUnauthorized());
+		mockMvc.perform(get("/actuator/prometheus").with(user("kokabmedia"))).andExpect(status().isForbidden());
+		mockMvc.perform(get("/actuator/health")).andExpect(status().isOk());
+	}
+
+}
@@ -0,0 +1,59 @@
+package com.kokabmedia.metrics;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.springframework.test.web.servlet.ResultMatcher;
+
+/*
+ * Assertions on the number of SQL statements of a request or a piece of code, for
+ * pinning the query count of the endpoints in the integration tests.
+ *
+ * The ResultMatchers read the X-SQL-Statements header of SqlRequestMetricsFilter, the
+ * test has to enable it with todo.sql.debug-header=true:
+ *
+ *   mockMvc.perform(get("/jpa/users/kokabmedia/todos")).andExpect(SqlStatements.count(1));
+ *
+ * count(Callable) counts the statements of code that runs outside of a request.
+ */
+public final class SqlStatements {
+
+	private SqlStatements() {
+	}
+
+	public static ResultMatcher count(int expected) {
+		return result -> assertEquals(expected, statementsOf(result.getResponse().getHeader(
+				SqlRequestMetricsFilter.STATEMENTS_HEADER)), "SQL statements of " + result.getRequest().getRequestURI());
+	}
+
+	public static ResultMatcher atMost(int max) {
+		return result -> {
+			int statements = statementsOf(result.getResponse().getHeader(SqlRequestMetricsFilter.STATEMENTS_HEADER));
+			assertTrue(statements <= max, "SQL statements of " + result.getRequest().getRequestURI() + ": "
+					+ statements + " > " + max);
+		};
+	}
+
+	public static int count(ThrowingRunnable code) throws Exception {
+		SqlRequestContext context = SqlRequestContext.start();
+		try {
+			code.run();
+		} finally {
+			SqlRequestContext.stop();
+		}
+		return context.getStatements();
+	}
+
+	private static int statementsOf(String header) {
+		assertNotNull(header, "No " + SqlRequestMetricsFilter.STATEMENTS_HEADER
+				+ " header, is todo.sql.debug-header=true set for the test?");
+		return Integer.parseInt(header);
+	}
+
+	@FunctionalInterface
+	public interface ThrowingRunnable {
+		void run() throws Exception;
+	}
+
+}
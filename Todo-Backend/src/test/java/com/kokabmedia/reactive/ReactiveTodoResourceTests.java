@@ -0,0 +1,140 @@
+package com.kokabmedia.reactive;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.net.URI;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.context.SpringBootTest.WebEnvironment;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.web.reactive.server.WebTestClient;
+
+import com.kokabmedia.jwt.resource.JwtTokenRequest;
+import com.kokabmedia.todo.Todo;
+import com.kokabmedia.todo.TodoChanges;
+
+@SpringBootTest(classes = ReactiveTodoApplication.class, webEnvironment = WebEnvironment.RANDOM_PORT,
+		properties = "spring.main.web-application-type=reactive")
+@ActiveProfiles(ReactiveTodoApplication.PROFILE)
+class ReactiveTodoResourceTests {
+
+	private static final String TODO_JSON = "{\"description\":\"%s\",\"targetDate\":\"2021-11-01T00:00:00.000+00:00\",\"done\":false}";
+
+	@Autowired
+	private WebTestClient webTestClient;
+
+	private WebTestClient client;
+
+	@BeforeEach
+	void authenticate() {
+		Map<?, ?> token = webTestClient.post().uri("/authenticate")
+				.bodyValue(new JwtTokenRequest("kokabmedia", "dummy")).exchange().expectStatus().isOk()
+				.expectBody(Map.class).returnResult().getResponseBody();
+		client = webTestClient.mutate().defaultHeader(HttpHeaders.AUTHORIZATION, "Bearer " + token.get("token"))
+				.build();
+	}
+
+	@Test
+	void requestsWithoutAValidTokenAreRejected() {
+		webTestClient.get().uri("/jpa/users/kokabmedia/todos").exchange().expectStatus().isUnauthorized();
+		webTestClient.get().uri("/jpa/users/kokabmedia/todos").header(HttpHeaders.AUTHORIZATION, "Bearer nonsense")
+				.exchange().expectStatus().isUnauthorized();
+		webTestClient.post().uri("/authenticate").bodyValue(new JwtTokenRequest("kokabmedia", "wrong"))
+				.exchange().expectStatus().isUnauthorized();
+	}
+
+	@Test
+	void seedTodosAreServedFromR2dbc() {
+		List<Todo> todos = client.get().uri("/jpa/users/kokabmedia/todos").exchange().expectStatus().isOk()
+				.expectBodyList(Todo.class).returnResult().getResponseBody();
+		assertTrue(todos.stream().anyMatch(todo -> todo.getDescription().equals("Learn JPA")), todos.toString());
+	}
+
+	@Test
+	void todosAreCreatedUpdatedAndDeletedWithETags() {
+		String listETag = client.get().uri("/jpa/users/reactive-user/todos").exchange().expectStatus().isOk()
+				.returnResult(String.class).getResponseHeaders().getETag();
+		client.get().uri("/jpa/users/reactive-user/todos").header(HttpHeaders.IF_NONE_MATCH, listETag).exchange()
+				.expectStatus().isNotModified();
+
+		URI location = client.post().uri("/jpa/users/reactive-user/todos").contentType(MediaType.APPLICATION_JSON)
+				.bodyValue(String.format(TODO_JSON, "Learn WebFlux")).exchange().expectStatus().isCreated()
+				.returnResult(Void.class).getResponseHeaders().getLocation();
+
+		client.get().uri("/jpa/users/reactive-user/todos").header(HttpHeaders.IF_NONE_MATCH, listETag).exchange()
+				.expectStatus().isOk().expectBody().jsonPath("$[0].description").isEqualTo("Learn WebFlux");
+
+		String eTag = client.get().uri(location).exchange().expectStatus().isOk().expectHeader().valueEquals(
+				HttpHeaders.ETAG, "\"0\"").returnResult(Todo.class).getResponseHeaders().getETag();
+		client.get().uri(location).header(HttpHeaders.IF_NONE_MATCH, eTag).exchange().expectStatus()
+				.isNotModified();
+
+		client.put().uri(location).header(HttpHeaders.IF_MATCH, eTag).contentType(MediaType.APPLICATION_JSON)
+				.bodyValue(String.format(TODO_JSON, "Learn WebFlux twice")).exchange().expectStatus().isOk()
+				.expectHeader().valueEquals(HttpHeaders.ETAG, "\"1\"").expectBody().jsonPath("$.description")
+				.isEqualTo("Learn WebFlux twice");
+		client.put().uri(location).header(HttpHeaders.IF_MATCH, eTag).contentType(MediaType.APPLICATION_JSON)
+				.bodyValue(String.format(TODO_JSON, "Lost update")).exchange().expectStatus().isEqualTo(412);
+
+		client.delete().uri(location).exchange().expectStatus().isNoContent();
+		client.delete().uri(location).exchange().expectStatus().isNotFound();
+		client.get().uri(location).exchange().expectStatus().isNotFound();
+	}
+
+	@Test
+	void todosOfOtherUsersAreNotFound() {
+		URI location = client.post().uri("/jpa/users/reactive-owner/todos").contentType(MediaType.APPLICATION_JSON)
+				.bodyValue(String.format(TODO_JSON, "Not yours")).exchange().expectStatus().isCreated()
+				.returnResult(Void.class).getResponseHeaders().getLocation();
+		String foreign = location.getPath().replace("/reactive-owner/", "/reactive-stranger/");
+
+		client.get().uri(foreign).exchange().expectStatus().isNotFound();
+		client.put().uri(foreign).contentType(MediaType.APPLICATION_JSON)
+				.bodyValue(String.format(TODO_JSON, "Taken over")).exchange().expectStatus().isNotFound();
+		client.delete().uri(foreign).exchange().expectStatus().isNotFound();
+
+		client.get().uri(location).exchange().expectStatus().isOk().expectHeader()
+				.valueEquals(HttpHeaders.ETAG, "\"0\"").expectBody().jsonPath("$.description").isEqualTo("Not yours");
+	}
+
+	@Test
+	void deltaSyncReturnsTheChangesAndTombstones() {
+		TodoChanges initial = changesSince("sync-user", 0);
+		assertTrue(initial.getUpserts().isEmpty());
+
+		URI first = client.post().uri("/jpa/users/sync-user/todos").contentType(MediaType.APPLICATION_JSON)
+				.bodyValue(String.format(TODO_JSON, "First")).exchange().expectStatus().isCreated()
+				.returnResult(Void.class).getResponseHeaders().getLocation();
+		URI second = client.post().uri("/jpa/users/sync-user/todos").contentType(MediaType.APPLICATION_JSON)
+				.bodyValue(String.format(TODO_JSON, "Second")).exchange().expectStatus().isCreated()
+				.returnResult(Void.class).getResponseHeaders().getLocation();
+		TodoChanges created = changesSince("sync-user", 0);
+		assertEquals(2, created.getUpserts().size());
+		assertEquals(2, created.getSeq());
+
+		client.delete().uri(second).exchange().expectStatus().isNoContent();
+		TodoChanges delta = changesSince("sync-user", created.getSeq());
+		assertTrue(delta.getUpserts().isEmpty());
+		assertEquals(1, delta.getDeletes().size());
+		assertFalse(delta.isFullResync());
+		assertTrue(second.getPath().endsWith("/" + delta.getDeletes().get(0)));
+
+		assertTrue(changesSince("sync-user", 99).isFullResync());
+		assertTrue(first.getPath().endsWith("/" + changesSince("sync-user", 99).getUpserts().get(0).getId()));
+	}
+
+	private TodoChanges changesSince(String username, long since) {
+		return client.get().uri("/jpa/users/{username}/todos/changes?since={since}", username, since).exchange()
+				.expectStatus().isOk().expectBody(TodoChanges.class).returnResult().getResponseBody();
+	}
+
+}
@@ -0,0 +1,36 @@
+package com.kokabmedia.shard;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+class ShardRingTests {
+
+	private static final int USERS = 10_000;
+
+	@Test
+	void addedShardOnlyTakesOverItsShareOfTheUsers() {
+		ShardRing three = new ShardRing(3, 128);
+		ShardRing four = new ShardRing(4, 128);
+
+		int[] users = new int[3];
+		int moved = 0;
+		for (int i = 0; i < USERS; i++) {
+			String username = "user" + i;
+			int before = three.shardOf(username);
+			users[before]++;
+			if (four.shardOf(username) != before) {
+				// A user only ever moves to the new shard
+				assertEquals(3, four.shardOf(username));
+				moved++;
+			}
+		}
+
+		for (int count : users) {
+			assertTrue(count > USERS / 3 * 0.8 && count < USERS / 3 * 1.2, "unbalanced shard with " + count);
+		}
+		assertTrue(moved > USERS / 4 * 0.8 && moved < USERS / 4 * 1.2, moved + " users moved");
+	}
+
+}
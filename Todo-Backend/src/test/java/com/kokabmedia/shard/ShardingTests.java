@@ -0,0 +1,189 @@
+package com.kokabmedia.shard;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.springframework.security.test.web.servlet.request.SecurityMockMvcRequestPostProcessors.user;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.content;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.locks.Lock;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.security.test.context.support.WithMockUser;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+@SpringBootTest(properties = { "todo.sharding.enabled=true",
+		"todo.sharding.shards=jdbc:h2:mem:shard-test-0;DB_CLOSE_DELAY=-1,jdbc:h2:mem:shard-test-1;DB_CLOSE_DELAY=-1,"
+				+ "jdbc:h2:mem:shard-test-2;DB_CLOSE_DELAY=-1",
+		"todo.cache.enabled=false" })
+@AutoConfigureMockMvc
+@WithMockUser
+class ShardingTests {
+
+	private static final String TODO_JSON = "{\"description\":\"%s\",\"targetDate\":\"2021-11-01T00:00:00.000+00:00\",\"done\":false}";
+
+	@Autowired
+	private MockMvc mockMvc;
+
+	@Autowired
+	private ShardRouter shardRouter;
+
+	@Autowired
+	private ShardRoutingDataSource dataSource;
+
+	@Autowired
+	private ShardRebalancer shardRebalancer;
+
+	@Autowired
+	private PlatformTransactionManager transactionManager;
+
+	@Test
+	void todosAreStoredOnTheShardOfTheirUserWithIdsOfThatShard() throws Exception {
+		Set<Integer> usedShards = new HashSet<>();
+		for (int i = 0; i < 12; i++) {
+			String username = "shard-user-" + i;
+			String location = create(username, "Stored on my shard");
+			long id = Long.parseLong(location.substring(location.lastIndexOf('/') + 1));
+
+			int shard = shardRouter.shardOf(username);
+			usedShards.add(shard);
+			for (int other = 0; other < dataSource.getShardCount(); other++) {
+				assertEquals(other == shard ? 1 : 0, todosOn(other, username));
+			}
+			assertEquals(shard, id >> ShardRouter.ID_SHIFT);
+
+			mockMvc.perform(get("/jpa/users/" + username + "/todos")).andExpect(status().isOk())
+					.andExpect(jsonPath("$.length()").value(1));
+		}
+		assertTrue(usedShards.size() > 1);
+	}
+
+	@Test
+	void seedTodosAreMovedToTheShardOfTheirUser() throws Exception {
+		assertEquals(3, todosOn(shardRouter.shardOf("kokabmedia"), "kokabmedia"));
+		mockMvc.perform(get("/jpa/users/kokabmedia/todos")).andExpect(jsonPath("$.length()").value(3));
+	}
+
+	@Test
+	void rebalanceMovesAUserBackToItsShard() throws Exception {
+		String username = "moving-user";
+		String location = create(username, "Move me");
+		int shard = shardRouter.shardOf(username);
+		int other = (shard + 1) % dataSource.getShardCount();
+
+		assertEquals(2, shardRebalancer.moveUser(username, shard, other));
+		assertEquals(0, todosOn(shard, username));
+		mockMvc.perform(get(location)).andExpect(status().isNotFound());
+
+		assertEquals(1, shardRebalancer.rebalance());
+		assertEquals(1, todosOn(shard, username));
+		mockMvc.perform(get(location)).andExpect(status().isOk())
+				.andExpect(jsonPath("$.description").value("Move me"));
+
+		// The change sequence has moved with the todos, the next change continues it
+		create(username, "Moved along");
+		long lastSeq = new JdbcTemplate(dataSource.getShard(shard)).queryForObject(
+				"select last_seq from todo_change_sequence where username = ?", Long.class, username);
+		assertEquals(2, lastSeq);
+	}
+
+	@Test
+	void rebalanceEndpointNeedsTheAdminRole() throws Exception {
+		String username = "rebalanced-user";
+		String location = create(username, "Move me back");
+		int shard = shardRouter.shardOf(username);
+		shardRebalancer.moveUser(username, shard, (shard + 1) % dataSource.getShardCount());
+
+		mockMvc.perform(post("/jpa/shards/rebalance")).andExpect(status().isForbidden());
+		mockMvc.perform(post("/jpa/shards/rebalance").with(user("admin").roles("ADMIN"))).andExpect(status().isOk())
+				.andExpect(content().string("1"));
+
+		mockMvc.perform(get(location)).andExpect(status().isOk());
+	}
+
+	@Test
+	void aMoveWaitsForTheTransactionsOfTheUserOnly() throws Exception {
+		String username = "locked-user";
+		create(username, "Locked");
+		int shard = shardRouter.shardOf(username);
+		int other = (shard + 1) % dataSource.getShardCount();
+		TransactionTemplate transaction = new TransactionTemplate(transactionManager);
+		ExecutorService mover = Executors.newSingleThreadExecutor();
+		try {
+			// Work of the user outside of a transaction does not hold up the move
+			assertEquals(2, (int) shardRouter.callOnShardOf(username,
+					() -> await(mover.submit(() -> shardRebalancer.moveUser(username, shard, other)))));
+
+			// A move that starts during a transaction of the user waits for its end
+			Future<Integer> moveBack = shardRouter.callOnShardOf(username, () -> transaction.execute(status -> {
+				Future<Integer> move = mover.submit(() -> shardRebalancer.moveUser(username, other, shard));
+				assertThrows(TimeoutException.class, () -> move.get(200, TimeUnit.MILLISECONDS));
+				return move;
+			}));
+			assertEquals(2, moveBack.get(5, TimeUnit.SECONDS));
+			assertEquals(1, todosOn(shard, username));
+		} finally {
+			mover.shutdownNow();
+		}
+	}
+
+	@Test
+	void aWriteForSeveralUsersWaitsForTheMoveOfEachOfThem() throws Exception {
+		Lock move = shardRouter.userLock("moved-writer").writeLock();
+		ExecutorService flusher = Executors.newSingleThreadExecutor();
+		move.lock();
+		Future<Integer> written;
+		try {
+			written = flusher.submit(() -> shardRouter.callOnShardForUsers(0,
+					Arrays.asList("waiting-writer", "moved-writer"), () -> ShardContext.current()));
+			assertThrows(TimeoutException.class, () -> written.get(200, TimeUnit.MILLISECONDS));
+		} finally {
+			move.unlock();
+		}
+		try {
+			assertEquals(0, written.get(5, TimeUnit.SECONDS));
+		} finally {
+			flusher.shutdownNow();
+		}
+	}
+
+	private static <T> T await(Future<T> future) {
+		try {
+			return future.get(5, TimeUnit.SECONDS);
+		} catch (Exception e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	private String create(String username, String description) throws Exception {
+		return mockMvc.perform(post("/jpa/users/" + username + "/todos").contentType(MediaType.APPLICATION_JSON)
+				.content(String.format(TODO_JSON, description))).andExpect(status().isCreated()).andReturn()
+				.getResponse().getHeader(HttpHeaders.LOCATION);
+	}
+
+	private int todosOn(int shard, String username) {
+		return new JdbcTemplate(dataSource.getShard(shard))
+				.queryForObject("select count(*) from todo where username = ?", Integer.class, username);
+	}
+
+}
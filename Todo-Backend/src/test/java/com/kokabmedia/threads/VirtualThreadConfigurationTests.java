@@ -0,0 +1,39 @@
+package com.kokabmedia.threads;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+import java.util.concurrent.ExecutorService;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIf;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.context.SpringBootTest.WebEnvironment;
+import org.springframework.boot.web.embedded.tomcat.TomcatWebServer;
+import org.springframework.boot.web.servlet.context.ServletWebServerApplicationContext;
+import org.springframework.core.task.AsyncTaskExecutor;
+
+@SpringBootTest(webEnvironment = WebEnvironment.RANDOM_PORT, properties = "spring.threads.virtual.enabled=true")
+@EnabledIf("com.kokabmedia.threads.VirtualThreadConfiguration#isSupported")
+class VirtualThreadConfigurationTests {
+
+	@Autowired
+	private ServletWebServerApplicationContext context;
+
+	@Autowired
+	private ExecutorService virtualThreadExecutor;
+
+	@Autowired
+	private AsyncTaskExecutor applicationTaskExecutor;
+
+	@Test
+	void requestsAndAsyncWorkRunOnVirtualThreads() throws Exception {
+		TomcatWebServer webServer = (TomcatWebServer) context.getWebServer();
+		assertSame(virtualThreadExecutor, webServer.getTomcat().getConnector().getProtocolHandler().getExecutor());
+
+		assertEquals("java.lang.VirtualThread",
+				applicationTaskExecutor.submit(() -> Thread.currentThread().getClass().getName()).get());
+	}
+
+}
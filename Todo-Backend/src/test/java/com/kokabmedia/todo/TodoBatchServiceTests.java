@@ -0,0 +1,55 @@
+package com.kokabmedia.todo;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+
+import com.kokabmedia.todo.TodoBatchOperation.Type;
+
+@SpringBootTest
+class TodoBatchServiceTests {
+
+	@Autowired
+	private TodoBatchService todoBatchService;
+
+	@Autowired
+	private TodoJpaRepository todoJpaRepository;
+
+	@Test
+	void appliesOperationsAndReportsEveryResult() {
+		List<TodoBatchResult> created = todoBatchService.apply("batch-user", List.of(
+				new TodoBatchOperation(Type.CREATE, null, new Todo(-1, null, "First", new Date(), false)),
+				new TodoBatchOperation(Type.CREATE, null, new Todo(-1, null, "Second", new Date(), false))));
+		long first = created.get(0).getId();
+		long second = created.get(1).getId();
+
+		Todo otherUsersTodo = todoJpaRepository.findByUsername("kokabmedia").get(0);
+		long notMine = otherUsersTodo.getId();
+
+		List<TodoBatchResult> results = todoBatchService.apply("batch-user", Arrays.asList(
+				new TodoBatchOperation(Type.UPDATE, first, new Todo(first, null, "First done", new Date(), true)),
+				new TodoBatchOperation(Type.DELETE, second, null),
+				new TodoBatchOperation(Type.DELETE, second, null),
+				new TodoBatchOperation(Type.UPDATE, notMine, new Todo(notMine, null, "Not mine", new Date(), true)),
+				new TodoBatchOperation(Type.CREATE, null, null),
+				null));
+
+		assertEquals(List.of(200, 204, 404, 404, 400, 400),
+				results.stream().map(TodoBatchResult::getStatus).collect(Collectors.toList()));
+
+		Todo updated = todoJpaRepository.findById(first).get();
+		assertEquals("First done", updated.getDescription());
+		assertEquals("batch-user", updated.getUsername());
+		assertTrue(todoJpaRepository.findById(second).get().isDeleted());
+		assertEquals(otherUsersTodo.getDescription(), todoJpaRepository.findById(notMine).get().getDescription());
+	}
+
+}
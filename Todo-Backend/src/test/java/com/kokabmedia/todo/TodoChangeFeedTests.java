@@ -0,0 +1,122 @@
+package com.kokabmedia.todo;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+class TodoChangeFeedTests {
+
+	// One sender thread, a buffer of 4 events and a send timeout of 200 ms
+	private final TodoChangeFeed feed = new TodoChangeFeed(new ObjectMapper(), 60_000, 16, 4, 1, 30, 10, 200);
+
+	private final CountDownLatch unblock = new CountDownLatch(1);
+
+	@AfterEach
+	void shutdown() {
+		unblock.countDown();
+		feed.shutdown();
+	}
+
+	@Test
+	void changesOfUsersWithoutSubscribersAreNotKept() {
+		for (int i = 0; i < 100; i++) {
+			feed.onTodoChanged(TodoChangedEvent.created(todo(i, "unfollowed-" + i)));
+		}
+		assertEquals(0, feed.getFeedCount());
+
+		feed.subscribe("followed", null);
+		feed.onTodoChanged(TodoChangedEvent.created(todo(1, "followed")));
+		assertEquals(1, feed.getFeedCount());
+		assertEquals(1, feed.getSubscriberCount());
+	}
+
+	@Test
+	void stalledSubscriberIsDroppedWithoutHoldingUpTheOthers() throws Exception {
+		RecordingEmitter stalled = new RecordingEmitter(unblock);
+		RecordingEmitter reading = new RecordingEmitter(null);
+		feed.subscribe("stalled-user", null, stalled);
+		feed.subscribe("reading-user", null, reading);
+
+		// The write to the stalled subscriber blocks the only sender thread
+		feed.onTodoChanged(TodoChangedEvent.created(todo(1, "stalled-user")));
+		feed.onTodoChanged(TodoChangedEvent.created(todo(2, "reading-user")));
+
+		assertTrue(reading.await(1, 5000), "the reading subscriber got no event");
+		assertEquals(1, feed.getSubscriberCount());
+	}
+
+	@Test
+	void replayLargerThanTheBufferIsReplacedByAReset() throws Exception {
+		RecordingEmitter first = new RecordingEmitter(null);
+		feed.subscribe("replay-user", null, first);
+		feed.onTodoChanged(TodoChangedEvent.created(todo(1, "replay-user")));
+		assertTrue(first.await(1, 5000));
+		String lastEventId = first.events.get(0).split("\n")[0].substring("id:".length());
+
+		for (int i = 2; i <= 6; i++) {
+			feed.onTodoChanged(TodoChangedEvent.created(todo(i, "replay-user")));
+		}
+		RecordingEmitter late = new RecordingEmitter(null);
+		feed.subscribe("replay-user", lastEventId, late);
+		assertTrue(late.await(1, 5000));
+		assertTrue(late.events.get(0).contains("event:" + TodoChangeFeed.RESET_EVENT), late.events.get(0));
+
+		RecordingEmitter recent = new RecordingEmitter(null);
+		String recentId = lastEventId.substring(0, lastEventId.indexOf('-') + 1) + 3;
+		feed.subscribe("replay-user", recentId, recent);
+		assertTrue(recent.await(3, 5000));
+		assertEquals(3, recent.events.size());
+	}
+
+	private static Todo todo(long id, String username) {
+		return new Todo(id, username, "Todo " + id, new Date(), false);
+	}
+
+	/*
+	 * Records the events it is sent, with a latch it blocks every write until the latch
+	 * is released like a client that does not read.
+	 */
+	private static class RecordingEmitter extends SseEmitter {
+
+		private final CountDownLatch blockUntil;
+		private final List<String> events = new CopyOnWriteArrayList<>();
+
+		private RecordingEmitter(CountDownLatch blockUntil) {
+			this.blockUntil = blockUntil;
+		}
+
+		@Override
+		public void send(SseEventBuilder builder) throws IOException {
+			if (blockUntil != null) {
+				try {
+					blockUntil.await();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			}
+			events.add(builder.build().stream().map(data -> data.getData().toString()).collect(Collectors.joining()));
+		}
+
+		private boolean await(int count, long timeoutMs) throws InterruptedException {
+			long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMs);
+			while (events.size() < count && System.nanoTime() < deadline) {
+				Thread.sleep(10);
+			}
+			return events.size() >= count;
+		}
+	}
+
+}
@@ -0,0 +1,142 @@
+package com.kokabmedia.todo;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+
+/*
+ * Multi-threaded stress tests of TodoHardcodedService. In the first test every thread
+ * creates, updates and deletes its own todo's while all threads share the same store,
+ * afterwards every create, the last update of every todo and every delete must be
+ * visible. In the second test all threads change the same todos.
+ *
+ * The tests only check that no change is lost, the throughput of the service is
+ * measured by TodoHardcodedServiceBenchmark in the benchmark profile.
+ */
+class TodoHardcodedServiceStressTests {
+
+	private static final int THREADS = 8;
+	private static final int TODOS_PER_THREAD = 2_000;
+	private static final int UPDATES_PER_TODO = 5;
+	private static final int SHARED_TODOS = 200;
+	private static final int ROUNDS = 50;
+
+	@Test
+	void concurrentCreatesUpdatesAndDeletesAreNotLost() throws Exception {
+		TodoHardcodedService service = new TodoHardcodedService();
+		int seeded = service.findAll().size();
+
+		ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+		List<Callable<Void>> workers = new ArrayList<>();
+		for (int t = 0; t < THREADS; t++) {
+			String username = "user-" + t;
+			workers.add(() -> {
+				List<Todo> created = new ArrayList<>();
+				for (int i = 0; i < TODOS_PER_THREAD; i++) {
+					created.add(service.save(new Todo(-1, username, "Todo " + i, new Date(), false)));
+				}
+				for (int u = 1; u <= UPDATES_PER_TODO; u++) {
+					for (Todo todo : created) {
+						service.save(new Todo(todo.getId(), username, "Update " + u, todo.getTargetDate(), u % 2 == 0));
+					}
+				}
+				// Every third todo of the thread is deleted again
+				for (int i = 0; i < created.size(); i += 3) {
+					service.deleteById(created.get(i).getId());
+				}
+				return null;
+			});
+		}
+
+		for (Future<Void> result : executor.invokeAll(workers)) {
+			result.get();
+		}
+		executor.shutdown();
+		executor.awaitTermination(10, TimeUnit.SECONDS);
+
+		int deletedPerThread = (TODOS_PER_THREAD + 2) / 3;
+		int remainingPerThread = TODOS_PER_THREAD - deletedPerThread;
+		List<Todo> all = service.findAll();
+		assertEquals(seeded + THREADS * remainingPerThread, all.size());
+		assertEquals(all.size(), all.stream().map(Todo::getId).distinct().count());
+
+		for (int t = 0; t < THREADS; t++) {
+			List<Todo> todos = service.findByUsername("user-" + t);
+			assertEquals(remainingPerThread, todos.size());
+			for (Todo todo : todos) {
+				assertEquals("Update " + UPDATES_PER_TODO, todo.getDescription());
+				assertEquals(todo, service.findById(todo.getId()));
+			}
+		}
+		assertNull(service.findById(Long.MAX_VALUE));
+	}
+
+	/*
+	 * All threads update and delete the same todos, and move them between users, in
+	 * every round. The last round only updates, so every todo must end up stored with
+	 * one of the values of the last round and be indexed under its user only.
+	 */
+	@Test
+	void concurrentUpdatesAndDeletesOfTheSameTodosAreNotLost() throws Exception {
+		TodoHardcodedService service = new TodoHardcodedService();
+		List<Long> ids = new ArrayList<>();
+		for (int i = 0; i < SHARED_TODOS; i++) {
+			ids.add(service.save(new Todo(-1, "user-0", "Shared " + i, new Date(), false)).getId());
+		}
+
+		ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+		CyclicBarrier round = new CyclicBarrier(THREADS);
+		List<Callable<Void>> workers = new ArrayList<>();
+		for (int t = 0; t < THREADS; t++) {
+			int thread = t;
+			workers.add(() -> {
+				for (int r = 0; r <= ROUNDS; r++) {
+					// Every thread starts a round together with the others
+					round.await(10, TimeUnit.SECONDS);
+					for (long id : ids) {
+						service.save(new Todo(id, "user-" + (thread % 3), "Round " + r + " of " + thread,
+								new Date(), r % 2 == 0));
+						if (r < ROUNDS && (id + thread) % 4 == 0) {
+							service.deleteById(id);
+						}
+					}
+				}
+				return null;
+			});
+		}
+
+		for (Future<Void> result : executor.invokeAll(workers)) {
+			result.get();
+		}
+		executor.shutdown();
+		executor.awaitTermination(10, TimeUnit.SECONDS);
+
+		int indexed = 0;
+		for (int u = 0; u < 3; u++) {
+			for (Todo todo : service.findByUsername("user-" + u)) {
+				assertEquals("user-" + u, todo.getUsername());
+				indexed++;
+			}
+		}
+		assertEquals(SHARED_TODOS, indexed);
+		for (long id : ids) {
+			Todo todo = service.findById(id);
+			assertNotNull(todo, "todo " + id + " lost");
+			assertTrue(todo.getDescription().startsWith("Round " + ROUNDS + " of "), todo.getDescription());
+		}
+	}
+
+}
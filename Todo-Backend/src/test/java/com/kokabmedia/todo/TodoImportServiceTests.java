@@ -0,0 +1,95 @@
+package com.kokabmedia.todo;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+
+@SpringBootTest(properties = { "todo.import.chunk-size=2", "todo.import.max-errors=3" })
+class TodoImportServiceTests {
+
+	@Autowired
+	private TodoImportService todoImportService;
+
+	@Autowired
+	private TodoJpaRepository todoJpaRepository;
+
+	@Autowired
+	private TodoJpaService todoJpaService;
+
+	@Test
+	void importsValidLinesInChunksAndReportsTheOthers() {
+		String ndjson = "{\"description\":\"One\",\"targetDate\":\"2021-11-01T00:00:00.000+00:00\",\"done\":false}\n"
+				+ "{\"description\":\"\"}\n"
+				+ "\n"
+				+ "{\"description\":\"Two\",\"done\":true}\n"
+				+ "not json\n"
+				+ "{\"description\":\"Three\"}\n";
+
+		List<TodoImportReport> reports = new ArrayList<>();
+		TodoImportReport summary = importTodos("import-user", TodoImportService.Format.NDJSON, ndjson, reports);
+
+		assertEquals(3, summary.getImported());
+		assertEquals(2, summary.getRejected());
+		assertNull(summary.getMessage());
+		assertEquals(List.of(2L, 5L), linesOf(reports, TodoImportReport.Type.ERROR));
+		assertEquals(List.of(4L, 6L), linesOf(reports, TodoImportReport.Type.PROGRESS));
+
+		List<Todo> todos = todoJpaRepository.findByUsername("import-user");
+		assertEquals(Set.of("One", "Two", "Three"),
+				todos.stream().map(Todo::getDescription).collect(Collectors.toSet()));
+		assertEquals(3, todos.stream().map(Todo::getId).collect(Collectors.toSet()).size());
+		assertEquals(3, todos.stream().map(Todo::getChangeSeq).collect(Collectors.toSet()).size());
+
+		// The imported todos are loaded by the delta sync and can be changed like any other todo
+		assertEquals(3, todoJpaService.changesSince("import-user", 0, 100).getUpserts().size());
+		Todo created = todoJpaService.create("import-user", new Todo(0, null, "Four", null, false));
+		assertTrue(todos.stream().allMatch(todo -> todo.getChangeSeq() < created.getChangeSeq()));
+	}
+
+	@Test
+	void importsCsvWithQuotedValuesAndGivesUpAfterTooManyErrors() {
+		String csv = "done,description,targetDate\n"
+				+ "true,\"Buy milk, eggs and \"\"bread\"\"\",2021-11-01\n"
+				+ "false,Learn CSV,\n"
+				+ "maybe,Invalid done,\n"
+				+ "false,Invalid date,yesterday\n"
+				+ "false,Too many columns,,\n"
+				+ "false,Never read,\n";
+
+		List<TodoImportReport> reports = new ArrayList<>();
+		TodoImportReport summary = importTodos("csv-user", TodoImportService.Format.CSV, csv, reports);
+
+		assertEquals(2, summary.getImported());
+		assertEquals(3, summary.getRejected());
+		assertTrue(summary.getMessage().startsWith("Given up"), summary.getMessage());
+		assertEquals(List.of(4L, 5L, 6L), linesOf(reports, TodoImportReport.Type.ERROR));
+
+		Set<String> descriptions = new HashSet<>();
+		todoJpaRepository.findByUsername("csv-user").forEach(todo -> descriptions.add(todo.getDescription()));
+		assertEquals(Set.of("Buy milk, eggs and \"bread\"", "Learn CSV"), descriptions);
+	}
+
+	private TodoImportReport importTodos(String username, TodoImportService.Format format, String body,
+			List<TodoImportReport> reports) {
+		return todoImportService.importTodos(username, format,
+				new ByteArrayInputStream(body.getBytes(StandardCharsets.UTF_8)), reports::add);
+	}
+
+	private static List<Long> linesOf(List<TodoImportReport> reports, TodoImportReport.Type type) {
+		return reports.stream().filter(report -> report.getType() == type).map(TodoImportReport::getLine)
+				.collect(Collectors.toList());
+	}
+
+}
@@ -0,0 +1,78 @@
+package com.kokabmedia.todo;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.data.domain.PageRequest;
+
+@DataJpaTest
+class TodoJpaRepositoryTests {
+
+	private static final String USERNAME = "pagination-user";
+
+	@Autowired
+	private TodoJpaRepository todoJpaRepository;
+
+	@BeforeEach
+	void createTodos() {
+		List<Todo> todos = new ArrayList<>();
+		for (int i = 0; i < 25; i++) {
+			// Several todos share a targetDate and some have none, the id breaks the ties
+			Date targetDate = i % 5 == 0 ? null : new Date(1_600_000_000_000L + (i % 4) * 86_400_000L);
+			todos.add(new Todo(0, USERNAME, "Todo " + i, targetDate, i % 2 == 0));
+		}
+		todos.forEach(todo -> todo.setId(null));
+		todoJpaRepository.saveAll(todos);
+	}
+
+	@Test
+	void keysetPagesVisitEveryTodoOnce() {
+		Set<Long> seen = new HashSet<>();
+		List<Todo> page = todoJpaRepository.findFirstPage(USERNAME, null, null, null, PageRequest.of(0, 4));
+		while (!page.isEmpty()) {
+			page.forEach(todo -> assertTrue(seen.add(todo.getId()), "Todo returned twice " + todo.getId()));
+			TodoCursor cursor = TodoCursor.decode(TodoCursor.of(page.get(page.size() - 1)).encode());
+			page = cursor.getTargetDate() == null
+					? todoJpaRepository.findPageAfterUndated(USERNAME, null, null, null, cursor.getId(),
+							PageRequest.of(0, 4))
+					: todoJpaRepository.findPageAfter(USERNAME, null, null, null, cursor.getTargetDate(),
+							cursor.getId(), PageRequest.of(0, 4));
+		}
+		assertEquals(25, seen.size());
+	}
+
+	@Test
+	void filtersOnDoneAndTargetDate() {
+		Date from = new Date(1_600_000_000_000L + 86_400_000L);
+		List<Todo> todos = todoJpaRepository.findFirstPage(USERNAME, Boolean.TRUE, from, null, PageRequest.of(0, 100));
+		assertTrue(todos.stream().allMatch(todo -> todo.isDone() && !todo.getTargetDate().before(from)));
+		assertEquals(5, todos.size());
+	}
+
+	@Test
+	void onlyReservedIdsAreKeptOnInsert() {
+		// Far beyond the ids the sequence hands out during the test
+		long reservedId = 1_000_000_000L;
+
+		Todo given = new Todo(reservedId, USERNAME, "Given id", null, false);
+		todoJpaRepository.saveAndFlush(given);
+		assertNotEquals(reservedId, given.getId());
+
+		Todo reserved = new Todo(reservedId, USERNAME, "Reserved id", null, false);
+		reserved.markIdReserved();
+		todoJpaRepository.saveAndFlush(reserved);
+		assertEquals(reservedId, reserved.getId());
+	}
+
+}
@@ -0,0 +1,368 @@
+package com.kokabmedia.todo;
+
+import static org.springframework.security.test.web.servlet.request.SecurityMockMvcRequestPostProcessors.user;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.asyncDispatch;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.delete;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.patch;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.put;
+import static org.hamcrest.Matchers.containsString;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.content;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.request;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+
+import javax.persistence.EntityManagerFactory;
+
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.security.test.context.support.WithMockUser;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+import org.springframework.test.web.servlet.request.MockHttpServletRequestBuilder;
+import org.springframework.util.StreamUtils;
+
+import com.jayway.jsonpath.JsonPath;
+import com.kokabmedia.metrics.SqlStatements;
+
+@SpringBootTest(properties = "todo.sql.debug-header=true")
+@AutoConfigureMockMvc
+@WithMockUser
+class TodoJpaResourceTests {
+
+	private static final String TODO_JSON = "{\"description\":\"%s\",\"targetDate\":\"2021-11-01T00:00:00.000+00:00\",\"done\":false}";
+
+	@Autowired
+	private MockMvc mockMvc;
+
+	@Autowired
+	private EntityManagerFactory entityManagerFactory;
+
+	@Autowired
+	private TodoChangeSequenceRepository todoChangeSequenceRepository;
+
+	@Test
+	void todoListIsNotModifiedUntilItChanges() throws Exception {
+		String eTag = mockMvc.perform(get("/jpa/users/etag-user/todos")).andExpect(status().isOk())
+				.andReturn().getResponse().getHeader(HttpHeaders.ETAG);
+
+		mockMvc.perform(get("/jpa/users/etag-user/todos").header(HttpHeaders.IF_NONE_MATCH, eTag))
+				.andExpect(status().isNotModified());
+
+		mockMvc.perform(post("/jpa/users/etag-user/todos").contentType(MediaType.APPLICATION_JSON)
+				.content(String.format(TODO_JSON, "Learn ETags"))).andExpect(status().isCreated());
+
+		mockMvc.perform(get("/jpa/users/etag-user/todos").header(HttpHeaders.IF_NONE_MATCH, eTag))
+				.andExpect(status().isOk());
+	}
+
+	@Test
+	void updateWithStaleIfMatchIsRejected() throws Exception {
+		String location = mockMvc.perform(post("/jpa/users/etag-user/todos").contentType(MediaType.APPLICATION_JSON)
+				.content(String.format(TODO_JSON, "Learn If-Match"))).andReturn().getResponse()
+				.getHeader(HttpHeaders.LOCATION);
+
+		String eTag = mockMvc.perform(get(location)).andExpect(status().isOk()).andReturn().getResponse()
+				.getHeader(HttpHeaders.ETAG);
+		mockMvc.perform(get(location).header(HttpHeaders.IF_NONE_MATCH, eTag)).andExpect(status().isNotModified());
+
+		String newETag = mockMvc.perform(put(location).header(HttpHeaders.IF_MATCH, eTag)
+				.contentType(MediaType.APPLICATION_JSON).content(String.format(TODO_JSON, "Learn If-Match twice")))
+				.andExpect(status().isOk()).andReturn().getResponse().getHeader(HttpHeaders.ETAG);
+
+		mockMvc.perform(put(location).header(HttpHeaders.IF_MATCH, eTag).contentType(MediaType.APPLICATION_JSON)
+				.content(String.format(TODO_JSON, "Lost update"))).andExpect(status().isPreconditionFailed());
+
+		mockMvc.perform(get(location).header(HttpHeaders.IF_NONE_MATCH, newETag))
+				.andExpect(status().isNotModified()).andExpect(header().string(HttpHeaders.ETAG, newETag));
+	}
+
+	@Test
+	void todosOfOtherUsersAreNotFound() throws Exception {
+		String location = create("owner-user", "Only mine");
+		String eTag = mockMvc.perform(get(location)).andReturn().getResponse().getHeader(HttpHeaders.ETAG);
+		String otherLocation = location.replace("owner-user", "other-user");
+
+		mockMvc.perform(get(otherLocation)).andExpect(status().isNotFound());
+		mockMvc.perform(put(otherLocation).header(HttpHeaders.IF_MATCH, eTag).contentType(MediaType.APPLICATION_JSON)
+				.content(String.format(TODO_JSON, "Not yours"))).andExpect(status().isNotFound());
+		mockMvc.perform(put(otherLocation).contentType(MediaType.APPLICATION_JSON)
+				.content(String.format(TODO_JSON, "Not yours"))).andExpect(status().isNotFound());
+		mockMvc.perform(patch(otherLocation).contentType(MediaType.APPLICATION_JSON).content("{\"done\":true}"))
+				.andExpect(status().isNotFound());
+		mockMvc.perform(patch(otherLocation).header(HttpHeaders.IF_MATCH, eTag).contentType(MediaType.APPLICATION_JSON)
+				.content("{\"done\":true}")).andExpect(status().isNotFound());
+		mockMvc.perform(delete(otherLocation)).andExpect(status().isNotFound());
+
+		mockMvc.perform(get(location)).andExpect(status().isOk()).andExpect(header().string(HttpHeaders.ETAG, eTag))
+				.andExpect(jsonPath("$.description").value("Only mine"));
+	}
+
+	@Test
+	void changesAreStreamedAndReplayedAfterReconnect() throws Exception {
+		MockHttpServletResponse stream = mockMvc.perform(get("/jpa/users/stream-user/todos/stream"))
+				.andExpect(request().asyncStarted()).andReturn().getResponse();
+
+		mockMvc.perform(post("/jpa/users/stream-user/todos").contentType(MediaType.APPLICATION_JSON)
+				.content(String.format(TODO_JSON, "Learn SSE"))).andExpect(status().isCreated());
+		String firstEvents = awaitContent(stream, "Learn SSE");
+		assertTrue(firstEvents.contains("event:created"), firstEvents);
+
+		String lastEventId = firstEvents.substring(firstEvents.indexOf("id:") + 3, firstEvents.indexOf('\n',
+				firstEvents.indexOf("id:")));
+
+		mockMvc.perform(post("/jpa/users/stream-user/todos").contentType(MediaType.APPLICATION_JSON)
+				.content(String.format(TODO_JSON, "Learn Last-Event-ID"))).andExpect(status().isCreated());
+
+		MockHttpServletResponse resumed = mockMvc
+				.perform(get("/jpa/users/stream-user/todos/stream").header("Last-Event-ID", lastEventId))
+				.andExpect(request().asyncStarted()).andReturn().getResponse();
+		String replayed = awaitContent(resumed, "Learn Last-Event-ID");
+		assertTrue(!replayed.contains("Learn SSE"), replayed);
+
+		MockHttpServletResponse reset = mockMvc
+				.perform(get("/jpa/users/stream-user/todos/stream").header("Last-Event-ID", "unknown-1"))
+				.andExpect(request().asyncStarted()).andReturn().getResponse();
+		awaitContent(reset, "event:" + TodoChangeFeed.RESET_EVENT);
+	}
+
+	@Test
+	void endpointsRunAFixedNumberOfQueries() throws Exception {
+		// The todo_seq sequence is only read when a new block of ids is needed
+		String location = mockMvc.perform(post("/jpa/users/query-user/todos").contentType(MediaType.APPLICATION_JSON)
+				.content(String.format(TODO_JSON, "Count my queries"))).andExpect(SqlStatements.atMost(6))
+				.andReturn().getResponse().getHeader(HttpHeaders.LOCATION);
+
+		mockMvc.perform(get("/jpa/users/query-user/todos")).andExpect(SqlStatements.count(1));
+		mockMvc.perform(get("/jpa/users/query-user/todos")).andExpect(SqlStatements.count(0));
+		mockMvc.perform(get("/jpa/users/query-user/todos/page")).andExpect(SqlStatements.count(1));
+		mockMvc.perform(get("/jpa/users/query-user/todos/changes")).andExpect(SqlStatements.count(3));
+		mockMvc.perform(get(location)).andExpect(SqlStatements.count(1));
+		mockMvc.perform(get(location)).andExpect(SqlStatements.count(0));
+		mockMvc.perform(put(location).contentType(MediaType.APPLICATION_JSON)
+				.content(String.format(TODO_JSON, "Count my queries again"))).andExpect(SqlStatements.count(4));
+
+		// The update has invalidated the cached todo and list
+		mockMvc.perform(get(location)).andExpect(SqlStatements.count(1))
+				.andExpect(content().string(containsString("Count my queries again")));
+		mockMvc.perform(get("/jpa/users/query-user/todos")).andExpect(SqlStatements.count(1))
+				.andExpect(content().string(containsString("Count my queries again")));
+
+		mockMvc.perform(delete(location)).andExpect(SqlStatements.count(4));
+		mockMvc.perform(get(location)).andExpect(status().isNotFound());
+
+	}
+
+	@Test
+	void batchWritesEveryTodoOnce() throws Exception {
+		// Hibernate counts the executed inserts and updates, the change sequence row of the
+		// new user is inserted and then updated once for the whole batch
+		Statistics statistics = entityManagerFactory.unwrap(SessionFactory.class).getStatistics();
+		statistics.clear();
+		String created = mockMvc.perform(post("/jpa/users/batch-user/todos/batch")
+				.contentType(MediaType.APPLICATION_JSON).content(batchOfCreates(20))).andExpect(status().isOk())
+				.andReturn().getResponse().getContentAsString();
+		assertEquals(21, statistics.getEntityInsertCount());
+		assertEquals(1, statistics.getEntityUpdateCount());
+
+		List<Integer> ids = JsonPath.read(created, "$[*].id");
+		for (int id : ids) {
+			mockMvc.perform(get("/jpa/users/batch-user/todos/" + id)).andExpect(header().string(HttpHeaders.ETAG, "\"0\""));
+		}
+
+		StringBuilder updates = new StringBuilder("[");
+		for (int id : ids) {
+			updates.append(updates.length() == 1 ? "" : ",").append("{\"op\":\"UPDATE\",\"id\":").append(id)
+					.append(",\"todo\":").append(String.format(TODO_JSON, "Batch update")).append('}');
+		}
+		statistics.clear();
+		mockMvc.perform(post("/jpa/users/batch-user/todos/batch").contentType(MediaType.APPLICATION_JSON)
+				.content(updates.append(']').toString())).andExpect(status().isOk());
+		assertEquals(0, statistics.getEntityInsertCount());
+		assertEquals(21, statistics.getEntityUpdateCount());
+		for (int id : ids) {
+			mockMvc.perform(get("/jpa/users/batch-user/todos/" + id)).andExpect(header().string(HttpHeaders.ETAG, "\"1\""));
+		}
+	}
+
+	@Test
+	void todosAreExportedAsNdjsonJsonOrGzip() throws Exception {
+		mockMvc.perform(post("/jpa/users/export-user/todos/batch").contentType(MediaType.APPLICATION_JSON)
+				.content(batchOfCreates(3))).andExpect(status().isOk());
+
+		MockHttpServletResponse ndjson = export(get("/jpa/users/export-user/todos/export"));
+		assertEquals(MediaType.APPLICATION_NDJSON_VALUE, ndjson.getContentType());
+		String[] lines = ndjson.getContentAsString().trim().split("\n");
+		assertEquals(3, lines.length);
+		assertTrue(lines[0].startsWith("{") && lines[0].contains("Batch 0"), lines[0]);
+
+		String json = export(get("/jpa/users/export-user/todos/export").param("format", "json")).getContentAsString();
+		assertTrue(json.startsWith("[") && json.contains("Batch 2") && json.endsWith("]"), json);
+
+		MockHttpServletResponse gzip = export(get("/jpa/users/export-user/todos/export")
+				.header(HttpHeaders.ACCEPT_ENCODING, "gzip, deflate"));
+		assertEquals("gzip", gzip.getHeader(HttpHeaders.CONTENT_ENCODING));
+		String unzipped = StreamUtils.copyToString(
+				new GZIPInputStream(new ByteArrayInputStream(gzip.getContentAsByteArray())), StandardCharsets.UTF_8);
+		assertEquals(ndjson.getContentAsString(), unzipped);
+
+		mockMvc.perform(get("/jpa/users/export-user/todos/export").param("format", "xml"))
+				.andExpect(status().isBadRequest());
+	}
+
+	@Test
+	void onlyAdminsExportTheTodosOfAllUsers() throws Exception {
+		mockMvc.perform(get("/jpa/todos/export")).andExpect(status().isForbidden());
+
+		String all = export(get("/jpa/todos/export").with(user("admin").roles("ADMIN")))
+				.getContentAsString();
+		assertTrue(all.contains("\"username\":\"kokabmedia\""), all);
+	}
+
+	@Test
+	void importReportsProgressAndRejectedLines() throws Exception {
+		String ndjson = String.format(TODO_JSON, "Imported") + "\n{\"description\":null}\n";
+		MvcResult result = mockMvc.perform(post("/jpa/users/import-user/todos/import")
+				.contentType(MediaType.APPLICATION_NDJSON).content(ndjson)).andExpect(request().asyncStarted())
+				.andReturn();
+		String[] reports = mockMvc.perform(asyncDispatch(result)).andExpect(status().isOk()).andReturn()
+				.getResponse().getContentAsString().split("\n");
+
+		assertEquals(3, reports.length);
+		assertTrue(reports[0].contains("\"type\":\"ERROR\",\"line\":2"), reports[0]);
+		assertTrue(reports[1].contains("\"type\":\"PROGRESS\""), reports[1]);
+		assertTrue(reports[2].contains("\"type\":\"SUMMARY\"") && reports[2].contains("\"imported\":1"),
+				reports[2]);
+
+		mockMvc.perform(get("/jpa/users/import-user/todos")).andExpect(content().string(containsString("Imported")));
+	}
+
+	@Test
+	void searchRanksMatchesAndFollowsChanges() throws Exception {
+		create("search-user", "Learn Spring Boot");
+		create("search-user", "Learn Angular");
+		create("search-user", "Spring cleaning, spring everything");
+
+		mockMvc.perform(get("/jpa/users/search-user/todos/search").param("q", "SPRING"))
+				.andExpect(status().isOk()).andExpect(jsonPath("$.length()").value(2))
+				.andExpect(jsonPath("$[0].description").value("Spring cleaning, spring everything"))
+				.andExpect(jsonPath("$[1].description").value("Learn Spring Boot"));
+		mockMvc.perform(get("/jpa/users/search-user/todos/search").param("q", "learn ang*"))
+				.andExpect(jsonPath("$.length()").value(1))
+				.andExpect(jsonPath("$[0].description").value("Learn Angular"));
+
+		// The index is updated by the changes after it has been built
+		String location = create("search-user", "Spring release notes");
+		mockMvc.perform(get("/jpa/users/search-user/todos/search").param("q", "release"))
+				.andExpect(jsonPath("$[0].description").value("Spring release notes"));
+		mockMvc.perform(delete(location)).andExpect(status().isNoContent());
+		mockMvc.perform(get("/jpa/users/search-user/todos/search").param("q", "release"))
+				.andExpect(jsonPath("$.length()").value(0));
+
+		mockMvc.perform(get("/jpa/users/search-user/todos/search").param("q", " ")).andExpect(status().isBadRequest());
+	}
+
+	@Test
+	void mergePatchUpdatesOnlyTheGivenFieldsOfTheUsersTodo() throws Exception {
+		String location = create("merge-user", "Merge me");
+		MediaType mergePatch = MediaType.valueOf("application/merge-patch+json");
+
+		// The UPDATE statement after the change sequence of the user and the todo read back
+		String eTag = mockMvc.perform(patch(location).contentType(mergePatch).content("{\"done\":true}"))
+				.andExpect(status().isOk()).andExpect(SqlStatements.count(4))
+				.andExpect(jsonPath("$.description").value("Merge me")).andExpect(jsonPath("$.done").value(true))
+				.andReturn().getResponse().getHeader(HttpHeaders.ETAG);
+
+		mockMvc.perform(patch(location).header(HttpHeaders.IF_MATCH, eTag).contentType(mergePatch)
+				.content("{\"targetDate\":null}")).andExpect(status().isOk())
+				.andExpect(jsonPath("$.targetDate").isEmpty()).andExpect(jsonPath("$.description").value("Merge me"));
+		mockMvc.perform(patch(location).header(HttpHeaders.IF_MATCH, eTag).contentType(mergePatch)
+				.content("{\"done\":false}")).andExpect(status().isPreconditionFailed());
+
+		// The todo is only found under the username it belongs to
+		mockMvc.perform(patch(location.replace("merge-user", "merge-stranger")).contentType(mergePatch)
+				.content("{\"done\":false}")).andExpect(status().isNotFound());
+		mockMvc.perform(get(location)).andExpect(jsonPath("$.done").value(true));
+		assertFalse(todoChangeSequenceRepository.existsById("merge-stranger"));
+
+		// A patch that changes no todo does not use up a change sequence number
+		long lastSeq = todoChangeSequenceRepository.findById("merge-user").get().getLastSeq();
+		String missing = location.substring(0, location.lastIndexOf('/') + 1) + "-1";
+		mockMvc.perform(patch(missing).contentType(mergePatch).content("{\"done\":false}"))
+				.andExpect(status().isNotFound());
+		mockMvc.perform(patch(missing).header(HttpHeaders.IF_MATCH, "*").contentType(mergePatch)
+				.content("{\"done\":false}")).andExpect(status().isPreconditionFailed());
+		mockMvc.perform(patch(location).header(HttpHeaders.IF_MATCH, eTag).contentType(mergePatch)
+				.content("{\"done\":false}")).andExpect(status().isPreconditionFailed());
+		assertEquals(lastSeq, todoChangeSequenceRepository.findById("merge-user").get().getLastSeq());
+	}
+
+	@Test
+	void todoListWithFieldsHoldsOnlyTheseFields() throws Exception {
+		create("fields-user", "Show my fields");
+
+		mockMvc.perform(get("/jpa/users/fields-user/todos").param("fields", "id,done")).andExpect(status().isOk())
+				.andExpect(SqlStatements.count(1)).andExpect(jsonPath("$[0].id").isNumber())
+				.andExpect(jsonPath("$[0].done").value(false)).andExpect(jsonPath("$[0].description").doesNotExist())
+				.andExpect(jsonPath("$[0].username").doesNotExist());
+		mockMvc.perform(get("/jpa/users/fields-user/todos").param("fields", "description"))
+				.andExpect(SqlStatements.count(0)).andExpect(jsonPath("$[0].description").value("Show my fields"));
+
+		// The summaries follow the changes like the full list
+		create("fields-user", "Show my fields again");
+		mockMvc.perform(get("/jpa/users/fields-user/todos").param("fields", "description"))
+				.andExpect(jsonPath("$.length()").value(2));
+
+		mockMvc.perform(get("/jpa/users/fields-user/todos").param("fields", "id,username"))
+				.andExpect(status().isBadRequest());
+	}
+
+	private String create(String username, String description) throws Exception {
+		return mockMvc.perform(post("/jpa/users/" + username + "/todos").contentType(MediaType.APPLICATION_JSON)
+				.content(String.format(TODO_JSON, description))).andExpect(status().isCreated()).andReturn()
+				.getResponse().getHeader(HttpHeaders.LOCATION);
+	}
+
+	private MockHttpServletResponse export(MockHttpServletRequestBuilder builder) throws Exception {
+		MvcResult result = mockMvc.perform(builder).andExpect(request().asyncStarted()).andReturn();
+		return mockMvc.perform(asyncDispatch(result)).andExpect(status().isOk()).andReturn().getResponse();
+	}
+
+	private static String batchOfCreates(int count) {
+		StringBuilder json = new StringBuilder("[");
+		for (int i = 0; i < count; i++) {
+			json.append(i == 0 ? "" : ",").append("{\"op\":\"CREATE\",\"todo\":").append(String.format(TODO_JSON, "Batch " + i))
+					.append('}');
+		}
+		return json.append(']').toString();
+	}
+
+	private static String awaitContent(MockHttpServletResponse response, String expected) throws Exception {
+		long deadline = System.currentTimeMillis() + 5000;
+		while (!response.getContentAsString().contains(expected) && System.currentTimeMillis() < deadline) {
+			Thread.sleep(10);
+		}
+		String content = response.getContentAsString();
+		assertTrue(content.contains(expected), content);
+		return content;
+	}
+
+}
@@ -0,0 +1,127 @@
+package com.kokabmedia.todo;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import javax.persistence.PersistenceException;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+
+import com.kokabmedia.metrics.SqlStatements;
+
+@SpringBootTest
+class TodoJpaServiceTests {
+
+	@Autowired
+	private TodoJpaService todoJpaService;
+
+	@Autowired
+	private TodoJpaRepository todoJpaRepository;
+
+	@Autowired
+	private TodoTombstoneCompactor todoTombstoneCompactor;
+
+	@Autowired
+	private TodoReadCache todoReadCache;
+
+	@Test
+	void returnsOnlyTheChangesSinceTheLastSync() throws Exception {
+		Todo first = todoJpaService.create("sync-user", new Todo(-1, null, "First", new Date(), false));
+		Todo second = todoJpaService.create("sync-user", new Todo(-1, null, "Second", new Date(), false));
+
+		TodoChanges initial = todoJpaService.changesSince("sync-user", 0, 100);
+		assertEquals(2, initial.getUpserts().size());
+		assertFalse(initial.isFullResync());
+
+		todoJpaService.update("sync-user", first.getId(), new Todo(-1, null, "First done", new Date(), true), null);
+		assertFalse(todoJpaService.update("other-user", first.getId(), new Todo(-1, null, "Not mine", new Date(), true),
+				null).isPresent());
+		assertFalse(todoJpaService.delete("other-user", second.getId()));
+		assertTrue(todoJpaService.delete("sync-user", second.getId()));
+		assertFalse(todoJpaService.delete("sync-user", second.getId()));
+
+		TodoChanges delta = todoJpaService.changesSince("sync-user", initial.getSeq(), 100);
+		assertEquals(1, delta.getUpserts().size());
+		assertEquals("First done", delta.getUpserts().get(0).getDescription());
+		assertEquals(List.of(second.getId()), delta.getDeletes());
+		assertTrue(delta.getSeq() > initial.getSeq());
+		assertFalse(todoJpaRepository.findByUsername("sync-user").stream()
+				.anyMatch(todo -> todo.getId().equals(second.getId())));
+
+		TodoChanges paged = todoJpaService.changesSince("sync-user", initial.getSeq(), 1);
+		assertTrue(paged.isHasMore());
+		assertEquals(1, todoJpaService.changesSince("sync-user", paged.getSeq(), 1).getDeletes().size());
+
+		assertEquals(3, SqlStatements.count(() -> todoJpaService.changesSince("sync-user", delta.getSeq(), 100)));
+		TodoChanges unchanged = todoJpaService.changesSince("sync-user", delta.getSeq(), 100);
+		assertTrue(unchanged.getUpserts().isEmpty() && unchanged.getDeletes().isEmpty());
+		assertEquals(delta.getSeq(), unchanged.getSeq());
+	}
+
+	@Test
+	void failedInsertOfTheChangeSequenceIsNotHidden() {
+		// Longer than the username column, the insert fails with another error than a duplicate key
+		String username = "u".repeat(300);
+		assertThrows(PersistenceException.class,
+				() -> todoJpaService.create(username, new Todo(-1, null, "Never stored", new Date(), false)));
+		assertTrue(todoJpaRepository.findByUsername(username).isEmpty());
+	}
+
+	@Test
+	void concurrentFirstChangesOfAUserAllSucceed() {
+		// The requests that lose the race for the insert of the sequence row ignore the duplicate key
+		List<CompletableFuture<Todo>> creates = IntStream.range(0, 8)
+				.mapToObj(i -> CompletableFuture.supplyAsync(() -> todoJpaService.create("race-user",
+						new Todo(-1, null, "Race " + i, new Date(), false))))
+				.collect(Collectors.toList());
+		creates.forEach(CompletableFuture::join);
+
+		assertEquals(8, todoJpaRepository.findByUsername("race-user").size());
+		assertEquals(8, todoJpaService.changesSince("race-user", 0, 100).getSeq());
+	}
+
+	@Test
+	void clientsBehindCompactedTombstonesGetAFullResync() {
+		Todo kept = todoJpaService.create("compact-user", new Todo(-1, null, "Kept", new Date(), false));
+		Todo removed = todoJpaService.create("compact-user", new Todo(-1, null, "Removed", new Date(), false));
+		long seenSeq = todoJpaService.changesSince("compact-user", 0, 100).getSeq();
+		todoJpaService.delete("compact-user", removed.getId());
+
+		assertTrue(todoTombstoneCompactor.compactBefore(new Date(System.currentTimeMillis() + 1000)) >= 1);
+		assertFalse(todoJpaRepository.existsById(removed.getId()));
+
+		TodoChanges changes = todoJpaService.changesSince("compact-user", seenSeq, 100);
+		assertTrue(changes.isFullResync());
+		assertEquals(List.of(kept.getId()), changes.getUpserts().stream().map(Todo::getId)
+				.collect(Collectors.toList()));
+
+		assertFalse(todoJpaService.changesSince("compact-user", changes.getSeq(), 100).isFullResync());
+	}
+
+	@Test
+	void cachedTodosCannotBeChangedByTheirReaders() {
+		Todo todo = todoJpaService.create("cache-user", new Todo(-1, null, "Cached", new Date(0), false));
+
+		Todo read = todoReadCache.findById(todo.getId()).get();
+		read.setDescription("Changed by a reader");
+		read.getTargetDate().setTime(1000);
+
+		Todo cached = todoReadCache.findById(todo.getId()).get();
+		assertEquals("Cached", cached.getDescription());
+		assertEquals(0, cached.getTargetDate().getTime());
+		assertEquals("Cached", todoJpaRepository.findById(todo.getId()).get().getDescription());
+		assertNotSame(todoReadCache.findById(todo.getId()).get(), todoReadCache.findById(todo.getId()).get());
+	}
+
+}
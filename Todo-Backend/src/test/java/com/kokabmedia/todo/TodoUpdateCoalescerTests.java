@@ -0,0 +1,233 @@
+package com.kokabmedia.todo;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.patch;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.context.TestConfiguration;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Primary;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.security.test.context.support.WithMockUser;
+import org.springframework.test.web.servlet.MockMvc;
+
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+
+@SpringBootTest
+@AutoConfigureMockMvc
+@WithMockUser
+class TodoUpdateCoalescerTests {
+
+	@Autowired
+	private MockMvc mockMvc;
+
+	@Autowired
+	private TodoUpdateCoalescer todoUpdateCoalescer;
+
+	@Autowired
+	private HoldingTodoJpaService todoJpaService;
+
+	@Autowired
+	private TodoJpaRepository todoJpaRepository;
+
+	@Autowired
+	private MeterRegistry meterRegistry;
+
+	@Test
+	void burstOfUpdatesIsWrittenOnce() throws Exception {
+		Todo todo = todoJpaService.create("burst-user", new Todo(0, null, "Toggle me", new Date(), false));
+		DistributionSummary burstSizes = meterRegistry.get("todo.update.burst.size").summary();
+		long writes = burstSizes.count();
+		double requests = burstSizes.totalAmount();
+
+		// The first update is held in its write while the other nine arrive
+		List<CompletableFuture<Todo>> updates = new ArrayList<>();
+		todoJpaService.hold();
+		try {
+			updates.add(update("burst-user", todo.getId(), description("Toggle me 1")));
+			todoJpaService.awaitHeld();
+			for (int i = 2; i <= 10; i++) {
+				updates.add(update("burst-user", todo.getId(), description("Toggle me " + i)));
+			}
+			awaitWaiting("burst-user", todo.getId(), 9);
+		} finally {
+			todoJpaService.release();
+		}
+		for (CompletableFuture<Todo> update : updates) {
+			assertTrue(update.get(10, TimeUnit.SECONDS).getDescription().startsWith("Toggle me "));
+		}
+
+		// Ten requests, written by the first one and once more for the rest
+		assertEquals(10, burstSizes.totalAmount() - requests);
+		assertEquals(2, burstSizes.count() - writes);
+		Todo stored = todoJpaRepository.findById(todo.getId()).get();
+		assertTrue(stored.getDescription().startsWith("Toggle me "));
+		assertEquals(todo.getVersion() + 2, stored.getVersion());
+	}
+
+	@Test
+	void toggledBackTodoIsNotWritten() throws Exception {
+		Todo todo = todoJpaService.create("burst-user", new Todo(0, null, "Toggle me back", new Date(), false));
+
+		// Both toggles arrive while an update that changes nothing is being written
+		List<CompletableFuture<Todo>> toggles = new ArrayList<>();
+		todoJpaService.hold();
+		try {
+			toggles.add(update("burst-user", todo.getId(), description("Toggle me back")));
+			todoJpaService.awaitHeld();
+			toggles.add(update("burst-user", todo.getId(), done(true)));
+			toggles.add(update("burst-user", todo.getId(), done(false)));
+			awaitWaiting("burst-user", todo.getId(), 2);
+		} finally {
+			todoJpaService.release();
+		}
+		for (CompletableFuture<Todo> toggle : toggles) {
+			toggle.get(10, TimeUnit.SECONDS);
+		}
+
+		Todo stored = todoJpaRepository.findById(todo.getId()).get();
+		assertFalse(stored.isDone());
+		assertEquals(todo.getVersion(), stored.getVersion());
+	}
+
+	@Test
+	void failedWriteReleasesTheWaitingUpdates() throws Exception {
+		Todo todo = todoJpaService.create("burst-user", new Todo(0, null, "Fail me", new Date(), false));
+
+		CompletableFuture<Todo> failing;
+		CompletableFuture<Todo> waiting;
+		todoJpaService.hold();
+		try {
+			failing = update("burst-user", todo.getId(), description(HoldingTodoJpaService.FAILING_DESCRIPTION));
+			todoJpaService.awaitHeld();
+			waiting = update("burst-user", todo.getId(), done(true));
+			awaitWaiting("burst-user", todo.getId(), 1);
+		} finally {
+			todoJpaService.release();
+		}
+
+		// The Error of the first write fails its request, the waiting update writes on its own
+		ExecutionException failure = assertThrows(ExecutionException.class, () -> failing.get(10, TimeUnit.SECONDS));
+		assertTrue(failure.getCause() instanceof AssertionError);
+		assertTrue(waiting.get(10, TimeUnit.SECONDS).isDone());
+		assertEquals(0, todoUpdateCoalescer.getWaitingCount("burst-user", todo.getId()));
+	}
+
+	@Test
+	void patchChangesOnlyTheFieldsItContains() throws Exception {
+		Todo todo = todoJpaService.create("patch-user", new Todo(0, null, "Patch me", new Date(), false));
+		String url = "/jpa/users/patch-user/todos/" + todo.getId();
+
+		String eTag = mockMvc.perform(patch(url).contentType(MediaType.APPLICATION_JSON).content("{\"done\":true}"))
+				.andExpect(status().isOk()).andExpect(jsonPath("$.description").value("Patch me"))
+				.andExpect(jsonPath("$.done").value(true)).andReturn().getResponse().getHeader(HttpHeaders.ETAG);
+
+		mockMvc.perform(patch(url).header(HttpHeaders.IF_MATCH, eTag).contentType(MediaType.APPLICATION_JSON)
+				.content("{\"description\":\"Patched\"}")).andExpect(status().isOk())
+				.andExpect(jsonPath("$.description").value("Patched")).andExpect(jsonPath("$.done").value(true))
+				.andExpect(header().exists(HttpHeaders.ETAG));
+
+		mockMvc.perform(patch(url).header(HttpHeaders.IF_MATCH, eTag).contentType(MediaType.APPLICATION_JSON)
+				.content("{\"done\":false}")).andExpect(status().isPreconditionFailed());
+
+		mockMvc.perform(patch("/jpa/users/patch-user/todos/-1").contentType(MediaType.APPLICATION_JSON)
+				.content("{\"done\":false}")).andExpect(status().isNotFound());
+	}
+
+	private CompletableFuture<Todo> update(String username, long id, TodoPatch patch) {
+		return CompletableFuture.supplyAsync(() -> todoUpdateCoalescer.update(username, id, patch).get());
+	}
+
+	private void awaitWaiting(String username, long id, int count) throws InterruptedException {
+		long deadline = System.currentTimeMillis() + 10000;
+		while (todoUpdateCoalescer.getWaitingCount(username, id) < count && System.currentTimeMillis() < deadline) {
+			Thread.sleep(5);
+		}
+		assertEquals(count, todoUpdateCoalescer.getWaitingCount(username, id));
+	}
+
+	private static TodoPatch description(String description) {
+		TodoPatch patch = new TodoPatch();
+		patch.setDescription(description);
+		return patch;
+	}
+
+	private static TodoPatch done(boolean done) {
+		TodoPatch patch = new TodoPatch();
+		patch.setDone(done);
+		return patch;
+	}
+
+	/*
+	 * Holds the writes of the coalescer while the test lets more updates arrive, a patch
+	 * with FAILING_DESCRIPTION fails with an Error.
+	 */
+	static class HoldingTodoJpaService extends TodoJpaService {
+
+		static final String FAILING_DESCRIPTION = "Fail with an error";
+
+		private volatile CountDownLatch released = new CountDownLatch(0);
+		private final Semaphore held = new Semaphore(0);
+
+		public void hold() {
+			held.drainPermits();
+			released = new CountDownLatch(1);
+		}
+
+		public void release() {
+			released.countDown();
+		}
+
+		public void awaitHeld() throws InterruptedException {
+			assertTrue(held.tryAcquire(10, TimeUnit.SECONDS));
+		}
+
+		@Override
+		public Optional<Todo> patch(String username, long id, TodoPatch patch, Long expectedVersion) {
+			held.release();
+			try {
+				released.await();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			if (FAILING_DESCRIPTION.equals(patch.getDescription())) {
+				throw new AssertionError("The write failed");
+			}
+			return super.patch(username, id, patch, expectedVersion);
+		}
+
+	}
+
+	@TestConfiguration
+	static class HoldingTodoJpaServiceConfiguration {
+
+		@Bean
+		@Primary
+		HoldingTodoJpaService holdingTodoJpaService() {
+			return new HoldingTodoJpaService();
+		}
+
+	}
+
+}
@@ -0,0 +1,253 @@
+package com.kokabmedia.todo;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.springframework.security.test.web.servlet.request.SecurityMockMvcRequestPostProcessors.user;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.delete;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.put;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.context.TestConfiguration;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Primary;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.security.test.context.support.WithMockUser;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.request.MockHttpServletRequestBuilder;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+@SpringBootTest(properties = { "todo.write-behind.enabled=true", "todo.write-behind.capacity=3",
+		"todo.write-behind.flush-interval-ms=1000" })
+@AutoConfigureMockMvc
+@WithMockUser
+class TodoWriteBehindTests {
+
+	private static final String TODO_JSON = "{\"description\":\"%s\",\"targetDate\":\"2021-11-01T00:00:00.000+00:00\",\"done\":false}";
+
+	@Autowired
+	private MockMvc mockMvc;
+
+	@Autowired
+	private ObjectMapper objectMapper;
+
+	@Autowired
+	private TodoJpaRepository todoJpaRepository;
+
+	@Autowired
+	private PausableWriter writer;
+
+	@Test
+	void acceptedChangesAreReadableAtOnceAndWrittenTogether() throws Exception {
+		Map<?, ?> created = accept(post("/jpa/users/write-behind-user/todos"), "Write later");
+		long id = ((Number) created.get("todoId")).longValue();
+		assertEquals("PENDING", created.get("status"));
+
+		mockMvc.perform(get("/jpa/users/write-behind-user/todos/" + id)).andExpect(status().isOk())
+				.andExpect(jsonPath("$.description").value("Write later"));
+
+		// Coalesced with the pending create, the todo is inserted once with the last values
+		Map<?, ?> updated = accept(put("/jpa/users/write-behind-user/todos/" + id), "Write later, changed");
+		mockMvc.perform(get("/jpa/users/write-behind-user/todos")).andExpect(status().isOk())
+				.andExpect(jsonPath("$[?(@.id == " + id + ")].description").value("Write later, changed"));
+
+		assertEquals("WRITTEN", awaitTicket((String) created.get("ticket")).get("status"));
+		assertEquals("WRITTEN", awaitTicket((String) updated.get("ticket")).get("status"));
+		Todo written = todoJpaRepository.findById(id).get();
+		assertEquals("Write later, changed", written.getDescription());
+		assertEquals(0L, written.getVersion());
+	}
+
+	@Test
+	void fullQueueRejectsChangesWithRetryAfter() throws Exception {
+		List<String> tickets = new ArrayList<>();
+		writer.pause();
+		try {
+			for (int i = 0; i < 3; i++) {
+				tickets.add((String) accept(post("/jpa/users/write-behind-user/todos"), "Queued " + i).get("ticket"));
+			}
+
+			// The queued todos wait or are held by the paused writer, both count against the capacity
+			mockMvc.perform(post("/jpa/users/write-behind-user/todos").header("Prefer", "respond-async")
+					.contentType(MediaType.APPLICATION_JSON).content(String.format(TODO_JSON, "Rejected")))
+					.andExpect(status().isServiceUnavailable()).andExpect(header().string(HttpHeaders.RETRY_AFTER, "1"));
+		} finally {
+			writer.resume();
+		}
+
+		for (String ticket : tickets) {
+			assertEquals("WRITTEN", awaitTicket(ticket).get("status"));
+		}
+	}
+
+	@Test
+	void deleteOfATodoBeingWrittenWaitsForTheWrite() throws Exception {
+		CompletableFuture<Integer> deleted;
+		long id;
+		writer.pause();
+		try {
+			id = ((Number) accept(post("/jpa/users/write-behind-user/todos"), "Deleted while written").get("todoId"))
+					.longValue();
+			writer.awaitWriting();
+			deleted = CompletableFuture
+					.supplyAsync(() -> statusOf(delete("/jpa/users/write-behind-user/todos/" + id)));
+		} finally {
+			writer.resume();
+		}
+
+		assertEquals(204, deleted.get(10, TimeUnit.SECONDS));
+		assertTrue(todoJpaRepository.findById(id).get().isDeleted());
+		mockMvc.perform(get("/jpa/users/write-behind-user/todos/" + id)).andExpect(status().isNotFound());
+	}
+
+	@Test
+	void synchronousUpdateWaitsForTheQueuedUpdate() throws Exception {
+		String location = mockMvc.perform(post("/jpa/users/write-behind-user/todos")
+				.contentType(MediaType.APPLICATION_JSON).content(String.format(TODO_JSON, "Stored")))
+				.andExpect(status().isCreated()).andReturn().getResponse().getHeader(HttpHeaders.LOCATION);
+
+		String ticket;
+		CompletableFuture<Integer> updated;
+		writer.pause();
+		try {
+			ticket = (String) accept(put(location), "Written later").get("ticket");
+			updated = CompletableFuture.supplyAsync(() -> statusOf(put(location)
+					.contentType(MediaType.APPLICATION_JSON).content(String.format(TODO_JSON, "Changed right away"))));
+			assertThrows(TimeoutException.class, () -> updated.get(200, TimeUnit.MILLISECONDS));
+		} finally {
+			writer.resume();
+		}
+
+		assertEquals(200, updated.get(10, TimeUnit.SECONDS));
+		assertEquals("WRITTEN", awaitTicket(ticket).get("status"));
+		mockMvc.perform(get(location)).andExpect(jsonPath("$.description").value("Changed right away"));
+
+		// A todo that only exists as a pending create is written before it is updated
+		long id = ((Number) accept(post("/jpa/users/write-behind-user/todos"), "Created later").get("todoId"))
+				.longValue();
+		mockMvc.perform(put("/jpa/users/write-behind-user/todos/" + id).contentType(MediaType.APPLICATION_JSON)
+				.content(String.format(TODO_JSON, "Updated at once"))).andExpect(status().isOk());
+		assertEquals("Updated at once", todoJpaRepository.findById(id).get().getDescription());
+	}
+
+	@Test
+	void queuedUpdateFailsWhenTheTodoChangedAfterItWasAccepted() throws Exception {
+		Todo stored = todoJpaRepository.save(new Todo(-1, "write-behind-user", "Stored", new Date(), false));
+		TodoPendingWrite write = new TodoPendingWrite(TodoPendingWrite.Type.UPDATE, TodoChangedEvent.copyOf(stored));
+		write.apply(new Todo(-1, null, "Written later", new Date(), false),
+				new TodoWriteTicket("write-behind-user", stored.getId()));
+
+		mockMvc.perform(put("/jpa/users/write-behind-user/todos/" + stored.getId())
+				.contentType(MediaType.APPLICATION_JSON).content(String.format(TODO_JSON, "Changed right away")))
+				.andExpect(status().isOk());
+		writer.write(Collections.singletonList(write));
+
+		assertEquals("CONFLICT", write.getError());
+		assertEquals("Changed right away", todoJpaRepository.findById(stored.getId()).get().getDescription());
+	}
+
+	@Test
+	void requestsWithoutPreferAreWrittenRightAway() throws Exception {
+		mockMvc.perform(post("/jpa/users/write-behind-user/todos").contentType(MediaType.APPLICATION_JSON)
+				.content(String.format(TODO_JSON, "Written now"))).andExpect(status().isCreated());
+	}
+
+	/*
+	 * The writer of the queue in this test, it waits while it is paused so the tests can
+	 * change the todos while their writes wait or are in flight.
+	 */
+	static class PausableWriter extends TodoWriteBehindWriter {
+
+		private volatile CountDownLatch resumed = new CountDownLatch(0);
+		private final Semaphore writing = new Semaphore(0);
+
+		public void pause() {
+			writing.drainPermits();
+			resumed = new CountDownLatch(1);
+		}
+
+		public void resume() {
+			resumed.countDown();
+		}
+
+		public void awaitWriting() throws InterruptedException {
+			assertTrue(writing.tryAcquire(10, TimeUnit.SECONDS));
+		}
+
+		@Override
+		public void write(List<TodoPendingWrite> writes) {
+			writing.release();
+			try {
+				resumed.await();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			super.write(writes);
+		}
+
+	}
+
+	@TestConfiguration
+	static class PausableWriterConfiguration {
+
+		@Bean
+		@Primary
+		PausableWriter pausableWriter() {
+			return new PausableWriter();
+		}
+
+	}
+
+	private Map<?, ?> accept(MockHttpServletRequestBuilder request, String description) throws Exception {
+		String body = mockMvc.perform(request.header("Prefer", "respond-async").contentType(MediaType.APPLICATION_JSON)
+				.content(String.format(TODO_JSON, description))).andExpect(status().isAccepted())
+				.andExpect(header().string("Preference-Applied", "respond-async"))
+				.andExpect(header().exists(HttpHeaders.LOCATION)).andReturn().getResponse().getContentAsString();
+		return objectMapper.readValue(body, Map.class);
+	}
+
+	// Performs the request on another thread, as the user of the todos of these tests
+	private int statusOf(MockHttpServletRequestBuilder request) {
+		try {
+			return mockMvc.perform(request.with(user("write-behind-user"))).andReturn().getResponse().getStatus();
+		} catch (Exception e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	private Map<?, ?> awaitTicket(String ticket) throws Exception {
+		long deadline = System.currentTimeMillis() + 10000;
+		while (true) {
+			String body = mockMvc.perform(get("/jpa/users/write-behind-user/todos/writes/" + ticket))
+					.andExpect(status().isOk()).andReturn().getResponse().getContentAsString();
+			Map<?, ?> state = objectMapper.readValue(body, Map.class);
+			if (!"PENDING".equals(state.get("status")) || System.currentTimeMillis() > deadline) {
+				assertTrue(!"PENDING".equals(state.get("status")), body);
+				return state;
+			}
+			Thread.sleep(50);
+		}
+	}
+
+}